@@ -0,0 +1,69 @@
+package com.casad.weatherwatcher;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.controller.RampController;
+
+/**
+ * A full site tick: weather fetch (from a fixture), snapshot, rule evaluation,
+ * actuation and, when the state changes, rendering the notification.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EngineTickBenchmark {
+
+	private WeatherSite unchangedSite;
+	private WeatherSite transitioningSite;
+	private WeatherResponse next;
+	private Blackhole blackhole;
+
+	@Setup
+	public void setUp(Blackhole bh) {
+		blackhole = bh;
+
+		// The common case, the weather is the same as last tick
+		unchangedSite = createSite(() -> WeatherFixtures.CLEAR_WARM);
+		unchangedSite.run();
+
+		// Every tick flips between warm and cold, changing state and notifying
+		next = WeatherFixtures.CLEAR_WARM;
+		transitioningSite = createSite(() -> {
+			next = next == WeatherFixtures.CLEAR_WARM ? WeatherFixtures.CLEAR_COLD : WeatherFixtures.CLEAR_WARM;
+			return next;
+		});
+	}
+
+	private WeatherSite createSite(WeatherService ws) {
+		RampController controller = new RampController(() -> {}, () -> {}, () -> {});
+		return new WeatherSite("bench", ws, controller, (subject, message) -> blackhole.consume(message));
+	}
+
+	@Benchmark
+	public WeatherSnapshot unchangedWeather() {
+		unchangedSite.run();
+		return unchangedSite.getLastSnapshot();
+	}
+
+	@Benchmark
+	public WeatherSnapshot transition() {
+		transitioningSite.run();
+		return transitioningSite.getLastSnapshot();
+	}
+}
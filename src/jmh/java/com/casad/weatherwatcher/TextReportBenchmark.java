@@ -0,0 +1,47 @@
+package com.casad.weatherwatcher;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering the human readable weather report sent with notifications.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TextReportBenchmark {
+
+	private WeatherSite site;
+	private WeatherSnapshot snow;
+	private WeatherSnapshot warm;
+
+	@Setup
+	public void setUp() {
+		site = new WeatherSite("bench");
+		snow = WeatherSnapshot.from(WeatherFixtures.SNOW_COLD);
+		warm = WeatherSnapshot.from(WeatherFixtures.CLEAR_WARM);
+	}
+
+	@Benchmark
+	public String snowReport() {
+		return site.getTextReport(snow);
+	}
+
+	@Benchmark
+	public String warmReport() {
+		return site.getTextReport(warm);
+	}
+}
@@ -0,0 +1,98 @@
+package com.casad.weatherwatcher;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.controller.RampController;
+
+/**
+ * Compares the scheduler pool against virtual threads for a fleet of sites
+ * behind a slow weather service and a slow notification channel. For each
+ * mode this prints the peak number of platform threads (the carrier threads
+ * when running on virtual threads) and how late ticks completed relative to
+ * when they were due.
+ *
+ * This is not a JMH benchmark, it runs for a fixed time. Run it with 'gradle
+ * compareExecutionModes', on Java 21 or later to use real virtual threads.
+ */
+public class TickExecutionModeComparison {
+
+	private static final int SITES = 2_000;
+	private static final int SHARDS = 2;
+	private static final long PERIOD_MILLIS = 2_000;
+	private static final long RUN_MILLIS = 6_000;
+	private static final long UPSTREAM_LATENCY_MILLIS = 500;
+	private static final long NOTIFICATION_LATENCY_MILLIS = 1_000;
+
+	private static final WeatherResponse SNOW_COLD = TestWeatherEventEngine.createWeatherResponse("SNOW", 10, "Clear", "Clear", "Clear", "Clear");
+
+	public static void main(String[] args) throws Exception {
+		System.out.println("Java " + System.getProperty("java.version") + ", virtual threads supported: "
+				+ ExecutionMode.isVirtualThreadSupported());
+		System.out.println(run(ExecutionMode.SCHEDULER));
+		System.out.println(run(ExecutionMode.VIRTUAL_THREADS));
+	}
+
+	private static String run(ExecutionMode mode) throws Exception {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		MultiSiteWeatherEventEngine eng = new MultiSiteWeatherEventEngine(SHARDS);
+		eng.setPeriodLength(PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+		eng.setExecutionMode(mode);
+
+		final long periodNanos = TimeUnit.MILLISECONDS.toNanos(PERIOD_MILLIS);
+		final long[] latencies = new long[SITES * (int) (RUN_MILLIS / PERIOD_MILLIS + 1)];
+		final AtomicLong latencyCount = new AtomicLong();
+		final long[] startTime = new long[1];
+
+		for (int i = 0; i < SITES; i++) {
+			final long offset = MultiSiteWeatherEventEngine.tickOffset(i, periodNanos);
+			final int[] ticks = new int[1];
+			eng.register(new WeatherSite("site-" + i, () -> {
+				sleep(UPSTREAM_LATENCY_MILLIS);
+				long due = startTime[0] + offset + ticks[0]++ * periodNanos + TimeUnit.MILLISECONDS.toNanos(UPSTREAM_LATENCY_MILLIS);
+				int index = (int) latencyCount.getAndIncrement();
+				if (index < latencies.length) {
+					latencies[index] = System.nanoTime() - due;
+				}
+				return SNOW_COLD;
+			}, new RampController(() -> {}, () -> {}, () -> {}),
+					(subject, message) -> sleep(NOTIFICATION_LATENCY_MILLIS)));
+		}
+
+		int baselineThreads = threads.getThreadCount();
+		threads.resetPeakThreadCount();
+		startTime[0] = System.nanoTime();
+		eng.start();
+		Thread.sleep(RUN_MILLIS);
+		eng.shutdown();
+
+		int completed = (int) Math.min(latencyCount.get(), latencies.length);
+		long[] sorted = Arrays.copyOf(latencies, completed);
+		Arrays.sort(sorted);
+
+		return String.format("%-16s ticks=%d/%d peakThreads=%d (+%d) latency p50=%dms p99=%dms max=%dms", mode,
+				completed, SITES * (RUN_MILLIS / PERIOD_MILLIS), threads.getPeakThreadCount(),
+				threads.getPeakThreadCount() - baselineThreads, percentileMillis(sorted, 0.50),
+				percentileMillis(sorted, 0.99), percentileMillis(sorted, 1.0));
+	}
+
+	private static long percentileMillis(long[] sorted, double percentile) {
+		if (sorted.length == 0) {
+			return -1;
+		}
+		int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+		return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
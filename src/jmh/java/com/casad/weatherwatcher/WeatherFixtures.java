@@ -0,0 +1,19 @@
+package com.casad.weatherwatcher;
+
+import static com.casad.weatherwatcher.TestWeatherEventEngine.createWeatherResponse;
+
+import com.amphibian.weather.response.WeatherResponse;
+
+/**
+ * Canned weather responses for the benchmarks, built the same way as the
+ * tests build theirs.
+ */
+public final class WeatherFixtures {
+
+	public static final WeatherResponse CLEAR_WARM = createWeatherResponse("Clear", 72, "Clear", "Partly Cloudy", "Clear", "Clear");
+	public static final WeatherResponse CLEAR_COLD = createWeatherResponse("Clear", 10, "Clear", "Overcast", "Clear", "Clear");
+	public static final WeatherResponse SNOW_COLD = createWeatherResponse("Light Snow", 25, "Snow", "Snow Showers", "Overcast", "Clear");
+
+	private WeatherFixtures() {
+	}
+}
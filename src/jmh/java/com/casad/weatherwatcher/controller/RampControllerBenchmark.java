@@ -0,0 +1,89 @@
+package com.casad.weatherwatcher.controller;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.casad.weatherwatcher.controller.RampController.RampState;
+
+/**
+ * The cost of a ramp state change, and of setting the state it is already in.
+ * The contended benchmarks have four threads changing one ramp, as the engine
+ * tick and manual overrides would, with a lock around the whole change as the
+ * baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RampControllerBenchmark {
+
+	private RampController controller;
+	private int actuations;
+
+	@Setup
+	public void setUp() {
+		controller = new RampController(() -> actuations++, () -> actuations++, () -> actuations++);
+	}
+
+	@Benchmark
+	public RampState transition() {
+		controller.setState(controller.getState() == RampState.READY ? RampState.ACTIVE : RampState.READY);
+		return controller.getState();
+	}
+
+	@Benchmark
+	public RampState unchanged() {
+		controller.setState(RampState.IDLE);
+		return controller.getState();
+	}
+
+	@State(Scope.Benchmark)
+	public static class Shared {
+		RampController controller;
+		long actuations;
+
+		@Setup
+		public void setUp() {
+			controller = new RampController(() -> actuations++, () -> actuations++, () -> actuations++);
+		}
+	}
+
+	@Benchmark
+	@Threads(4)
+	public RampState contendedSetState(Shared shared) {
+		RampController controller = shared.controller;
+		controller.setState(controller.getState() == RampState.READY ? RampState.ACTIVE : RampState.READY);
+		return controller.getState();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public boolean contendedTransition(Shared shared) {
+		RampController controller = shared.controller;
+		RampState seen = controller.getState();
+		return controller.transition(seen, seen == RampState.READY ? RampState.ACTIVE : RampState.READY);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public RampState contendedLocked(Shared shared) {
+		RampController controller = shared.controller;
+		synchronized (shared) {
+			controller.setState(controller.getState() == RampState.READY ? RampState.ACTIVE : RampState.READY);
+			return controller.getState();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.casad.weatherwatcher.controller;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Switching a fleet of simulated ramps from several threads, each ramp's two
+ * relays in one write, against switching them one relay at a time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RelayBankBenchmark {
+	private static final long[] RAMP_STATES = { 0b00, 0b01, 0b11 };
+
+	@Param({ "4096" })
+	public int relays;
+
+	private SimulatedRelayBank bank;
+
+	@State(Scope.Thread)
+	public static class Ramp {
+		int next;
+	}
+
+	@Setup
+	public void setUp() {
+		bank = new SimulatedRelayBank(relays);
+	}
+
+	@Benchmark
+	public void batched(Ramp ramp) {
+		int i = ramp.next++;
+		int relay = (i * 2 * 31) % relays;
+		bank.write(relay, 0b11, RAMP_STATES[i % 3]);
+	}
+
+	@Benchmark
+	public void perRelay(Ramp ramp) {
+		int i = ramp.next++;
+		int relay = (i * 2 * 31) % relays;
+		long state = RAMP_STATES[i % 3];
+		bank.set(relay, (state & 1) != 0);
+		bank.set(relay + 1, (state & 2) != 0);
+	}
+}
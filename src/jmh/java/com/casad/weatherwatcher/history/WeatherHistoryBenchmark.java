@@ -0,0 +1,106 @@
+package com.casad.weatherwatcher.history;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.casad.weatherwatcher.ConditionCodes;
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+
+/**
+ * Querying a season of hourly observations out of the weather history, for
+ * one site and for every site.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WeatherHistoryBenchmark {
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+	private static final int DAYS = 180;
+
+	@Param({ "1000" })
+	public int sites;
+
+	private Path directory;
+	private WeatherHistory history;
+	private int nextSite = 0;
+	private int snow;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("weather-history");
+		history = WeatherHistory.open(directory);
+
+		WeatherSnapshot snowing = new WeatherSnapshot(25, ConditionCodes.codeOf("Snow"), 0, 0, 0);
+		WeatherSnapshot clear = new WeatherSnapshot(45, ConditionCodes.codeOf("Clear"), 0, 0, 0);
+		// Four polls a day
+		for (long time = 0; time < DAYS * 24 * HOUR; time += 6 * HOUR) {
+			for (int site = 0; site < sites; site++) {
+				history.record("site-" + site, time, (time / HOUR + site) % 5 == 0 ? snowing : clear, RampState.IDLE);
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		history.close();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	/**
+	 * Ninety days of one site, found through the per-site index.
+	 */
+	@Benchmark
+	public int siteSeason() {
+		String site = "site-" + (nextSite++ % sites);
+		return history.query(site, 30 * 24 * HOUR, 120 * 24 * HOUR, this::count);
+	}
+
+	/**
+	 * Ninety days of every site, one site at a time through the per-site index.
+	 */
+	@Benchmark
+	public int everySiteSeason() {
+		int rows = 0;
+		for (int site = 0; site < sites; site++) {
+			rows += history.query("site-" + site, 30 * 24 * HOUR, 120 * 24 * HOUR, this::count);
+		}
+		return rows;
+	}
+
+	/**
+	 * Ninety days of every site.
+	 */
+	@Benchmark
+	public int allSitesSeason() {
+		return history.query(30 * 24 * HOUR, 120 * 24 * HOUR, this::count);
+	}
+
+	private void count(Observation observation) {
+		if (ConditionCodes.isFallingSnow(observation.getCurrentCode())) {
+			snow++;
+		}
+	}
+}
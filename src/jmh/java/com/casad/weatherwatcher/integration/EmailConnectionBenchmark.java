@@ -0,0 +1,54 @@
+package com.casad.weatherwatcher.integration;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Messages per second sent to the SMTP stand in, with a new connection per
+ * message against one reused connection.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmailConnectionBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean persistent;
+
+	private SmtpStandIn smtp;
+	private EmailConnection email;
+
+	@Setup
+	public void setUp() throws IOException {
+		smtp = new SmtpStandIn(20);
+		email = new EmailConnection(smtp.getProperties(), "ramp@example.com", "secret", "owner@example.com");
+		email.setPersistentConnection(persistent);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		email.close();
+		smtp.close();
+	}
+
+	@Benchmark
+	public void sendMessage() {
+		email.sendMessage("Subject", "Body");
+	}
+}
@@ -0,0 +1,70 @@
+package com.casad.weatherwatcher.integration;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the JSON payload for an IFTTT trigger. The gc.alloc.rate.norm
+ * result is the bytes allocated per trigger.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JMakerPayloadBenchmark {
+
+	private JMaker jMaker;
+	private List<String> values;
+
+	@Setup
+	public void setUp() {
+		jMaker = new JMaker("GarageStatusUpdate", "key");
+		values = Arrays.asList("Ramp activating - snow is incoming!", "", "");
+	}
+
+	/**
+	 * The payload as it is sent, written into a reused buffer.
+	 */
+	@Benchmark
+	public HttpEntity entity() {
+		return jMaker.createEntity(values);
+	}
+
+	/**
+	 * The payload as it was built before the streaming writer, by string
+	 * concatenation and then encoding to a StringEntity.
+	 */
+	@Benchmark
+	public HttpEntity concatenatedEntity() {
+		String json = "{";
+		for (int i = 0; i < 3; i++) {
+			if (values.size() > i) {
+				json += "\"value" + (i + 1) + "\":\"" + values.get(i) + "\"";
+				if (i != 2) {
+					json += ",";
+				}
+			} else {
+				break;
+			}
+		}
+		json += "}";
+		return new StringEntity(json, ContentType.APPLICATION_JSON);
+	}
+}
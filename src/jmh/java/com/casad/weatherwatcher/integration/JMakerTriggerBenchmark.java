@@ -0,0 +1,94 @@
+package com.casad.weatherwatcher.integration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A regional snow event, many sites triggering IFTTT at once against a local
+ * endpoint that takes 20ms to respond. The time is for every trigger to be
+ * delivered.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JMakerTriggerBenchmark {
+
+	@Param({ "1000" })
+	public int triggers;
+
+	private HttpServer server;
+	private ExecutorService handlers;
+	private JMaker jMaker;
+
+	@Setup
+	public void setUp() throws IOException {
+		handlers = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 100);
+		server.setExecutor(handlers);
+		server.createContext("/", exchange -> {
+			byte[] buffer = new byte[1024];
+			try (InputStream in = exchange.getRequestBody()) {
+				while (in.read(buffer) != -1) {
+					// Discard the payload
+				}
+			}
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			byte[] response = "Congratulations!".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, response.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(response);
+			}
+		});
+		server.start();
+
+		jMaker = new JMaker("GarageStatusUpdate", "key");
+		jMaker.setBaseUrl("http://127.0.0.1:" + server.getAddress().getPort());
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.stop(0);
+		handlers.shutdownNow();
+	}
+
+	@Benchmark
+	public void regionalSnowEvent() throws Exception {
+		CompletableFuture<?>[] results = new CompletableFuture<?>[triggers];
+		for (int i = 0; i < triggers; i++) {
+			results[i] = jMaker.triggerAsync(Arrays.asList("site " + i));
+		}
+		CompletableFuture.allOf(results).get(30, TimeUnit.SECONDS);
+	}
+}
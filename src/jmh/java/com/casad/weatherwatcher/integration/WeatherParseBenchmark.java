@@ -0,0 +1,206 @@
+package com.casad.weatherwatcher.integration;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amphibian.weather.response.Conditions;
+import com.amphibian.weather.response.Forecast;
+import com.amphibian.weather.response.ForecastDay;
+import com.amphibian.weather.response.ForecastWrapper;
+import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Reading a recorded Wunderground conditions and forecast response, by
+ * streaming out only the fields the engine uses and by binding the whole
+ * response first. The gc.alloc.rate.norm result is the bytes allocated per
+ * response.
+ *
+ * The parse benchmarks read the payload from memory. The query benchmarks
+ * fetch it from a local stand-in for the API over HTTP, so they include what
+ * the connection costs as well.
+ *
+ * The library's binding cannot be pointed at the stand-in, so the full
+ * binding is represented by reading every field of the response into maps
+ * and lists, as a data binder does, then filling in a WeatherResponse from
+ * them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WeatherParseBenchmark {
+
+	static {
+		// Otherwise the stand-in's header and body writes wait on a delayed
+		// ACK, and every query takes 40ms
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	@Param({ "snow", "clear" })
+	private String payload;
+
+	private byte[] body;
+	private ByteArrayInputStream in;
+	private HttpServer standIn;
+	private StreamingWundergroundWeatherService streaming;
+	private URL url;
+	private final JsonReader reader = new JsonReader();
+	private WeatherSnapshot previous;
+
+	@Setup
+	public void setUp() throws IOException {
+		body = load("/wunderground/conditions-forecast-" + payload + ".json");
+		in = new ByteArrayInputStream(body);
+
+		standIn = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 50);
+		standIn.createContext("/", exchange -> {
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		standIn.start();
+
+		String baseUrl = "http://127.0.0.1:" + standIn.getAddress().getPort() + "/api/";
+		streaming = new StreamingWundergroundWeatherService("key");
+		streaming.setBaseUrl(baseUrl);
+		url = new URL(baseUrl + "key/conditions/forecast/q/55401.json");
+	}
+
+	@TearDown
+	public void tearDown() {
+		standIn.stop(0);
+	}
+
+	private static byte[] load(String resource) throws IOException {
+		try (InputStream stream = WeatherParseBenchmark.class.getResourceAsStream(resource)) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] chunk = new byte[4096];
+			int n;
+			while ((n = stream.read(chunk)) > 0) {
+				out.write(chunk, 0, n);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	@Benchmark
+	public WeatherSnapshot streamingParse() throws IOException {
+		in.reset();
+		previous = streaming.parse(in, previous);
+		return previous;
+	}
+
+	@Benchmark
+	public WeatherSnapshot fullBindingParse() throws IOException {
+		in.reset();
+		previous = WeatherSnapshot.from(bind(in), previous);
+		return previous;
+	}
+
+	@Benchmark
+	public WeatherSnapshot streamingQuery() {
+		previous = streaming.getSnapshot("55401", previous);
+		return previous;
+	}
+
+	@Benchmark
+	public WeatherSnapshot fullBindingQuery() throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		try (InputStream stream = connection.getInputStream()) {
+			previous = WeatherSnapshot.from(bind(stream), previous);
+		}
+		return previous;
+	}
+
+	@SuppressWarnings("unchecked")
+	private WeatherResponse bind(InputStream stream) throws IOException {
+		Map<String, Object> root = (Map<String, Object>) readTree(reader.reset(stream));
+		Map<String, Object> observation = (Map<String, Object>) root.get("current_observation");
+		Map<String, Object> forecast = (Map<String, Object>) root.get("forecast");
+		Map<String, Object> simple = (Map<String, Object>) forecast.get("simpleforecast");
+
+		Conditions conditions = new Conditions();
+		conditions.setWeather((String) observation.get("weather"));
+		conditions.setTempF(((Double) observation.get("temp_f")).floatValue());
+		conditions.setTempC(((Double) observation.get("temp_c")).floatValue());
+
+		List<ForecastDay> days = new ArrayList<>();
+		for (Object day : (List<Object>) simple.get("forecastday")) {
+			ForecastDay forecastDay = new ForecastDay();
+			forecastDay.setConditions((String) ((Map<String, Object>) day).get("conditions"));
+			days.add(forecastDay);
+		}
+		Forecast simpleForecast = new Forecast();
+		simpleForecast.setDays(days);
+		ForecastWrapper forecasts = new ForecastWrapper();
+		forecasts.setSimpleForecast(simpleForecast);
+
+		WeatherResponse response = new WeatherResponse();
+		response.setConditions(conditions);
+		response.setForecasts(forecasts);
+		return response;
+	}
+
+	private static Object readTree(JsonReader reader) throws IOException {
+		switch (reader.peek()) {
+		case BEGIN_OBJECT:
+			Map<String, Object> object = new LinkedHashMap<>();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				reader.nextName();
+				String name = reader.getName();
+				object.put(name, readTree(reader));
+			}
+			reader.endObject();
+			return object;
+		case BEGIN_ARRAY:
+			List<Object> array = new ArrayList<>();
+			reader.beginArray();
+			while (reader.hasNext()) {
+				array.add(readTree(reader));
+			}
+			reader.endArray();
+			return array;
+		case NUMBER:
+			return reader.nextDouble();
+		case BOOLEAN:
+			return reader.nextBoolean();
+		case NULL:
+			reader.nextNull();
+			return null;
+		default:
+			return reader.nextString();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package com.casad.weatherwatcher.replay;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.casad.weatherwatcher.ConditionCodes;
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+import com.casad.weatherwatcher.history.WeatherHistory;
+import com.casad.weatherwatcher.rules.RuleSet;
+
+/**
+ * A sweep of 30 rule sets over a season of hourly weather for many sites, on
+ * different numbers of threads. The time per sweep should fall in proportion
+ * to the threads, up to the number of processors.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParameterSweepBenchmark {
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+	@Param({ "500" })
+	public int sites;
+
+	@Param({ "90" })
+	public int days;
+
+	@Param({ "1", "2", "4", "8" })
+	public int parallelism;
+
+	private Path directory;
+	private WeatherHistory history;
+	private ParameterSweep sweep;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("sweep-history");
+		history = WeatherHistory.open(directory);
+
+		int clear = ConditionCodes.codeOf("Partly Cloudy");
+		int snow = ConditionCodes.codeOf("Light Snow");
+		for (int hour = 0; hour < days * 24; hour++) {
+			for (int site = 0; site < sites; site++) {
+				float temp = 15 + (hour * 7 + site * 13) % 35;
+				int current = (hour / 24 + site) % 8 == 0 && hour % 24 < 6 ? snow : clear;
+				history.record("site-" + site, hour * HOUR, new WeatherSnapshot(temp, current, clear, clear, clear),
+						RampState.IDLE);
+			}
+		}
+
+		sweep = new ParameterSweep();
+		sweep.addGrid(new RuleSet(), new float[] { 28, 32, 35 }, new float[] { 38, 42 },
+				new long[] { 0, 2, 6, 12, 24 }, TimeUnit.HOURS);
+		sweep.setParallelism(parallelism);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		history.close();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public List<SweepResult> sweep() {
+		return sweep.run(history, 0, Long.MAX_VALUE);
+	}
+}
@@ -0,0 +1,62 @@
+package com.casad.weatherwatcher.replay;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.casad.weatherwatcher.rules.RuleSet;
+
+/**
+ * Replaying a season of hourly weather for one site on the virtual clock.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WeatherReplayBenchmark {
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+	private static final long START = Instant.parse("2016-12-01T00:00:00Z").toEpochMilli();
+
+	@Param({ "150" })
+	public int days;
+
+	private List<WeatherFixture> fixtures;
+	private WeatherReplay replay;
+
+	@Setup
+	public void setUp() {
+		fixtures = new ArrayList<>();
+		for (int hour = 0; hour < days * 24; hour++) {
+			long day = hour / 24;
+			float temp = 20 + (day * 7 + hour) % 30;
+			String current = day % 9 == 0 && hour % 24 < 6 ? "Heavy Snow" : "Partly Cloudy";
+			fixtures.add(new WeatherFixture(START + hour * HOUR,
+					WeatherFixture.createResponse(temp, current, "Clear", "Clear", "Clear")));
+		}
+
+		replay = new WeatherReplay();
+		RuleSet rules = new RuleSet();
+		rules.setDeactivationDelay(24 * HOUR);
+		replay.setRuleSet(rules);
+	}
+
+	@Benchmark
+	public ReplayResult season() {
+		return replay.run(fixtures);
+	}
+}
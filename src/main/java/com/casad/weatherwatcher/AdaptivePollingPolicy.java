@@ -0,0 +1,145 @@
+package com.casad.weatherwatcher;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.casad.weatherwatcher.controller.RampController.RampState;
+import com.casad.weatherwatcher.rules.DecisionTable;
+
+/**
+ * Chooses how long to wait before polling a site again based on how close its
+ * weather is to changing the ramp state.
+ * 
+ * Sites are polled at the minimum period while snow, by the site's snow
+ * keywords, is falling or forecast for any upcoming period, or while the
+ * temperature is within the margin of either ready threshold. During warm weather away from the thresholds the
+ * period doubles on each poll up to the maximum. Otherwise the engine's
+ * regular period is used.
+ * 
+ * The policy also counts how many polls were made against how many a fixed
+ * period would have made over the same time, and may be shared by all the
+ * sites of an engine.
+ */
+public class AdaptivePollingPolicy {
+	private final long minPeriodNanos;
+	private final long maxPeriodNanos;
+	private float thresholdMargin = 3;
+	private double backoffFactor = 2;
+
+	private final AtomicLong polls = new AtomicLong();
+	private final AtomicLong elapsedNanos = new AtomicLong();
+	private volatile long lastRegularPeriodNanos = 0;
+
+	public AdaptivePollingPolicy(long minPeriod, long maxPeriod, TimeUnit unit) {
+		if (minPeriod <= 0 || maxPeriod < minPeriod) {
+			throw new IllegalArgumentException("Invalid polling bounds: " + minPeriod + " to " + maxPeriod);
+		}
+		minPeriodNanos = unit.toNanos(minPeriod);
+		maxPeriodNanos = unit.toNanos(maxPeriod);
+	}
+
+	/**
+	 * @param degrees
+	 *            poll at the minimum period when the temperature is within
+	 *            this many degrees of a ready threshold
+	 */
+	public void setThresholdMargin(float degrees) {
+		thresholdMargin = degrees;
+	}
+
+	/**
+	 * @param factor
+	 *            how much to stretch the period by on each poll during
+	 *            sustained warm weather
+	 */
+	public void setBackoffFactor(double factor) {
+		if (factor < 1) {
+			throw new IllegalArgumentException("The backoff factor must be at least 1: " + factor);
+		}
+		backoffFactor = factor;
+	}
+
+	/**
+	 * Decide the delay before the next poll of the site.
+	 * 
+	 * @param previousDelayNanos
+	 *            the delay before the poll that just happened, the initial
+	 *            delay (usually 0) for the first poll
+	 * @param regularPeriodNanos
+	 *            the engine's configured period
+	 */
+	public long nextDelay(WeatherSite site, long previousDelayNanos, long regularPeriodNanos) {
+		long delay = chooseDelay(site, previousDelayNanos, clamp(regularPeriodNanos));
+
+		polls.incrementAndGet();
+		elapsedNanos.addAndGet(previousDelayNanos);
+		lastRegularPeriodNanos = regularPeriodNanos;
+
+		return delay;
+	}
+
+	private long chooseDelay(WeatherSite site, long previousDelayNanos, long regularPeriodNanos) {
+		WeatherSnapshot snapshot = site.getLastSnapshot();
+		if (snapshot == null) {
+			// No weather has been seen yet, don't back off until it has
+			return previousDelayNanos > 0 ? Math.min(previousDelayNanos, regularPeriodNanos) : regularPeriodNanos;
+		}
+
+		DecisionTable table = site.getDecisionTable();
+		float temp = snapshot.getTempF();
+		if (table.isSnowForecast(snapshot)
+				|| Math.abs(temp - table.getReadyActivateThreshold()) <= thresholdMargin
+				|| Math.abs(temp - table.getReadyDeactivateThreshold()) <= thresholdMargin) {
+			return minPeriodNanos;
+		}
+
+		if (table.band(temp) == DecisionTable.WARM && site.getRampController().getState() == RampState.IDLE) {
+			long base = Math.max(previousDelayNanos, regularPeriodNanos);
+			return clamp((long) Math.min(Long.MAX_VALUE, base * backoffFactor));
+		}
+
+		return regularPeriodNanos;
+	}
+
+	private long clamp(long nanos) {
+		return Math.max(minPeriodNanos, Math.min(maxPeriodNanos, nanos));
+	}
+
+	public long getMinPeriod(TimeUnit unit) {
+		return unit.convert(minPeriodNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public long getMaxPeriod(TimeUnit unit) {
+		return unit.convert(maxPeriodNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return the number of polls made so far
+	 */
+	public long getPollCount() {
+		return polls.get();
+	}
+
+	/**
+	 * @return the number of polls the regular fixed period would have made
+	 *         over the same time
+	 */
+	public long getFixedPeriodPollCount() {
+		long regular = lastRegularPeriodNanos;
+		return regular == 0 ? 0 : elapsedNanos.get() / regular;
+	}
+
+	/**
+	 * @return how many fewer polls were made than with the regular fixed
+	 *         period, negative if more were made
+	 */
+	public long getSavedPollCount() {
+		return getFixedPeriodPollCount() - getPollCount();
+	}
+
+	@Override
+	public String toString() {
+		return "AdaptivePollingPolicy [polls=" + getPollCount() + ", fixedPeriodPolls=" + getFixedPeriodPollCount()
+				+ ", saved=" + getSavedPollCount() + "]";
+	}
+}
@@ -0,0 +1,103 @@
+package com.casad.weatherwatcher;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ticks a site and then schedules its next tick after the delay chosen by an
+ * {@link AdaptivePollingPolicy}. The next tick is only scheduled once the
+ * current one has finished, so ticks of a site never overlap.
+ */
+class AdaptiveTick implements Runnable {
+	private static final Logger logger = LoggerFactory.getLogger(AdaptiveTick.class);
+
+	private final WeatherSite site;
+	private final AdaptivePollingPolicy policy;
+	private final ScheduledExecutorService scheduler;
+	private final Executor executor;
+	private final long regularPeriodNanos;
+
+	private long delayNanos;
+	private volatile ScheduledFuture<?> future = null;
+	private volatile boolean cancelled = false;
+
+	/**
+	 * @param executor
+	 *            where to run the tick, or null to run it on the scheduler
+	 */
+	AdaptiveTick(WeatherSite site, AdaptivePollingPolicy policy, ScheduledExecutorService scheduler,
+			Executor executor, long regularPeriodNanos) {
+		this.site = site;
+		this.policy = policy;
+		this.scheduler = scheduler;
+		this.executor = executor;
+		this.regularPeriodNanos = regularPeriodNanos;
+		this.delayNanos = regularPeriodNanos;
+	}
+
+	void start(long initialDelayNanos) {
+		delayNanos = initialDelayNanos;
+		schedule(initialDelayNanos);
+	}
+
+	boolean cancel() {
+		cancelled = true;
+		ScheduledFuture<?> current = future;
+		return current != null && current.cancel(false);
+	}
+
+	/**
+	 * @return how long until the next tick, or 0 if it is due or running
+	 */
+	long getDelayNanos() {
+		ScheduledFuture<?> current = future;
+		return current == null ? 0 : Math.max(0, current.getDelay(TimeUnit.NANOSECONDS));
+	}
+
+	@Override
+	public void run() {
+		if (executor == null) {
+			tick();
+			return;
+		}
+
+		try {
+			executor.execute(this::tick);
+		} catch (RejectedExecutionException e) {
+			logger.error(site.getSiteId() + ": Unable to dispatch tick", e);
+		}
+	}
+
+	private void tick() {
+		try {
+			site.run();
+		} finally {
+			long next = policy.nextDelay(site, delayNanos, regularPeriodNanos);
+			if (next != delayNanos) {
+				logger.info(site.getSiteId() + ": Next poll in " + TimeUnit.NANOSECONDS.toSeconds(next) + "s");
+			}
+			delayNanos = next;
+			schedule(next);
+		}
+	}
+
+	private void schedule(long delay) {
+		if (cancelled) {
+			return;
+		}
+
+		try {
+			future = scheduler.schedule(this, delay, TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			if (!scheduler.isShutdown()) {
+				logger.error(site.getSiteId() + ": Unable to schedule the next tick", e);
+			}
+		}
+	}
+}
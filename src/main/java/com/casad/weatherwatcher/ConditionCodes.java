@@ -0,0 +1,90 @@
+package com.casad.weatherwatcher;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary encoding of weather condition descriptions such as "Light Snow"
+ * or "Partly Cloudy". Each distinct description is given a small integer code
+ * the first time it is seen.
+ *
+ * Whether a site treats a code as snow depends on its rules, see
+ * {@link com.casad.weatherwatcher.rules.DecisionTable}. The only fixed
+ * reading kept here is {@link #isFallingSnow(int)}, worked out once when the
+ * code is assigned.
+ *
+ * Code 0 is reserved for a missing description.
+ */
+public final class ConditionCodes {
+
+	public static final int NONE = 0;
+
+	private static final Map<String, Integer> codes = new ConcurrentHashMap<>();
+	private static volatile String[] names = new String[] { null };
+	private static volatile boolean[] fallingSnow = new boolean[] { false };
+
+	private ConditionCodes() {
+	}
+
+	/**
+	 * @return the code for the condition description, assigning one if it has
+	 *         not been seen before
+	 */
+	public static int codeOf(String condition) {
+		if (condition == null) {
+			return NONE;
+		}
+
+		Integer code = codes.get(condition);
+		if (code != null) {
+			return code;
+		}
+
+		return register(condition);
+	}
+
+	private static synchronized int register(String condition) {
+		Integer existing = codes.get(condition);
+		if (existing != null) {
+			return existing;
+		}
+
+		int code = names.length;
+		String[] newNames = Arrays.copyOf(names, code + 1);
+		boolean[] newFallingSnow = Arrays.copyOf(fallingSnow, code + 1);
+		newNames[code] = condition;
+		newFallingSnow[code] = condition.toUpperCase().contains("SNOW");
+
+		// Publish the arrays before the code so readers never see a code
+		// they cannot look up
+		fallingSnow = newFallingSnow;
+		names = newNames;
+		codes.put(condition, code);
+		return code;
+	}
+
+	/**
+	 * @return the condition description for a code, or null for
+	 *         {@link #NONE}
+	 */
+	public static String nameOf(int code) {
+		return names[code];
+	}
+
+	/**
+	 * @return true if the description names snow. This is fixed whatever the
+	 *         rules, for use as ground truth such as when scoring rules
+	 *         against the weather history.
+	 */
+	public static boolean isFallingSnow(int code) {
+		return fallingSnow[code];
+	}
+
+	/**
+	 * @return the number of codes assigned so far, including {@link #NONE}
+	 */
+	public static int size() {
+		return names.length;
+	}
+}
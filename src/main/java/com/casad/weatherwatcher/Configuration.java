@@ -2,62 +2,400 @@ package com.casad.weatherwatcher;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.casad.weatherwatcher.notification.DropPolicy;
+import com.casad.weatherwatcher.rules.RuleSet;
+
+/**
+ * An immutable snapshot of the settings in ww.properties.
+ *
+ * {@link #getConfig()} returns the current snapshot. It is loaded from the
+ * file named by the "ww.config" system property, or ww.properties in the
+ * working directory, falling back to ww.properties on the classpath. A
+ * {@link ConfigurationWatcher} publishes a new snapshot whenever the file
+ * changes, so hold on to a snapshot only as long as it needs to stay
+ * consistent.
+ */
 public class Configuration {
 	private static final Logger logger = LoggerFactory.getLogger(Configuration.class);
 
 	private static final String SWIRL_PROPERTIES = "ww.properties";
-	private static Configuration instance = null;
-	private Properties prop = new Properties();
+	private static final AtomicReference<Configuration> current = new AtomicReference<>();
 
-	private Configuration(String propFileName) {
-		try (InputStream input = getClass().getClassLoader().getResourceAsStream(propFileName)) {
-			prop.load(input);
+	private final Map<String, String> prop;
 
-		} catch (IOException | NullPointerException e) {
-			logger.error("Unable to load the properties file.  Please check that '" + SWIRL_PROPERTIES + "' exists.", e);
+	public Configuration(Properties properties) {
+		Map<String, String> values = new HashMap<>();
+		for (String key : properties.stringPropertyNames()) {
+			values.put(key, properties.getProperty(key));
 		}
+		prop = Collections.unmodifiableMap(values);
 	}
 
 	public static Configuration getConfig() {
-		if (instance == null) {
-			instance = new Configuration(SWIRL_PROPERTIES);
+		Configuration config = current.get();
+		if (config == null) {
+			current.compareAndSet(null, loadDefault());
+			config = current.get();
 		}
 
-		return instance;
+		return config;
+	}
+
+	/**
+	 * Make the given configuration the one returned by {@link #getConfig()}.
+	 */
+	static void publish(Configuration config) {
+		current.set(config);
+	}
+
+	/**
+	 * @return the properties file on disk the configuration is read from
+	 */
+	public static Path getConfigPath() {
+		return Paths.get(System.getProperty("ww.config", SWIRL_PROPERTIES));
+	}
+
+	public static Configuration load(Path file) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream input = Files.newInputStream(file)) {
+			properties.load(input);
+		}
+		return new Configuration(properties);
+	}
+
+	private static Configuration loadDefault() {
+		Path file = getConfigPath();
+		if (Files.isRegularFile(file)) {
+			try {
+				return load(file);
+			} catch (IOException e) {
+				logger.error("Unable to load '" + file + "', trying the classpath", e);
+			}
+		}
+
+		Properties properties = new Properties();
+		try (InputStream input = Configuration.class.getClassLoader().getResourceAsStream(SWIRL_PROPERTIES)) {
+			properties.load(input);
+
+		} catch (IOException | NullPointerException e) {
+			logger.error("Unable to load the properties file.  Please check that '" + SWIRL_PROPERTIES + "' exists.", e);
+		}
+		return new Configuration(properties);
 	}
 
 	public String getWundergroundApiKey() {
-		return prop.getProperty("wunderground.apiKey");
+		return getProperty("wunderground.apiKey");
 	}
 	
 	public String getZipCode() {
-		return prop.getProperty("wunderground.zipCode");
+		return getProperty("wunderground.zipCode");
 	}
 
 	public String getIFTTTApiKey() {
-		return prop.getProperty("ifttt.apikey");
+		return getProperty("ifttt.apikey");
+	}
+
+	public int getIFTTTConnectTimeoutSeconds() {
+		return getInt("ifttt.connectTimeoutSeconds", 10);
+	}
+
+	public int getIFTTTReadTimeoutSeconds() {
+		return getInt("ifttt.readTimeoutSeconds", 30);
 	}
 
 	public String getTwitterAPIKey() {
-		return prop.getProperty("twitter.apikey");
+		return getProperty("twitter.apikey");
 	}
 	
 	public String getEmailUsername() {
-		return prop.getProperty("email.username");
+		return getProperty("email.username");
 	}
 	
 	public String getEmailPassword() {
-		return prop.getProperty("email.password");
+		return getProperty("email.password");
 	}
 	
 	public String getEmailTo() {
-		return prop.getProperty("email.notifyAddress");
+		return getProperty("email.notifyAddress");
+	}
+
+	/**
+	 * @return true if a single SMTP connection should be kept open and reused
+	 */
+	public boolean isEmailPersistent() {
+		return Boolean.parseBoolean(getProperty("email.persistent", "true").trim());
+	}
+
+	public int getEmailIdleTimeoutSeconds() {
+		return getInt("email.idleTimeoutSeconds", 60);
+	}
+
+	/**
+	 * @return how long to gather messages into a single digest email, 0 to
+	 *         send each message straight away
+	 */
+	public int getEmailDigestSeconds() {
+		return getInt("email.digestSeconds", 0);
+	}
+
+	/**
+	 * @return a second Wunderground key to hedge slow queries with, or an
+	 *         empty string to only use the one
+	 */
+	public String getWundergroundSecondaryApiKey() {
+		return getProperty("wunderground.secondaryApiKey", "").trim();
+	}
+
+	/**
+	 * @return true to stream Wunderground responses and read only the fields
+	 *         the rules use, rather than binding the whole response
+	 */
+	public boolean isStreamingWeather() {
+		return "streaming".equalsIgnoreCase(getProperty("wunderground.parser", "full").trim());
+	}
+
+	/**
+	 * @return the percentile of recent response times to wait for before
+	 *         hedging a query
+	 */
+	public int getWeatherHedgePercentile() {
+		return getInt("weather.hedge.percentile", 95);
+	}
+
+	public int getWeatherHedgeMinMillis() {
+		return getInt("weather.hedge.minMillis", 50);
+	}
+
+	public int getWeatherHedgeMaxMillis() {
+		return getInt("weather.hedge.maxMillis", 2000);
+	}
+
+	/**
+	 * @return how long to wait for a weather report before using the last
+	 *         good one
+	 */
+	public int getWeatherTimeoutSeconds() {
+		return getInt("weather.timeoutSeconds", 20);
+	}
+
+	/**
+	 * @return how many failed or slow weather queries in a row stop queries
+	 *         going upstream for a while
+	 */
+	public int getWeatherBreakerFailures() {
+		return getInt("weather.breaker.failures", 3);
+	}
+
+	public int getWeatherBreakerOpenSeconds() {
+		return getInt("weather.breaker.openSeconds", 300);
+	}
+
+	/**
+	 * @return the oldest a weather report can be and still be used when the
+	 *         weather service is failing
+	 */
+	public int getWeatherMaxStaleHours() {
+		return getInt("weather.maxStaleHours", 6);
+	}
+
+	/**
+	 * @return how long a weather report is shared between sites at the same
+	 *         location, or 0, the default, for no cache. A report is only
+	 *         reused within this time, so it only helps when it is longer
+	 *         than the gap between two sites' polls.
+	 */
+	public int getWeatherCacheTtlMinutes() {
+		return getInt("weather.cache.ttlMinutes", 0);
+	}
+
+	public int getWeatherCacheRefreshAheadMinutes() {
+		return getInt("weather.cache.refreshAheadMinutes", 1);
+	}
+
+	public int getWeatherCacheSize() {
+		return getInt("weather.cache.size", 1000);
+	}
+
+	/**
+	 * @return true to set up the relays, notifications and weather service in
+	 *         parallel and run the relay self test in the background
+	 */
+	public boolean isFastStart() {
+		return Boolean.parseBoolean(getProperty("startup.fast", "false").trim());
+	}
+
+	/**
+	 * @return true to switch relays that only exist in memory rather than the
+	 *         GPIO pins, for running without a Pi
+	 */
+	public boolean isSimulatedRelays() {
+		return "simulated".equalsIgnoreCase(getProperty("relays.backend", "pi4j").trim());
+	}
+
+	/**
+	 * @return true if the poll interval should adapt to the weather rather
+	 *         than being fixed
+	 */
+	public boolean isAdaptivePolling() {
+		return Boolean.parseBoolean(getProperty("poll.adaptive", "false").trim());
+	}
+
+	public int getPollMinMinutes() {
+		return getInt("poll.minMinutes", 10);
+	}
+
+	public int getPollMaxMinutes() {
+		return getInt("poll.maxMinutes", 240);
+	}
+
+	public int getNotifyQueueCapacity() {
+		return getInt("notify.queueCapacity", 100);
+	}
+
+	public int getNotifyEmailConcurrency() {
+		return getInt("notify.emailConcurrency", 2);
+	}
+
+	/**
+	 * @return how long to hold a site's notification in case the ramp changes
+	 *         state again, 0, the default, to send straight away
+	 */
+	public int getNotifyCoalesceSeconds() {
+		return getInt("notify.coalesceSeconds", 0);
+	}
+
+	/**
+	 * @return how long after a notification is sent an identical one for the
+	 *         same site is dropped, 0, the default, to send every one
+	 */
+	public int getNotifyDuplicateMinutes() {
+		return getInt("notify.duplicateMinutes", 0);
+	}
+
+	/**
+	 * @return what to do with a notification when a channel's queue is full,
+	 *         DROP_OLDEST unless "notify.dropPolicy" says otherwise
+	 */
+	public DropPolicy getNotifyDropPolicy() {
+		String value = getProperty("notify.dropPolicy");
+		if (value == null || "".equals(value.trim())) {
+			return DropPolicy.DROP_OLDEST;
+		}
+
+		try {
+			return DropPolicy.valueOf(value.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			logger.error("Invalid value for 'notify.dropPolicy': " + value + ", using " + DropPolicy.DROP_OLDEST);
+			return DropPolicy.DROP_OLDEST;
+		}
+	}
+
+	/**
+	 * @return the file the ramp state is journaled to, or an empty string to
+	 *         not keep a journal
+	 */
+	public String getStateJournalPath() {
+		return getProperty("state.journal", "weatherwatcher.journal").trim();
+	}
+
+	/**
+	 * @return the port to serve status and overrides on, 0 to not serve them
+	 */
+	public int getStatusPort() {
+		return getInt("status.port", 0);
+	}
+
+	/**
+	 * @return the address to serve status and overrides on, the loopback
+	 *         address by default so only this machine can reach them
+	 */
+	public String getStatusBindAddress() {
+		return getProperty("status.bindAddress", "127.0.0.1").trim();
+	}
+
+	/**
+	 * @return the directory the weather history is kept in, or an empty
+	 *         string, the default, to not keep a history
+	 */
+	public String getHistoryPath() {
+		return getProperty("history.path", "").trim();
+	}
+
+	/**
+	 * @return how many days of history go in each segment file, 0 to only
+	 *         start a new one when the last is full
+	 */
+	public int getHistorySegmentDays() {
+		return getInt("history.segmentDays", 7);
+	}
+
+	/**
+	 * @return how long to keep the weather history for, 0 to keep it forever
+	 */
+	public int getHistoryRetentionDays() {
+		return getInt("history.retentionDays", 400);
+	}
+
+	/**
+	 * The ramp rules for a site: the given defaults, overridden by any
+	 * "rules.*" properties and then by any "rules.&lt;siteId&gt;.*" properties.
+	 */
+	public RuleSet getRuleSet(String siteId, RuleSet defaults) {
+		Properties properties = new Properties();
+		properties.putAll(prop);
+		return new RuleSet(defaults).apply(properties, "rules.").apply(properties, "rules." + siteId + ".");
+	}
+
+	/**
+	 * @return the poll period when polling is not adaptive, or the regular
+	 *         period adaptive polling adjusts from
+	 */
+	public int getPollPeriodMinutes() {
+		return getInt("poll.periodMinutes", 60);
+	}
+
+	private String getProperty(String key) {
+		return prop.get(key);
+	}
+
+	private String getProperty(String key, String defaultValue) {
+		String value = prop.get(key);
+		return value == null ? defaultValue : value;
+	}
+
+	private int getInt(String key, int defaultValue) {
+		String value = getProperty(key);
+		if (value == null || "".equals(value.trim())) {
+			return defaultValue;
+		}
+
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			logger.error("Invalid value for '" + key + "': " + value + ", using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof Configuration && prop.equals(((Configuration) obj).prop);
+	}
+
+	@Override
+	public int hashCode() {
+		return prop.hashCode();
 	}
-	
-	
 }
@@ -0,0 +1,180 @@
+package com.casad.weatherwatcher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the properties file and publishes a new {@link Configuration}
+ * whenever it changes, so settings can be tuned without a restart.
+ *
+ * Reloading happens on the watcher's own thread. Listeners are called there
+ * with the new snapshot and should only swap in new settings, nothing on the
+ * polling path waits for a reload. A file that fails to load, or that any
+ * listener rejects, leaves the current configuration in place.
+ */
+public class ConfigurationWatcher implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(ConfigurationWatcher.class);
+
+	/** Editors often write a file in several steps, wait for them to finish */
+	private static final long SETTLE_MILLIS = 100;
+
+	private final Path file;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	private WatchService watchService = null;
+	private Thread thread = null;
+	private volatile long reloadCount = 0;
+
+	/**
+	 * Applies a reloaded configuration in two steps, so one that cannot be
+	 * applied is never published.
+	 */
+	public interface Listener {
+		/**
+		 * Build everything needed from the new configuration without applying
+		 * any of it. {@link Configuration#getConfig()} is still the previous
+		 * configuration at this point.
+		 *
+		 * @return applies what was built, run once every listener has
+		 *         accepted the configuration and it has been published
+		 * @throws RuntimeException
+		 *             to reject the configuration
+		 */
+		Runnable prepare(Configuration config);
+	}
+
+	public ConfigurationWatcher(Path file) {
+		this.file = file.toAbsolutePath();
+	}
+
+	/**
+	 * Call the listener with every configuration loaded after a change.
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public synchronized void start() throws IOException {
+		if (thread != null) {
+			return;
+		}
+
+		watchService = FileSystems.getDefault().newWatchService();
+		file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+
+		WatchService service = watchService;
+		thread = new Thread(() -> watch(service), "config-watcher");
+		thread.setDaemon(true);
+		thread.start();
+		logger.info("Watching " + file + " for changes");
+	}
+
+	private void watch(WatchService service) {
+		try {
+			while (true) {
+				WatchKey key = service.take();
+				boolean changed = changed(key);
+
+				// Collect anything else that arrives while the file settles
+				WatchKey more;
+				while ((more = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+					changed |= changed(more);
+				}
+
+				if (changed) {
+					reload();
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// Closed
+		}
+	}
+
+	private boolean changed(WatchKey key) {
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			Object context = event.context();
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW
+					|| (context instanceof Path && file.getFileName().equals(context))) {
+				changed = true;
+			}
+		}
+		key.reset();
+		return changed;
+	}
+
+	/**
+	 * Load the file and publish it if it differs from the current
+	 * configuration and every listener accepts it.
+	 *
+	 * @return true if a new configuration was published
+	 */
+	public boolean reload() {
+		Configuration config;
+		try {
+			config = Configuration.load(file);
+		} catch (IOException e) {
+			logger.error("Unable to reload " + file + ", keeping the current configuration", e);
+			return false;
+		}
+
+		if (config.equals(Configuration.getConfig())) {
+			return false;
+		}
+
+		List<Runnable> updates = new ArrayList<>();
+		for (Listener listener : listeners) {
+			try {
+				updates.add(listener.prepare(config));
+			} catch (RuntimeException e) {
+				logger.error("Rejected the reloaded " + file + ", keeping the current configuration", e);
+				return false;
+			}
+		}
+
+		Configuration.publish(config);
+		reloadCount++;
+		logger.info("Reloaded " + file);
+		for (Runnable update : updates) {
+			try {
+				update.run();
+			} catch (RuntimeException e) {
+				logger.error("Unable to apply the reloaded configuration", e);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return how many times a changed configuration has been published
+	 */
+	public long getReloadCount() {
+		return reloadCount;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (thread == null) {
+			return;
+		}
+
+		watchService.close();
+		thread.interrupt();
+		thread = null;
+	}
+}
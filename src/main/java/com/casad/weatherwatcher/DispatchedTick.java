@@ -0,0 +1,48 @@
+package com.casad.weatherwatcher;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands a site's tick off to another executor so that the scheduler thread
+ * is free as soon as the tick has been submitted. If the previous tick of the
+ * site is still running, the new one is skipped rather than queued so that a
+ * site is never ticked by two threads at once.
+ */
+class DispatchedTick implements Runnable {
+	private static final Logger logger = LoggerFactory.getLogger(DispatchedTick.class);
+
+	private final WeatherSite site;
+	private final Executor executor;
+	private final AtomicBoolean inFlight = new AtomicBoolean(false);
+
+	DispatchedTick(WeatherSite site, Executor executor) {
+		this.site = site;
+		this.executor = executor;
+	}
+
+	@Override
+	public void run() {
+		if (!inFlight.compareAndSet(false, true)) {
+			logger.warn(site.getSiteId() + ": Previous tick still running, skipping this one");
+			return;
+		}
+
+		try {
+			executor.execute(() -> {
+				try {
+					site.run();
+				} finally {
+					inFlight.set(false);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			inFlight.set(false);
+			logger.error(site.getSiteId() + ": Unable to dispatch tick", e);
+		}
+	}
+}
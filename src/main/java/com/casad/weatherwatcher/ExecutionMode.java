@@ -0,0 +1,69 @@
+package com.casad.weatherwatcher;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * How an engine runs the ticks of its sites.
+ */
+public enum ExecutionMode {
+	/**
+	 * Ticks run directly on the scheduler threads. A slow weather fetch or
+	 * notification holds up every other site on the same thread.
+	 */
+	SCHEDULER,
+
+	/**
+	 * The scheduler threads only hand each tick off to its own virtual
+	 * thread, and notifications are sent from their own virtual thread, so
+	 * blocking I/O does not tie up a platform thread. Virtual threads need
+	 * Java 21; on older runtimes a cached pool of platform threads is used
+	 * instead.
+	 */
+	VIRTUAL_THREADS;
+
+	private static final Logger logger = LoggerFactory.getLogger(ExecutionMode.class);
+
+	/**
+	 * @return true if the running JVM supports virtual threads
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return virtualThreadFactoryMethod() != null;
+	}
+
+	/**
+	 * Create an executor that starts a new virtual thread for each task.
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+		Method factory = virtualThreadFactoryMethod();
+		if (factory != null) {
+			try {
+				return (ExecutorService) factory.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				logger.warn("Unable to create a virtual thread executor, falling back to platform threads", e);
+			}
+		} else {
+			logger.warn("Virtual threads are not supported by this JVM, falling back to platform threads");
+		}
+
+		final AtomicInteger count = new AtomicInteger();
+		return Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, name + "-" + count.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	private static Method virtualThreadFactoryMethod() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.casad.weatherwatcher;
+
+import com.amphibian.weather.response.WeatherResponse;
+
+/**
+ * A source of weather reports for any location, such as a zip code.
+ */
+public interface LocationWeatherService {
+
+	WeatherResponse getWeatherReport(String location);
+
+	/**
+	 * @see WeatherService#getSnapshot(WeatherSnapshot)
+	 */
+	default WeatherSnapshot getSnapshot(String location, WeatherSnapshot previous) {
+		return WeatherSnapshot.from(getWeatherReport(location), previous);
+	}
+
+	/**
+	 * A {@link WeatherService} view of this service for a single location.
+	 */
+	default WeatherService forLocation(final String location) {
+		return new WeatherService() {
+			@Override
+			public WeatherResponse getWeatherReport() {
+				return LocationWeatherService.this.getWeatherReport(location);
+			}
+
+			@Override
+			public WeatherSnapshot getSnapshot(WeatherSnapshot previous) {
+				return LocationWeatherService.this.getSnapshot(location, previous);
+			}
+		};
+	}
+}
@@ -0,0 +1,318 @@
+package com.casad.weatherwatcher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.casad.weatherwatcher.history.WeatherHistory;
+import com.casad.weatherwatcher.state.StateJournal;
+
+/**
+ * Drives many {@link WeatherSite}s from a small, fixed set of scheduler
+ * shards. By default there is one shard per available core, so the number of
+ * threads does not grow with the number of sites.
+ *
+ * Sites are assigned to shards round-robin and their first tick is offset
+ * within the period using a golden ratio sequence. This spreads polls evenly
+ * across the period no matter how many sites are registered, rather than
+ * having every site hit the weather service at the same instant.
+ *
+ * Each site keeps its own state machine; a site is only ever ticked by the
+ * shard it was assigned to, or by one virtual thread at a time when running
+ * in {@link ExecutionMode#VIRTUAL_THREADS} mode.
+ */
+public class MultiSiteWeatherEventEngine {
+	private static final Logger logger = LoggerFactory.getLogger(MultiSiteWeatherEventEngine.class);
+
+	private static final double GOLDEN_RATIO_FRACTION = 0.6180339887498949;
+
+	private final ScheduledThreadPoolExecutor[] shards;
+	private final Map<String, Registration> sites = new ConcurrentHashMap<>();
+	private final Map<String, ScheduledFuture<?>> futures = new ConcurrentHashMap<>();
+	private final Map<String, AdaptiveTick> adaptiveTicks = new ConcurrentHashMap<>();
+	private final AtomicInteger registrationCount = new AtomicInteger();
+
+	private long periodLength = 4;
+	private TimeUnit periodUnits = TimeUnit.HOURS;
+	private volatile boolean running = false;
+
+	private ExecutionMode executionMode = ExecutionMode.SCHEDULER;
+	private ExecutorService virtualExecutor = null;
+	private AdaptivePollingPolicy pollingPolicy = null;
+	private volatile StateJournal journal = null;
+	private volatile WeatherHistory history = null;
+
+	public MultiSiteWeatherEventEngine() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public MultiSiteWeatherEventEngine(int shardCount) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("At least one shard is required: " + shardCount);
+		}
+
+		shards = new ScheduledThreadPoolExecutor[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			ScheduledThreadPoolExecutor shard = new ScheduledThreadPoolExecutor(1, new ShardThreadFactory(i));
+			shard.setRemoveOnCancelPolicy(true);
+			shards[i] = shard;
+		}
+	}
+
+	/**
+	 * Add a site to the engine. If the engine is already running the site is
+	 * scheduled straight away.
+	 */
+	public void register(WeatherSite site) {
+		site.validate();
+
+		Registration registration = new Registration(site, registrationCount.getAndIncrement());
+		if (sites.putIfAbsent(site.getSiteId(), registration) != null) {
+			throw new IllegalArgumentException("A site is already registered with the id: " + site.getSiteId());
+		}
+		if (journal != null) {
+			site.setStateJournal(journal);
+		}
+		if (history != null) {
+			site.setWeatherHistory(history);
+		}
+
+		if (running) {
+			schedule(registration);
+		}
+	}
+
+	/**
+	 * Remove a site from the engine, cancelling any future ticks.
+	 *
+	 * @return true if the site was registered
+	 */
+	public boolean unregister(String siteId) {
+		ScheduledFuture<?> future = futures.remove(siteId);
+		if (future != null) {
+			future.cancel(false);
+		}
+		AdaptiveTick adaptiveTick = adaptiveTicks.remove(siteId);
+		if (adaptiveTick != null) {
+			adaptiveTick.cancel();
+		}
+		return sites.remove(siteId) != null;
+	}
+
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+
+		running = true;
+		for (Registration registration : sites.values()) {
+			schedule(registration);
+		}
+		logger.info("Started " + sites.size() + " sites across " + shards.length + " shards");
+	}
+
+	public synchronized boolean stop() {
+		if (!running) {
+			return false;
+		}
+
+		running = false;
+		boolean cancelled = true;
+		for (ScheduledFuture<?> future : futures.values()) {
+			cancelled &= future.cancel(false);
+		}
+		futures.clear();
+		for (AdaptiveTick adaptiveTick : adaptiveTicks.values()) {
+			cancelled &= adaptiveTick.cancel();
+		}
+		adaptiveTicks.clear();
+		return cancelled;
+	}
+
+	/**
+	 * Stop the engine and release the shard threads. The engine cannot be
+	 * restarted afterwards.
+	 */
+	public void shutdown() {
+		stop();
+		for (ScheduledThreadPoolExecutor shard : shards) {
+			shard.shutdown();
+		}
+		if (virtualExecutor != null) {
+			virtualExecutor.shutdown();
+		}
+	}
+
+	private void schedule(Registration registration) {
+		WeatherSite site = registration.site;
+		site.restore();
+		long periodNanos = periodUnits.toNanos(periodLength);
+		long offsetNanos = tickOffset(registration.index, periodNanos);
+		ScheduledThreadPoolExecutor shard = shards[registration.index % shards.length];
+
+		boolean virtual = executionMode == ExecutionMode.VIRTUAL_THREADS;
+		site.setNotificationExecutor(virtual ? virtualExecutor : null);
+
+		if (pollingPolicy != null) {
+			AdaptiveTick adaptiveTick = new AdaptiveTick(site, pollingPolicy, shard, virtual ? virtualExecutor : null, periodNanos);
+			AdaptiveTick previous = adaptiveTicks.put(site.getSiteId(), adaptiveTick);
+			if (previous != null) {
+				previous.cancel();
+			}
+			adaptiveTick.start(offsetNanos);
+			return;
+		}
+
+		Runnable tick = virtual ? new DispatchedTick(site, virtualExecutor) : site;
+
+		ScheduledFuture<?> previous = futures.put(site.getSiteId(),
+				shard.scheduleAtFixedRate(tick, offsetNanos, periodNanos, TimeUnit.NANOSECONDS));
+		if (previous != null) {
+			previous.cancel(false);
+		}
+	}
+
+	/**
+	 * The offset of the first tick for the nth site registered. Successive
+	 * offsets step through the period by the golden ratio, so any run of
+	 * consecutive sites is close to evenly spread across the period.
+	 */
+	static long tickOffset(int index, long periodNanos) {
+		double fraction = (index * GOLDEN_RATIO_FRACTION) % 1.0;
+		return (long) (fraction * periodNanos);
+	}
+
+	/**
+	 * Choose how site ticks are run. This must be set before the engine is
+	 * started.
+	 */
+	public synchronized void setExecutionMode(ExecutionMode mode) {
+		if (running) {
+			throw new IllegalStateException("The execution mode cannot be changed while the engine is running");
+		}
+
+		executionMode = mode;
+		if (mode == ExecutionMode.VIRTUAL_THREADS && virtualExecutor == null) {
+			virtualExecutor = ExecutionMode.newVirtualThreadPerTaskExecutor("weather-tick");
+		}
+	}
+
+	public ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+
+	/**
+	 * Poll each site at an interval chosen by the policy rather than at the
+	 * fixed period. The fixed period is still used as the regular interval
+	 * the policy adapts from. Null switches back to the fixed period. This
+	 * must be set before the engine is started.
+	 */
+	public synchronized void setAdaptivePolling(AdaptivePollingPolicy policy) {
+		if (running) {
+			throw new IllegalStateException("The polling policy cannot be changed while the engine is running");
+		}
+		pollingPolicy = policy;
+	}
+
+	public AdaptivePollingPolicy getAdaptivePolling() {
+		return pollingPolicy;
+	}
+
+	/**
+	 * Record the state of every site in the journal, and restore each site
+	 * from there before its first tick.
+	 */
+	public synchronized void setStateJournal(StateJournal journal) {
+		this.journal = journal;
+		for (Registration registration : sites.values()) {
+			registration.site.setStateJournal(journal);
+		}
+	}
+
+	/**
+	 * Record every site's observations in the history.
+	 */
+	public synchronized void setWeatherHistory(WeatherHistory history) {
+		this.history = history;
+		for (Registration registration : sites.values()) {
+			registration.site.setWeatherHistory(history);
+		}
+	}
+
+	public void setPeriodLength(long period, TimeUnit unit) {
+		periodLength = period;
+		periodUnits = unit;
+	}
+
+	public WeatherSite getSite(String siteId) {
+		Registration registration = sites.get(siteId);
+		return registration == null ? null : registration.site;
+	}
+
+	public Collection<WeatherSite> getSites() {
+		List<WeatherSite> result = new ArrayList<>(sites.size());
+		for (Registration registration : sites.values()) {
+			result.add(registration.site);
+		}
+		return result;
+	}
+
+	public int getSiteCount() {
+		return sites.size();
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * The number of sites currently scheduled on each shard.
+	 */
+	public List<Integer> getShardLoad() {
+		List<Integer> load = new ArrayList<>(shards.length);
+		for (ScheduledThreadPoolExecutor shard : shards) {
+			load.add(shard.getQueue().size());
+		}
+		return load;
+	}
+
+	private static class Registration {
+		final WeatherSite site;
+		final int index;
+
+		Registration(WeatherSite site, int index) {
+			this.site = site;
+			this.index = index;
+		}
+	}
+
+	private static class ShardThreadFactory implements ThreadFactory {
+		private final int shard;
+
+		ShardThreadFactory(int shard) {
+			this.shard = shard;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "weather-shard-" + shard);
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
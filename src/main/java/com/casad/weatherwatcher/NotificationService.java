@@ -2,4 +2,20 @@ package com.casad.weatherwatcher;
 
 public interface NotificationService {
 	public void sendMessage(String subject, String message);
+
+	/**
+	 * Send a message about a particular site. Services that do not care which
+	 * site a message is about can leave this as it is.
+	 */
+	public default void sendMessage(String siteId, String subject, String message) {
+		sendMessage(subject, message);
+	}
+
+	/**
+	 * Send a message reporting an error at a site. Services that treat errors
+	 * like any other message can leave this as it is.
+	 */
+	public default void sendError(String siteId, String subject, String message) {
+		sendMessage(siteId, subject, message);
+	}
 }
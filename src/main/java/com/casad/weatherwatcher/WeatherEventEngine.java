@@ -1,18 +1,16 @@
 package com.casad.weatherwatcher;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.time.Clock;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.amphibian.weather.response.WeatherResponse;
 import com.casad.weatherwatcher.controller.RampController;
-import com.casad.weatherwatcher.controller.RampController.RampState;
+import com.casad.weatherwatcher.history.WeatherHistory;
+import com.casad.weatherwatcher.rules.RuleSet;
+import com.casad.weatherwatcher.state.StateJournal;
 
 /**
  * The WeatherEventEngine will invoke callbacks on specific events returned from
@@ -20,19 +18,17 @@ import com.casad.weatherwatcher.controller.RampController.RampState;
  * threshold, the state will move from IDLE to READY. If SNOW is returned as the
  * current or immediate upcoming weather, the state will move to ACTIVE.
  * 
+ * The engine drives a single {@link WeatherSite} on its own scheduler thread.
+ * See {@link MultiSiteWeatherEventEngine} to drive many sites from a shared
+ * set of threads.
+ * 
  * @author dave
  *
  */
 public class WeatherEventEngine {
-	private static final Logger logger = LoggerFactory.getLogger(WeatherEventEngine.class);
-
-	private int readyActivateThreshold = 35;
-	private int readyDeactivateThreshold = 40;
-	
-	private long deactivateDelay = 0;
+	public static final String DEFAULT_SITE_ID = "default";
 
-	private WeatherService ws = null;
-	private NotificationService ns = null;
+	private final WeatherSite site = new WeatherSite(DEFAULT_SITE_ID);
 
 	private ScheduledExecutorService executor = null;
 	private ScheduledFuture<?> future = null;
@@ -40,195 +36,168 @@ public class WeatherEventEngine {
 	private long periodLength = 4;
 	private TimeUnit periodUnits = TimeUnit.HOURS;
 	private long initialStartDelay = 0;
-	
-	private RampController rampController = null;
-	protected long deactivateTime = 1;
+
+	private ExecutionMode executionMode = ExecutionMode.SCHEDULER;
+	private AdaptivePollingPolicy pollingPolicy = null;
+	private AdaptiveTick adaptiveTick = null;
+	private ExecutorService virtualExecutor = null;
+	private boolean running = false;
 
 	public WeatherEventEngine() {
 		executor = Executors.newScheduledThreadPool(1);
 	}
 
-	public void start() {
-		assertNotNull("A weather service must be provided", ws);
-		assertNotNull("A notification service must be provided", ns);
-		assertNotNull("A ramp controller must be provided", rampController);
+	public synchronized void start() {
+		site.validate();
+		site.restore();
 		
-		// Master running loop for the event engine
-		Runnable task = new Runnable() {
-
-			@Override
-			public void run() {
-				try {
-					// Get the latest weather report from the service
-					WeatherResponse response = ws.getWeatherReport();
-					logWeather(response);
-					
-					if (isSnowingNowOrSoon(response)) {
-						if (RampState.ACTIVE != rampController.getState()) {
-							rampController.setState(RampState.ACTIVE);
-							ns.sendMessage(
-									"Ramp activating - snow is incoming!",
-									"Snow has been detected in the forecast.  The ramp heater is now activating.\n\n" + getTextReport(response));
-						}
-						deactivateTime = 0;
-						
-					} else if (deactivateTime == 0 && deactivateDelay != 0) {
-						ns.sendMessage(
-								"The snow has stopped staying active for a bit longer",
-								"The snow has recently stopped.  The ramp will be heated for a bit longer to ensure the snow is all gone.\n\n" + getTextReport(response));
-						deactivateTime = System.currentTimeMillis() + deactivateDelay;
-						
-					} else if (deactivateTime > System.currentTimeMillis()) {
-						logger.info("Deactivating cooldown in progress...");
-						
-					} else if (isCold(response)) {
-						if (RampState.READY != rampController.getState()) {
-							rampController.setState(RampState.READY);
-							ns.sendMessage(
-									"Ramp is going on standby due to cold weather",
-									"The ramp head is going on standby due to cold weather.\n\n" + getTextReport(response));
-						}
-						
-					} else if (isWarm(response)) {
-						if (RampState.IDLE != rampController.getState()) {
-							rampController.setState(RampState.IDLE);
-							ns.sendMessage(
-									"Ramp shutting down - enjoy warm the weather!",
-									"The weather is currently warm - the ramp is deactivating.\n\n" + getTextReport(response));
-						}
-						
-					} else if (rampController.getState() == RampState.ACTIVE) {
-						// The ramp state is active but it is no longer snowing,
-						// but we are between the ready thresholds. Put the ramp
-						// into a READY state.
-						if (RampState.READY != rampController.getState()) {
-							rampController.setState(RampState.READY);
-							ns.sendMessage(
-									"Ramp is on standby, weather is looking up!",
-									"It is no longer snowing, the ramp is going on standby.\n\n" + getTextReport(response));
-						}
-
-					} else {
-						// It has not been snowing, but we are between our ready and idle temps.
-					}
-
-				} catch (Throwable t) {
-					t.printStackTrace();
-					logger.error("Exception Caught (WEE:0002)", t);
-					StringWriter sw = new StringWriter();
-					t.printStackTrace(new PrintWriter(sw));
-					ns.sendMessage(
-							"An unexpected error occured in the garage ramp controller",
-							"Error occured, see logs for more information.\n\n\nWEE:0002 - " + sw.toString());
-					
-				}
-			}
-		};
+		shutdownVirtualExecutor();
+		if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+			virtualExecutor = ExecutionMode.newVirtualThreadPerTaskExecutor("weather-tick");
+		}
+		site.setNotificationExecutor(virtualExecutor);
 		
-		future = executor.scheduleAtFixedRate(task, initialStartDelay, periodLength, periodUnits);
+		schedule(periodUnits.toNanos(initialStartDelay));
+		running = true;
+	}
 
+	private void schedule(long initialDelayNanos) {
+		long periodNanos = periodUnits.toNanos(periodLength);
+		if (pollingPolicy != null) {
+			adaptiveTick = new AdaptiveTick(site, pollingPolicy, executor, virtualExecutor, periodNanos);
+			adaptiveTick.start(initialDelayNanos);
+			return;
+		}
+		
+		adaptiveTick = null;
+		Runnable task = virtualExecutor == null ? site : new DispatchedTick(site, virtualExecutor);
+		
+		// Master running loop for the event engine
+		future = executor.scheduleAtFixedRate(task, initialDelayNanos, periodNanos, TimeUnit.NANOSECONDS);
 	}
 
-	private void assertNotNull(String message, Object obj) {
-		if (obj == null) {
-			throw new RuntimeException(message);
+	private boolean cancel() {
+		if (adaptiveTick != null) {
+			return adaptiveTick.cancel();
 		}
+		return future.cancel(false);
+	}
+
+	/**
+	 * Choose how ticks are run, this takes effect the next time the engine is
+	 * started.
+	 */
+	public void setExecutionMode(ExecutionMode mode) {
+		executionMode = mode;
+	}
+
+	/**
+	 * Poll at an interval chosen by the policy, adapting from the fixed
+	 * period. This takes effect the next time the engine is started.
+	 */
+	public void setAdaptivePolling(AdaptivePollingPolicy policy) {
+		pollingPolicy = policy;
 	}
 
 	public void setDeactivationDelay(long time) {
-		deactivateDelay = time;
+		site.setDeactivationDelay(time);
 	}
 	
-	public void setPeriodLength(long period, TimeUnit unit) {
+	/**
+	 * Set how often the weather is polled. If the engine is running the next
+	 * poll happens after whichever is shorter, the time left in the current
+	 * period or the new period.
+	 */
+	public synchronized void setPeriodLength(long period, TimeUnit unit) {
 		periodLength = period;
 		periodUnits = unit;
+		if (!running) {
+			return;
+		}
+		
+		long remaining = adaptiveTick != null ? adaptiveTick.getDelayNanos() : future.getDelay(TimeUnit.NANOSECONDS);
+		cancel();
+		schedule(Math.max(0, Math.min(remaining, unit.toNanos(period))));
 	}
 
 	public void setWeatherService(WeatherService ws) {
-		this.ws = ws;
+		site.setWeatherService(ws);
 	}
 
 	public void setNotificationService(NotificationService service) {
-		ns = service;
+		site.setNotificationService(service);
 	}
 
-	public boolean stop() {
-		return future.cancel(false);
+	public synchronized boolean stop() {
+		running = false;
+		boolean cancelled = cancel();
+		// Ticks and notifications already under way are left to finish
+		shutdownVirtualExecutor();
+		return cancelled;
 	}
 
-	public void setReadyThreshold(int turnOn, int turnOff) {
-		readyActivateThreshold = turnOn;
-		readyDeactivateThreshold = turnOff;
+	/**
+	 * Stop for good and wait for a tick that is already under way to finish.
+	 * 
+	 * @return true if the tick finished within the timeout, or none was
+	 *         running
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		ExecutorService ticks;
+		synchronized (this) {
+			ticks = virtualExecutor;
+			stop();
+			executor.shutdown();
+		}
+		
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		return executor.awaitTermination(timeout, unit)
+				&& (ticks == null || ticks.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
 	}
 
-	private void logWeather(WeatherResponse response) {
-		String conditionsCurrent = response.getConditions().getWeather();
-		float tempCurrent = response.getConditions().getTempF();
-		String conditionsPeriod1 = response.getSimpleForecast().getDays2().get(0).getConditions();
-		String conditionsPeriod2 = response.getSimpleForecast().getDays2().get(1).getConditions();
-		String conditionsPeriod3 = response.getSimpleForecast().getDays2().get(2).getConditions();
-
-		StringBuffer message = new StringBuffer();
-
-		message.append("Current Weather: [").append(conditionsCurrent);
-		message.append("] (").append(tempCurrent).append("F)");
-		message.append(", Upcoming: ");
-		message.append("[").append(conditionsPeriod1).append("] ");
-		message.append("[").append(conditionsPeriod2).append("] ");
-		message.append("[").append(conditionsPeriod3).append("] ");
-
-		logger.info(message.toString());
-	}
-	
-	private String getTextReport(WeatherResponse response) {
-		StringBuffer message = new StringBuffer("Weather Report:").append("\n");
-		
-		String conditionsCurrent = response.getConditions().getWeather();
-		float tempCurrent = response.getConditions().getTempF();
-		String conditionsPeriod1 = response.getSimpleForecast().getDays2().get(0).getConditions();
-		String conditionsPeriod2 = response.getSimpleForecast().getDays2().get(1).getConditions();
-		String conditionsPeriod3 = response.getSimpleForecast().getDays2().get(2).getConditions();
-
-		message.append("Current weather is ").append(conditionsCurrent).append(" and ").append(tempCurrent).append("F. ");
-		if(isSnowingNowOrSoon(response)) {
-			message.append("Analysis: Snow is incoming!");
-		} else if (isCold(response)) {
-			message.append("Analysis: It is cold.");
-		} else if (isWarm(response)) {
-			message.append("Analysis: It is warm out.");
+	private void shutdownVirtualExecutor() {
+		if (virtualExecutor != null) {
+			site.setNotificationExecutor(null);
+			virtualExecutor.shutdown();
+			virtualExecutor = null;
 		}
-		
-		message.append("\n");
-		message.append("Incoming weather for the next three periods: ").append(conditionsPeriod1).append(", ");
-		message.append(conditionsPeriod2).append(", ");
-		message.append(conditionsPeriod3).append(".");
-		
-		return message.toString();
 	}
 
-	private boolean isSnowingNowOrSoon(WeatherResponse response) {
-		String conditionsCurrent = response.getConditions().getWeather();
-		String conditionsPeriod1 = response.getSimpleForecast().getDays2().get(0).getConditions();
+	public void setReadyThreshold(int turnOn, int turnOff) {
+		site.setReadyThreshold(turnOn, turnOff);
+	}
 
-		if (conditionsCurrent.toUpperCase().contains("SNOW") || conditionsPeriod1.toUpperCase().contains("SNOW")) {
-			return true;
-		}
+	public void setRuleSet(RuleSet rules) {
+		site.setRuleSet(rules);
+	}
 
-		return false;
+	public void setRampController(RampController controller) {
+		site.setRampController(controller);
+	}
 
+	/**
+	 * Record the site's state in the journal and restore it from there when
+	 * the engine starts.
+	 */
+	public void setStateJournal(StateJournal journal) {
+		site.setStateJournal(journal);
 	}
 
-	private boolean isCold(WeatherResponse response) {
-		float tempCurrent = response.getConditions().getTempF();
-		return tempCurrent < readyActivateThreshold;
+	/**
+	 * The clock the site decides on, see {@link WeatherSite#setClock(Clock)}.
+	 */
+	public void setClock(Clock clock) {
+		site.setClock(clock);
 	}
-	
-	private boolean isWarm(WeatherResponse response) {
-		float tempCurrent = response.getConditions().getTempF();
-		return tempCurrent > readyDeactivateThreshold;
+
+	/**
+	 * Record every observation in the history.
+	 */
+	public void setWeatherHistory(WeatherHistory history) {
+		site.setWeatherHistory(history);
 	}
 
-	public void setRampController(RampController controller) {
-		rampController = controller;
+	public WeatherSite getSite() {
+		return site;
 	}
 }
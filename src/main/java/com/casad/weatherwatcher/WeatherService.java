@@ -6,4 +6,15 @@ public interface WeatherService {
 
 	WeatherResponse getWeatherReport();
 
+	/**
+	 * The latest weather as a snapshot, for services that can extract one
+	 * more cheaply than a whole report.
+	 * 
+	 * @param previous
+	 *            the last snapshot taken, or null
+	 */
+	default WeatherSnapshot getSnapshot(WeatherSnapshot previous) {
+		return WeatherSnapshot.from(getWeatherReport(), previous);
+	}
+
 }
@@ -0,0 +1,365 @@
+package com.casad.weatherwatcher;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Clock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.casad.weatherwatcher.controller.RampController;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+import com.casad.weatherwatcher.history.WeatherHistory;
+import com.casad.weatherwatcher.metrics.Counter;
+import com.casad.weatherwatcher.metrics.LatencyHistogram;
+import com.casad.weatherwatcher.metrics.MetricsRegistry;
+import com.casad.weatherwatcher.rules.DecisionTable;
+import com.casad.weatherwatcher.rules.DecisionTable.Message;
+import com.casad.weatherwatcher.rules.RuleSet;
+import com.casad.weatherwatcher.state.SiteState;
+import com.casad.weatherwatcher.state.StateJournal;
+
+/**
+ * A WeatherSite is a single ramp being watched: the {@link WeatherService}
+ * reporting its weather, the {@link RampController} driving its heater, the
+ * {@link NotificationService} to report to and the per-site state machine.
+ * Each call to {@link #run()} is one tick of that state machine.
+ * 
+ * A site holds no threads of its own; it is scheduled by a
+ * {@link WeatherEventEngine} or a {@link MultiSiteWeatherEventEngine}. A site
+ * must only ever be ticked by one thread at a time.
+ */
+public class WeatherSite implements Runnable {
+	private static final Logger logger = LoggerFactory.getLogger(WeatherSite.class);
+
+	private static final LatencyHistogram fetchLatency = MetricsRegistry.getDefault().histogram(MetricsRegistry.WEATHER_FETCH);
+	private static final LatencyHistogram evaluationLatency = MetricsRegistry.getDefault().histogram(MetricsRegistry.RULE_EVALUATION);
+	private static final LatencyHistogram actuationLatency = MetricsRegistry.getDefault().histogram(MetricsRegistry.ACTUATION);
+	private static final Counter transitions = MetricsRegistry.getDefault().counter(MetricsRegistry.TRANSITIONS);
+	private static final Counter errors = MetricsRegistry.getDefault().counter(MetricsRegistry.TICK_ERRORS);
+
+	private final String siteId;
+
+	private RuleSet ruleSet = new RuleSet();
+	private volatile DecisionTable rules = ruleSet.compile();
+
+	private WeatherService ws = null;
+	private NotificationService ns = null;
+	private RampController rampController = null;
+	private Executor notificationExecutor = null;
+	private Clock clock = Clock.systemUTC();
+
+	protected volatile long deactivateTime = 1;
+	private volatile WeatherSnapshot lastSnapshot = null;
+
+	private StateJournal journal = null;
+	private WeatherHistory history = null;
+	private boolean started = false;
+	private final CompletableFuture<Void> firstDecision = new CompletableFuture<Void>();
+
+	public WeatherSite(String siteId) {
+		if (siteId == null) {
+			throw new IllegalArgumentException("A site id must be provided");
+		}
+		this.siteId = siteId;
+	}
+
+	public WeatherSite(String siteId, WeatherService ws, RampController controller, NotificationService ns) {
+		this(siteId);
+		this.ws = ws;
+		this.rampController = controller;
+		this.ns = ns;
+	}
+
+	/**
+	 * Check that the site has everything it needs to be ticked.
+	 */
+	public void validate() {
+		assertNotNull("A weather service must be provided", ws);
+		assertNotNull("A notification service must be provided", ns);
+		assertNotNull("A ramp controller must be provided", rampController);
+	}
+
+	@Override
+	public void run() {
+		started = true;
+		try {
+			// Get the latest weather report from the service
+			long start = System.nanoTime();
+			WeatherSnapshot snapshot = ws.getSnapshot(lastSnapshot);
+			fetchLatency.recordSince(start);
+
+			start = System.nanoTime();
+			DecisionTable table = rules;
+			long now = clock.millis();
+			RampState state = rampController.getState();
+			int action = table.evaluate(snapshot, state, deactivateTime, now);
+			evaluationLatency.recordSince(start);
+
+			logWeather(snapshot, snapshot != lastSnapshot);
+			lastSnapshot = snapshot;
+
+			RampState target = DecisionTable.targetState(action);
+			boolean switched = false;
+			if (target != null) {
+				start = System.nanoTime();
+				switched = rampController.transition(state, target);
+				if (switched) {
+					actuationLatency.recordSince(start);
+					transitions.increment();
+				} else {
+					// Overridden while we were deciding, the next tick will
+					// decide again from the new state
+					logger.info(siteId + ": Ramp changed from " + state + " to " + rampController.getState()
+							+ ", not switching to " + target);
+				}
+			}
+
+			Message message = target == null || switched ? DecisionTable.message(action) : null;
+			if (message != null) {
+				sendMessage(message.getSubject(), message.getBody() + "\n\n" + getTextReport(snapshot, table));
+			}
+
+			deactivateTime = table.nextDeactivateTime(action, deactivateTime, now);
+
+			if (DecisionTable.isCoolingDown(action)) {
+				logger.info(siteId + ": Deactivating cooldown in progress...");
+			}
+
+			recordState(snapshot);
+			recordHistory(snapshot, now);
+			if (!firstDecision.isDone()) {
+				firstDecision.complete(null);
+			}
+
+		} catch (Throwable t) {
+			errors.increment();
+			t.printStackTrace();
+			logger.error(siteId + ": Exception Caught (WEE:0002)", t);
+			StringWriter sw = new StringWriter();
+			t.printStackTrace(new PrintWriter(sw));
+			sendError(
+					"An unexpected error occured in the garage ramp controller",
+					"Error occured, see logs for more information.\n\n\nWEE:0002 - " + sw.toString());
+
+		}
+	}
+
+	private void recordState(WeatherSnapshot snapshot) {
+		if (journal == null) {
+			return;
+		}
+
+		try {
+			journal.record(siteId, rampController.getState(), deactivateTime, snapshot);
+		} catch (RuntimeException e) {
+			logger.error(siteId + ": Unable to record state in the journal", e);
+		}
+	}
+
+	private void recordHistory(WeatherSnapshot snapshot, long now) {
+		if (history == null) {
+			return;
+		}
+
+		try {
+			history.record(siteId, now, snapshot, rampController.getState());
+		} catch (RuntimeException e) {
+			logger.error(siteId + ": Unable to record the weather history", e);
+		}
+	}
+
+	/**
+	 * Put the site back into the state last recorded in its journal: the ramp
+	 * state, the snow cooldown and the last weather seen. This only does
+	 * anything before the site's first tick.
+	 *
+	 * @return true if the site was restored
+	 */
+	public synchronized boolean restore() {
+		if (journal == null || started) {
+			return false;
+		}
+		started = true;
+
+		SiteState saved = journal.getState(siteId);
+		if (saved == null) {
+			return false;
+		}
+
+		rampController.setState(saved.getState());
+		deactivateTime = saved.getDeactivateTime();
+		lastSnapshot = saved.getSnapshot();
+		logger.info(siteId + ": Restored " + saved.getState() + " from the journal, deactivateTime=" + deactivateTime);
+		return true;
+	}
+
+	private void sendMessage(final String subject, final String message) {
+		dispatch(subject, () -> ns.sendMessage(siteId, subject, message));
+	}
+
+	private void sendError(final String subject, final String message) {
+		dispatch(subject, () -> ns.sendError(siteId, subject, message));
+	}
+
+	private void dispatch(String subject, Runnable send) {
+		if (notificationExecutor == null) {
+			send.run();
+			return;
+		}
+
+		try {
+			notificationExecutor.execute(send);
+		} catch (RejectedExecutionException e) {
+			logger.error(siteId + ": Unable to dispatch notification: " + subject, e);
+		}
+	}
+
+	private void assertNotNull(String message, Object obj) {
+		if (obj == null) {
+			throw new RuntimeException(siteId + ": " + message);
+		}
+	}
+
+	public String getSiteId() {
+		return siteId;
+	}
+
+	public synchronized void setDeactivationDelay(long time) {
+		ruleSet.setDeactivationDelay(time);
+		rules = ruleSet.compile();
+	}
+
+	public synchronized void setReadyThreshold(int turnOn, int turnOff) {
+		ruleSet.setReadyThreshold(turnOn, turnOff);
+		rules = ruleSet.compile();
+	}
+
+	/**
+	 * Replace the rules for this site. The rules are copied and compiled, so
+	 * later changes to the given rule set have no effect.
+	 */
+	public synchronized void setRuleSet(RuleSet rules) {
+		ruleSet = new RuleSet(rules);
+		this.rules = ruleSet.compile();
+	}
+
+	/**
+	 * @return a copy of the rules for this site
+	 */
+	public synchronized RuleSet getRuleSet() {
+		return new RuleSet(ruleSet);
+	}
+
+	public DecisionTable getDecisionTable() {
+		return rules;
+	}
+
+	public void setWeatherService(WeatherService ws) {
+		this.ws = ws;
+	}
+
+	public void setNotificationService(NotificationService service) {
+		ns = service;
+	}
+
+	/**
+	 * Send notifications from the given executor rather than from the
+	 * thread running the tick. Null, the default, sends them inline.
+	 */
+	public void setNotificationExecutor(Executor executor) {
+		notificationExecutor = executor;
+	}
+
+	public void setRampController(RampController controller) {
+		rampController = controller;
+	}
+
+	/**
+	 * The clock the site decides on, such as when a cooldown ends. Defaults
+	 * to the system clock.
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Record every change of state in the journal, see {@link #restore()}.
+	 */
+	public void setStateJournal(StateJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Record the weather seen on every tick, and the state it left the ramp
+	 * in, in the history.
+	 */
+	public void setWeatherHistory(WeatherHistory history) {
+		this.history = history;
+	}
+
+	public RampController getRampController() {
+		return rampController;
+	}
+
+	/**
+	 * @return completes once the site has made its first decision
+	 */
+	public CompletableFuture<Void> getFirstDecision() {
+		return firstDecision;
+	}
+
+	/**
+	 * @return the weather seen on the most recent tick, or null if the site
+	 *         has not been ticked yet
+	 */
+	public WeatherSnapshot getLastSnapshot() {
+		return lastSnapshot;
+	}
+
+	/**
+	 * @return when the snow cooldown ends, 0 if it has been snowing and the
+	 *         cooldown has not started yet, or a time already passed if there
+	 *         is no cooldown
+	 */
+	public long getDeactivateTime() {
+		return deactivateTime;
+	}
+
+	private void logWeather(WeatherSnapshot snapshot, boolean changed) {
+		// The weather is usually unchanged from the last tick, only log it
+		// in full when it has changed.
+		if (changed) {
+			logger.info(siteId + ": " + snapshot);
+		} else if (logger.isDebugEnabled()) {
+			logger.debug(siteId + ": Unchanged - " + snapshot);
+		}
+	}
+
+	String getTextReport(WeatherSnapshot snapshot) {
+		return getTextReport(snapshot, rules);
+	}
+
+	private static String getTextReport(WeatherSnapshot snapshot, DecisionTable table) {
+		StringBuilder message = new StringBuilder("Weather Report:").append("\n");
+
+		message.append("Current weather is ").append(snapshot.getCurrentConditions()).append(" and ").append(snapshot.getTempF()).append("F. ");
+		if(table.isSnow(snapshot)) {
+			message.append("Analysis: Snow is incoming!");
+		} else if (table.band(snapshot.getTempF()) == DecisionTable.COLD) {
+			message.append("Analysis: It is cold.");
+		} else if (table.band(snapshot.getTempF()) == DecisionTable.WARM) {
+			message.append("Analysis: It is warm out.");
+		}
+
+		message.append("\n");
+		message.append("Incoming weather for the next three periods: ").append(snapshot.getPeriodConditions(1)).append(", ");
+		message.append(snapshot.getPeriodConditions(2)).append(", ");
+		message.append(snapshot.getPeriodConditions(3)).append(".");
+
+		return message.toString();
+	}
+}
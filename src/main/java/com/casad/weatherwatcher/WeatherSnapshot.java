@@ -0,0 +1,145 @@
+package com.casad.weatherwatcher;
+
+import java.util.List;
+
+import com.amphibian.weather.response.ForecastDay;
+import com.amphibian.weather.response.WeatherResponse;
+
+/**
+ * The parts of a {@link WeatherResponse} the engine makes decisions on,
+ * extracted in a single pass: the current temperature and the condition codes
+ * (see {@link ConditionCodes}) for now and the next three forecast periods.
+ * 
+ * Snapshots are immutable. Since the weather rarely changes between ticks,
+ * {@link #from(WeatherResponse, WeatherSnapshot)} hands back the previous
+ * snapshot when nothing has changed rather than allocating a new one.
+ */
+public final class WeatherSnapshot {
+	public static final int PERIODS = 3;
+
+	private final float tempF;
+	private final int currentCode;
+	private final int period1Code;
+	private final int period2Code;
+	private final int period3Code;
+
+	public WeatherSnapshot(float tempF, int currentCode, int period1Code, int period2Code, int period3Code) {
+		this.tempF = tempF;
+		this.currentCode = currentCode;
+		this.period1Code = period1Code;
+		this.period2Code = period2Code;
+		this.period3Code = period3Code;
+	}
+
+	public static WeatherSnapshot from(WeatherResponse response) {
+		return from(response, null);
+	}
+
+	/**
+	 * Extract a snapshot from the response.
+	 * 
+	 * @param previous
+	 *            the last snapshot taken for the same site, or null
+	 * @return previous if the response matches it, otherwise a new snapshot
+	 */
+	public static WeatherSnapshot from(WeatherResponse response, WeatherSnapshot previous) {
+		float tempF = response.getConditions().getTempF();
+		int currentCode = ConditionCodes.codeOf(response.getConditions().getWeather());
+
+		List<ForecastDay> days = response.getSimpleForecast().getDays2();
+		int period1Code = ConditionCodes.codeOf(days.get(0).getConditions());
+		int period2Code = ConditionCodes.codeOf(days.get(1).getConditions());
+		int period3Code = ConditionCodes.codeOf(days.get(2).getConditions());
+
+		return of(tempF, currentCode, period1Code, period2Code, period3Code, previous);
+	}
+
+	/**
+	 * @param previous
+	 *            the last snapshot taken for the same site, or null
+	 * @return previous if it holds the same weather, otherwise a new snapshot
+	 */
+	public static WeatherSnapshot of(float tempF, int currentCode, int period1Code, int period2Code, int period3Code,
+			WeatherSnapshot previous) {
+		if (previous != null && previous.matches(tempF, currentCode, period1Code, period2Code, period3Code)) {
+			return previous;
+		}
+
+		return new WeatherSnapshot(tempF, currentCode, period1Code, period2Code, period3Code);
+	}
+
+	private boolean matches(float tempF, int currentCode, int period1Code, int period2Code, int period3Code) {
+		return Float.compare(this.tempF, tempF) == 0 && this.currentCode == currentCode
+				&& this.period1Code == period1Code && this.period2Code == period2Code
+				&& this.period3Code == period3Code;
+	}
+
+	public float getTempF() {
+		return tempF;
+	}
+
+	public int getCurrentCode() {
+		return currentCode;
+	}
+
+	/**
+	 * @param period
+	 *            the forecast period, 1 to {@link #PERIODS}
+	 */
+	public int getPeriodCode(int period) {
+		switch (period) {
+		case 1:
+			return period1Code;
+		case 2:
+			return period2Code;
+		case 3:
+			return period3Code;
+		default:
+			throw new IllegalArgumentException("Unknown forecast period: " + period);
+		}
+	}
+
+	public String getCurrentConditions() {
+		return ConditionCodes.nameOf(currentCode);
+	}
+
+	public String getPeriodConditions(int period) {
+		return ConditionCodes.nameOf(getPeriodCode(period));
+	}
+
+	@Override
+	public int hashCode() {
+		int result = Float.floatToIntBits(tempF);
+		result = 31 * result + currentCode;
+		result = 31 * result + period1Code;
+		result = 31 * result + period2Code;
+		result = 31 * result + period3Code;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof WeatherSnapshot)) {
+			return false;
+		}
+		WeatherSnapshot other = (WeatherSnapshot) obj;
+		return other.matches(tempF, currentCode, period1Code, period2Code, period3Code);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder message = new StringBuilder();
+
+		message.append("Current Weather: [").append(getCurrentConditions());
+		message.append("] (").append(tempF).append("F)");
+		message.append(", Upcoming: ");
+		message.append("[").append(getPeriodConditions(1)).append("] ");
+		message.append("[").append(getPeriodConditions(2)).append("] ");
+		message.append("[").append(getPeriodConditions(3)).append("] ");
+
+		return message.toString();
+	}
+}
@@ -1,39 +1,71 @@
 package com.casad.weatherwatcher;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.amphibian.weather.request.Feature;
-import com.amphibian.weather.request.WeatherRequest;
-import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.controller.Pi4jRelayBank;
 import com.casad.weatherwatcher.controller.RampController;
+import com.casad.weatherwatcher.controller.RelayBank;
+import com.casad.weatherwatcher.controller.SimulatedRelayBank;
+import com.casad.weatherwatcher.history.WeatherHistory;
 import com.casad.weatherwatcher.integration.EmailConnection;
 import com.casad.weatherwatcher.integration.JMaker;
-import com.pi4j.io.gpio.GpioController;
+import com.casad.weatherwatcher.integration.StreamingWundergroundWeatherService;
+import com.casad.weatherwatcher.integration.WundergroundWeatherService;
+import com.casad.weatherwatcher.notification.AsyncNotificationService;
+import com.casad.weatherwatcher.notification.CoalescingNotificationService;
+import com.casad.weatherwatcher.rules.RuleSet;
+import com.casad.weatherwatcher.service.CachingWeatherService;
+import com.casad.weatherwatcher.service.HedgedWeatherService;
+import com.casad.weatherwatcher.service.ResilientWeatherService;
+import com.casad.weatherwatcher.state.StateJournal;
+import com.casad.weatherwatcher.status.StatusServer;
 import com.pi4j.io.gpio.GpioFactory;
-import com.pi4j.io.gpio.GpioPinDigitalOutput;
-import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.Pin;
 import com.pi4j.io.gpio.RaspiPin;
 
 public class WeatherWatcher {
 	private static final Logger logger = LoggerFactory.getLogger(WeatherWatcher.class);
 
-	protected static GpioController gpio = null;
-	protected static GpioPinDigitalOutput readyPin = null;
-	protected static GpioPinDigitalOutput activePin = null;
-	protected static GpioPinDigitalOutput relay3 = null;
-	protected static GpioPinDigitalOutput onlinePin = null;
+	protected static RelayBank relays = null;
 	protected static JMaker ifttt = null;
-	protected static EmailConnection email = null;
+	protected static List<EmailConnection> email = new ArrayList<EmailConnection>();
+	protected static AsyncNotificationService channels = null;
+	protected static CoalescingNotificationService notifications = null;
 	
 	private static final long HOURS_TO_MILLISECONDS = 3_600_000;
 	
+	// Relays on the board, the ramp's two are next to each other so both
+	// can be switched in one write
+	private static final int READY_RELAY = 0;
+	private static final int ACTIVE_RELAY = 1;
+	private static final int SPARE_RELAY = 2;
+	private static final int ONLINE_RELAY = 3;
+	private static final long RAMP_RELAYS = 0b11;
+	private static final long IDLE = 0b00;
+	private static final long READY = 0b01;
+	private static final long ACTIVE = 0b11;
+	private static final Path CLEAN_SHUTDOWN_MARKER = Paths.get("weatherwatcher.clean");
+	private static final long NOTIFY_DRAIN_SECONDS = 10;
+	private static final long TICK_DRAIN_SECONDS = 60;
+	
 	public static void main(String[] args) throws Exception {
 		
 		// preflight checks
@@ -41,19 +73,132 @@ public class WeatherWatcher {
 		
 		// Get configuration settings
 		final Configuration config = Configuration.getConfig();
+		final boolean fastStart = config.isFastStart();
 		
-		final String jMakerIFTTTKey = config.getIFTTTApiKey();
-		assertSet("A JMaker API key must be specified. See README.md for more information.", jMakerIFTTTKey);
-		ifttt = new JMaker("GarageStatusUpdate", jMakerIFTTTKey);
+		// Set the relays going first, in fast start mode this happens in the
+		// background while everything else is set up. The ramp is only
+		// switched once the self test has finished.
+		boolean cleanShutdown = Files.deleteIfExists(CLEAN_SHUTDOWN_MARKER);
+		boolean skipSelfTest = fastStart && cleanShutdown;
+		Runnable startRelays = () -> {
+			try {
+				relays = provisionRelays(config);
+			} catch (RuntimeException e) {
+				logger.error("Unable to provision the relays", e);
+				System.exit(1);
+			}
+			if (skipSelfTest) {
+				logger.info("Last shutdown was clean, skipping the relay self test");
+			} else {
+				selfTest();
+			}
+		};
+		final Future<?> relayStartup;
+		if (fastStart) {
+			ExecutorService relayThread = Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "relays");
+				t.setDaemon(true);
+				return t;
+			});
+			relayStartup = relayThread.submit(startRelays);
+			// The thread goes away once the startup is done
+			relayThread.shutdown();
+		} else {
+			startRelays.run();
+			relayStartup = CompletableFuture.completedFuture(null);
+		}
+		
+		// Notification clients are independent of everything else
+		CompletableFuture<NotificationService> notificationService = fastStart
+				? CompletableFuture.supplyAsync(() -> createNotificationService(config))
+				: CompletableFuture.completedFuture(createNotificationService(config));
+		
+		// Prepare the weather event engine
+		WeatherEventEngine eng = new WeatherEventEngine();
+		eng.setPeriodLength(config.getPollPeriodMinutes(), TimeUnit.MINUTES);
+		if (config.isAdaptivePolling()) {
+			eng.setAdaptivePolling(new AdaptivePollingPolicy(config.getPollMinMinutes(), config.getPollMaxMinutes(), TimeUnit.MINUTES));
+		}
+		
+		RuleSet defaultRules = new RuleSet();
+		defaultRules.setDeactivationDelay(24 * HOURS_TO_MILLISECONDS);
+		eng.setRuleSet(config.getRuleSet(WeatherEventEngine.DEFAULT_SITE_ID, defaultRules));
+		
+		// Pick up where we left off if we were restarted
+		final StateJournal journal = "".equals(config.getStateJournalPath()) ? null
+				: StateJournal.open(Paths.get(config.getStateJournalPath()));
+		if (journal != null) {
+			eng.setStateJournal(journal);
+		}
+		
+		final WeatherHistory history = "".equals(config.getHistoryPath()) ? null
+				: WeatherHistory.open(Paths.get(config.getHistoryPath()));
+		if (history != null) {
+			history.setSegmentSpan(config.getHistorySegmentDays(), TimeUnit.DAYS);
+			history.setRetention(config.getHistoryRetentionDays(), TimeUnit.DAYS);
+			history.applyRetention(System.currentTimeMillis());
+			eng.setWeatherHistory(history);
+		}
+		eng.setWeatherService(createWeatherService(config));
+		eng.setNotificationService(notificationService.join());
+		
+		// Create RampController instance with pin details. It goes idle
+		// straight away, which waits for the relays to be ready.
+		Runnable makeIdle = () -> writeRamp(relayStartup, IDLE);
+		Runnable makeReady = () -> writeRamp(relayStartup, READY);
+		Runnable makeActive = () -> writeRamp(relayStartup, ACTIVE);
+		RampController controller = new RampController(makeIdle, makeReady, makeActive);
+		eng.setRampController(controller);
+		
+		eng.getSite().getFirstDecision().thenRun(() -> logger.info("Time to first decision: "
+				+ ManagementFactory.getRuntimeMXBean().getUptime() + "ms after launch"
+				+ (fastStart ? " (fast start)" : "")));
+		eng.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown(eng, journal, history)));
+		
+		relays.set(ONLINE_RELAY, false);
+		
+		if (config.getStatusPort() > 0) {
+			StatusServer status = new StatusServer(new InetSocketAddress(config.getStatusBindAddress(), config.getStatusPort()));
+			status.addSite(eng.getSite());
+			try {
+				status.start();
+			} catch (IOException e) {
+				logger.warn("Unable to serve status on port " + config.getStatusPort() + ": " + e.getMessage());
+			}
+		}
+		
+		// Pick up changes to the settings without a restart
+		ConfigurationWatcher watcher = new ConfigurationWatcher(Configuration.getConfigPath());
+		watcher.addListener(updated -> reconfigure(eng, updated, defaultRules));
+		try {
+			watcher.start();
+		} catch (IOException e) {
+			logger.warn("Unable to watch the configuration for changes: " + e.getMessage());
+		}
+		
+		while(true) {
+			Thread.sleep(3600000);
+		}
+	}
 
-		Properties props = new Properties();
-		props.put("mail.smtp.host", "smtp.gmail.com");
-		props.put("mail.smtp.socketFactory.port", "465");
-		props.put("mail.smtp.socketFactory.class", "javax.net.ssl.SSLSocketFactory");
-		props.put("mail.smtp.auth", "true");
-		props.put("mail.smtp.port", "465");
+	private static RelayBank provisionRelays(Configuration config) {
+		RelayBank bank;
+		if (config.isSimulatedRelays()) {
+			logger.info("Using simulated relays");
+			bank = new SimulatedRelayBank(4);
+		} else {
+			bank = provisionGpio();
+		}
 		
-		email = new EmailConnection(props, config.getEmailUsername(), config.getEmailPassword(), config.getEmailTo());
+		// The spare relay is off to prevent unexpected conditions. The online
+		// relay stays on until we are running.
+		bank.set(SPARE_RELAY, false);
+		bank.set(ONLINE_RELAY, true);
+		return bank;
+	}
+
+	private static RelayBank provisionGpio() {
 		/*
 		 * Create the GPIO controller instance
 		 * 
@@ -65,91 +210,207 @@ public class WeatherWatcher {
 		 * https://www.amazon.com/gp/product/B00KTEN3TM) uses HIGH output to
 		 * indicate OFF and LOW to indicate ON.
 		 */
-		gpio = GpioFactory.getInstance();
-		readyPin = gpio.provisionDigitalOutputPin(RaspiPin.GPIO_00, "Relay 1", PinState.HIGH);
-		activePin = gpio.provisionDigitalOutputPin(RaspiPin.GPIO_02, "Relay 2", PinState.HIGH);
-		
-		onlinePin = gpio.provisionDigitalOutputPin(RaspiPin.GPIO_04, "Relay 4", PinState.HIGH);
-		onlinePin.pulse(500);
-		
-		// These are unused, configure as OFF to prevent unexpected conditions.
-		relay3 = gpio.provisionDigitalOutputPin(RaspiPin.GPIO_03, "Relay 3", PinState.HIGH);
-		
-		relay3.high();
-		
-		
+		return new Pi4jRelayBank(GpioFactory.getInstance(),
+				new Pin[] { RaspiPin.GPIO_00, RaspiPin.GPIO_02, RaspiPin.GPIO_03, RaspiPin.GPIO_04 }, true);
+	}
+
+	/**
+	 * Switch the ramp's relays, waiting for the relays to start first. Once
+	 * they have started this is a straight write.
+	 */
+	private static void writeRamp(Future<?> relayStartup, long state) {
+		try {
+			relayStartup.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted waiting for the relays to start", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Unable to start the relays", e.getCause());
+		}
+		relays.write(READY_RELAY, RAMP_RELAYS, state);
+	}
+
+	private static void selfTest() {
 		// Diagnostic startup
-		readyPin.high();
-		activePin.high();
-		Thread.sleep(1000);
-		readyPin.low();
-		Thread.sleep(1000);
-		activePin.low();
-		Thread.sleep(1000);
-		readyPin.high();
-		activePin.high();
-		Thread.sleep(1000);
-		
-		Runnable makeIdle = () -> {
-			// Make IDLE / OFF
-			readyPin.high();
-			activePin.high();
-		};
+		try {
+			relays.write(READY_RELAY, RAMP_RELAYS, IDLE);
+			Thread.sleep(1000);
+			relays.write(READY_RELAY, RAMP_RELAYS, READY);
+			Thread.sleep(1000);
+			relays.write(READY_RELAY, RAMP_RELAYS, ACTIVE);
+			Thread.sleep(1000);
+			relays.write(READY_RELAY, RAMP_RELAYS, IDLE);
+			Thread.sleep(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
 
-		Runnable makeReady = () -> {
-			// Make READY
-			readyPin.low();
-			activePin.high();
-		};
-		
-		Runnable makeActive = () -> {
-			// Make ACTIVE
-			readyPin.low();
-			activePin.low();
-		};
-		
-		
-		// Create RampController instance with pin details
-		RampController controller = new RampController(makeIdle, makeReady, makeActive);
-		
+	private static LocationWeatherService createWundergroundService(Configuration config, String apiKey) {
+		if (config.isStreamingWeather()) {
+			return new StreamingWundergroundWeatherService(apiKey);
+		}
+		return new WundergroundWeatherService(apiKey);
+	}
+
+	private static WeatherService createWeatherService(Configuration config) {
 		final String weatherAPIKey = config.getWundergroundApiKey();
 		assertSet("A weather API key must be specified. See README.md for more information.", weatherAPIKey);
 		
 		final String zipCode = config.getZipCode();
 		assertSet("A weather zip key must be specified. See README.md for more information.", zipCode);
 		
-		// Prepare the weather event engine
-		WeatherEventEngine eng = new WeatherEventEngine();
-		eng.setPeriodLength(60, TimeUnit.MINUTES);
-		eng.setDeactivationDelay(24 * HOURS_TO_MILLISECONDS);
-		eng.setRampController(controller);
-		eng.setWeatherService(new WeatherService() {
-			
-			@Override
-			public WeatherResponse getWeatherReport() {
-				WeatherRequest req = new WeatherRequest();
-				req.setApiKey(weatherAPIKey);
-				req.addFeature(Feature.CONDITIONS);
-				req.addFeature(Feature.FORECAST);
-
-				return req.query(zipCode);
+		// With a second key, slow queries are hedged against it
+		LocationWeatherService weather = createWundergroundService(config, weatherAPIKey);
+		String secondaryKey = config.getWundergroundSecondaryApiKey();
+		if (!"".equals(secondaryKey)) {
+			HedgedWeatherService hedged = new HedgedWeatherService(weather, createWundergroundService(config, secondaryKey));
+			hedged.setHedgeDelay(config.getWeatherHedgePercentile(), config.getWeatherHedgeMinMillis(),
+					config.getWeatherHedgeMaxMillis(), TimeUnit.MILLISECONDS);
+			weather = hedged;
+		}
+		
+		// Keep deciding from the last good report while the service is down.
+		// This goes straight on the service so a report's age is from when
+		// the service answered, not from when a cache handed it out.
+		ResilientWeatherService resilient = new ResilientWeatherService(weather);
+		resilient.setTimeout(config.getWeatherTimeoutSeconds(), TimeUnit.SECONDS);
+		resilient.setSlowCallThreshold(TimeUnit.SECONDS.toMillis(config.getWeatherTimeoutSeconds()) / 2, TimeUnit.MILLISECONDS);
+		resilient.setCircuitBreaker(config.getWeatherBreakerFailures(), config.getWeatherBreakerOpenSeconds(), TimeUnit.SECONDS);
+		resilient.setMaxStaleness(config.getWeatherMaxStaleHours(), TimeUnit.HOURS);
+		weather = resilient;
+		
+		if (config.getWeatherCacheTtlMinutes() > 0) {
+			CachingWeatherService weatherCache = new CachingWeatherService(
+					weather,
+					config.getWeatherCacheTtlMinutes(), TimeUnit.MINUTES,
+					config.getWeatherCacheSize());
+			weatherCache.setRefreshAhead(config.getWeatherCacheRefreshAheadMinutes(), TimeUnit.MINUTES);
+			weather = weatherCache;
+		}
+		return weather.forLocation(zipCode);
+	}
+
+	private static NotificationService createNotificationService(Configuration config) {
+		final String jMakerIFTTTKey = config.getIFTTTApiKey();
+		assertSet("A JMaker API key must be specified. See README.md for more information.", jMakerIFTTTKey);
+		ifttt = new JMaker("GarageStatusUpdate", jMakerIFTTTKey);
+		ifttt.setTimeouts(config.getIFTTTConnectTimeoutSeconds(), config.getIFTTTReadTimeoutSeconds(), TimeUnit.SECONDS);
+
+		Properties props = new Properties();
+		props.put("mail.smtp.host", "smtp.gmail.com");
+		props.put("mail.smtp.socketFactory.port", "465");
+		props.put("mail.smtp.socketFactory.class", "javax.net.ssl.SSLSocketFactory");
+		props.put("mail.smtp.auth", "true");
+		props.put("mail.smtp.port", "465");
+		
+		String emailTo = config.getEmailTo();
+		if (emailTo != null) {
+			for (String address : emailTo.split(",")) {
+				if (!"".equals(address.trim())) {
+					EmailConnection connection = new EmailConnection(props, config.getEmailUsername(), config.getEmailPassword(), address.trim());
+					connection.setPersistentConnection(config.isEmailPersistent());
+					connection.setIdleTimeout(config.getEmailIdleTimeoutSeconds(), TimeUnit.SECONDS);
+					connection.setDigestWindow(config.getEmailDigestSeconds(), TimeUnit.SECONDS);
+					email.add(connection);
+				}
 			}
-		});
-		
-		eng.setNotificationService(new NotificationService() {
-			
-			@Override
-			public void sendMessage(String subject, String message) {
-				triggerIftt(subject);
-				sendEmail(subject, message);
+		}
+		
+		// Notifications are queued and sent in the background so a slow
+		// channel never holds up the ramp
+		channels = new AsyncNotificationService(config.getNotifyQueueCapacity(), config.getNotifyDropPolicy());
+		channels.addChannel("ifttt", 1, (subject, message) -> triggerIftt(subject));
+		List<NotificationService> emailRecipients = new ArrayList<NotificationService>();
+		for (EmailConnection recipient : email) {
+			emailRecipients.add((subject, message) -> sendEmail(recipient, subject, message));
+		}
+		if (emailRecipients.isEmpty()) {
+			emailRecipients.add((subject, message) -> sendEmail(null, subject, message));
+		}
+		channels.addChannel("email", config.getNotifyEmailConcurrency(), emailRecipients);
+		notifications = new CoalescingNotificationService(channels, config.getNotifyCoalesceSeconds(), TimeUnit.SECONDS);
+		notifications.setDuplicateWindow(config.getNotifyDuplicateMinutes(), TimeUnit.MINUTES);
+		return notifications;
+	}
+
+	/**
+	 * Apply the settings that can change while running. Everything else,
+	 * such as API keys and addresses, needs a restart. Invalid rules reject
+	 * the whole configuration before any of it is applied.
+	 */
+	private static Runnable reconfigure(WeatherEventEngine eng, Configuration config, RuleSet defaultRules) {
+		RuleSet rules = config.getRuleSet(WeatherEventEngine.DEFAULT_SITE_ID, defaultRules);
+		int pollPeriod = config.getPollPeriodMinutes();
+		boolean periodChanged = pollPeriod != Configuration.getConfig().getPollPeriodMinutes();
+		return () -> {
+			eng.setRuleSet(rules);
+			if (periodChanged) {
+				eng.setPeriodLength(pollPeriod, TimeUnit.MINUTES);
 			}
-		});
+			applyNotificationSettings(config);
+			logger.info("Applied the reloaded configuration");
+		};
+	}
+
+	private static void applyNotificationSettings(Configuration config) {
+		if (ifttt != null) {
+			ifttt.setTimeouts(config.getIFTTTConnectTimeoutSeconds(), config.getIFTTTReadTimeoutSeconds(), TimeUnit.SECONDS);
+		}
+		for (EmailConnection connection : email) {
+			connection.setPersistentConnection(config.isEmailPersistent());
+			connection.setIdleTimeout(config.getEmailIdleTimeoutSeconds(), TimeUnit.SECONDS);
+			connection.setDigestWindow(config.getEmailDigestSeconds(), TimeUnit.SECONDS);
+		}
+		if (notifications != null) {
+			notifications.setWindow(config.getNotifyCoalesceSeconds(), TimeUnit.SECONDS);
+			notifications.setDuplicateWindow(config.getNotifyDuplicateMinutes(), TimeUnit.MINUTES);
+		}
+	}
+
+	/**
+	 * Stop polling, let a tick under way finish, send the notifications still
+	 * queued, flush state to disk and leave a marker so the next start knows
+	 * it can skip the relay self test.
+	 */
+	private static void shutdown(WeatherEventEngine eng, StateJournal journal, WeatherHistory history) {
+		try {
+			if (!eng.shutdown(TICK_DRAIN_SECONDS, TimeUnit.SECONDS)) {
+				logger.warn("A tick was still running at shutdown");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 		
-		eng.start();
+		if (notifications != null) {
+			notifications.flush();
+		}
+		if (channels != null) {
+			try {
+				if (!channels.awaitIdle(NOTIFY_DRAIN_SECONDS, TimeUnit.SECONDS)) {
+					logger.warn("Notifications were still queued at shutdown");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			channels.shutdown();
+		}
+		// The queued emails may have gone into a digest
+		for (EmailConnection connection : email) {
+			connection.flushDigest();
+			connection.close();
+		}
 		
-		onlinePin.high();
-		while(true) {
-			Thread.sleep(3600000);
+		try {
+			if (journal != null) {
+				journal.close();
+			}
+			if (history != null) {
+				history.close();
+			}
+			Files.write(CLEAN_SHUTDOWN_MARKER, Long.toString(System.currentTimeMillis()).getBytes(StandardCharsets.US_ASCII));
+		} catch (IOException e) {
+			logger.error("Unable to shut down cleanly", e);
 		}
 	}
 
@@ -173,7 +434,7 @@ public class WeatherWatcher {
 		}
 	}
 	
-	private static void sendEmail(String aSubject, String aMessage) {
+	private static void sendEmail(EmailConnection email, String aSubject, String aMessage) {
 		if (email == null) {
 			logger.info("Unable to send message.  Email not configured.  Message: " + aMessage);
 			return;
@@ -0,0 +1,111 @@
+package com.casad.weatherwatcher.controller;
+
+import java.util.Arrays;
+
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinState;
+
+/**
+ * Relays driven from Raspberry Pi GPIO pins through pi4j.
+ *
+ * pi4j has no way to set several arbitrary pins in one register write, so a
+ * write is made as at most two calls, one switching off every relay that is
+ * changing to off and then one switching on the rest. Writes are serialized
+ * so two callers can never interleave, and relays not in the mask are never
+ * touched.
+ */
+public class Pi4jRelayBank implements RelayBank {
+	private final GpioController gpio;
+	private final GpioPinDigitalOutput[] pins;
+	private final PinState on;
+	private final PinState off;
+	private long states = 0;
+
+	/**
+	 * @param pins
+	 *            the pin for each relay, in relay order
+	 * @param activeLow
+	 *            true if a relay is switched on by driving its pin low, as
+	 *            with most relay boards sold for the Pi
+	 */
+	public Pi4jRelayBank(GpioController gpio, Pin[] pins, boolean activeLow) {
+		if (pins.length > 64) {
+			throw new IllegalArgumentException("At most 64 pins are supported: " + pins.length);
+		}
+
+		this.gpio = gpio;
+		this.on = activeLow ? PinState.LOW : PinState.HIGH;
+		this.off = activeLow ? PinState.HIGH : PinState.LOW;
+		this.pins = new GpioPinDigitalOutput[pins.length];
+		for (int i = 0; i < pins.length; i++) {
+			this.pins[i] = gpio.provisionDigitalOutputPin(pins[i], "Relay " + (i + 1), off);
+		}
+	}
+
+	@Override
+	public int getRelayCount() {
+		return pins.length;
+	}
+
+	@Override
+	public synchronized boolean isOn(int relay) {
+		checkRelay(relay);
+		return (states & (1L << relay)) != 0;
+	}
+
+	@Override
+	public synchronized void write(int first, long mask, long states) {
+		if (first < 0 || (mask & ~lowBits(pins.length - first)) != 0) {
+			throw new IllegalArgumentException("Relays out of range: " + first + ", mask " + Long.toHexString(mask));
+		}
+
+		long bankMask = mask << first;
+		long changed = (this.states ^ (states << first)) & bankMask;
+		if (changed == 0) {
+			return;
+		}
+
+		long switchingOn = changed & (states << first);
+		long switchingOff = changed & ~switchingOn;
+		if (switchingOff != 0) {
+			gpio.setState(off, select(switchingOff));
+		}
+		if (switchingOn != 0) {
+			gpio.setState(on, select(switchingOn));
+		}
+		this.states ^= changed;
+	}
+
+	private GpioPinDigitalOutput[] select(long relays) {
+		GpioPinDigitalOutput[] selected = new GpioPinDigitalOutput[Long.bitCount(relays)];
+		int count = 0;
+		for (long remaining = relays; remaining != 0; remaining &= remaining - 1) {
+			selected[count++] = pins[Long.numberOfTrailingZeros(remaining)];
+		}
+		return selected;
+	}
+
+	private static long lowBits(int count) {
+		return count >= 64 ? -1L : count <= 0 ? 0 : (1L << count) - 1;
+	}
+
+	private void checkRelay(int relay) {
+		if (relay < 0 || relay >= pins.length) {
+			throw new IllegalArgumentException("No such relay: " + relay);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		gpio.setState(off, pins);
+		states = 0;
+		gpio.unprovisionPin(pins);
+	}
+
+	@Override
+	public String toString() {
+		return "Pi4jRelayBank" + Arrays.toString(pins);
+	}
+}
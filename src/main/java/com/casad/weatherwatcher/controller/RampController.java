@@ -1,30 +1,66 @@
 package com.casad.weatherwatcher.controller;
 
+/**
+ * Switches the ramp between its states. Safe to use from any number of
+ * threads: when the engine tick and a manual override race, each
+ * transition is made, and its action run, exactly once.
+ */
 public class RampController {
 
 	public enum RampState {
 		IDLE, READY, ACTIVE
 	};
 
-	private Runnable setIdle, setReady, setActive;
-	private RampState currentState = null;
+	private final Runnable setIdle, setReady, setActive;
+	private final StateMachine<RampState> state;
 
 	public RampController(Runnable makeIdle, Runnable makeReady, Runnable makeActive) {
 		setIdle = makeIdle;
 		setReady = makeReady;
 		setActive = makeActive;
 		
-		currentState = RampState.IDLE;
+		state = new StateMachine<RampState>(RampState.IDLE, this::actuate);
 		setIdle.run();
 	}
 
 	public void setState(RampState newState) {
 		if (newState == null) {
 			throw new IllegalArgumentException("Unknown or invalid state specified: " + newState);
-		} else if (currentState == newState) {
-			return;
 		}
-		
+		state.set(newState);
+	}
+
+	/**
+	 * Change the state only if it is still the expected one, so a decision
+	 * made on a state that has since changed is not applied.
+	 * 
+	 * @return true if the ramp is now in the next state
+	 */
+	public boolean transition(RampState expected, RampState next) {
+		if (expected == null || next == null) {
+			throw new IllegalArgumentException("Unknown or invalid state specified: " + expected + " to " + next);
+		}
+		return state.transition(expected, next);
+	}
+
+	public RampState getState() {
+		return state.get();
+	}
+
+	/**
+	 * Be told of every change of state, after its action has run. Listeners
+	 * are called in order of the changes, possibly on another thread that
+	 * changed the state at the same time.
+	 */
+	public void addListener(TransitionListener<RampState> listener) {
+		state.addListener(listener);
+	}
+
+	public void removeListener(TransitionListener<RampState> listener) {
+		state.removeListener(listener);
+	}
+
+	private void actuate(RampState newState) {
 		switch (newState) {
 		case IDLE:
 			setIdle.run();
@@ -38,11 +74,5 @@ public class RampController {
 		default:
 			throw new IllegalArgumentException("Unknown or invalid state specified: " + newState);
 		}
-		
-		currentState = newState;
-	}
-
-	public RampState getState() {
-		return currentState;
 	}
 }
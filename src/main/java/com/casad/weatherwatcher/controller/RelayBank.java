@@ -0,0 +1,37 @@
+package com.casad.weatherwatcher.controller;
+
+/**
+ * A numbered set of relays that can be switched together.
+ *
+ * A write changes any of up to 64 consecutive relays in one operation, so a
+ * ramp moving between states never shows a mix of its old and new relay
+ * settings to anything else writing to or reading from the bank.
+ */
+public interface RelayBank extends AutoCloseable {
+
+	int getRelayCount();
+
+	/**
+	 * @return true if the relay is switched on
+	 */
+	boolean isOn(int relay);
+
+	/**
+	 * Switch relays in one write. Relay first + i is changed if bit i of the
+	 * mask is set, and switched on if bit i of the states is set.
+	 */
+	void write(int first, long mask, long states);
+
+	/**
+	 * Switch a single relay.
+	 */
+	default void set(int relay, boolean on) {
+		write(relay, 1, on ? 1 : 0);
+	}
+
+	/**
+	 * Switch every relay off and release the hardware.
+	 */
+	@Override
+	void close();
+}
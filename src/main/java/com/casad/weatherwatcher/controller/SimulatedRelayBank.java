@@ -0,0 +1,192 @@
+package com.casad.weatherwatcher.controller;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.casad.weatherwatcher.metrics.LatencyHistogram;
+
+/**
+ * Relays that only exist in memory, so the watcher can run and be
+ * benchmarked without a Pi, and fleet load tests can drive thousands of
+ * ramps.
+ *
+ * Relays are held as bits, 64 to a word, and a write is a compare-and-set
+ * on the words it touches. A write that stays within one aligned block of
+ * 64 relays is atomic; one that crosses a block boundary is made under a
+ * lock, so it never interleaves with another crossing write. Ramps given
+ * relays that do not straddle a boundary can be switched from any number
+ * of threads without locking.
+ *
+ * The bank records how long each write took, including an optional delay
+ * standing in for the relays physically switching, and how often and for
+ * how long each relay has been on.
+ */
+public class SimulatedRelayBank implements RelayBank {
+	private final int relayCount;
+	private final AtomicLongArray words;
+	private final AtomicIntegerArray switchCounts;
+	private final AtomicLongArray switchedAt;
+	private final AtomicLongArray onNanos;
+
+	private final LongAdder writes = new LongAdder();
+	private final LatencyHistogram writeLatency = new LatencyHistogram();
+	private volatile long switchDelayNanos = 0;
+
+	public SimulatedRelayBank(int relayCount) {
+		if (relayCount < 1) {
+			throw new IllegalArgumentException("At least one relay is required: " + relayCount);
+		}
+
+		this.relayCount = relayCount;
+		words = new AtomicLongArray((relayCount + 63) >>> 6);
+		switchCounts = new AtomicIntegerArray(relayCount);
+		switchedAt = new AtomicLongArray(relayCount);
+		onNanos = new AtomicLongArray(relayCount);
+	}
+
+	/**
+	 * Take this long over every write that switches a relay, like a real
+	 * relay's contacts moving. Defaults to 0.
+	 */
+	public void setSwitchDelay(long delay, TimeUnit unit) {
+		switchDelayNanos = unit.toNanos(delay);
+	}
+
+	@Override
+	public int getRelayCount() {
+		return relayCount;
+	}
+
+	@Override
+	public boolean isOn(int relay) {
+		checkRelay(relay);
+		return (words.get(relay >>> 6) & (1L << relay)) != 0;
+	}
+
+	/**
+	 * @return the 64 relays starting from the first, read in one go if they
+	 *         are within one aligned block
+	 */
+	public long read(int first) {
+		checkRelay(first);
+		int word = first >>> 6;
+		int shift = first & 63;
+		long states = words.get(word) >>> shift;
+		if (shift != 0 && word + 1 < words.length()) {
+			states |= words.get(word + 1) << (64 - shift);
+		}
+		return states;
+	}
+
+	@Override
+	public void write(int first, long mask, long states) {
+		if (first < 0 || first >= relayCount || (first > relayCount - 64 && (mask >>> (relayCount - first)) != 0)) {
+			throw new IllegalArgumentException("Relays out of range: " + first + ", mask " + Long.toHexString(mask));
+		}
+
+		long start = System.nanoTime();
+		int word = first >>> 6;
+		int shift = first & 63;
+		long lowMask = mask << shift;
+		long highMask = shift == 0 ? 0 : mask >>> (64 - shift);
+
+		boolean switched;
+		if (highMask == 0) {
+			switched = update(word, lowMask, states << shift) != 0;
+		} else {
+			synchronized (this) {
+				switched = update(word, lowMask, states << shift) != 0;
+				switched |= update(word + 1, highMask, states >>> (64 - shift)) != 0;
+			}
+		}
+
+		writes.increment();
+		if (switched && switchDelayNanos > 0) {
+			LockSupport.parkNanos(switchDelayNanos);
+		}
+		writeLatency.recordSince(start);
+	}
+
+	/**
+	 * @return the bits that were changed
+	 */
+	private long update(int word, long mask, long states) {
+		long current;
+		long next;
+		do {
+			current = words.get(word);
+			next = (current & ~mask) | (states & mask);
+			if (next == current) {
+				return 0;
+			}
+		} while (!words.compareAndSet(word, current, next));
+
+		long changed = current ^ next;
+		long now = System.nanoTime();
+		for (long remaining = changed; remaining != 0; remaining &= remaining - 1) {
+			int relay = (word << 6) + Long.numberOfTrailingZeros(remaining);
+			switchCounts.incrementAndGet(relay);
+			long since = switchedAt.getAndSet(relay, now);
+			if ((current & Long.lowestOneBit(remaining)) != 0 && since != 0) {
+				// Switched off, it was on since the last switch
+				onNanos.addAndGet(relay, now - since);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * @return how many times the relay has been switched
+	 */
+	public int getSwitchCount(int relay) {
+		checkRelay(relay);
+		return switchCounts.get(relay);
+	}
+
+	/**
+	 * @return roughly how long the relay has been on in total
+	 */
+	public long getOnTime(int relay, TimeUnit unit) {
+		checkRelay(relay);
+		long total = onNanos.get(relay);
+		if (isOn(relay)) {
+			total += System.nanoTime() - switchedAt.get(relay);
+		}
+		return unit.convert(total, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return the number of writes made, including any that changed nothing
+	 */
+	public long getWriteCount() {
+		return writes.sum();
+	}
+
+	/**
+	 * @return how long each write took, including the switch delay
+	 */
+	public LatencyHistogram getWriteLatency() {
+		return writeLatency;
+	}
+
+	private void checkRelay(int relay) {
+		if (relay < 0 || relay >= relayCount) {
+			throw new IllegalArgumentException("No such relay: " + relay);
+		}
+	}
+
+	@Override
+	public void close() {
+		for (int relay = 0; relay < relayCount; relay += 64) {
+			write(relay, -1L >>> Math.max(0, 64 - (relayCount - relay)), 0);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SimulatedRelayBank[" + relayCount + " relays, " + getWriteCount() + " writes]";
+	}
+}
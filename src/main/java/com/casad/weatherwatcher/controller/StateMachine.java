@@ -0,0 +1,161 @@
+package com.casad.weatherwatcher.controller;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The state behind a controller, changed by compare-and-set so each
+ * transition is won by exactly one caller and actuated exactly once.
+ *
+ * Every transition is linked to the one before it. Whichever caller finds
+ * nothing being actuated runs the actuations, and then the listeners, for
+ * every transition not yet run, oldest first; anyone who wins a transition
+ * while that is happening leaves theirs to it and waits for it to be run. So
+ * the outputs always end up matching the state, and every transition is
+ * actuated before the call that made it returns.
+ *
+ * If the actuator fails the state stays changed, but the failure is thrown
+ * from the call that made the transition, whichever thread ran it. The one
+ * exception is a transition made from inside an actuator or listener, which
+ * cannot wait for the run it is part of; its failure is only logged.
+ */
+final class StateMachine<S> {
+	private static final Logger logger = LoggerFactory.getLogger(StateMachine.class);
+
+	private static final class Transition<S> {
+		final S from;
+		final S to;
+		volatile Transition<S> next;
+		volatile RuntimeException failure;
+		boolean done;
+
+		Transition(S from, S to) {
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	private final Consumer<S> actuator;
+	private final AtomicReference<Transition<S>> current;
+	private final AtomicInteger pending = new AtomicInteger();
+	private final List<TransitionListener<S>> listeners = new CopyOnWriteArrayList<>();
+	private Transition<S> actuated;
+	private volatile Thread actuating;
+
+	StateMachine(S initial, Consumer<S> actuator) {
+		this.actuator = actuator;
+		actuated = new Transition<S>(null, initial);
+		current = new AtomicReference<>(actuated);
+	}
+
+	S get() {
+		return current.get().to;
+	}
+
+	/**
+	 * Move to the next state if the current state is the expected one.
+	 *
+	 * @return false if the state was something else
+	 * @throws RuntimeException
+	 *             if the state changed but the actuator failed
+	 */
+	boolean transition(S expected, S next) {
+		Transition<S> last = current.get();
+		if (last.to != expected) {
+			return false;
+		} else if (expected == next) {
+			return true;
+		}
+
+		Transition<S> transition = new Transition<S>(expected, next);
+		if (!current.compareAndSet(last, transition)) {
+			return false;
+		}
+		last.next = transition;
+		actuate();
+		if (actuating != Thread.currentThread()) {
+			awaitActuation(transition);
+		}
+
+		RuntimeException failure = transition.failure;
+		if (failure != null) {
+			throw new RuntimeException("Moved to " + next + " but was unable to actuate it", failure);
+		}
+		return true;
+	}
+
+	private static <S> void awaitActuation(Transition<S> transition) {
+		synchronized (transition) {
+			while (!transition.done) {
+				try {
+					transition.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Move to the state from whatever it is now.
+	 *
+	 * @return the state before, which is the new state if nothing changed
+	 */
+	S set(S next) {
+		while (true) {
+			S state = get();
+			if (transition(state, next)) {
+				return state;
+			}
+		}
+	}
+
+	void addListener(TransitionListener<S> listener) {
+		listeners.add(listener);
+	}
+
+	void removeListener(TransitionListener<S> listener) {
+		listeners.remove(listener);
+	}
+
+	private void actuate() {
+		if (pending.getAndIncrement() != 0) {
+			return;
+		}
+
+		int missed = 1;
+		do {
+			actuating = Thread.currentThread();
+			Transition<S> transition;
+			while ((transition = actuated.next) != null) {
+				actuated = transition;
+				try {
+					actuator.accept(transition.to);
+				} catch (RuntimeException e) {
+					logger.error("Unable to actuate " + transition.to, e);
+					transition.failure = e;
+				}
+				for (TransitionListener<S> listener : listeners) {
+					try {
+						listener.onTransition(transition.from, transition.to);
+					} catch (RuntimeException e) {
+						logger.error("Transition listener failed on " + transition.from + " to " + transition.to, e);
+					}
+				}
+				synchronized (transition) {
+					transition.done = true;
+					transition.notifyAll();
+				}
+			}
+			actuating = null;
+			missed = pending.addAndGet(-missed);
+		} while (missed != 0);
+	}
+}
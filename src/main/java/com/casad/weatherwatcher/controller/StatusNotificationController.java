@@ -1,27 +1,58 @@
 package com.casad.weatherwatcher.controller;
 
+/**
+ * Switches the status output between good and bad. Like the
+ * {@link RampController}, each change is made, and its action run, exactly
+ * once however many threads report the status.
+ */
 public class StatusNotificationController {
 	
 	public enum StatusState {
 		GOOD, BAD
 	};
 
-	private Runnable setGood, setBad;
-	private StatusState currentStatus = null;
+	private final Runnable setGood, setBad;
+	private final StateMachine<StatusState> status;
 
 	public StatusNotificationController(Runnable makeGood, Runnable makeBad) {
 		setGood = makeGood;
 		setBad = makeBad;
-		currentStatus = null;
+		status = new StateMachine<StatusState>(null, this::actuate);
 	}
 
 	public void setStatus(StatusState newStatus) {
 		if (newStatus == null) {
 			throw new IllegalArgumentException("Unknown or invalid status specified: " + newStatus);
-		} else if (currentStatus == newStatus) {
-			return;
 		}
-		
+		status.set(newStatus);
+	}
+
+	/**
+	 * Change the status only if it is still the expected one, which is null
+	 * before the status is first set.
+	 * 
+	 * @return true if the status is now the next one
+	 */
+	public boolean transition(StatusState expected, StatusState next) {
+		if (next == null) {
+			throw new IllegalArgumentException("Unknown or invalid status specified: " + next);
+		}
+		return status.transition(expected, next);
+	}
+
+	public StatusState getStatus() {
+		return status.get();
+	}
+
+	public void addListener(TransitionListener<StatusState> listener) {
+		status.addListener(listener);
+	}
+
+	public void removeListener(TransitionListener<StatusState> listener) {
+		status.removeListener(listener);
+	}
+
+	private void actuate(StatusState newStatus) {
 		switch (newStatus) {
 		case GOOD:
 			setGood.run();
@@ -32,11 +63,5 @@ public class StatusNotificationController {
 		default:
 			throw new IllegalArgumentException("Unknown or invalid status specified: " + newStatus);
 		}
-		
-		currentStatus = newStatus;
-	}
-
-	public StatusState getStatus() {
-		return currentStatus;
 	}
 }
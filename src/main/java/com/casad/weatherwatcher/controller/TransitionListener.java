@@ -0,0 +1,15 @@
+package com.casad.weatherwatcher.controller;
+
+/**
+ * Told about every state change a controller makes, in the order they were
+ * made, after the change has been actuated.
+ */
+@FunctionalInterface
+public interface TransitionListener<S> {
+
+	/**
+	 * @param from
+	 *            the state before, null if the controller had no state yet
+	 */
+	void onTransition(S from, S to);
+}
@@ -0,0 +1,83 @@
+package com.casad.weatherwatcher.history;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numbers strings in the order they are first seen and keeps them in a text
+ * file, one per line, so the numbers stored in segments mean the same thing
+ * after a restart.
+ */
+final class Dictionary {
+	private final Path file;
+	private final Map<String, Integer> numbers = new HashMap<>();
+	private final List<String> values = new ArrayList<>();
+
+	private Dictionary(Path file) {
+		this.file = file;
+	}
+
+	static Dictionary open(Path file) throws IOException {
+		Dictionary dictionary = new Dictionary(file);
+		if (Files.exists(file)) {
+			for (String value : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+				dictionary.numbers.put(value, dictionary.values.size());
+				dictionary.values.add(value);
+			}
+		}
+		return dictionary;
+	}
+
+	/**
+	 * @return the number for the value, adding it to the file if it is new
+	 */
+	int numberOf(String value) {
+		Integer number = numbers.get(value);
+		if (number != null) {
+			return number;
+		}
+		if (value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+			throw new IllegalArgumentException("Line breaks can not be stored: " + value);
+		}
+
+		try {
+			Files.write(file, Collections.singletonList(value), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+					StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		number = values.size();
+		numbers.put(value, number);
+		values.add(value);
+		return number;
+	}
+
+	/**
+	 * @return the number for the value, or -1 if it has never been stored
+	 */
+	int find(String value) {
+		Integer number = numbers.get(value);
+		return number == null ? -1 : number;
+	}
+
+	List<String> values() {
+		return new ArrayList<>(values);
+	}
+
+	String valueOf(int number) {
+		return number >= 0 && number < values.size() ? values.get(number) : null;
+	}
+
+	int size() {
+		return values.size();
+	}
+}
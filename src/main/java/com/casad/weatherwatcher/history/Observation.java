@@ -0,0 +1,66 @@
+package com.casad.weatherwatcher.history;
+
+import com.casad.weatherwatcher.ConditionCodes;
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+
+/**
+ * One row of the weather history: the weather a site saw on a tick and the
+ * state its ramp was left in.
+ *
+ * Queries reuse a single instance for every row they visit, so copy out
+ * anything that needs to outlive the call.
+ */
+public final class Observation {
+	String siteId;
+	long timestamp;
+	float tempF;
+	final int[] codes = new int[WeatherSnapshot.PERIODS + 1];
+	RampState state;
+
+	Observation() {
+	}
+
+	public String getSiteId() {
+		return siteId;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public float getTempF() {
+		return tempF;
+	}
+
+	/**
+	 * @return the {@link ConditionCodes} code for the current conditions
+	 */
+	public int getCurrentCode() {
+		return codes[0];
+	}
+
+	/**
+	 * @param period
+	 *            the forecast period, 1 to {@link WeatherSnapshot#PERIODS}
+	 */
+	public int getPeriodCode(int period) {
+		if (period < 1 || period > WeatherSnapshot.PERIODS) {
+			throw new IllegalArgumentException("Unknown forecast period: " + period);
+		}
+		return codes[period];
+	}
+
+	public RampState getState() {
+		return state;
+	}
+
+	public WeatherSnapshot toSnapshot() {
+		return new WeatherSnapshot(tempF, codes[0], codes[1], codes[2], codes[3]);
+	}
+
+	@Override
+	public String toString() {
+		return siteId + "@" + timestamp + ": " + state + ", " + toSnapshot();
+	}
+}
@@ -0,0 +1,252 @@
+package com.casad.weatherwatcher.history;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.casad.weatherwatcher.WeatherSnapshot;
+
+/**
+ * A memory-mapped file holding a fixed number of rows, stored column by
+ * column: every timestamp, then every site number, every temperature, each
+ * of the condition code columns and finally every ramp state. A scan over
+ * one column reads contiguous memory and never touches the others.
+ *
+ * The header holds the number of rows written, updated after each row, and
+ * the range of timestamps in the segment so whole segments can be skipped
+ * by a query or dropped by retention.
+ *
+ * Each segment keeps an in-memory index of the rows for every site, rebuilt
+ * from the site column when the segment is opened.
+ */
+final class Segment implements AutoCloseable {
+	private static final int MAGIC = 0x57574831;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+	private static final int CODE_COLUMNS = WeatherSnapshot.PERIODS + 1;
+	static final int ROW_SIZE = 8 + 4 + 4 + 4 * CODE_COLUMNS + 1;
+
+	private static final int ROWS_OFFSET = 12;
+	private static final int MIN_TIME_OFFSET = 16;
+	private static final int MAX_TIME_OFFSET = 24;
+
+	private final Path file;
+	private final long sequence;
+	private final int capacity;
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+
+	private final int siteColumn;
+	private final int tempColumn;
+	private final int codeColumn;
+	private final int stateColumn;
+
+	private int rows;
+	private long minTime;
+	private long maxTime;
+	private final Map<Integer, Rows> index = new HashMap<>();
+
+	/**
+	 * The rows of one site, in the order they were written.
+	 */
+	static final class Rows {
+		int[] rows = new int[16];
+		int size = 0;
+		long lastTime = Long.MIN_VALUE;
+		boolean sorted = true;
+
+		void add(int row, long time) {
+			if (size == rows.length) {
+				rows = Arrays.copyOf(rows, size * 2);
+			}
+			rows[size++] = row;
+			sorted &= time >= lastTime;
+			lastTime = Math.max(lastTime, time);
+		}
+	}
+
+	private Segment(Path file, long sequence, int capacity, FileChannel channel, MappedByteBuffer buffer) {
+		this.file = file;
+		this.sequence = sequence;
+		this.capacity = capacity;
+		this.channel = channel;
+		this.buffer = buffer;
+
+		siteColumn = HEADER_SIZE + capacity * 8;
+		tempColumn = siteColumn + capacity * 4;
+		codeColumn = tempColumn + capacity * 4;
+		stateColumn = codeColumn + capacity * 4 * CODE_COLUMNS;
+	}
+
+	static Segment create(Path file, long sequence, int capacity) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * ROW_SIZE);
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(8, capacity);
+		buffer.putInt(ROWS_OFFSET, 0);
+		buffer.putLong(MIN_TIME_OFFSET, Long.MAX_VALUE);
+		buffer.putLong(MAX_TIME_OFFSET, Long.MIN_VALUE);
+
+		Segment segment = new Segment(file, sequence, capacity, channel, buffer);
+		segment.minTime = Long.MAX_VALUE;
+		segment.maxTime = Long.MIN_VALUE;
+		return segment;
+	}
+
+	/**
+	 * @param writable
+	 *            map the segment for writing so rows can be added to it
+	 * @return the segment, or null if the file is not a segment
+	 */
+	static Segment open(Path file, long sequence, boolean writable) throws IOException {
+		FileChannel channel = writable
+				? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(file, StandardOpenOption.READ);
+		if (channel.size() < HEADER_SIZE) {
+			channel.close();
+			return null;
+		}
+
+		MappedByteBuffer buffer = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+				0, channel.size());
+		int capacity = buffer.getInt(8);
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+				|| channel.size() != HEADER_SIZE + (long) capacity * ROW_SIZE) {
+			channel.close();
+			return null;
+		}
+
+		Segment segment = new Segment(file, sequence, capacity, channel, buffer);
+		segment.rows = Math.min(buffer.getInt(ROWS_OFFSET), capacity);
+		segment.minTime = buffer.getLong(MIN_TIME_OFFSET);
+		segment.maxTime = buffer.getLong(MAX_TIME_OFFSET);
+		for (int row = 0; row < segment.rows; row++) {
+			segment.rowsOf(segment.getSite(row), true).add(row, segment.getTime(row));
+		}
+		return segment;
+	}
+
+	/**
+	 * @return false if the segment is full
+	 */
+	boolean append(long time, int site, float tempF, int[] codes, byte state) {
+		if (rows == capacity) {
+			return false;
+		}
+
+		int row = rows;
+		buffer.putLong(HEADER_SIZE + row * 8, time);
+		buffer.putInt(siteColumn + row * 4, site);
+		buffer.putFloat(tempColumn + row * 4, tempF);
+		for (int column = 0; column < CODE_COLUMNS; column++) {
+			buffer.putInt(codeColumn + (column * capacity + row) * 4, codes[column]);
+		}
+		buffer.put(stateColumn + row, state);
+
+		minTime = Math.min(minTime, time);
+		maxTime = Math.max(maxTime, time);
+		buffer.putLong(MIN_TIME_OFFSET, minTime);
+		buffer.putLong(MAX_TIME_OFFSET, maxTime);
+		// The row count goes in last, marking the row complete
+		rows = row + 1;
+		buffer.putInt(ROWS_OFFSET, rows);
+
+		rowsOf(site, true).add(row, time);
+		return true;
+	}
+
+	Rows rowsOf(int site, boolean create) {
+		Rows siteRows = index.get(site);
+		if (siteRows == null && create) {
+			siteRows = new Rows();
+			index.put(site, siteRows);
+		}
+		return siteRows;
+	}
+
+	/**
+	 * @return the position in the site's rows of the first one at or after
+	 *         the time
+	 */
+	int firstAtOrAfter(Rows siteRows, long time) {
+		int low = 0;
+		int high = siteRows.size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (getTime(siteRows.rows[middle]) < time) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	boolean overlaps(long from, long to) {
+		return rows > 0 && minTime < to && maxTime >= from;
+	}
+
+	long getTime(int row) {
+		return buffer.getLong(HEADER_SIZE + row * 8);
+	}
+
+	int getSite(int row) {
+		return buffer.getInt(siteColumn + row * 4);
+	}
+
+	float getTempF(int row) {
+		return buffer.getFloat(tempColumn + row * 4);
+	}
+
+	/**
+	 * @param column
+	 *            0 for the current conditions, otherwise the forecast period
+	 */
+	int getCode(int row, int column) {
+		return buffer.getInt(codeColumn + (column * capacity + row) * 4);
+	}
+
+	byte getState(int row) {
+		return buffer.get(stateColumn + row);
+	}
+
+	int getRowCount() {
+		return rows;
+	}
+
+	boolean isFull() {
+		return rows == capacity;
+	}
+
+	long getMinTime() {
+		return minTime;
+	}
+
+	long getMaxTime() {
+		return maxTime;
+	}
+
+	long getSequence() {
+		return sequence;
+	}
+
+	Path getFile() {
+		return file;
+	}
+
+	void force() {
+		buffer.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,446 @@
+package com.casad.weatherwatcher.history;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.casad.weatherwatcher.ConditionCodes;
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+
+/**
+ * A time series of every site's weather observations and ramp state, kept on
+ * disk in a directory of fixed-size columnar {@link Segment}s.
+ *
+ * Rows are appended to the newest segment, and a new one is started when it
+ * fills up or once it spans the segment span, a week by default. Site ids
+ * and condition descriptions are dictionary encoded, with the dictionaries
+ * kept alongside the segments, so a row is a fixed 33 bytes. Queries skip
+ * segments outside the time range, and use each segment's per-site index to
+ * go straight to a site's rows rather than scanning the others.
+ *
+ * Retention works a segment at a time: once the newest row in a segment is
+ * older than the retention period the whole file is deleted. It is applied
+ * whenever a new segment is started, so the span also bounds how long an
+ * expired row can outlive the retention period.
+ *
+ * Queries read from the segments as they were when the query started. Only
+ * the newest segment, the one still written to, is read under the lock, so
+ * many queries can run at once and a long one holds up recording for no
+ * more than its time in the newest segment.
+ */
+public class WeatherHistory implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(WeatherHistory.class);
+
+	public static final int DEFAULT_SEGMENT_ROWS = 64 * 1024;
+	public static final long DEFAULT_SEGMENT_SPAN_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".wwh";
+	private static final RampState[] STATES = RampState.values();
+
+	private final Path directory;
+	private final int segmentRows;
+	private final Dictionary sites;
+	private final Dictionary conditions;
+
+	/** Oldest first, the last one is written to */
+	private final List<Segment> segments = new ArrayList<>();
+	/** A copy of the segments, published whenever one is added or removed */
+	private volatile Segment[] readable = new Segment[0];
+
+	/** Stored condition code, indexed by {@link ConditionCodes} code */
+	private int[] storedCodes = new int[0];
+
+	private final int[] rowCodes = new int[WeatherSnapshot.PERIODS + 1];
+
+	private long nextSequence = 1;
+	private long retentionMillis = 0;
+	private long segmentSpanMillis = DEFAULT_SEGMENT_SPAN_MILLIS;
+	private boolean closed = false;
+
+	private WeatherHistory(Path directory, int segmentRows, Dictionary sites, Dictionary conditions) {
+		this.directory = directory;
+		this.segmentRows = segmentRows;
+		this.sites = sites;
+		this.conditions = conditions;
+	}
+
+	public static WeatherHistory open(Path directory) throws IOException {
+		return open(directory, DEFAULT_SEGMENT_ROWS);
+	}
+
+	/**
+	 * @param segmentRows
+	 *            how many rows each new segment holds
+	 */
+	public static WeatherHistory open(Path directory, int segmentRows) throws IOException {
+		if (segmentRows <= 0) {
+			throw new IllegalArgumentException("Segments must hold at least one row");
+		}
+
+		long start = System.nanoTime();
+		Files.createDirectories(directory);
+		WeatherHistory history = new WeatherHistory(directory, segmentRows,
+				Dictionary.open(directory.resolve("sites.dict")),
+				Dictionary.open(directory.resolve("conditions.dict")));
+
+		List<Long> sequences = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				try {
+					sequences.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					logger.warn("Ignoring " + file + " in the weather history");
+				}
+			}
+		}
+		sequences.sort(null);
+		if (!sequences.isEmpty()) {
+			history.nextSequence = sequences.get(sequences.size() - 1) + 1;
+		}
+
+		for (int i = 0; i < sequences.size(); i++) {
+			Path file = history.segmentFile(sequences.get(i));
+			Segment segment = Segment.open(file, sequences.get(i), i == sequences.size() - 1);
+			if (segment == null) {
+				logger.warn("Ignoring " + file + ", it is not a weather history segment");
+			} else {
+				history.segments.add(segment);
+			}
+		}
+		history.publish();
+
+		logger.info("Opened weather history in " + directory + ": " + history.segments.size() + " segments, "
+				+ history.size() + " rows in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+		return history;
+	}
+
+	/**
+	 * Delete segments once everything in them is older than the retention
+	 * period. 0, the default, keeps everything.
+	 */
+	public synchronized void setRetention(long retention, TimeUnit unit) {
+		retentionMillis = unit.toMillis(retention);
+	}
+
+	/**
+	 * Start a new segment once the first row in the newest one is this much
+	 * older than the row being recorded. 0 only starts a new segment when
+	 * the newest one is full.
+	 */
+	public synchronized void setSegmentSpan(long span, TimeUnit unit) {
+		segmentSpanMillis = unit.toMillis(span);
+	}
+
+	/**
+	 * Record what a site saw on a tick.
+	 */
+	public synchronized void record(String siteId, long timestamp, WeatherSnapshot snapshot, RampState state) {
+		if (closed) {
+			throw new IllegalStateException("The weather history is closed");
+		}
+
+		int site = sites.numberOf(siteId);
+		rowCodes[0] = storedCode(snapshot.getCurrentCode());
+		for (int period = 1; period <= WeatherSnapshot.PERIODS; period++) {
+			rowCodes[period] = storedCode(snapshot.getPeriodCode(period));
+		}
+		byte stateOrdinal = (byte) (state == null ? -1 : state.ordinal());
+
+		Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		if (segment == null || isSpanned(segment, timestamp)
+				|| !segment.append(timestamp, site, snapshot.getTempF(), rowCodes, stateOrdinal)) {
+			segment = roll();
+			segment.append(timestamp, site, snapshot.getTempF(), rowCodes, stateOrdinal);
+			applyRetention(timestamp);
+		}
+	}
+
+	private boolean isSpanned(Segment segment, long timestamp) {
+		return segmentSpanMillis > 0 && segment.getRowCount() > 0 && timestamp - segment.getMinTime() >= segmentSpanMillis;
+	}
+
+	private Segment roll() {
+		long sequence = nextSequence++;
+		try {
+			Segment segment = Segment.create(segmentFile(sequence), sequence, segmentRows);
+			segments.add(segment);
+			publish();
+			logger.debug("Started weather history segment " + segment.getFile());
+			return segment;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void publish() {
+		readable = segments.toArray(new Segment[0]);
+	}
+
+	private Path segmentFile(long sequence) {
+		return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+	}
+
+	/**
+	 * Visit a site's observations from the given time, inclusive, up to the
+	 * given time, exclusive, in the order they were recorded.
+	 *
+	 * @return the number of observations visited
+	 */
+	public int query(String siteId, long from, long to, Consumer<Observation> visitor) {
+		int site;
+		synchronized (this) {
+			site = sites.find(siteId);
+		}
+		if (site < 0) {
+			return 0;
+		}
+
+		Reader reader = new Reader();
+		Segment[] snapshot = readable;
+		int count = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			if (i < snapshot.length - 1) {
+				count += reader.query(snapshot[i], site, siteId, from, to, visitor);
+			} else {
+				synchronized (this) {
+					count += reader.query(snapshot[i], site, siteId, from, to, visitor);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Visit every site's observations from the given time, inclusive, up to
+	 * the given time, exclusive, in the order they were recorded.
+	 *
+	 * @return the number of observations visited
+	 */
+	public int query(long from, long to, Consumer<Observation> visitor) {
+		Reader reader = new Reader();
+		Segment[] snapshot = readable;
+		int count = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			if (i < snapshot.length - 1) {
+				count += reader.query(snapshot[i], from, to, visitor);
+			} else {
+				synchronized (this) {
+					count += reader.query(snapshot[i], from, to, visitor);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Stored codes are 1 + the condition's number in the dictionary, 0 is
+	 * {@link ConditionCodes#NONE}.
+	 */
+	private int storedCode(int code) {
+		if (code == ConditionCodes.NONE) {
+			return 0;
+		}
+		if (code >= storedCodes.length) {
+			storedCodes = Arrays.copyOf(storedCodes, Math.max(code + 1, storedCodes.length * 2));
+		}
+		if (storedCodes[code] == 0) {
+			storedCodes[code] = conditions.numberOf(ConditionCodes.nameOf(code)) + 1;
+		}
+		return storedCodes[code];
+	}
+
+	/**
+	 * The state of one query: the observation it hands out and the site ids
+	 * and condition codes it has looked up, so queries running at once share
+	 * nothing but the segments.
+	 */
+	private final class Reader {
+		private final Observation observation = new Observation();
+		/** {@link ConditionCodes} code, indexed by stored condition code */
+		private int[] localCodes = new int[0];
+		private String[] siteIds = new String[0];
+
+		int query(Segment segment, int site, String siteId, long from, long to, Consumer<Observation> visitor) {
+			Segment.Rows siteRows = segment.overlaps(from, to) ? segment.rowsOf(site, false) : null;
+			if (siteRows == null) {
+				return 0;
+			}
+
+			int count = 0;
+			if (siteRows.sorted) {
+				for (int i = segment.firstAtOrAfter(siteRows, from); i < siteRows.size; i++) {
+					int row = siteRows.rows[i];
+					if (segment.getTime(row) >= to) {
+						break;
+					}
+					visit(segment, row, siteId, visitor);
+					count++;
+				}
+			} else {
+				// Recorded out of order, fall back to checking every row
+				for (int i = 0; i < siteRows.size; i++) {
+					long time = segment.getTime(siteRows.rows[i]);
+					if (time >= from && time < to) {
+						visit(segment, siteRows.rows[i], siteId, visitor);
+						count++;
+					}
+				}
+			}
+			return count;
+		}
+
+		int query(Segment segment, long from, long to, Consumer<Observation> visitor) {
+			if (!segment.overlaps(from, to)) {
+				return 0;
+			}
+
+			int count = 0;
+			boolean all = segment.getMinTime() >= from && segment.getMaxTime() < to;
+			for (int row = 0; row < segment.getRowCount(); row++) {
+				if (!all) {
+					long time = segment.getTime(row);
+					if (time < from || time >= to) {
+						continue;
+					}
+				}
+				visit(segment, row, siteId(segment.getSite(row)), visitor);
+				count++;
+			}
+			return count;
+		}
+
+		private void visit(Segment segment, int row, String siteId, Consumer<Observation> visitor) {
+			observation.siteId = siteId;
+			observation.timestamp = segment.getTime(row);
+			observation.tempF = segment.getTempF(row);
+			for (int column = 0; column <= WeatherSnapshot.PERIODS; column++) {
+				observation.codes[column] = localCode(segment.getCode(row, column));
+			}
+			byte state = segment.getState(row);
+			observation.state = state >= 0 && state < STATES.length ? STATES[state] : null;
+			visitor.accept(observation);
+		}
+
+		private String siteId(int site) {
+			if (site >= siteIds.length) {
+				siteIds = Arrays.copyOf(siteIds, Math.max(site + 1, siteIds.length * 2));
+			}
+			if (siteIds[site] == null) {
+				synchronized (WeatherHistory.this) {
+					siteIds[site] = sites.valueOf(site);
+				}
+			}
+			return siteIds[site];
+		}
+
+		private int localCode(int stored) {
+			if (stored <= 0) {
+				return ConditionCodes.NONE;
+			}
+			if (stored >= localCodes.length) {
+				localCodes = Arrays.copyOf(localCodes, Math.max(stored + 1, localCodes.length * 2));
+			}
+			if (localCodes[stored] == 0) {
+				String name;
+				synchronized (WeatherHistory.this) {
+					name = conditions.valueOf(stored - 1);
+				}
+				localCodes[stored] = ConditionCodes.codeOf(name);
+			}
+			return localCodes[stored];
+		}
+	}
+
+	/**
+	 * Delete the segments that are entirely older than the retention period,
+	 * including the newest one if nothing has been recorded for that long.
+	 * This is done whenever a new segment is started.
+	 *
+	 * @return the number of segments deleted
+	 */
+	public synchronized int applyRetention(long now) {
+		if (retentionMillis <= 0) {
+			return 0;
+		}
+
+		long cutoff = now - retentionMillis;
+		int deleted = 0;
+		// The next row recorded starts a new segment if the newest goes
+		while (!segments.isEmpty() && segments.get(0).getRowCount() > 0
+				&& segments.get(0).getMaxTime() < cutoff) {
+			Segment segment = segments.remove(0);
+			try {
+				segment.close();
+				Files.deleteIfExists(segment.getFile());
+				deleted++;
+			} catch (IOException e) {
+				logger.error("Unable to delete " + segment.getFile(), e);
+			}
+		}
+		if (deleted > 0) {
+			publish();
+			logger.info("Deleted " + deleted + " weather history segments older than " + cutoff);
+		}
+		return deleted;
+	}
+
+	/**
+	 * @return every site that has ever been recorded, including any whose
+	 *         rows have since been deleted by retention
+	 */
+	public synchronized List<String> getSiteIds() {
+		return sites.values();
+	}
+
+	/**
+	 * @return the number of rows in the history
+	 */
+	public synchronized long size() {
+		long rows = 0;
+		for (Segment segment : segments) {
+			rows += segment.getRowCount();
+		}
+		return rows;
+	}
+
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Write everything recorded so far through to the disk.
+	 */
+	public synchronized void force() {
+		if (!segments.isEmpty()) {
+			segments.get(segments.size() - 1).force();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+		force();
+		for (Segment segment : segments) {
+			segment.close();
+		}
+		segments.clear();
+		publish();
+	}
+}
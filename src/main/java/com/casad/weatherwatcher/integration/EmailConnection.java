@@ -1,6 +1,12 @@
 package com.casad.weatherwatcher.integration;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.mail.Message;
 import javax.mail.MessagingException;
@@ -10,30 +16,160 @@ import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.casad.weatherwatcher.metrics.Counter;
+import com.casad.weatherwatcher.metrics.LatencyHistogram;
+import com.casad.weatherwatcher.metrics.MetricsRegistry;
+
+/**
+ * Sends notification emails over SMTP.
+ *
+ * By default every message opens its own connection. With
+ * {@link #setPersistentConnection(boolean)} one authenticated connection is
+ * kept open and reused, saving the TLS handshake and login on every message.
+ * It is closed after sitting idle and reopened when the next message is sent
+ * or if the server drops it.
+ *
+ * With {@link #setDigestWindow(long, TimeUnit)} messages are held for the
+ * window and sent together as a single email, so a burst of updates from
+ * many sites becomes one message.
+ */
 public class EmailConnection {
+	private static final Logger logger = LoggerFactory.getLogger(EmailConnection.class);
+
+	private static final LatencyHistogram latency = MetricsRegistry.getDefault().histogram(MetricsRegistry.NOTIFY_EMAIL);
+	private static final Counter errors = MetricsRegistry.getDefault().counter(MetricsRegistry.NOTIFY_ERRORS);
+
+	private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "email-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	private final Properties connectionProperties;
 	private final String username;
 	private final String password;
 	private final String notifyAddress;
-	
+	private final Session session;
+
+	private boolean persistent = false;
+	private long idleTimeoutMillis = TimeUnit.MINUTES.toMillis(1);
+	private long digestWindowMillis = 0;
+
+	private Transport transport = null;
+	private long lastUsed = 0;
+	private ScheduledFuture<?> idleCheck = null;
+	private long connectCount = 0;
+	private long sentCount = 0;
+	private int sending = 0;
+
+	private final List<String[]> digest = new ArrayList<String[]>();
+	private ScheduledFuture<?> digestFlush = null;
+
 	public EmailConnection(Properties aConnectionProperties, String aUsername, String aPassword, String aNotificationAddress) {
 		connectionProperties = aConnectionProperties;
 		username = aUsername;
 		password = aPassword;
 		notifyAddress = aNotificationAddress;
-	}
 
-	
-	public void sendMessage(String aSubject, String aMessage) {
-
-		Session session = Session.getDefaultInstance(connectionProperties,
+		session = Session.getInstance(connectionProperties,
 			new javax.mail.Authenticator() {
 				protected PasswordAuthentication getPasswordAuthentication() {
 					return new PasswordAuthentication(username, password);
 				}
 			});
+	}
+
+	/**
+	 * Keep one authenticated connection open and reuse it for every message.
+	 */
+	public synchronized void setPersistentConnection(boolean persistent) {
+		this.persistent = persistent;
+		if (!persistent) {
+			disconnect();
+		}
+	}
+
+	/**
+	 * How long a persistent connection may sit unused before it is closed.
+	 */
+	public synchronized void setIdleTimeout(long timeout, TimeUnit unit) {
+		idleTimeoutMillis = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Hold messages for the given window and send them as one email. A window
+	 * of 0 sends every message straight away.
+	 */
+	public void setDigestWindow(long window, TimeUnit unit) {
+		synchronized (this) {
+			digestWindowMillis = unit.toMillis(window);
+			if (digestWindowMillis > 0) {
+				return;
+			}
+		}
+
+		// Takes what is held under the lock and sends it outside
+		flushDigest();
+	}
+
+	public void sendMessage(String aSubject, String aMessage) {
+		synchronized (this) {
+			if (digestWindowMillis > 0) {
+				digest.add(new String[] { aSubject, aMessage });
+				if (digestFlush == null) {
+					digestFlush = timer.schedule(this::flushDigest, digestWindowMillis, TimeUnit.MILLISECONDS);
+				}
+				return;
+			}
+		}
+
+		send(aSubject, aMessage);
+	}
+
+	/**
+	 * Send any messages waiting in the digest now.
+	 */
+	public void flushDigest() {
+		String subject;
+		String body;
+		synchronized (this) {
+			if (digestFlush != null) {
+				digestFlush.cancel(false);
+				digestFlush = null;
+			}
+			if (digest.isEmpty()) {
+				return;
+			}
+
+			if (digest.size() == 1) {
+				subject = digest.get(0)[0];
+				body = digest.get(0)[1];
+			} else {
+				subject = digest.get(digest.size() - 1)[0] + " (+" + (digest.size() - 1) + " more)";
+				StringBuilder builder = new StringBuilder();
+				for (String[] message : digest) {
+					if (builder.length() > 0) {
+						builder.append("\n\n----------------------------------------\n\n");
+					}
+					builder.append(message[0]).append("\n\n").append(message[1]);
+				}
+				body = builder.toString();
+			}
+			digest.clear();
+		}
+
+		try {
+			send(subject, body);
+		} catch (RuntimeException e) {
+			logger.error("Unable to send email digest", e);
+		}
+	}
 
+	private void send(String aSubject, String aMessage) {
+		long start = System.nanoTime();
 		try {
 
 			Message message = new MimeMessage(session);
@@ -43,12 +179,155 @@ public class EmailConnection {
 			message.setSubject(aSubject);
 			message.setText(aMessage);
 
-			Transport.send(message);
+			boolean usePersistent;
+			synchronized (this) {
+				usePersistent = persistent;
+			}
 
-			System.out.println("Done");
+			if (usePersistent) {
+				sendPersistent(message);
+			} else {
+				Transport.send(message);
+				synchronized (this) {
+					connectCount++;
+				}
+			}
+			synchronized (this) {
+				sentCount++;
+			}
+
+			logger.debug("Sent email '" + aSubject + "' to " + notifyAddress);
 
 		} catch (MessagingException e) {
+			errors.increment();
 			throw new RuntimeException(e);
+		} finally {
+			latency.recordSince(start);
+		}
+	}
+
+	/**
+	 * Send over the shared connection, opening it first if need be. Only
+	 * opening and closing it hold this connection's lock, the send itself
+	 * does not, so a slow server never holds up adding to the digest or
+	 * reading the counts.
+	 */
+	private void sendPersistent(Message message) throws MessagingException {
+		Transport current;
+		boolean reused;
+		synchronized (this) {
+			// Whether it is still open is only found out by sending, asking
+			// the transport would wait on any send already in progress
+			reused = transport != null
+					&& (sending > 0 || System.currentTimeMillis() - lastUsed < idleTimeoutMillis);
+			if (!reused) {
+				connect();
+			}
+			current = transport;
+			sending++;
+		}
+
+		try {
+			message.saveChanges();
+			try {
+				current.sendMessage(message, message.getAllRecipients());
+			} catch (MessagingException e) {
+				if (!reused) {
+					disconnect(current);
+					throw e;
+				}
+
+				// The server may have dropped a connection we thought was open
+				logger.info("Email connection lost, reconnecting: " + e.getMessage());
+				synchronized (this) {
+					// Unless another send has already replaced it
+					if (transport == current || transport == null) {
+						connect();
+					}
+					current = transport;
+				}
+				current.sendMessage(message, message.getAllRecipients());
+			}
+		} finally {
+			synchronized (this) {
+				sending--;
+				lastUsed = System.currentTimeMillis();
+				if (idleCheck == null && transport != null) {
+					idleCheck = timer.schedule(this::closeIfIdle, idleTimeoutMillis, TimeUnit.MILLISECONDS);
+				}
+			}
+		}
+	}
+
+	private void connect() throws MessagingException {
+		disconnect();
+		transport = session.getTransport("smtp");
+		transport.connect(username, password);
+		connectCount++;
+	}
+
+	private synchronized void closeIfIdle() {
+		idleCheck = null;
+		// A send in progress schedules the next check when it finishes
+		if (transport == null || sending > 0) {
+			return;
 		}
+
+		long idle = System.currentTimeMillis() - lastUsed;
+		if (idle >= idleTimeoutMillis) {
+			logger.debug("Closing idle email connection");
+			disconnect();
+		} else {
+			idleCheck = timer.schedule(this::closeIfIdle, idleTimeoutMillis - idle, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void disconnect() {
+		if (transport != null) {
+			try {
+				transport.close();
+			} catch (MessagingException e) {
+				logger.debug("Error closing email connection", e);
+			}
+			transport = null;
+		}
+	}
+
+	private synchronized void disconnect(Transport expected) {
+		if (transport == expected) {
+			disconnect();
+		}
+	}
+
+	/**
+	 * Send anything left in the digest and close the connection.
+	 */
+	public void close() {
+		flushDigest();
+		synchronized (this) {
+			if (idleCheck != null) {
+				idleCheck.cancel(false);
+				idleCheck = null;
+			}
+			disconnect();
+		}
+	}
+
+	public synchronized boolean isConnected() {
+		return transport != null && transport.isConnected();
+	}
+
+	/**
+	 * @return how many SMTP connections have been opened
+	 */
+	public synchronized long getConnectCount() {
+		return connectCount;
+	}
+
+	/**
+	 * @return how many emails have been sent, a digest counting as one
+	 */
+	public synchronized long getSentCount() {
+		return sentCount;
 	}
 }
@@ -6,51 +6,204 @@ package com.casad.weatherwatcher.integration;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.http.client.HttpClient;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
 
+import com.casad.weatherwatcher.metrics.Counter;
+import com.casad.weatherwatcher.metrics.LatencyHistogram;
+import com.casad.weatherwatcher.metrics.MetricsRegistry;
+
+/**
+ * Triggers IFTTT maker events.
+ *
+ * All instances share one HTTP client with a pool of keep-alive connections,
+ * so a trigger normally reuses an open connection rather than paying for DNS,
+ * TCP and TLS setup each time.
+ */
 public class JMaker {
+	private static final LatencyHistogram latency = MetricsRegistry.getDefault().histogram(MetricsRegistry.NOTIFY_IFTTT);
+	private static final Counter errors = MetricsRegistry.getDefault().counter(MetricsRegistry.NOTIFY_ERRORS);
+
+	public static final String DEFAULT_BASE_URL = "https://maker.ifttt.com";
+
+	private static final int MAX_CONNECTIONS = 64;
+	private static final long KEEP_ALIVE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+	private static final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+	private static final CloseableHttpClient httpClient;
+	private static final ExecutorService asyncExecutor;
+
+	private static final String[] VALUE_NAMES = { "value1", "value2", "value3" };
+	private static final Header JSON_CONTENT_TYPE = new BasicHeader(HTTP.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString());
+	private static final ThreadLocal<JsonWriter> jsonWriter = ThreadLocal.withInitial(JsonWriter::new);
+
+	static {
+		connectionManager.setMaxTotal(MAX_CONNECTIONS);
+		connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+
+		httpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setKeepAliveStrategy((response, context) -> {
+					long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+					return keepAlive > 0 ? keepAlive : KEEP_ALIVE_MILLIS;
+				})
+				.evictExpiredConnections()
+				.evictIdleConnections(KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS)
+				.build();
+
+		// One thread per pooled connection, so async triggers never wait on
+		// the pool rather than the network
+		AtomicInteger threadCount = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_CONNECTIONS, MAX_CONNECTIONS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), r -> {
+					Thread thread = new Thread(r, "ifttt-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+		asyncExecutor = executor;
+	}
+
 	private String eventName;
 	private String key;
+	private String baseUrl = DEFAULT_BASE_URL;
+	private volatile RequestConfig requestConfig = requestConfig(10_000, 30_000);
 
 	public JMaker(String eventName, String key) {
 		this.eventName = eventName;
 		this.key = key;
 	}
 
+	/**
+	 * Send triggers somewhere other than {@link #DEFAULT_BASE_URL}, such as a
+	 * local stand-in.
+	 */
+	public void setBaseUrl(String baseUrl) {
+		this.baseUrl = baseUrl;
+	}
+
+	/**
+	 * @param connectTimeout
+	 *            how long to wait for a connection, including waiting for one
+	 *            from the pool
+	 * @param readTimeout
+	 *            how long to wait for data once connected
+	 */
+	public void setTimeouts(long connectTimeout, long readTimeout, TimeUnit unit) {
+		requestConfig = requestConfig((int) unit.toMillis(connectTimeout), (int) unit.toMillis(readTimeout));
+	}
+
+	private static RequestConfig requestConfig(int connectMillis, int readMillis) {
+		return RequestConfig.custom()
+				.setConnectionRequestTimeout(connectMillis)
+				.setConnectTimeout(connectMillis)
+				.setSocketTimeout(readMillis)
+				.build();
+	}
+
 	public void trigger() throws IOException {
-		HttpClient httpClient = HttpClientBuilder.create().build();
-		HttpPost request = new HttpPost("https://maker.ifttt.com/trigger/" + eventName + "/with/key/" + key);
-		httpClient.execute(request);
+		execute(createRequest());
 	}
 
 	public void trigger(List<String> values) throws IOException {
-		HttpClient httpClient = HttpClientBuilder.create().build();
-		HttpPost request = new HttpPost("https://maker.ifttt.com/trigger/" + eventName + "/with/key/" + key);
-		StringEntity params = new StringEntity(buildJson(values));
-		request.addHeader("content-type", "application/json");
-		request.setEntity(params);
-		httpClient.execute(request);
-	}
-
-	private String buildJson(List<String> values) {
-		String json = "{";
-		for (int i = 0; i < 3; i++) {
-			if (values.size() > i) {
-				json += "\"value" + (i + 1) + "\":\"" + values.get(i) + "\"";
-				if (i != 2) {
-					json += ",";
-				}
+		HttpPost request = createRequest();
+		request.setEntity(createEntity(values));
+		execute(request);
+	}
+
+	/**
+	 * Trigger the event without waiting for IFTTT to respond.
+	 *
+	 * @return completes when IFTTT has accepted the trigger, or exceptionally
+	 *         if it could not be sent
+	 */
+	public CompletableFuture<Void> triggerAsync(List<String> values) {
+		CompletableFuture<Void> result = new CompletableFuture<Void>();
+		asyncExecutor.execute(() -> {
+			try {
+				trigger(values);
+				result.complete(null);
+			} catch (Throwable t) {
+				result.completeExceptionally(t);
 			}
-			else {
-				break;
+		});
+		return result;
+	}
+
+	private HttpPost createRequest() {
+		HttpPost request = new HttpPost(baseUrl + "/trigger/" + eventName + "/with/key/" + key);
+		request.setConfig(requestConfig);
+		return request;
+	}
+
+	private void execute(HttpPost request) throws IOException {
+		long start = System.nanoTime();
+		try (CloseableHttpResponse response = httpClient.execute(request)) {
+			// Read the response fully so the connection goes back to the pool
+			EntityUtils.consume(response.getEntity());
+
+			int status = response.getStatusLine().getStatusCode();
+			if (status < 200 || status >= 300) {
+				throw new IOException("IFTTT responded with " + response.getStatusLine());
 			}
+		} catch (IOException | RuntimeException e) {
+			errors.increment();
+			throw e;
+		} finally {
+			latency.recordSince(start);
 		}
-		json += "}";
-		return json;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * The JSON payload, written into this thread's reusable buffer. The
+	 * entity is only valid until the thread builds another one, which is fine
+	 * as the request is sent before trigger returns.
+	 */
+	HttpEntity createEntity(List<String> values) {
+		JsonWriter writer = jsonWriter.get().reset();
+		writeJson(writer, values);
+		ByteArrayEntity entity = new ByteArrayEntity(writer.getBuffer(), 0, writer.size());
+		entity.setContentType(JSON_CONTENT_TYPE);
+		return entity;
+	}
+
+	String buildJson(List<String> values) {
+		JsonWriter writer = new JsonWriter();
+		writeJson(writer, values);
+		return writer.toString();
+	}
+
+	private static void writeJson(JsonWriter writer, List<String> values) {
+		writer.beginObject();
+		for (int i = 0; i < VALUE_NAMES.length && i < values.size(); i++) {
+			writer.name(VALUE_NAMES[i]).value(values.get(i));
+		}
+		writer.endObject();
+	}
+
+	/**
+	 * @return connections currently open to IFTTT, in use or idle
+	 */
+	public static int getOpenConnectionCount() {
+		return connectionManager.getTotalStats().getLeased() + connectionManager.getTotalStats().getAvailable();
+	}
+}
@@ -0,0 +1,572 @@
+package com.casad.weatherwatcher.integration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads JSON one token at a time from a stream of UTF-8, the counterpart to
+ * {@link JsonWriter}. Values that are not wanted can be skipped without
+ * being decoded, and names and strings are read into a buffer that is
+ * reused, so pulling a few fields out of a large document allocates nothing
+ * once the buffers have grown to size.
+ *
+ * A reader can be {@link #reset(InputStream)} and used for the next document.
+ * Only the first document in the stream is read.
+ */
+public final class JsonReader {
+
+	public enum Token {
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	};
+
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_OBJECT = 2;
+	private static final int DANGLING_NAME = 3;
+	private static final int NONEMPTY_OBJECT = 4;
+	private static final int EMPTY_ARRAY = 5;
+	private static final int NONEMPTY_ARRAY = 6;
+
+	private InputStream in;
+	private final byte[] buffer;
+	private int pos = 0;
+	private int limit = 0;
+
+	private int[] stack = new int[32];
+	private int depth = 0;
+
+	private Token peeked = null;
+	private boolean literal;
+
+	// The last name or string read
+	private byte[] text = new byte[128];
+	private int textLength = 0;
+
+	public JsonReader() {
+		this(8192);
+	}
+
+	public JsonReader(int bufferSize) {
+		buffer = new byte[bufferSize];
+		reset(null);
+	}
+
+	/**
+	 * Start reading a new document from the stream, keeping the buffers.
+	 */
+	public JsonReader reset(InputStream in) {
+		this.in = in;
+		pos = 0;
+		limit = 0;
+		depth = 1;
+		stack[0] = EMPTY_DOCUMENT;
+		peeked = null;
+		textLength = 0;
+		return this;
+	}
+
+	/**
+	 * @return the type of the next token, without consuming it
+	 */
+	public Token peek() throws IOException {
+		if (peeked == null) {
+			peeked = doPeek();
+		}
+		return peeked;
+	}
+
+	public void beginObject() throws IOException {
+		expect(Token.BEGIN_OBJECT);
+		push(EMPTY_OBJECT);
+	}
+
+	public void endObject() throws IOException {
+		expect(Token.END_OBJECT);
+		depth--;
+	}
+
+	public void beginArray() throws IOException {
+		expect(Token.BEGIN_ARRAY);
+		push(EMPTY_ARRAY);
+	}
+
+	public void endArray() throws IOException {
+		expect(Token.END_ARRAY);
+		depth--;
+	}
+
+	/**
+	 * @return true if the current object or array has another member
+	 */
+	public boolean hasNext() throws IOException {
+		Token token = peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+
+	/**
+	 * Read the next name, which can then be compared with
+	 * {@link #nameEquals(String)} without being decoded.
+	 */
+	public void nextName() throws IOException {
+		expect(Token.NAME);
+		readString();
+	}
+
+	/**
+	 * @return true if the name just read is the given name, which must be
+	 *         ASCII
+	 */
+	public boolean nameEquals(String name) {
+		if (textLength != name.length()) {
+			return false;
+		}
+		for (int i = 0; i < textLength; i++) {
+			if (text[i] != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the name just read, decoded
+	 */
+	public String getName() {
+		return new String(text, 0, textLength, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the next string, or the text of the next number
+	 */
+	public String nextString() throws IOException {
+		int length = nextStringBytes();
+		return new String(text, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Read the next string, or the text of the next number, as UTF-8 into a
+	 * buffer that is overwritten by the next name or string.
+	 *
+	 * @return the number of bytes read into {@link #getStringBytes()}
+	 */
+	public int nextStringBytes() throws IOException {
+		Token token = peek();
+		peeked = null;
+		if (token == Token.STRING) {
+			readString();
+		} else if (token == Token.NUMBER) {
+			readNumber();
+		} else {
+			throw syntaxError("Expected a string but was " + token);
+		}
+		return textLength;
+	}
+
+	public byte[] getStringBytes() {
+		return text;
+	}
+
+	/**
+	 * @return the next number, or a string holding one
+	 */
+	public double nextDouble() throws IOException {
+		nextStringBytes();
+		return parseDouble();
+	}
+
+	public boolean nextBoolean() throws IOException {
+		expect(Token.BOOLEAN);
+		return literal;
+	}
+
+	public void nextNull() throws IOException {
+		expect(Token.NULL);
+	}
+
+	/**
+	 * Skip the next value, and everything in it if it is an object or array,
+	 * without decoding it.
+	 */
+	public void skipValue() throws IOException {
+		int nested = 0;
+		do {
+			Token token = peek();
+			peeked = null;
+			switch (token) {
+			case BEGIN_OBJECT:
+				push(EMPTY_OBJECT);
+				nested++;
+				break;
+			case BEGIN_ARRAY:
+				push(EMPTY_ARRAY);
+				nested++;
+				break;
+			case END_OBJECT:
+			case END_ARRAY:
+				depth--;
+				nested--;
+				break;
+			case NAME:
+			case STRING:
+				skipString();
+				break;
+			case NUMBER:
+				skipNumber();
+				break;
+			case END_DOCUMENT:
+				throw syntaxError("Unexpected end of document");
+			default:
+				break;
+			}
+		} while (nested > 0);
+	}
+
+	private void expect(Token expected) throws IOException {
+		Token token = peek();
+		if (token != expected) {
+			throw syntaxError("Expected " + expected + " but was " + token);
+		}
+		peeked = null;
+	}
+
+	private void push(int scope) {
+		if (depth == stack.length) {
+			stack = Arrays.copyOf(stack, depth * 2);
+		}
+		stack[depth++] = scope;
+	}
+
+	private Token doPeek() throws IOException {
+		int scope = stack[depth - 1];
+		int c;
+		switch (scope) {
+		case EMPTY_ARRAY:
+			stack[depth - 1] = NONEMPTY_ARRAY;
+			c = nextNonWhitespace();
+			if (c == ']') {
+				return Token.END_ARRAY;
+			} else if (c == -1) {
+				throw syntaxError("Unexpected end of document");
+			}
+			pos--;
+			break;
+		case NONEMPTY_ARRAY:
+			c = nextNonWhitespace();
+			if (c == ']') {
+				return Token.END_ARRAY;
+			} else if (c != ',') {
+				throw syntaxError("Expected ',' or ']'");
+			}
+			break;
+		case EMPTY_OBJECT:
+		case NONEMPTY_OBJECT:
+			stack[depth - 1] = DANGLING_NAME;
+			c = nextNonWhitespace();
+			if (c == '}') {
+				return Token.END_OBJECT;
+			}
+			if (scope == NONEMPTY_OBJECT) {
+				if (c != ',') {
+					throw syntaxError("Expected ',' or '}'");
+				}
+				c = nextNonWhitespace();
+			}
+			if (c != '"') {
+				throw syntaxError("Expected a name");
+			}
+			return Token.NAME;
+		case DANGLING_NAME:
+			stack[depth - 1] = NONEMPTY_OBJECT;
+			if (nextNonWhitespace() != ':') {
+				throw syntaxError("Expected ':'");
+			}
+			break;
+		case EMPTY_DOCUMENT:
+			stack[depth - 1] = NONEMPTY_DOCUMENT;
+			break;
+		default:
+			return Token.END_DOCUMENT;
+		}
+
+		c = nextNonWhitespace();
+		switch (c) {
+		case '{':
+			return Token.BEGIN_OBJECT;
+		case '[':
+			return Token.BEGIN_ARRAY;
+		case '"':
+			return Token.STRING;
+		case 't':
+			consumeLiteral("rue");
+			literal = true;
+			return Token.BOOLEAN;
+		case 'f':
+			consumeLiteral("alse");
+			literal = false;
+			return Token.BOOLEAN;
+		case 'n':
+			consumeLiteral("ull");
+			return Token.NULL;
+		case -1:
+			throw syntaxError("Unexpected end of document");
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				pos--;
+				return Token.NUMBER;
+			}
+			throw syntaxError("Unexpected character '" + (char) c + "'");
+		}
+	}
+
+	private void consumeLiteral(String rest) throws IOException {
+		for (int i = 0; i < rest.length(); i++) {
+			if (read() != rest.charAt(i)) {
+				throw syntaxError("Unexpected literal");
+			}
+		}
+	}
+
+	/**
+	 * @return the next byte, or -1 at the end of the stream
+	 */
+	private int read() throws IOException {
+		if (pos == limit && !fill()) {
+			return -1;
+		}
+		return buffer[pos++] & 0xff;
+	}
+
+	private boolean fill() throws IOException {
+		if (in == null) {
+			return false;
+		}
+		int n = in.read(buffer, 0, buffer.length);
+		if (n <= 0) {
+			return false;
+		}
+		pos = 0;
+		limit = n;
+		return true;
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		while (true) {
+			int c = read();
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+				return c;
+			}
+		}
+	}
+
+	/**
+	 * Read a string, the opening quote already consumed, into the text buffer
+	 * with escapes decoded.
+	 */
+	private void readString() throws IOException {
+		textLength = 0;
+		while (true) {
+			// Copy plain runs straight from the read buffer
+			int start = pos;
+			while (pos < limit) {
+				byte b = buffer[pos];
+				if (b == '"' || b == '\\') {
+					break;
+				}
+				pos++;
+			}
+			append(buffer, start, pos - start);
+
+			int c = read();
+			if (c == '"') {
+				return;
+			} else if (c == '\\') {
+				readEscape();
+			} else if (c == -1) {
+				throw syntaxError("Unterminated string");
+			} else {
+				// Refilled the read buffer mid-run
+				pos--;
+			}
+		}
+	}
+
+	private void readEscape() throws IOException {
+		int c = read();
+		switch (c) {
+		case '"':
+		case '\\':
+		case '/':
+			appendByte(c);
+			break;
+		case 'b':
+			appendByte('\b');
+			break;
+		case 'f':
+			appendByte('\f');
+			break;
+		case 'n':
+			appendByte('\n');
+			break;
+		case 'r':
+			appendByte('\r');
+			break;
+		case 't':
+			appendByte('\t');
+			break;
+		case 'u':
+			int codePoint = readHex();
+			if (Character.isHighSurrogate((char) codePoint)) {
+				if (read() != '\\' || read() != 'u') {
+					throw syntaxError("Unpaired surrogate");
+				}
+				int low = readHex();
+				if (!Character.isLowSurrogate((char) low)) {
+					throw syntaxError("Unpaired surrogate");
+				}
+				codePoint = Character.toCodePoint((char) codePoint, (char) low);
+			}
+			appendCodePoint(codePoint);
+			break;
+		default:
+			throw syntaxError("Invalid escape");
+		}
+	}
+
+	private int readHex() throws IOException {
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			int c = read();
+			int digit = Character.digit(c, 16);
+			if (c == -1 || digit < 0) {
+				throw syntaxError("Invalid unicode escape");
+			}
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+
+	private void appendCodePoint(int codePoint) {
+		if (codePoint < 0x80) {
+			appendByte(codePoint);
+		} else if (codePoint < 0x800) {
+			appendByte(0xc0 | (codePoint >> 6));
+			appendByte(0x80 | (codePoint & 0x3f));
+		} else if (codePoint < 0x10000) {
+			appendByte(0xe0 | (codePoint >> 12));
+			appendByte(0x80 | ((codePoint >> 6) & 0x3f));
+			appendByte(0x80 | (codePoint & 0x3f));
+		} else {
+			appendByte(0xf0 | (codePoint >> 18));
+			appendByte(0x80 | ((codePoint >> 12) & 0x3f));
+			appendByte(0x80 | ((codePoint >> 6) & 0x3f));
+			appendByte(0x80 | (codePoint & 0x3f));
+		}
+	}
+
+	private void append(byte[] bytes, int offset, int length) {
+		ensureText(length);
+		System.arraycopy(bytes, offset, text, textLength, length);
+		textLength += length;
+	}
+
+	private void appendByte(int b) {
+		ensureText(1);
+		text[textLength++] = (byte) b;
+	}
+
+	private void ensureText(int extra) {
+		if (textLength + extra > text.length) {
+			text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + extra));
+		}
+	}
+
+	private void skipString() throws IOException {
+		while (true) {
+			int c = read();
+			if (c == '"') {
+				return;
+			} else if (c == '\\') {
+				read();
+			} else if (c == -1) {
+				throw syntaxError("Unterminated string");
+			}
+		}
+	}
+
+	private void readNumber() throws IOException {
+		textLength = 0;
+		int c;
+		while ((c = read()) != -1 && isNumberChar(c)) {
+			appendByte(c);
+		}
+		if (c != -1) {
+			pos--;
+		}
+	}
+
+	private void skipNumber() throws IOException {
+		int c;
+		while ((c = read()) != -1 && isNumberChar(c)) {
+		}
+		if (c != -1) {
+			pos--;
+		}
+	}
+
+	private static boolean isNumberChar(int c) {
+		return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+	}
+
+	/**
+	 * Parse the text buffer as a number. Plain decimals of up to 15 digits,
+	 * which divide exactly by a power of ten, are parsed in place, anything
+	 * else is left to {@link Double#parseDouble}.
+	 */
+	private double parseDouble() {
+		int i = 0;
+		boolean negative = false;
+		if (textLength > 0 && text[0] == '-') {
+			negative = true;
+			i++;
+		}
+
+		long digits = 0;
+		int count = 0;
+		int scale = 0;
+		boolean point = false;
+		boolean simple = i < textLength;
+		for (; i < textLength && simple; i++) {
+			byte b = text[i];
+			if (b >= '0' && b <= '9') {
+				digits = digits * 10 + (b - '0');
+				if (point) {
+					scale++;
+				}
+				simple = ++count <= 15;
+			} else if (b == '.' && !point) {
+				point = true;
+			} else {
+				simple = false;
+			}
+		}
+
+		if (!simple || count == 0 || scale >= POWERS_OF_TEN.length) {
+			try {
+				return Double.parseDouble(new String(text, 0, textLength, StandardCharsets.US_ASCII));
+			} catch (NumberFormatException e) {
+				throw new NumberFormatException("Not a number: " + new String(text, 0, textLength, StandardCharsets.UTF_8));
+			}
+		}
+		double value = digits / POWERS_OF_TEN[scale];
+		return negative ? -value : value;
+	}
+
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15 };
+
+	private IOException syntaxError(String message) {
+		return new IOException("Malformed JSON: " + message);
+	}
+}
@@ -0,0 +1,185 @@
+package com.casad.weatherwatcher.integration;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes JSON as UTF-8 straight into a byte buffer that can be reset and
+ * reused, so writing a small payload allocates nothing once the buffer has
+ * grown to size.
+ *
+ * This only does what the notification payloads and the status server need:
+ * objects with string and number values. Strings are escaped as required by RFC 8259.
+ */
+public final class JsonWriter {
+	private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+	private byte[] buffer;
+	private int size = 0;
+	private boolean first = true;
+
+	public JsonWriter() {
+		this(256);
+	}
+
+	public JsonWriter(int initialCapacity) {
+		if (initialCapacity < 1) {
+			throw new IllegalArgumentException("The capacity must be at least 1: " + initialCapacity);
+		}
+		buffer = new byte[initialCapacity];
+	}
+
+	/**
+	 * Discard what has been written, keeping the buffer.
+	 */
+	public JsonWriter reset() {
+		size = 0;
+		first = true;
+		return this;
+	}
+
+	public JsonWriter beginObject() {
+		separator();
+		write('{');
+		first = true;
+		return this;
+	}
+
+	public JsonWriter endObject() {
+		write('}');
+		first = false;
+		return this;
+	}
+
+	public JsonWriter name(String name) {
+		separator();
+		string(name);
+		write(':');
+		first = true;
+		return this;
+	}
+
+	public JsonWriter value(String value) {
+		separator();
+		if (value == null) {
+			ascii("null");
+		} else {
+			string(value);
+		}
+		first = false;
+		return this;
+	}
+
+	public JsonWriter value(long value) {
+		separator();
+		ascii(Long.toString(value));
+		first = false;
+		return this;
+	}
+
+	/**
+	 * Write a number, or null if it is not finite as JSON has no way to write
+	 * those.
+	 */
+	public JsonWriter value(double value) {
+		separator();
+		ascii(Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value));
+		first = false;
+		return this;
+	}
+
+	private void separator() {
+		if (!first) {
+			write(',');
+		}
+	}
+
+	private void string(String value) {
+		write('"');
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				write('\\');
+				write(c);
+			} else if (c < 0x20) {
+				escapeControl(c);
+			} else if (c < 0x80) {
+				write(c);
+			} else if (c < 0x800) {
+				write(0xc0 | (c >> 6));
+				write(0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				write(0xf0 | (codePoint >> 18));
+				write(0x80 | ((codePoint >> 12) & 0x3f));
+				write(0x80 | ((codePoint >> 6) & 0x3f));
+				write(0x80 | (codePoint & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				// An unpaired surrogate can not be encoded, replace it
+				write('?');
+			} else {
+				write(0xe0 | (c >> 12));
+				write(0x80 | ((c >> 6) & 0x3f));
+				write(0x80 | (c & 0x3f));
+			}
+		}
+		write('"');
+	}
+
+	private void escapeControl(char c) {
+		write('\\');
+		switch (c) {
+		case '\n':
+			write('n');
+			break;
+		case '\r':
+			write('r');
+			break;
+		case '\t':
+			write('t');
+			break;
+		case '\b':
+			write('b');
+			break;
+		case '\f':
+			write('f');
+			break;
+		default:
+			write('u');
+			write('0');
+			write('0');
+			write(HEX[c >> 4]);
+			write(HEX[c & 0xf]);
+		}
+	}
+
+	private void ascii(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			write(value.charAt(i));
+		}
+	}
+
+	private void write(int b) {
+		if (size == buffer.length) {
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		buffer[size++] = (byte) b;
+	}
+
+	/**
+	 * @return the buffer being written to, valid up to {@link #size()}
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return new String(buffer, 0, size, StandardCharsets.UTF_8);
+	}
+}
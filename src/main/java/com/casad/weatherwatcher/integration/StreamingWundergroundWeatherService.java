@@ -0,0 +1,352 @@
+package com.casad.weatherwatcher.integration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.amphibian.weather.response.Conditions;
+import com.amphibian.weather.response.Forecast;
+import com.amphibian.weather.response.ForecastDay;
+import com.amphibian.weather.response.ForecastWrapper;
+import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.ConditionCodes;
+import com.casad.weatherwatcher.LocationWeatherService;
+import com.casad.weatherwatcher.WeatherSnapshot;
+
+/**
+ * Queries the Wunderground API for the current conditions and forecast like
+ * {@link WundergroundWeatherService}, but reads only what the engine decides
+ * on: the current weather and temperature and the conditions for the first
+ * three forecast periods.
+ *
+ * The response is streamed through a {@link JsonReader} and everything else
+ * in it is skipped without being decoded. What is kept goes into buffers
+ * held per thread and reused from one query to the next, and a condition is
+ * only turned into a string and looked up when it differs from the last one
+ * seen, so when the weather holds steady a query allocates little beyond
+ * what the HTTP connection itself does.
+ *
+ * {@link #getSnapshot(String, WeatherSnapshot)} goes straight from the
+ * stream to a snapshot, and the caching, resilient and hedged services pass
+ * snapshot queries through to it. {@link #getWeatherReport(String)} builds a
+ * {@link WeatherResponse} holding just those fields, for anything that asks
+ * for a whole report.
+ */
+public class StreamingWundergroundWeatherService implements LocationWeatherService {
+	public static final String DEFAULT_BASE_URL = "http://api.wunderground.com/api/";
+
+	private final String apiKey;
+	private volatile String baseUrl = DEFAULT_BASE_URL;
+	private volatile int connectTimeoutMillis = 10000;
+	private volatile int readTimeoutMillis = 30000;
+
+	private final ThreadLocal<Reading> readings = ThreadLocal.withInitial(Reading::new);
+
+	public StreamingWundergroundWeatherService(String apiKey) {
+		this.apiKey = apiKey;
+	}
+
+	/**
+	 * Where to send queries, the Wunderground API by default. The key and
+	 * query are appended to it.
+	 */
+	public void setBaseUrl(String baseUrl) {
+		this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+	}
+
+	/**
+	 * How long to wait to connect and then for each read, 10 and 30 seconds
+	 * by default.
+	 */
+	public void setTimeouts(long connectTimeout, long readTimeout, TimeUnit unit) {
+		connectTimeoutMillis = (int) unit.toMillis(connectTimeout);
+		readTimeoutMillis = (int) unit.toMillis(readTimeout);
+	}
+
+	@Override
+	public WeatherResponse getWeatherReport(String zipCode) {
+		return query(zipCode).toResponse();
+	}
+
+	@Override
+	public WeatherSnapshot getSnapshot(String zipCode, WeatherSnapshot previous) {
+		return query(zipCode).toSnapshot(previous);
+	}
+
+	/**
+	 * Read a snapshot from a response body, as a query would.
+	 */
+	public WeatherSnapshot parse(InputStream in, WeatherSnapshot previous) throws IOException {
+		Reading reading = readings.get();
+		reading.read(in);
+		reading.check();
+		return reading.toSnapshot(previous);
+	}
+
+	private Reading query(String zipCode) {
+		Reading reading = readings.get();
+		try {
+			HttpURLConnection connection = (HttpURLConnection) getUrl(zipCode).openConnection();
+			connection.setConnectTimeout(connectTimeoutMillis);
+			connection.setReadTimeout(readTimeoutMillis);
+
+			int status = connection.getResponseCode();
+			if (status != HttpURLConnection.HTTP_OK) {
+				connection.disconnect();
+				throw new RuntimeException("Weather service answered " + status + " for " + zipCode);
+			}
+
+			// Closing the stream rather than disconnecting leaves the
+			// connection open for the next query
+			try (InputStream in = connection.getInputStream()) {
+				reading.read(in);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to load weather for " + zipCode + ": " + e.getMessage(), e);
+		}
+
+		reading.check();
+		return reading;
+	}
+
+	private URL getUrl(String zipCode) throws IOException {
+		return new URL(baseUrl + apiKey + "/conditions/forecast/q/" + encode(zipCode) + ".json");
+	}
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The fields read from the latest response, reused by each query on the
+	 * same thread.
+	 */
+	private static final class Reading {
+		final JsonReader reader = new JsonReader();
+		final Condition current = new Condition();
+		final Condition[] periods = new Condition[WeatherSnapshot.PERIODS];
+		int periodCount;
+		double tempF;
+		boolean hasTempF;
+		String error;
+
+		Reading() {
+			for (int i = 0; i < periods.length; i++) {
+				periods[i] = new Condition();
+			}
+		}
+
+		void read(InputStream in) throws IOException {
+			current.present = false;
+			periodCount = 0;
+			hasTempF = false;
+			error = null;
+
+			reader.reset(in);
+			reader.beginObject();
+			while (reader.hasNext()) {
+				reader.nextName();
+				if (reader.nameEquals("current_observation")) {
+					readObservation();
+				} else if (reader.nameEquals("forecast")) {
+					readForecast();
+				} else if (reader.nameEquals("response")) {
+					readResponse();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+
+		private void readObservation() throws IOException {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				reader.nextName();
+				if (reader.nameEquals("weather")) {
+					current.read(reader);
+				} else if (reader.nameEquals("temp_f")) {
+					tempF = reader.nextDouble();
+					hasTempF = true;
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+
+		private void readForecast() throws IOException {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				reader.nextName();
+				if (reader.nameEquals("simpleforecast")) {
+					readSimpleForecast();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+
+		private void readSimpleForecast() throws IOException {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				reader.nextName();
+				if (reader.nameEquals("forecastday")) {
+					reader.beginArray();
+					while (reader.hasNext()) {
+						if (periodCount < periods.length) {
+							readDay(periods[periodCount++]);
+						} else {
+							reader.skipValue();
+						}
+					}
+					reader.endArray();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+
+		private void readDay(Condition period) throws IOException {
+			// A day without conditions has none, not the last response's
+			period.clear();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				reader.nextName();
+				if (reader.nameEquals("conditions")) {
+					period.read(reader);
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+
+		private void readResponse() throws IOException {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				reader.nextName();
+				if (reader.nameEquals("error")) {
+					error = "unknown error";
+					reader.beginObject();
+					while (reader.hasNext()) {
+						reader.nextName();
+						if (reader.nameEquals("description")) {
+							error = reader.nextString();
+						} else {
+							reader.skipValue();
+						}
+					}
+					reader.endObject();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+
+		void check() {
+			if (error != null) {
+				throw new RuntimeException("Weather service error: " + error);
+			}
+			if (!current.present || !hasTempF) {
+				throw new RuntimeException("No current conditions in the weather report");
+			}
+			if (periodCount < periods.length) {
+				throw new RuntimeException("Only " + periodCount + " forecast periods in the weather report");
+			}
+		}
+
+		WeatherSnapshot toSnapshot(WeatherSnapshot previous) {
+			return WeatherSnapshot.of((float) tempF, current.code, periods[0].code, periods[1].code, periods[2].code,
+					previous);
+		}
+
+		WeatherResponse toResponse() {
+			Conditions conditions = new Conditions();
+			conditions.setWeather(current.value);
+			conditions.setTempF((float) tempF);
+
+			List<ForecastDay> days = new ArrayList<>(periods.length);
+			for (Condition period : periods) {
+				ForecastDay day = new ForecastDay();
+				day.setConditions(period.value);
+				days.add(day);
+			}
+			Forecast forecast = new Forecast();
+			forecast.setDays(days);
+			ForecastWrapper forecasts = new ForecastWrapper();
+			forecasts.setSimpleForecast(forecast);
+
+			WeatherResponse response = new WeatherResponse();
+			response.setConditions(conditions);
+			response.setForecasts(forecasts);
+			return response;
+		}
+	}
+
+	/**
+	 * A condition description and its code, kept as the raw bytes last read
+	 * so an unchanged description is recognised without decoding it.
+	 */
+	private static final class Condition {
+		byte[] bytes = new byte[64];
+		int length = -1;
+		String value;
+		int code = ConditionCodes.NONE;
+		boolean present;
+
+		void read(JsonReader reader) throws IOException {
+			present = true;
+			if (reader.peek() == JsonReader.Token.NULL) {
+				reader.nextNull();
+				clear();
+				present = true;
+				return;
+			}
+
+			int read = reader.nextStringBytes();
+			byte[] text = reader.getStringBytes();
+			if (read == length && same(text, read)) {
+				return;
+			}
+
+			if (read > bytes.length) {
+				bytes = new byte[read];
+			}
+			System.arraycopy(text, 0, bytes, 0, read);
+			length = read;
+			value = new String(bytes, 0, read, StandardCharsets.UTF_8);
+			code = ConditionCodes.codeOf(value);
+		}
+
+		void clear() {
+			present = false;
+			length = -1;
+			value = null;
+			code = ConditionCodes.NONE;
+		}
+
+		private boolean same(byte[] text, int read) {
+			for (int i = 0; i < read; i++) {
+				if (bytes[i] != text[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.casad.weatherwatcher.integration;
+
+import com.amphibian.weather.request.Feature;
+import com.amphibian.weather.request.WeatherRequest;
+import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.LocationWeatherService;
+
+/**
+ * Queries the Wunderground API for the current conditions and forecast.
+ */
+public class WundergroundWeatherService implements LocationWeatherService {
+	private final String apiKey;
+
+	public WundergroundWeatherService(String apiKey) {
+		this.apiKey = apiKey;
+	}
+
+	@Override
+	public WeatherResponse getWeatherReport(String zipCode) {
+		WeatherRequest req = new WeatherRequest();
+		req.setApiKey(apiKey);
+		req.addFeature(Feature.CONDITIONS);
+		req.addFeature(Feature.FORECAST);
+
+		return req.query(zipCode);
+	}
+}
@@ -0,0 +1,28 @@
+package com.casad.weatherwatcher.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonically increasing count, such as state transitions or errors.
+ */
+public class Counter implements CounterMXBean {
+	private final AtomicLong count = new AtomicLong();
+
+	public void increment() {
+		count.incrementAndGet();
+	}
+
+	public void add(long amount) {
+		count.addAndGet(amount);
+	}
+
+	@Override
+	public long getCount() {
+		return count.get();
+	}
+
+	@Override
+	public void reset() {
+		count.set(0);
+	}
+}
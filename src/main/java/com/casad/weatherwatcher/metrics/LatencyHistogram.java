@@ -0,0 +1,154 @@
+package com.casad.weatherwatcher.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram with log-linear buckets in the style of HdrHistogram.
+ * Each power of two is split into {@value #SUB_BUCKETS} equal buckets, so any
+ * recorded value is reported to within about 3% across the whole range from
+ * nanoseconds to minutes.
+ *
+ * Recording is lock-free and allocates nothing, so it is safe to call on the
+ * tick path from any number of threads. Reading percentiles walks the buckets
+ * and may see a recording in progress, which is fine for monitoring.
+ */
+public class LatencyHistogram implements LatencyHistogramMXBean {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a latency in nanoseconds.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+
+		counts.incrementAndGet(bucketOf(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+
+		long currentMax = max.get();
+		while (nanos > currentMax && !max.compareAndSet(currentMax, nanos)) {
+			currentMax = max.get();
+		}
+	}
+
+	/**
+	 * Record the time since startNanos, a value from {@link System#nanoTime()}.
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * @return the highest value that falls in the bucket
+	 */
+	static long highestValueOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return the latency in nanoseconds at or below which the given
+	 *         percentage of recordings fall
+	 */
+	public long getPercentile(double percentile) {
+		long recorded = count.get();
+		if (recorded == 0) {
+			return 0;
+		}
+
+		long target = Math.max(1, (long) Math.ceil(percentile / 100 * recorded));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(highestValueOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public long getPercentile(double percentile, TimeUnit unit) {
+		return unit.convert(getPercentile(percentile), TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax(TimeUnit unit) {
+		return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public double getMeanMicros() {
+		long recorded = count.get();
+		return recorded == 0 ? 0 : total.get() / 1000.0 / recorded;
+	}
+
+	@Override
+	public long getMaxMicros() {
+		return getMax(TimeUnit.MICROSECONDS);
+	}
+
+	@Override
+	public long getP50Micros() {
+		return getPercentile(50, TimeUnit.MICROSECONDS);
+	}
+
+	@Override
+	public long getP90Micros() {
+		return getPercentile(90, TimeUnit.MICROSECONDS);
+	}
+
+	@Override
+	public long getP99Micros() {
+		return getPercentile(99, TimeUnit.MICROSECONDS);
+	}
+
+	@Override
+	public long getP999Micros() {
+		return getPercentile(99.9, TimeUnit.MICROSECONDS);
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + ", mean=" + String.format("%.1f", getMeanMicros()) + "us, p50=" + getP50Micros()
+				+ "us, p99=" + getP99Micros() + "us, max=" + getMaxMicros() + "us";
+	}
+}
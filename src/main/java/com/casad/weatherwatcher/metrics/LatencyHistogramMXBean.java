@@ -0,0 +1,23 @@
+package com.casad.weatherwatcher.metrics;
+
+/**
+ * JMX view of a {@link LatencyHistogram}. All times are in microseconds.
+ */
+public interface LatencyHistogramMXBean {
+
+	long getCount();
+
+	double getMeanMicros();
+
+	long getMaxMicros();
+
+	long getP50Micros();
+
+	long getP90Micros();
+
+	long getP99Micros();
+
+	long getP999Micros();
+
+	void reset();
+}
@@ -0,0 +1,107 @@
+package com.casad.weatherwatcher.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Named latency histograms and counters, published as MBeans under
+ * "com.casad.weatherwatcher" so they can be watched with jconsole or any JMX
+ * client.
+ *
+ * Look metrics up once and keep hold of them; recording to a metric does not
+ * touch the registry.
+ */
+public class MetricsRegistry {
+	private static final Logger logger = LoggerFactory.getLogger(MetricsRegistry.class);
+
+	public static final String WEATHER_FETCH = "weather.fetch";
+	public static final String RULE_EVALUATION = "rules.evaluate";
+	public static final String ACTUATION = "ramp.actuate";
+	public static final String NOTIFY_IFTTT = "notify.ifttt";
+	public static final String NOTIFY_EMAIL = "notify.email";
+
+	public static final String TRANSITIONS = "ramp.transitions";
+	public static final String TICK_ERRORS = "engine.errors";
+	public static final String NOTIFY_ERRORS = "notify.errors";
+
+	private static final String DOMAIN = "com.casad.weatherwatcher";
+
+	private static final MetricsRegistry defaultRegistry = new MetricsRegistry(true);
+
+	private final boolean publish;
+	private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+	private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+	/**
+	 * @param publish
+	 *            true to register the metrics with the platform MBean server
+	 */
+	public MetricsRegistry(boolean publish) {
+		this.publish = publish;
+	}
+
+	public static MetricsRegistry getDefault() {
+		return defaultRegistry;
+	}
+
+	public LatencyHistogram histogram(String name) {
+		return histograms.computeIfAbsent(name, key -> {
+			LatencyHistogram histogram = new LatencyHistogram();
+			register("Histogram", key, histogram);
+			return histogram;
+		});
+	}
+
+	public Counter counter(String name) {
+		return counters.computeIfAbsent(name, key -> {
+			Counter counter = new Counter();
+			register("Counter", key, counter);
+			return counter;
+		});
+	}
+
+	private void register(String type, String name, Object mbean) {
+		if (!publish) {
+			return;
+		}
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+			if (!server.isRegistered(objectName)) {
+				server.registerMBean(mbean, objectName);
+			}
+		} catch (JMException e) {
+			logger.warn("Unable to publish metric '" + name + "' over JMX", e);
+		}
+	}
+
+	public Map<String, LatencyHistogram> getHistograms() {
+		return new TreeMap<>(histograms);
+	}
+
+	public Map<String, Counter> getCounters() {
+		return new TreeMap<>(counters);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (Map.Entry<String, LatencyHistogram> entry : getHistograms().entrySet()) {
+			result.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+		}
+		for (Map.Entry<String, Counter> entry : getCounters().entrySet()) {
+			result.append(entry.getKey()).append(": ").append(entry.getValue().getCount()).append("\n");
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,122 @@
+package com.casad.weatherwatcher.notification;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.casad.weatherwatcher.NotificationService;
+
+/**
+ * A {@link NotificationService} that queues messages and returns straight
+ * away, so a slow SMTP server or IFTTT endpoint never holds up a tick.
+ *
+ * Messages are fanned out to every channel. Each channel has its own bounded
+ * queue and worker threads, so a stalled email send does not delay IFTTT, and
+ * each recipient on a channel is delivered separately and in parallel. When a
+ * channel's queue is full the {@link DropPolicy} decides what happens.
+ *
+ * <pre>
+ * AsyncNotificationService notifications = new AsyncNotificationService(100, DropPolicy.DROP_OLDEST);
+ * notifications.addChannel("ifttt", 1, ifttt);
+ * notifications.addChannel("email", 2, alice, bob);
+ * </pre>
+ */
+public class AsyncNotificationService implements NotificationService {
+
+	private final int capacity;
+	private final DropPolicy dropPolicy;
+	private final Map<String, ChannelDispatcher> channels = new ConcurrentHashMap<>();
+
+	/**
+	 * @param capacity
+	 *            how many deliveries each channel may have queued
+	 * @param dropPolicy
+	 *            what to do when a channel's queue is full
+	 */
+	public AsyncNotificationService(int capacity, DropPolicy dropPolicy) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1");
+		}
+		this.capacity = capacity;
+		this.dropPolicy = dropPolicy;
+	}
+
+	/**
+	 * Add a channel delivering to the given recipients.
+	 *
+	 * @param concurrency
+	 *            the most deliveries this channel will make at once
+	 */
+	public void addChannel(String name, int concurrency, NotificationService... recipients) {
+		addChannel(name, concurrency, Arrays.asList(recipients));
+	}
+
+	public void addChannel(String name, int concurrency, List<NotificationService> recipients) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("Concurrency must be at least 1");
+		}
+		if (channels.containsKey(name)) {
+			throw new IllegalArgumentException("Channel '" + name + "' already exists");
+		}
+		channels.put(name, new ChannelDispatcher(name, concurrency, capacity, dropPolicy,
+				Collections.unmodifiableList(recipients)));
+	}
+
+	@Override
+	public void sendMessage(String subject, String message) {
+		for (ChannelDispatcher channel : channels.values()) {
+			channel.enqueue(subject, message);
+		}
+	}
+
+	/**
+	 * Wait for every queued message to be delivered or dropped.
+	 *
+	 * @return true if all channels drained within the timeout
+	 */
+	public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (ChannelDispatcher channel : channels.values()) {
+			if (!channel.awaitIdle(deadline - System.nanoTime())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Deliver what is already queued, then stop the worker threads.
+	 */
+	public void shutdown() {
+		for (ChannelDispatcher channel : channels.values()) {
+			channel.shutdown();
+		}
+	}
+
+	public int getQueueSize(String channel) {
+		return get(channel).getQueueSize();
+	}
+
+	public long getDeliveredCount(String channel) {
+		return get(channel).getDeliveredCount();
+	}
+
+	public long getDroppedCount(String channel) {
+		return get(channel).getDroppedCount();
+	}
+
+	public long getFailedCount(String channel) {
+		return get(channel).getFailedCount();
+	}
+
+	private ChannelDispatcher get(String name) {
+		ChannelDispatcher channel = channels.get(name);
+		if (channel == null) {
+			throw new IllegalArgumentException("No channel named '" + name + "'");
+		}
+		return channel;
+	}
+}
@@ -0,0 +1,195 @@
+package com.casad.weatherwatcher.notification;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.casad.weatherwatcher.NotificationService;
+import com.casad.weatherwatcher.metrics.Counter;
+import com.casad.weatherwatcher.metrics.LatencyHistogram;
+import com.casad.weatherwatcher.metrics.MetricsRegistry;
+
+/**
+ * A bounded queue and a fixed number of worker threads delivering
+ * notifications for a single channel. Each recipient is queued separately so
+ * recipients are delivered in parallel, up to the worker count.
+ */
+class ChannelDispatcher {
+	private static final Logger logger = LoggerFactory.getLogger(ChannelDispatcher.class);
+
+	private final String name;
+	private final List<NotificationService> recipients;
+	private final BlockingQueue<Delivery> queue;
+	private final DropPolicy dropPolicy;
+	private final Thread[] workers;
+
+	private final AtomicLong pending = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final LatencyHistogram queueLatency;
+	private final Counter dropCounter;
+
+	private volatile boolean running = true;
+
+	private static class Delivery {
+		final NotificationService recipient;
+		final String subject;
+		final String message;
+		final long enqueued = System.nanoTime();
+
+		Delivery(NotificationService recipient, String subject, String message) {
+			this.recipient = recipient;
+			this.subject = subject;
+			this.message = message;
+		}
+	}
+
+	ChannelDispatcher(String name, int concurrency, int capacity, DropPolicy dropPolicy, List<NotificationService> recipients) {
+		this.name = name;
+		this.recipients = recipients;
+		this.dropPolicy = dropPolicy;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.queueLatency = MetricsRegistry.getDefault().histogram("notify." + name + ".queued");
+		this.dropCounter = MetricsRegistry.getDefault().counter("notify." + name + ".dropped");
+
+		workers = new Thread[concurrency];
+		for (int i = 0; i < concurrency; i++) {
+			workers[i] = new Thread(this::work, "notify-" + name + "-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	void enqueue(String subject, String message) {
+		for (NotificationService recipient : recipients) {
+			offer(new Delivery(recipient, subject, message));
+		}
+	}
+
+	private void offer(Delivery delivery) {
+		pending.incrementAndGet();
+		if (queue.offer(delivery)) {
+			return;
+		}
+
+		switch (dropPolicy) {
+		case BLOCK:
+			try {
+				queue.put(delivery);
+				return;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				drop(delivery);
+			}
+			break;
+
+		case DROP_OLDEST:
+			while (!queue.offer(delivery)) {
+				Delivery oldest = queue.poll();
+				if (oldest != null) {
+					drop(oldest);
+				}
+			}
+			break;
+
+		case DROP_NEWEST:
+		default:
+			drop(delivery);
+		}
+	}
+
+	private void drop(Delivery delivery) {
+		dropped.incrementAndGet();
+		dropCounter.increment();
+		logger.warn(name + ": queue full, dropping notification '" + delivery.subject + "'");
+		completed();
+	}
+
+	private void work() {
+		while (running || !queue.isEmpty()) {
+			Delivery delivery;
+			try {
+				delivery = queue.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				if (!running) {
+					break;
+				}
+				continue;
+			}
+			if (delivery == null) {
+				continue;
+			}
+
+			queueLatency.recordSince(delivery.enqueued);
+			try {
+				delivery.recipient.sendMessage(delivery.subject, delivery.message);
+				delivered.incrementAndGet();
+			} catch (Throwable t) {
+				failed.incrementAndGet();
+				logger.error(name + ": failed to deliver notification '" + delivery.subject + "'", t);
+			} finally {
+				completed();
+			}
+		}
+	}
+
+	private void completed() {
+		if (pending.decrementAndGet() == 0) {
+			synchronized (pending) {
+				pending.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Wait until everything queued so far has been delivered or dropped.
+	 *
+	 * @return true if the queue drained within the timeout
+	 */
+	boolean awaitIdle(long timeoutNanos) throws InterruptedException {
+		long deadline = System.nanoTime() + timeoutNanos;
+		synchronized (pending) {
+			while (pending.get() > 0) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(pending, remaining);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stop accepting work once the queue has drained.
+	 */
+	void shutdown() {
+		running = false;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	int getQueueSize() {
+		return queue.size();
+	}
+
+	long getDeliveredCount() {
+		return delivered.get();
+	}
+
+	long getDroppedCount() {
+		return dropped.get();
+	}
+
+	long getFailedCount() {
+		return failed.get();
+	}
+}
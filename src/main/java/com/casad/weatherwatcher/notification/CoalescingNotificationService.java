@@ -0,0 +1,243 @@
+package com.casad.weatherwatcher.notification;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.casad.weatherwatcher.NotificationService;
+import com.casad.weatherwatcher.metrics.Counter;
+import com.casad.weatherwatcher.metrics.MetricsRegistry;
+
+/**
+ * Cuts down the messages sent when the weather hovers around a threshold and
+ * the ramp flaps between states.
+ *
+ * The first message for a site is held for the window. Any further messages
+ * for that site arriving within the window replace it, so only the final
+ * state is sent. If the ramp changed more than once in the window and that
+ * final message has the same subject as the last one sent for the site
+ * before the window began, the ramp has ended up where it started and
+ * nothing is sent at all. Separately, a message identical to the last one
+ * sent for the site within the duplicate window is dropped. The duplicate
+ * window is 0 by default, so nothing is dropped unless it is set.
+ *
+ * Errors are never held or dropped, and do not count as the last message
+ * sent for the site.
+ */
+public class CoalescingNotificationService implements NotificationService {
+	private static final Logger logger = LoggerFactory.getLogger(CoalescingNotificationService.class);
+
+	/** The site used for messages sent without a site */
+	public static final String NO_SITE = "";
+
+	private static final Counter suppressedCounter = MetricsRegistry.getDefault().counter("notify.suppressed");
+
+	private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "notify-coalesce");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final NotificationService delegate;
+	private volatile long windowMillis;
+	private long duplicateWindowMillis;
+
+	private final Map<String, Pending> pending = new HashMap<>();
+	private final Map<String, Sent> lastSent = new HashMap<>();
+
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong collapsed = new AtomicLong();
+	private final AtomicLong flaps = new AtomicLong();
+	private final AtomicLong duplicates = new AtomicLong();
+
+	private static class Pending {
+		/** The subject of the last message sent before the window began */
+		String startedFrom;
+		String subject;
+		String message;
+		int count = 1;
+		ScheduledFuture<?> flush;
+	}
+
+	private static class Sent {
+		final String subject;
+		final String message;
+		final long time;
+
+		Sent(String subject, String message, long time) {
+			this.subject = subject;
+			this.message = message;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * @param window
+	 *            how long to hold a site's first message waiting for it to
+	 *            change again, 0 to send straight away
+	 */
+	public CoalescingNotificationService(NotificationService delegate, long window, TimeUnit unit) {
+		this.delegate = delegate;
+		this.windowMillis = unit.toMillis(window);
+	}
+
+	/**
+	 * Change the window. Messages already held are still sent when their
+	 * original window ends.
+	 */
+	public void setWindow(long window, TimeUnit unit) {
+		windowMillis = unit.toMillis(window);
+	}
+
+	/**
+	 * How long after a message is sent an identical one for the same site is
+	 * dropped. Defaults to 0, sending every message.
+	 */
+	public synchronized void setDuplicateWindow(long window, TimeUnit unit) {
+		duplicateWindowMillis = unit.toMillis(window);
+	}
+
+	@Override
+	public void sendMessage(String subject, String message) {
+		sendMessage(NO_SITE, subject, message);
+	}
+
+	@Override
+	public void sendMessage(String siteId, String subject, String message) {
+		received.incrementAndGet();
+		long windowMillis = this.windowMillis;
+		if (windowMillis == 0) {
+			deliver(siteId, subject, message);
+			return;
+		}
+
+		synchronized (this) {
+			Pending held = pending.get(siteId);
+			if (held != null) {
+				held.subject = subject;
+				held.message = message;
+				held.count++;
+				suppressed(collapsed);
+				return;
+			}
+
+			held = new Pending();
+			Sent previous = lastSent.get(siteId);
+			held.startedFrom = previous == null ? null : previous.subject;
+			held.subject = subject;
+			held.message = message;
+			held.flush = timer.schedule(() -> flush(siteId), windowMillis, TimeUnit.MILLISECONDS);
+			pending.put(siteId, held);
+		}
+	}
+
+	@Override
+	public void sendError(String siteId, String subject, String message) {
+		received.incrementAndGet();
+		delivered.incrementAndGet();
+		delegate.sendError(siteId, subject, message);
+	}
+
+	private void flush(String siteId) {
+		Pending held;
+		synchronized (this) {
+			held = pending.remove(siteId);
+		}
+		if (held == null) {
+			return;
+		}
+
+		if (held.count > 1 && held.subject.equals(held.startedFrom)) {
+			logger.info(siteId + ": " + held.count + " notifications ended where they started, not sending '" + held.subject + "'");
+			suppressed(flaps);
+			return;
+		}
+		deliver(siteId, held.subject, held.message);
+	}
+
+	/**
+	 * Send every held message now.
+	 */
+	public void flush() {
+		String[] sites;
+		synchronized (this) {
+			sites = pending.keySet().toArray(new String[0]);
+			for (Pending held : pending.values()) {
+				held.flush.cancel(false);
+			}
+		}
+		for (String siteId : sites) {
+			flush(siteId);
+		}
+	}
+
+	private void deliver(String siteId, String subject, String message) {
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			Sent previous = lastSent.get(siteId);
+			if (previous != null && previous.subject.equals(subject) && previous.message.equals(message)
+					&& now - previous.time < duplicateWindowMillis) {
+				suppressed(duplicates);
+				return;
+			}
+			lastSent.put(siteId, new Sent(subject, message, now));
+		}
+
+		delivered.incrementAndGet();
+		delegate.sendMessage(siteId, subject, message);
+	}
+
+	private static void suppressed(AtomicLong reason) {
+		reason.incrementAndGet();
+		suppressedCounter.increment();
+	}
+
+	public long getReceivedCount() {
+		return received.get();
+	}
+
+	public long getDeliveredCount() {
+		return delivered.get();
+	}
+
+	/**
+	 * @return messages replaced by a later one for the same site within the
+	 *         window
+	 */
+	public long getCollapsedCount() {
+		return collapsed.get();
+	}
+
+	/**
+	 * @return windows that were not sent because the site ended up back where
+	 *         it started
+	 */
+	public long getFlapCount() {
+		return flaps.get();
+	}
+
+	public long getDuplicateCount() {
+		return duplicates.get();
+	}
+
+	/**
+	 * @return every message received that was not sent
+	 */
+	public long getSuppressedCount() {
+		return collapsed.get() + flaps.get() + duplicates.get();
+	}
+
+	@Override
+	public String toString() {
+		return "received=" + getReceivedCount() + ", delivered=" + getDeliveredCount() + ", collapsed="
+				+ getCollapsedCount() + ", flaps=" + getFlapCount() + ", duplicates=" + getDuplicateCount();
+	}
+}
@@ -0,0 +1,13 @@
+package com.casad.weatherwatcher.notification;
+
+/**
+ * What to do with a notification when a channel's queue is full.
+ */
+public enum DropPolicy {
+	/** Discard the notification being sent */
+	DROP_NEWEST,
+	/** Discard the oldest queued notification to make room */
+	DROP_OLDEST,
+	/** Wait for room, applying backpressure to the sender */
+	BLOCK
+}
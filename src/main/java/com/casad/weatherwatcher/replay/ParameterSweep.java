@@ -0,0 +1,263 @@
+package com.casad.weatherwatcher.replay;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.casad.weatherwatcher.ConditionCodes;
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+import com.casad.weatherwatcher.history.Observation;
+import com.casad.weatherwatcher.history.WeatherHistory;
+import com.casad.weatherwatcher.rules.DecisionTable;
+import com.casad.weatherwatcher.rules.RuleSet;
+
+/**
+ * Backtests many sets of rules against the weather recorded for every site in
+ * a {@link WeatherHistory}, scoring each by the hours its heaters are on and
+ * the snow it misses.
+ *
+ * Sites are split across a fork-join pool. Each task loads one site's weather
+ * once, runs every rule set over it with the same decisions a
+ * {@link com.casad.weatherwatcher.WeatherSite} makes, and adds the scores to
+ * its own running totals. Totals are merged as the tasks join, so memory
+ * grows with the number of rule sets and threads, not with the number of
+ * sites.
+ */
+public class ParameterSweep {
+	private static final Logger logger = LoggerFactory.getLogger(ParameterSweep.class);
+
+	private static final RampState[] STATES = RampState.values();
+
+	private final List<RuleSet> ruleSets = new ArrayList<>();
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Score the rules in the sweep.
+	 */
+	public void addRuleSet(RuleSet rules) {
+		ruleSets.add(new RuleSet(rules));
+	}
+
+	/**
+	 * Score every combination of the given thresholds and cooldowns, skipping
+	 * any where the ramp would go on standby above the temperature it goes
+	 * idle at.
+	 */
+	public void addGrid(RuleSet base, float[] activateThresholds, float[] deactivateThresholds, long[] cooldowns,
+			TimeUnit cooldownUnit) {
+		for (float activate : activateThresholds) {
+			for (float deactivate : deactivateThresholds) {
+				if (activate > deactivate) {
+					continue;
+				}
+				for (long cooldown : cooldowns) {
+					RuleSet rules = new RuleSet(base);
+					rules.setReadyThreshold(activate, deactivate);
+					rules.setDeactivationDelay(cooldownUnit.toMillis(cooldown));
+					ruleSets.add(rules);
+				}
+			}
+		}
+	}
+
+	/**
+	 * How many threads to run the sweep on, by default one per processor.
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("At least one thread is required: " + parallelism);
+		}
+		this.parallelism = parallelism;
+	}
+
+	public int getRuleSetCount() {
+		return ruleSets.size();
+	}
+
+	/**
+	 * Replay the weather recorded for every site from the given time,
+	 * inclusive, up to the given time, exclusive, under each rule set.
+	 *
+	 * @return a result for each rule set, in the order they were added
+	 */
+	public List<SweepResult> run(WeatherHistory history, long from, long to) {
+		List<String> sites = history.getSiteIds();
+		DecisionTable[] tables = new DecisionTable[ruleSets.size()];
+		for (int i = 0; i < tables.length; i++) {
+			tables[i] = ruleSets.get(i).compile();
+		}
+
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		SweepResult[] totals;
+		try {
+			totals = pool.invoke(new SiteTask(history, sites, 0, sites.size(), from, to, tables));
+		} finally {
+			pool.shutdown();
+		}
+		logger.info("Swept " + tables.length + " rule sets over " + sites.size() + " sites on " + parallelism
+				+ " threads in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+
+		return Arrays.asList(totals);
+	}
+
+	private class SiteTask extends RecursiveTask<SweepResult[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final WeatherHistory history;
+		private final List<String> sites;
+		private final int first;
+		private final int last;
+		private final long from;
+		private final long to;
+		private final DecisionTable[] tables;
+
+		SiteTask(WeatherHistory history, List<String> sites, int first, int last, long from, long to,
+				DecisionTable[] tables) {
+			this.history = history;
+			this.sites = sites;
+			this.first = first;
+			this.last = last;
+			this.from = from;
+			this.to = to;
+			this.tables = tables;
+		}
+
+		@Override
+		protected SweepResult[] compute() {
+			if (last - first > 1) {
+				int middle = (first + last) >>> 1;
+				SiteTask left = new SiteTask(history, sites, first, middle, from, to, tables);
+				left.fork();
+				SweepResult[] totals = new SiteTask(history, sites, middle, last, from, to, tables).compute();
+				SweepResult[] leftTotals = left.join();
+				for (int i = 0; i < totals.length; i++) {
+					totals[i].merge(leftTotals[i]);
+				}
+				return totals;
+			}
+
+			SweepResult[] totals = new SweepResult[tables.length];
+			for (int i = 0; i < totals.length; i++) {
+				totals[i] = new SweepResult(ruleSets.get(i));
+			}
+			if (first < last) {
+				SiteWeather weather = new SiteWeather();
+				history.query(sites.get(first), from, to, weather::add);
+				if (weather.size > 0) {
+					for (int i = 0; i < tables.length; i++) {
+						simulate(weather, tables[i], totals[i]);
+					}
+				}
+			}
+			return totals;
+		}
+	}
+
+	/**
+	 * One site's recorded weather, oldest first.
+	 */
+	static final class SiteWeather {
+		long[] times = new long[256];
+		WeatherSnapshot[] snapshots = new WeatherSnapshot[256];
+		boolean[] snowing = new boolean[256];
+		int size = 0;
+
+		void add(Observation observation) {
+			if (size == times.length) {
+				times = Arrays.copyOf(times, size * 2);
+				snapshots = Arrays.copyOf(snapshots, size * 2);
+				snowing = Arrays.copyOf(snowing, size * 2);
+			}
+
+			WeatherSnapshot snapshot = observation.toSnapshot();
+			if (size > 0 && snapshot.equals(snapshots[size - 1])) {
+				snapshot = snapshots[size - 1];
+			}
+			times[size] = observation.getTimestamp();
+			snapshots[size] = snapshot;
+			snowing[size] = ConditionCodes.isFallingSnow(observation.getCurrentCode());
+			size++;
+		}
+	}
+
+	/**
+	 * Run the site's weather through the rules, the same way a WeatherSite
+	 * ticks, and add up the time in each state and the snow events.
+	 */
+	static void simulate(SiteWeather weather, DecisionTable table, SweepResult result) {
+		RampState state = RampState.IDLE;
+		long deactivateTime = 1;
+		long[] timeInState = new long[STATES.length];
+		long snowEvents = 0;
+		long missed = 0;
+		boolean inSnow = false;
+
+		for (int i = 0; i < weather.size; i++) {
+			long now = weather.times[i];
+			if (i > 0) {
+				timeInState[state.ordinal()] += now - weather.times[i - 1];
+			}
+
+			// Snow actually falling, whatever the rules think is coming
+			if (weather.snowing[i] && !inSnow) {
+				snowEvents++;
+				if (state == RampState.IDLE) {
+					missed++;
+				}
+			}
+			inSnow = weather.snowing[i];
+
+			int action = table.evaluate(weather.snapshots[i], state, deactivateTime, now);
+			RampState target = DecisionTable.targetState(action);
+			if (target != null) {
+				state = target;
+			}
+			deactivateTime = table.nextDeactivateTime(action, deactivateTime, now);
+		}
+
+		result.addSite(weather.size, timeInState[RampState.ACTIVE.ordinal()],
+				timeInState[RampState.READY.ordinal()], snowEvents, missed);
+	}
+
+	/**
+	 * Sweep the standby thresholds and cooldown over the weather history,
+	 * printing the results with the fewest missed snow events and then the
+	 * fewest heater hours first.
+	 *
+	 * Usage: ParameterSweep &lt;history directory&gt; [days]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: ParameterSweep <history directory> [days]");
+			System.exit(1);
+		}
+
+		long to = System.currentTimeMillis();
+		long from = args.length > 1 ? to - TimeUnit.DAYS.toMillis(Long.parseLong(args[1])) : 0;
+
+		ParameterSweep sweep = new ParameterSweep();
+		sweep.addGrid(new RuleSet(), new float[] { 25, 28, 30, 32, 35, 38 }, new float[] { 35, 38, 40, 42, 45 },
+				new long[] { 0, 2, 6, 12, 24 }, TimeUnit.HOURS);
+
+		List<SweepResult> results;
+		try (WeatherHistory history = WeatherHistory.open(Paths.get(args[0]))) {
+			results = new ArrayList<>(sweep.run(history, from, to));
+		}
+		results.sort(Comparator.comparingLong(SweepResult::getMissedSnowEventCount)
+				.thenComparingDouble(SweepResult::getHeaterOnHours));
+		for (SweepResult result : results) {
+			System.out.println(result);
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package com.casad.weatherwatcher.replay;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+
+/**
+ * What a site did over a replay: every change of ramp state, how many
+ * notifications it sent and how long it spent in each state.
+ */
+public class ReplayResult {
+
+	/**
+	 * A change of ramp state and the weather that caused it.
+	 */
+	public static final class Transition {
+		private final long time;
+		private final RampState from;
+		private final RampState to;
+		private final WeatherSnapshot weather;
+
+		Transition(long time, RampState from, RampState to, WeatherSnapshot weather) {
+			this.time = time;
+			this.from = from;
+			this.to = to;
+			this.weather = weather;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		public RampState getFrom() {
+			return from;
+		}
+
+		public RampState getTo() {
+			return to;
+		}
+
+		public WeatherSnapshot getWeather() {
+			return weather;
+		}
+
+		@Override
+		public String toString() {
+			return Instant.ofEpochMilli(time) + " " + from + " -> " + to + " (" + weather.getTempF() + "F, "
+					+ weather.getCurrentConditions() + ")";
+		}
+	}
+
+	private final String siteId;
+	private final List<Transition> transitions = new ArrayList<>();
+	private final Map<RampState, Long> timeInState = new EnumMap<>(RampState.class);
+	private long firstTick = 0;
+	private long lastTick = 0;
+	private int ticks = 0;
+	private int notifications = 0;
+	private long elapsedNanos = 0;
+
+	ReplayResult(String siteId) {
+		this.siteId = siteId;
+		for (RampState state : RampState.values()) {
+			timeInState.put(state, 0L);
+		}
+	}
+
+	void tick(long time, RampState before) {
+		if (ticks == 0) {
+			firstTick = time;
+		} else {
+			timeInState.merge(before, time - lastTick, Long::sum);
+		}
+		lastTick = time;
+		ticks++;
+	}
+
+	void transition(long time, RampState from, RampState to, WeatherSnapshot weather) {
+		transitions.add(new Transition(time, from, to, weather));
+	}
+
+	void notified() {
+		notifications++;
+	}
+
+	void finished(long elapsedNanos) {
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	public String getSiteId() {
+		return siteId;
+	}
+
+	public List<Transition> getTransitions() {
+		return Collections.unmodifiableList(transitions);
+	}
+
+	public int getNotificationCount() {
+		return notifications;
+	}
+
+	public int getTickCount() {
+		return ticks;
+	}
+
+	/**
+	 * @return the time between the first and last ticks spent in the state,
+	 *         in milliseconds
+	 */
+	public long getTimeIn(RampState state) {
+		return timeInState.get(state);
+	}
+
+	/**
+	 * @return the time the replay covered, in milliseconds
+	 */
+	public long getReplayedMillis() {
+		return lastTick - firstTick;
+	}
+
+	/**
+	 * @return how long the replay took to run, in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Write each transition on its own line, followed by a summary.
+	 */
+	public void writeTimeline(Appendable out) throws IOException {
+		for (Transition transition : transitions) {
+			out.append(transition.toString()).append('\n');
+		}
+		out.append(toString()).append('\n');
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder summary = new StringBuilder(siteId).append(": ");
+		summary.append(ticks).append(" ticks");
+		if (ticks > 0) {
+			summary.append(" from ").append(Instant.ofEpochMilli(firstTick)).append(" to ").append(Instant.ofEpochMilli(lastTick));
+		}
+		summary.append(", ").append(transitions.size()).append(" transitions, ");
+		summary.append(notifications).append(" notifications");
+		for (RampState state : RampState.values()) {
+			summary.append(", ").append(state).append(' ').append(timeInState.get(state) / 3_600_000).append('h');
+		}
+		summary.append(", replayed in ").append(elapsedNanos / 1_000_000).append("ms");
+		return summary.toString();
+	}
+}
@@ -0,0 +1,93 @@
+package com.casad.weatherwatcher.replay;
+
+import com.casad.weatherwatcher.rules.RuleSet;
+
+/**
+ * How one set of rules did across every site in a {@link ParameterSweep}.
+ *
+ * Results are running totals. Each site adds its numbers as it is replayed
+ * and partial results from different threads are merged, so nothing is kept
+ * per site.
+ */
+public class SweepResult {
+	private static final double HOUR = 3_600_000.0;
+
+	private final RuleSet rules;
+	private long sites = 0;
+	private long ticks = 0;
+	private long activeMillis = 0;
+	private long readyMillis = 0;
+	private long snowEvents = 0;
+	private long missedSnowEvents = 0;
+
+	SweepResult(RuleSet rules) {
+		this.rules = rules;
+	}
+
+	void addSite(long ticks, long activeMillis, long readyMillis, long snowEvents, long missedSnowEvents) {
+		this.sites++;
+		this.ticks += ticks;
+		this.activeMillis += activeMillis;
+		this.readyMillis += readyMillis;
+		this.snowEvents += snowEvents;
+		this.missedSnowEvents += missedSnowEvents;
+	}
+
+	void merge(SweepResult other) {
+		sites += other.sites;
+		ticks += other.ticks;
+		activeMillis += other.activeMillis;
+		readyMillis += other.readyMillis;
+		snowEvents += other.snowEvents;
+		missedSnowEvents += other.missedSnowEvents;
+	}
+
+	public RuleSet getRuleSet() {
+		return new RuleSet(rules);
+	}
+
+	public long getSiteCount() {
+		return sites;
+	}
+
+	public long getTickCount() {
+		return ticks;
+	}
+
+	/**
+	 * @return hours the heater spent ACTIVE, summed over every site
+	 */
+	public double getHeaterOnHours() {
+		return activeMillis / HOUR;
+	}
+
+	/**
+	 * @return hours spent on standby in READY, summed over every site
+	 */
+	public double getStandbyHours() {
+		return readyMillis / HOUR;
+	}
+
+	/**
+	 * @return the number of times it started snowing at a site
+	 */
+	public long getSnowEventCount() {
+		return snowEvents;
+	}
+
+	/**
+	 * @return the number of times it started snowing while a site's ramp was
+	 *         IDLE, neither heating nor on standby
+	 */
+	public long getMissedSnowEventCount() {
+		return missedSnowEvents;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("on<%.1fF off>%.1fF lookahead=%d cooldown=%dm: %d sites, heater on %.0fh, standby %.0fh, missed %d/%d snow events",
+				rules.getReadyActivateThreshold(), rules.getReadyDeactivateThreshold(), rules.getSnowLookahead(),
+				rules.getDeactivationDelay() / 60_000, sites, getHeaterOnHours(), getStandbyHours(), missedSnowEvents,
+				snowEvents);
+	}
+}
@@ -0,0 +1,60 @@
+package com.casad.weatherwatcher.replay;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A clock that only moves when it is told to, so a replay can run through a
+ * season as fast as the decisions can be made.
+ *
+ * A copy in another zone from {@link #withZone(ZoneId)} shares the same
+ * time, so moving either one moves both.
+ */
+public class VirtualClock extends Clock {
+	private final AtomicLong millis;
+	private final ZoneId zone;
+
+	public VirtualClock(long millis) {
+		this(new AtomicLong(millis), ZoneOffset.UTC);
+	}
+
+	private VirtualClock(AtomicLong millis, ZoneId zone) {
+		this.millis = millis;
+		this.zone = zone;
+	}
+
+	public void set(long millis) {
+		this.millis.set(millis);
+	}
+
+	public void advance(long duration, TimeUnit unit) {
+		millis.addAndGet(unit.toMillis(duration));
+	}
+
+	@Override
+	public long millis() {
+		return millis.get();
+	}
+
+	@Override
+	public Instant instant() {
+		return Instant.ofEpochMilli(millis.get());
+	}
+
+	@Override
+	public ZoneId getZone() {
+		return zone;
+	}
+
+	@Override
+	public VirtualClock withZone(ZoneId zone) {
+		if (this.zone.equals(zone)) {
+			return this;
+		}
+		return new VirtualClock(millis, zone);
+	}
+}
@@ -0,0 +1,140 @@
+package com.casad.weatherwatcher.replay;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.amphibian.weather.response.Conditions;
+import com.amphibian.weather.response.Forecast;
+import com.amphibian.weather.response.ForecastDay;
+import com.amphibian.weather.response.ForecastWrapper;
+import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.ConditionCodes;
+import com.casad.weatherwatcher.history.WeatherHistory;
+
+/**
+ * A recorded weather report and the time it was fetched.
+ *
+ * Fixture files have one report per line:
+ *
+ * <pre>
+ * # time, temperature, current conditions, period 1, period 2, period 3
+ * 2016-12-14T06:00:00Z,28,Light Snow,Snow,Cloudy,Clear
+ * </pre>
+ *
+ * The time is an ISO-8601 instant or milliseconds since the epoch. Blank
+ * conditions are missing from the report. Lines starting with # and blank
+ * lines are ignored.
+ */
+public final class WeatherFixture {
+	private final long timestamp;
+	private final WeatherResponse response;
+
+	public WeatherFixture(long timestamp, WeatherResponse response) {
+		this.timestamp = timestamp;
+		this.response = response;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public WeatherResponse getResponse() {
+		return response;
+	}
+
+	public static List<WeatherFixture> read(Path file) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			return read(reader);
+		}
+	}
+
+	public static List<WeatherFixture> read(Reader input) throws IOException {
+		BufferedReader reader = input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(input);
+		List<WeatherFixture> fixtures = new ArrayList<>();
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+
+			String[] fields = line.split(",", -1);
+			if (fields.length != 6) {
+				throw new IOException("Line " + lineNumber + ": expected 6 fields but found " + fields.length);
+			}
+			try {
+				fixtures.add(new WeatherFixture(parseTime(fields[0].trim()),
+						createResponse(Float.parseFloat(fields[1].trim()), condition(fields[2]), condition(fields[3]),
+								condition(fields[4]), condition(fields[5]))));
+			} catch (NumberFormatException | DateTimeParseException e) {
+				throw new IOException("Line " + lineNumber + ": " + e.getMessage(), e);
+			}
+		}
+		return fixtures;
+	}
+
+	/**
+	 * The observations recorded for a site in the history, from the given
+	 * time, inclusive, up to the given time, exclusive.
+	 */
+	public static List<WeatherFixture> fromHistory(WeatherHistory history, String siteId, long from, long to) {
+		List<WeatherFixture> fixtures = new ArrayList<>();
+		history.query(siteId, from, to, observation -> fixtures.add(new WeatherFixture(observation.getTimestamp(),
+				createResponse(observation.getTempF(), ConditionCodes.nameOf(observation.getCurrentCode()),
+						ConditionCodes.nameOf(observation.getPeriodCode(1)),
+						ConditionCodes.nameOf(observation.getPeriodCode(2)),
+						ConditionCodes.nameOf(observation.getPeriodCode(3))))));
+		return fixtures;
+	}
+
+	private static long parseTime(String value) {
+		if (!value.isEmpty() && value.chars().allMatch(Character::isDigit)) {
+			return Long.parseLong(value);
+		}
+		return Instant.parse(value).toEpochMilli();
+	}
+
+	private static String condition(String value) {
+		value = value.trim();
+		return value.isEmpty() ? null : value;
+	}
+
+	/**
+	 * Build a report like the ones the weather service returns.
+	 */
+	public static WeatherResponse createResponse(float tempF, String current, String period1, String period2,
+			String period3) {
+		WeatherResponse response = new WeatherResponse();
+
+		Conditions conditions = new Conditions();
+		conditions.setWeather(current);
+		conditions.setTempF(tempF);
+		response.setConditions(conditions);
+
+		ForecastDay day1 = new ForecastDay();
+		day1.setConditions(period1);
+		ForecastDay day2 = new ForecastDay();
+		day2.setConditions(period2);
+		ForecastDay day3 = new ForecastDay();
+		day3.setConditions(period3);
+
+		Forecast forecast = new Forecast();
+		forecast.setDays(Arrays.asList(day1, day2, day3));
+		ForecastWrapper forecasts = new ForecastWrapper();
+		forecasts.setSimpleForecast(forecast);
+		response.setForecasts(forecasts);
+
+		return response;
+	}
+}
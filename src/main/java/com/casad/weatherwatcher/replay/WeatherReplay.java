@@ -0,0 +1,99 @@
+package com.casad.weatherwatcher.replay;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.Configuration;
+import com.casad.weatherwatcher.WeatherSite;
+import com.casad.weatherwatcher.controller.RampController;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+import com.casad.weatherwatcher.rules.RuleSet;
+
+/**
+ * Runs recorded weather through the same {@link WeatherSite} tick the engines
+ * use, on a {@link VirtualClock}. Each fixture is one tick, made at the time
+ * it was recorded, so a whole season replays in as long as it takes to make
+ * the decisions rather than waiting out the poll period.
+ *
+ * The ramp controller and notifications are stand-ins that only record what
+ * happened.
+ */
+public class WeatherReplay {
+	public static final String DEFAULT_SITE_ID = "replay";
+
+	private String siteId = DEFAULT_SITE_ID;
+	private RuleSet rules = new RuleSet();
+
+	public void setSiteId(String siteId) {
+		this.siteId = siteId;
+	}
+
+	public void setRuleSet(RuleSet rules) {
+		this.rules = new RuleSet(rules);
+	}
+
+	public ReplayResult run(List<WeatherFixture> fixtures) {
+		ReplayResult result = new ReplayResult(siteId);
+		if (fixtures.isEmpty()) {
+			return result;
+		}
+
+		VirtualClock clock = new VirtualClock(fixtures.get(0).getTimestamp());
+		WeatherResponse[] current = new WeatherResponse[1];
+		RampController controller = new RampController(() -> {}, () -> {}, () -> {});
+
+		WeatherSite site = new WeatherSite(siteId, () -> current[0], controller,
+				(subject, message) -> result.notified());
+		site.setRuleSet(rules);
+		site.setClock(clock);
+		site.validate();
+
+		long start = System.nanoTime();
+		for (WeatherFixture fixture : fixtures) {
+			clock.set(fixture.getTimestamp());
+			current[0] = fixture.getResponse();
+
+			RampState before = controller.getState();
+			result.tick(fixture.getTimestamp(), before);
+			site.run();
+			if (controller.getState() != before) {
+				result.transition(fixture.getTimestamp(), before, controller.getState(), site.getLastSnapshot());
+			}
+		}
+		result.finished(System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * Replay a fixture file with the rules from the configuration, writing the
+	 * timeline to standard out.
+	 *
+	 * Usage: WeatherReplay &lt;fixture file&gt; [site id]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: WeatherReplay <fixture file> [site id]");
+			System.exit(1);
+		}
+
+		WeatherReplay replay = new WeatherReplay();
+		if (args.length > 1) {
+			replay.setSiteId(args[1]);
+		}
+
+		RuleSet defaults = new RuleSet();
+		defaults.setDeactivationDelay(TimeUnit.HOURS.toMillis(24));
+		replay.setRuleSet(Configuration.getConfig().getRuleSet(replay.siteId, defaults));
+
+		ReplayResult result = replay.run(WeatherFixture.read(Paths.get(args[0])));
+		Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+		result.writeTimeline(out);
+		out.flush();
+	}
+}
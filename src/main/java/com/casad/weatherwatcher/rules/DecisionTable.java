@@ -0,0 +1,300 @@
+package com.casad.weatherwatcher.rules;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.casad.weatherwatcher.ConditionCodes;
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+
+/**
+ * A {@link RuleSet} compiled into a flat table of actions.
+ *
+ * Every input to a decision is reduced to a small number of cases: is there
+ * snow within the look-ahead, where the snow cooldown is at, which
+ * temperature band it is in and the current ramp state. Together these index
+ * a precomputed action, packed into an int, saying which state to move the
+ * ramp to, which message to send and what to do with the cooldown.
+ *
+ * Whether a condition code counts as snow is worked out against the keywords
+ * the first time the code is seen and cached, so evaluation does no string
+ * handling once the conditions for a site have been seen.
+ */
+public final class DecisionTable {
+
+	/**
+	 * The messages a transition can send.
+	 */
+	public enum Message {
+		ACTIVATING("Ramp activating - snow is incoming!",
+				"Snow has been detected in the forecast.  The ramp heater is now activating."),
+		SNOW_STOPPED("The snow has stopped staying active for a bit longer",
+				"The snow has recently stopped.  The ramp will be heated for a bit longer to ensure the snow is all gone."),
+		COLD_STANDBY("Ramp is going on standby due to cold weather",
+				"The ramp head is going on standby due to cold weather."),
+		WARM_SHUTDOWN("Ramp shutting down - enjoy warm the weather!",
+				"The weather is currently warm - the ramp is deactivating."),
+		SNOW_CLEARED_STANDBY("Ramp is on standby, weather is looking up!",
+				"It is no longer snowing, the ramp is going on standby.");
+
+		private final String subject;
+		private final String body;
+
+		private Message(String subject, String body) {
+			this.subject = subject;
+			this.body = body;
+		}
+
+		public String getSubject() {
+			return subject;
+		}
+
+		public String getBody() {
+			return body;
+		}
+	}
+
+	/** Temperature bands */
+	public static final int COLD = 0, MILD = 1, WARM = 2;
+
+	/** Cooldown phases */
+	static final int COOLDOWN_NONE = 0, COOLDOWN_PENDING = 1, COOLDOWN_RUNNING = 2;
+
+	/** Cooldown operations */
+	public static final int KEEP_COOLDOWN = 0, CLEAR_COOLDOWN = 1, START_COOLDOWN = 2;
+
+	private static final RampState[] STATES = RampState.values();
+	private static final Message[] MESSAGES = Message.values();
+
+	private static final int STATE_BITS = 0x3;
+	private static final int MESSAGE_SHIFT = 2, MESSAGE_BITS = 0x7;
+	private static final int COOLDOWN_SHIFT = 5, COOLDOWN_BITS = 0x3;
+	private static final int COOLING_DOWN = 1 << 7;
+
+	private static final byte UNKNOWN = 0, NOT_SNOW = 1, SNOW = 2;
+
+	private final int snowLookahead;
+	private final String[] snowKeywords;
+	private final float readyActivateThreshold;
+	private final float readyDeactivateThreshold;
+	private final long deactivateDelay;
+	private final boolean hasCooldown;
+
+	private final int[] actions;
+	private volatile byte[] snowCodes = new byte[0];
+
+	DecisionTable(RuleSet rules) {
+		snowLookahead = rules.getSnowLookahead();
+		List<String> keywords = rules.getSnowKeywords();
+		snowKeywords = new String[keywords.size()];
+		for (int i = 0; i < snowKeywords.length; i++) {
+			snowKeywords[i] = keywords.get(i).toUpperCase();
+		}
+		readyActivateThreshold = rules.getReadyActivateThreshold();
+		readyDeactivateThreshold = rules.getReadyDeactivateThreshold();
+		deactivateDelay = rules.getDeactivationDelay();
+		hasCooldown = deactivateDelay != 0;
+
+		actions = new int[2 * 3 * 3 * STATES.length];
+		for (int snow = 0; snow < 2; snow++) {
+			for (int cooldown = 0; cooldown < 3; cooldown++) {
+				for (int band = 0; band < 3; band++) {
+					for (RampState state : STATES) {
+						actions[index(snow == 1, cooldown, band, state)] = decide(snow == 1, cooldown, band, state);
+					}
+				}
+			}
+		}
+	}
+
+	private static int index(boolean snow, int cooldown, int band, RampState state) {
+		return (((snow ? 1 : 0) * 3 + cooldown) * 3 + band) * STATES.length + state.ordinal();
+	}
+
+	/**
+	 * The ramp rules. This is only run while the table is being built.
+	 */
+	private static int decide(boolean snow, int cooldown, int band, RampState state) {
+		if (snow) {
+			if (state != RampState.ACTIVE) {
+				return action(RampState.ACTIVE, Message.ACTIVATING, CLEAR_COOLDOWN);
+			}
+			return action(null, null, CLEAR_COOLDOWN);
+
+		} else if (cooldown == COOLDOWN_PENDING) {
+			return action(null, Message.SNOW_STOPPED, START_COOLDOWN);
+
+		} else if (cooldown == COOLDOWN_RUNNING) {
+			return COOLING_DOWN;
+
+		} else if (band == COLD) {
+			if (state != RampState.READY) {
+				return action(RampState.READY, Message.COLD_STANDBY, KEEP_COOLDOWN);
+			}
+
+		} else if (band == WARM) {
+			if (state != RampState.IDLE) {
+				return action(RampState.IDLE, Message.WARM_SHUTDOWN, KEEP_COOLDOWN);
+			}
+
+		} else if (state == RampState.ACTIVE) {
+			// The ramp is active but it is no longer snowing and we are
+			// between the ready thresholds. Put the ramp on standby.
+			return action(RampState.READY, Message.SNOW_CLEARED_STANDBY, KEEP_COOLDOWN);
+		}
+
+		return 0;
+	}
+
+	private static int action(RampState state, Message message, int cooldown) {
+		int action = state == null ? 0 : state.ordinal() + 1;
+		action |= (message == null ? 0 : message.ordinal() + 1) << MESSAGE_SHIFT;
+		action |= cooldown << COOLDOWN_SHIFT;
+		return action;
+	}
+
+	/**
+	 * Decide what to do for the given weather.
+	 *
+	 * @param deactivateTime
+	 *            when the current snow cooldown ends, 0 if it has been snowing
+	 *            and the cooldown has not started yet
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return the packed action, read with {@link #targetState(int)},
+	 *         {@link #message(int)}, {@link #cooldownOperation(int)} and
+	 *         {@link #isCoolingDown(int)}
+	 */
+	public int evaluate(WeatherSnapshot snapshot, RampState state, long deactivateTime, long now) {
+		int cooldown;
+		if (deactivateTime == 0 && hasCooldown) {
+			cooldown = COOLDOWN_PENDING;
+		} else if (deactivateTime > now) {
+			cooldown = COOLDOWN_RUNNING;
+		} else {
+			cooldown = COOLDOWN_NONE;
+		}
+
+		return actions[index(isSnow(snapshot), cooldown, band(snapshot.getTempF()), state)];
+	}
+
+	public static RampState targetState(int action) {
+		int state = action & STATE_BITS;
+		return state == 0 ? null : STATES[state - 1];
+	}
+
+	public static Message message(int action) {
+		int message = (action >>> MESSAGE_SHIFT) & MESSAGE_BITS;
+		return message == 0 ? null : MESSAGES[message - 1];
+	}
+
+	public static int cooldownOperation(int action) {
+		return (action >>> COOLDOWN_SHIFT) & COOLDOWN_BITS;
+	}
+
+	/**
+	 * Apply the action's cooldown operation.
+	 *
+	 * @return when the snow cooldown ends once the action has been taken
+	 */
+	public long nextDeactivateTime(int action, long deactivateTime, long now) {
+		switch (cooldownOperation(action)) {
+		case CLEAR_COOLDOWN:
+			return 0;
+		case START_COOLDOWN:
+			return now + deactivateDelay;
+		default:
+			return deactivateTime;
+		}
+	}
+
+	public static boolean isCoolingDown(int action) {
+		return (action & COOLING_DOWN) != 0;
+	}
+
+	/**
+	 * @return true if any of the conditions within the look-ahead match a
+	 *         snow keyword
+	 */
+	public boolean isSnow(WeatherSnapshot snapshot) {
+		return isSnowWithin(snapshot, snowLookahead);
+	}
+
+	/**
+	 * @return true if the current conditions or those for any forecast
+	 *         period match a snow keyword, however far the look-ahead reaches
+	 */
+	public boolean isSnowForecast(WeatherSnapshot snapshot) {
+		return isSnowWithin(snapshot, WeatherSnapshot.PERIODS);
+	}
+
+	private boolean isSnowWithin(WeatherSnapshot snapshot, int periods) {
+		if (isSnowCode(snapshot.getCurrentCode())) {
+			return true;
+		}
+		for (int period = 1; period <= periods; period++) {
+			if (isSnowCode(snapshot.getPeriodCode(period))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isSnowCode(int code) {
+		byte[] codes = snowCodes;
+		if (code < codes.length && codes[code] != UNKNOWN) {
+			return codes[code] == SNOW;
+		}
+		return classify(code);
+	}
+
+	private synchronized boolean classify(int code) {
+		byte[] codes = snowCodes;
+		if (code >= codes.length) {
+			codes = Arrays.copyOf(codes, Math.max(code + 1, ConditionCodes.size()));
+		} else {
+			codes = codes.clone();
+		}
+
+		String name = ConditionCodes.nameOf(code);
+		byte result = NOT_SNOW;
+		if (name != null) {
+			String upper = name.toUpperCase();
+			for (String keyword : snowKeywords) {
+				if (upper.contains(keyword)) {
+					result = SNOW;
+					break;
+				}
+			}
+		}
+
+		codes[code] = result;
+		snowCodes = codes;
+		return result == SNOW;
+	}
+
+	/**
+	 * @return the temperature band, {@link #COLD}, {@link #MILD} or
+	 *         {@link #WARM}
+	 */
+	public int band(float tempF) {
+		if (tempF < readyActivateThreshold) {
+			return COLD;
+		} else if (tempF > readyDeactivateThreshold) {
+			return WARM;
+		}
+		return MILD;
+	}
+
+	public long getDeactivationDelay() {
+		return deactivateDelay;
+	}
+
+	public float getReadyActivateThreshold() {
+		return readyActivateThreshold;
+	}
+
+	public float getReadyDeactivateThreshold() {
+		return readyDeactivateThreshold;
+	}
+}
@@ -0,0 +1,176 @@
+package com.casad.weatherwatcher.rules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import com.casad.weatherwatcher.WeatherSnapshot;
+
+/**
+ * The rules a site uses to decide the state of its ramp: how far ahead to look
+ * for snow, which conditions count as snow, the temperature band between READY
+ * and IDLE and how long to keep heating after the snow stops.
+ * 
+ * A RuleSet is only a description of the rules. It is compiled into a
+ * {@link DecisionTable} before being evaluated, and changing a RuleSet after
+ * it has been compiled has no effect on the table.
+ * 
+ * The defaults reproduce the original engine: snow now or in the next period,
+ * READY below 35F, IDLE above 40F and no cooldown.
+ */
+public class RuleSet {
+	public static final String SNOW_LOOKAHEAD = "snowLookahead";
+	public static final String SNOW_KEYWORDS = "snowKeywords";
+	public static final String READY_ACTIVATE_THRESHOLD = "readyActivateThreshold";
+	public static final String READY_DEACTIVATE_THRESHOLD = "readyDeactivateThreshold";
+	public static final String COOLDOWN_MINUTES = "cooldownMinutes";
+
+	private int snowLookahead = 1;
+	private List<String> snowKeywords = Collections.singletonList("SNOW");
+	private float readyActivateThreshold = 35;
+	private float readyDeactivateThreshold = 40;
+	private long deactivateDelay = 0;
+
+	public RuleSet() {
+	}
+
+	public RuleSet(RuleSet other) {
+		snowLookahead = other.snowLookahead;
+		snowKeywords = other.snowKeywords;
+		readyActivateThreshold = other.readyActivateThreshold;
+		readyDeactivateThreshold = other.readyDeactivateThreshold;
+		deactivateDelay = other.deactivateDelay;
+	}
+
+	/**
+	 * Override these rules with any that are set in the properties under the
+	 * given prefix, e.g. "rules.site1.snowLookahead".
+	 * 
+	 * @return this rule set
+	 */
+	public RuleSet apply(Properties prop, String prefix) {
+		String value = prop.getProperty(prefix + SNOW_LOOKAHEAD);
+		if (isSet(value)) {
+			setSnowLookahead(parseInt(prefix + SNOW_LOOKAHEAD, value));
+		}
+
+		value = prop.getProperty(prefix + SNOW_KEYWORDS);
+		if (isSet(value)) {
+			List<String> keywords = new ArrayList<>();
+			for (String keyword : value.split(",")) {
+				if (isSet(keyword)) {
+					keywords.add(keyword.trim());
+				}
+			}
+			setSnowKeywords(keywords);
+		}
+
+		value = prop.getProperty(prefix + READY_ACTIVATE_THRESHOLD);
+		if (isSet(value)) {
+			readyActivateThreshold = parseFloat(prefix + READY_ACTIVATE_THRESHOLD, value);
+		}
+
+		value = prop.getProperty(prefix + READY_DEACTIVATE_THRESHOLD);
+		if (isSet(value)) {
+			readyDeactivateThreshold = parseFloat(prefix + READY_DEACTIVATE_THRESHOLD, value);
+		}
+
+		value = prop.getProperty(prefix + COOLDOWN_MINUTES);
+		if (isSet(value)) {
+			deactivateDelay = TimeUnit.MINUTES.toMillis(parseInt(prefix + COOLDOWN_MINUTES, value));
+		}
+
+		return this;
+	}
+
+	private static boolean isSet(String value) {
+		return value != null && !"".equals(value.trim());
+	}
+
+	private static int parseInt(String key, String value) {
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value for '" + key + "': " + value, e);
+		}
+	}
+
+	private static float parseFloat(String key, String value) {
+		try {
+			return Float.parseFloat(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value for '" + key + "': " + value, e);
+		}
+	}
+
+	public DecisionTable compile() {
+		return new DecisionTable(this);
+	}
+
+	public int getSnowLookahead() {
+		return snowLookahead;
+	}
+
+	/**
+	 * @param periods
+	 *            the number of forecast periods after the current conditions
+	 *            to check for snow, 0 to {@link WeatherSnapshot#PERIODS}
+	 */
+	public void setSnowLookahead(int periods) {
+		if (periods < 0 || periods > WeatherSnapshot.PERIODS) {
+			throw new IllegalArgumentException("The snow look-ahead must be between 0 and " + WeatherSnapshot.PERIODS + ": " + periods);
+		}
+		snowLookahead = periods;
+	}
+
+	public List<String> getSnowKeywords() {
+		return snowKeywords;
+	}
+
+	/**
+	 * @param keywords
+	 *            conditions containing any of these, ignoring case, activate
+	 *            the ramp, e.g. "Snow", "Sleet", "Freezing Rain"
+	 */
+	public void setSnowKeywords(List<String> keywords) {
+		if (keywords == null || keywords.isEmpty()) {
+			throw new IllegalArgumentException("At least one snow keyword must be provided");
+		}
+		snowKeywords = Collections.unmodifiableList(new ArrayList<>(keywords));
+	}
+
+	public void setSnowKeywords(String... keywords) {
+		setSnowKeywords(Arrays.asList(keywords));
+	}
+
+	public float getReadyActivateThreshold() {
+		return readyActivateThreshold;
+	}
+
+	public float getReadyDeactivateThreshold() {
+		return readyDeactivateThreshold;
+	}
+
+	public void setReadyThreshold(float turnOn, float turnOff) {
+		readyActivateThreshold = turnOn;
+		readyDeactivateThreshold = turnOff;
+	}
+
+	public long getDeactivationDelay() {
+		return deactivateDelay;
+	}
+
+	public void setDeactivationDelay(long time) {
+		deactivateDelay = time;
+	}
+
+	@Override
+	public String toString() {
+		return "RuleSet [snowLookahead=" + snowLookahead + ", snowKeywords=" + snowKeywords
+				+ ", readyActivateThreshold=" + readyActivateThreshold + ", readyDeactivateThreshold="
+				+ readyDeactivateThreshold + ", deactivateDelay=" + deactivateDelay + "]";
+	}
+}
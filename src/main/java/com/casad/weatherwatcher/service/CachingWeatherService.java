@@ -0,0 +1,283 @@
+package com.casad.weatherwatcher.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.LocationWeatherService;
+import com.casad.weatherwatcher.WeatherSnapshot;
+
+/**
+ * Caches weather reports by location so that ramps sharing a location share a
+ * single upstream query.
+ *
+ * Reports are held for a fixed time to live. Concurrent misses for the same
+ * location are collapsed into one upstream call which every caller waits on.
+ * When a cached report is read within the refresh-ahead window before it
+ * expires, a replacement is loaded in the background so that hot locations
+ * never see a miss. The cache is bounded and evicts the least recently used
+ * location when full.
+ *
+ * Snapshots are cached apart from reports, so an upstream that reads
+ * snapshots straight from its response is still asked for snapshots.
+ */
+public class CachingWeatherService implements LocationWeatherService {
+	private static final Logger logger = LoggerFactory.getLogger(CachingWeatherService.class);
+
+	private final LocationWeatherService upstream;
+	private final long ttlNanos;
+	private final int maxEntries;
+	private long refreshAheadNanos = 0;
+	private Executor refreshExecutor = null;
+
+	private final Store<WeatherResponse> reports;
+	private final Store<WeatherSnapshot> snapshots;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong collapsedMisses = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong loadFailures = new AtomicLong();
+	private final AtomicLong loadTimeNanos = new AtomicLong();
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public CachingWeatherService(LocationWeatherService upstream, long ttl, TimeUnit unit, int maxEntries) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("The cache must hold at least one entry: " + maxEntries);
+		}
+
+		this.upstream = upstream;
+		this.ttlNanos = unit.toNanos(ttl);
+		this.maxEntries = maxEntries;
+		this.reports = new Store<>(upstream::getWeatherReport);
+		// The upstream is not given the caller's previous snapshot, callers
+		// sharing a location each have their own
+		this.snapshots = new Store<>(location -> upstream.getSnapshot(location, null));
+	}
+
+	/**
+	 * Reload reports in the background when they are read within this long
+	 * of expiring. Zero, the default, disables refresh-ahead.
+	 */
+	public void setRefreshAhead(long time, TimeUnit unit) {
+		refreshAheadNanos = unit.toNanos(time);
+		if (refreshExecutor == null && refreshAheadNanos > 0) {
+			refreshExecutor = Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "weather-cache-refresh");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	public void setRefreshExecutor(Executor executor) {
+		refreshExecutor = executor;
+	}
+
+	@Override
+	public WeatherResponse getWeatherReport(String location) {
+		return reports.get(location);
+	}
+
+	@Override
+	public WeatherSnapshot getSnapshot(String location, WeatherSnapshot previous) {
+		WeatherSnapshot snapshot = snapshots.get(location);
+		return snapshot.equals(previous) ? previous : snapshot;
+	}
+
+	public void invalidate(String location) {
+		reports.invalidate(location);
+		snapshots.invalidate(location);
+	}
+
+	/**
+	 * @return how many reports and snapshots are cached
+	 */
+	public int size() {
+		return reports.size() + snapshots.size();
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Misses that waited on a load already in flight rather than querying
+	 * upstream themselves.
+	 */
+	public long getCollapsedMissCount() {
+		return collapsedMisses.get();
+	}
+
+	public long getLoadCount() {
+		return loads.get();
+	}
+
+	public long getLoadFailureCount() {
+		return loadFailures.get();
+	}
+
+	public long getTotalLoadTime(TimeUnit unit) {
+		return unit.convert(loadTimeNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+	public long getRefreshCount() {
+		return refreshes.get();
+	}
+
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	public double getHitRate() {
+		long requests = hits.get() + misses.get();
+		return requests == 0 ? 0 : (double) hits.get() / requests;
+	}
+
+	@Override
+	public String toString() {
+		return "CachingWeatherService [size=" + size() + ", hits=" + hits + ", misses=" + misses + ", collapsed="
+				+ collapsedMisses + ", loads=" + loads + ", failures=" + loadFailures + ", refreshes=" + refreshes
+				+ ", evictions=" + evictions + ", loadTimeMs=" + getTotalLoadTime(TimeUnit.MILLISECONDS) + "]";
+	}
+
+	/**
+	 * Cached reports or snapshots, for up to the cache size locations.
+	 */
+	private class Store<T> {
+		private final Function<String, T> loader;
+		private final Map<String, CachedReport<T>> entries =
+				new LinkedHashMap<String, CachedReport<T>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedReport<T>> eldest) {
+				if (size() > maxEntries) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+
+		Store(Function<String, T> loader) {
+			this.loader = loader;
+		}
+
+		T get(String location) {
+			long now = System.nanoTime();
+			CachedReport<T> entry;
+			boolean load = false;
+
+			synchronized (entries) {
+				entry = entries.get(location);
+				if (entry == null || entry.isExpired(now)) {
+					entry = new CachedReport<>();
+					entries.put(location, entry);
+					load = true;
+				}
+			}
+
+			if (load) {
+				misses.incrementAndGet();
+				load(location, entry);
+			} else if (!entry.future.isDone()) {
+				misses.incrementAndGet();
+				collapsedMisses.incrementAndGet();
+			} else {
+				hits.incrementAndGet();
+				if (isRefreshDue(entry, now) && entry.refreshing.compareAndSet(false, true)) {
+					final CachedReport<T> current = entry;
+					refreshExecutor.execute(() -> refresh(location, current));
+				}
+			}
+
+			try {
+				return entry.future.join();
+			} catch (CompletionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				throw new RuntimeException("Unable to load weather for " + location, cause);
+			}
+		}
+
+		private boolean isRefreshDue(CachedReport<T> entry, long now) {
+			return refreshAheadNanos > 0 && now - entry.loadedAt >= ttlNanos - refreshAheadNanos;
+		}
+
+		private void load(String location, CachedReport<T> entry) {
+			long start = System.nanoTime();
+			try {
+				T value = loader.apply(location);
+				entry.loadedAt = System.nanoTime();
+				entry.future.complete(value);
+			} catch (Throwable t) {
+				loadFailures.incrementAndGet();
+				// Failures are not cached, the next caller will try again
+				synchronized (entries) {
+					entries.remove(location, entry);
+				}
+				entry.future.completeExceptionally(t);
+			} finally {
+				loads.incrementAndGet();
+				loadTimeNanos.addAndGet(System.nanoTime() - start);
+			}
+		}
+
+		private void refresh(String location, CachedReport<T> current) {
+			CachedReport<T> replacement = new CachedReport<>();
+			load(location, replacement);
+
+			if (replacement.future.isCompletedExceptionally()) {
+				logger.warn("Unable to refresh the weather for " + location + ", serving the cached report until it expires");
+				current.refreshing.set(false);
+				return;
+			}
+
+			refreshes.incrementAndGet();
+			synchronized (entries) {
+				entries.replace(location, current, replacement);
+			}
+		}
+
+		void invalidate(String location) {
+			synchronized (entries) {
+				entries.remove(location);
+			}
+		}
+
+		int size() {
+			synchronized (entries) {
+				return entries.size();
+			}
+		}
+	}
+
+	private class CachedReport<T> {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		final AtomicBoolean refreshing = new AtomicBoolean(false);
+		volatile long loadedAt;
+
+		boolean isExpired(long now) {
+			return future.isDone() && now - loadedAt >= ttlNanos;
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package com.casad.weatherwatcher.service;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.LocationWeatherService;
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.metrics.LatencyHistogram;
+
+/**
+ * Queries a primary weather provider and, if it is slow to answer, a
+ * secondary one too, using whichever answers first.
+ *
+ * The wait before hedging is a percentile of the primary's recent response
+ * times, 95th by default, kept between a floor and a ceiling. So only the
+ * slowest few percent of queries are hedged, and the extra load on the
+ * secondary stays around that many percent however fast or slow the
+ * primary is running. Until enough responses have been seen the ceiling is
+ * used. If the primary fails outright the secondary is asked straight away.
+ *
+ * The query that loses is cancelled, interrupting its thread. A primary cut
+ * short is recorded as having taken at least as long as it ran, so the
+ * percentile is not skewed low by the slow queries it never sees finish.
+ */
+public class HedgedWeatherService implements LocationWeatherService {
+	private static final Logger logger = LoggerFactory.getLogger(HedgedWeatherService.class);
+
+	/** Fewer primary responses than this and the hedge waits for the ceiling */
+	private static final int MIN_SAMPLES = 20;
+
+	/** Log the hedge rate and latency every this many queries */
+	private static final int REPORT_EVERY = 100;
+
+	private final LocationWeatherService primary;
+	private final LocationWeatherService secondary;
+	private ExecutorService executor;
+
+	private volatile double percentile = 95;
+	private volatile long minDelayNanos = TimeUnit.MILLISECONDS.toNanos(50);
+	private volatile long maxDelayNanos = TimeUnit.SECONDS.toNanos(2);
+	private volatile int window = 500;
+
+	// The primary's response times, the latest window and the one before
+	private volatile LatencyHistogram recent = new LatencyHistogram();
+	private volatile LatencyHistogram previous = null;
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong hedges = new AtomicLong();
+	private final AtomicLong failovers = new AtomicLong();
+	private final AtomicLong secondaryWins = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	public HedgedWeatherService(LocationWeatherService primary, LocationWeatherService secondary) {
+		this.primary = primary;
+		this.secondary = secondary;
+		AtomicInteger threads = new AtomicInteger();
+		this.executor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "weather-hedge-" + threads.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Hedge once the primary has taken longer than this percentile of its
+	 * recent response times, but never sooner than the floor or later than
+	 * the ceiling.
+	 */
+	public void setHedgeDelay(double percentile, long min, long max, TimeUnit unit) {
+		if (percentile <= 0 || percentile > 100 || min > max) {
+			throw new IllegalArgumentException("Invalid hedge delay: p" + percentile + " between " + min + " and " + max);
+		}
+		this.percentile = percentile;
+		this.minDelayNanos = unit.toNanos(min);
+		this.maxDelayNanos = unit.toNanos(max);
+	}
+
+	/**
+	 * How many of the primary's responses the percentile is taken over, 500
+	 * by default.
+	 */
+	public void setWindow(int window) {
+		if (window < MIN_SAMPLES) {
+			throw new IllegalArgumentException("The window must be at least " + MIN_SAMPLES + ": " + window);
+		}
+		this.window = window;
+	}
+
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public WeatherResponse getWeatherReport(String location) {
+		return query(location, LocationWeatherService::getWeatherReport);
+	}
+
+	@Override
+	public WeatherSnapshot getSnapshot(String location, WeatherSnapshot previous) {
+		return query(location, (service, at) -> service.getSnapshot(at, previous));
+	}
+
+	private <T> T query(String location, BiFunction<LocationWeatherService, String, T> request) {
+		long start = System.nanoTime();
+		if (requests.incrementAndGet() % REPORT_EVERY == 0) {
+			logger.info(toString());
+		}
+
+		Call<T> call = new Call<>(request);
+		Attempt<T> first = call.launch(primary, location, true);
+		try {
+			try {
+				first.result.get(getHedgeDelay(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				hedges.incrementAndGet();
+				call.launch(secondary, location, false);
+			} catch (ExecutionException e) {
+				failovers.incrementAndGet();
+				logger.warn("Primary weather service failed, asking the secondary: " + e.getCause());
+				call.launch(secondary, location, false);
+			}
+
+			Attempt<T> winner = call.winner.get();
+			if (!winner.primary) {
+				secondaryWins.incrementAndGet();
+			}
+			call.cancelLosers(winner);
+			return winner.result.getNow(null);
+		} catch (ExecutionException e) {
+			failures.incrementAndGet();
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException("Unable to load weather for " + location, cause);
+		} catch (InterruptedException e) {
+			call.cancelLosers(null);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted loading weather for " + location, e);
+		} finally {
+			latency.recordSince(start);
+		}
+	}
+
+	/**
+	 * @return how long the primary is given before the secondary is asked
+	 */
+	public long getHedgeDelay(TimeUnit unit) {
+		LatencyHistogram histogram = recent;
+		if (histogram.getCount() < MIN_SAMPLES) {
+			histogram = previous;
+		}
+		long delay = maxDelayNanos;
+		if (histogram != null && histogram.getCount() >= MIN_SAMPLES) {
+			delay = Math.max(minDelayNanos, Math.min(maxDelayNanos, histogram.getPercentile(percentile)));
+		}
+		return unit.convert(delay, TimeUnit.NANOSECONDS);
+	}
+
+	private void recordPrimary(long nanos) {
+		LatencyHistogram histogram = recent;
+		histogram.record(nanos);
+		if (histogram.getCount() >= window) {
+			synchronized (this) {
+				if (recent == histogram) {
+					previous = histogram;
+					recent = new LatencyHistogram();
+				}
+			}
+		}
+	}
+
+	/**
+	 * One query for a report or snapshot, to one or both providers.
+	 */
+	private class Call<T> {
+		final BiFunction<LocationWeatherService, String, T> request;
+		final CompletableFuture<Attempt<T>> winner = new CompletableFuture<>();
+		final AtomicInteger failed = new AtomicInteger();
+		Attempt<T> primary;
+		Attempt<T> secondary;
+
+		Call(BiFunction<LocationWeatherService, String, T> request) {
+			this.request = request;
+		}
+
+		Attempt<T> launch(LocationWeatherService service, String location, boolean isPrimary) {
+			Attempt<T> attempt = new Attempt<>(isPrimary);
+			if (isPrimary) {
+				primary = attempt;
+			} else {
+				secondary = attempt;
+			}
+			attempt.task = executor.submit(() -> attempt.run(this, service, location));
+			return attempt;
+		}
+
+		void failed() {
+			// Only give up once both have failed, the primary's error is
+			// the one reported
+			if (failed.incrementAndGet() == 2) {
+				winner.completeExceptionally(primary.cause);
+			}
+		}
+
+		void cancelLosers(Attempt<T> winner) {
+			for (Attempt<T> attempt : Arrays.asList(primary, secondary)) {
+				if (attempt != null && attempt != winner && !attempt.result.isDone()) {
+					attempt.task.cancel(true);
+					if (attempt.primary) {
+						recordPrimary(System.nanoTime() - attempt.start);
+					}
+				}
+			}
+		}
+	}
+
+	private class Attempt<T> {
+		final boolean primary;
+		final long start = System.nanoTime();
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		volatile Future<?> task;
+		volatile Throwable cause;
+
+		Attempt(boolean primary) {
+			this.primary = primary;
+		}
+
+		void run(Call<T> call, LocationWeatherService service, String location) {
+			try {
+				T value = call.request.apply(service, location);
+				if (primary) {
+					recordPrimary(System.nanoTime() - start);
+				}
+				result.complete(value);
+				call.winner.complete(this);
+			} catch (Throwable t) {
+				cause = t;
+				result.completeExceptionally(t);
+				call.failed();
+			}
+		}
+	}
+
+	/**
+	 * @return how long each report took to get, hedged or not
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * @return queries where the primary was slow and the secondary was asked
+	 *         as well
+	 */
+	public long getHedgeCount() {
+		return hedges.get();
+	}
+
+	/**
+	 * @return queries where the primary failed and the secondary was asked
+	 *         instead
+	 */
+	public long getFailoverCount() {
+		return failovers.get();
+	}
+
+	public long getSecondaryWinCount() {
+		return secondaryWins.get();
+	}
+
+	public long getFailureCount() {
+		return failures.get();
+	}
+
+	public double getHedgeRate() {
+		long total = requests.get();
+		return total == 0 ? 0 : (double) hedges.get() / total;
+	}
+
+	@Override
+	public String toString() {
+		return "HedgedWeatherService [requests=" + requests + ", hedges=" + hedges + ", hedgeRate="
+				+ String.format("%.3f", getHedgeRate()) + ", secondaryWins=" + secondaryWins + ", failovers="
+				+ failovers + ", failures=" + failures + ", hedgeDelayMs=" + getHedgeDelay(TimeUnit.MILLISECONDS)
+				+ ", p99Ms=" + latency.getPercentile(99, TimeUnit.MILLISECONDS) + "]";
+	}
+}
@@ -0,0 +1,363 @@
+package com.casad.weatherwatcher.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.LocationWeatherService;
+import com.casad.weatherwatcher.WeatherSnapshot;
+
+/**
+ * Keeps weather reports coming while the upstream service is failing or
+ * hanging, by serving the last good report for a location until it gets too
+ * old.
+ *
+ * Every query is given a time limit. A query that fails, runs out of time or
+ * is merely slow counts against the upstream, and after enough in a row the
+ * circuit opens: queries stop going upstream at all and are answered
+ * straight away from the last good report. Once the circuit has been open a
+ * while, one query at a time is sent upstream in the background as a probe;
+ * the first to succeed closes the circuit again. A query that runs out of
+ * time carries on in the background, and if it does answer its report is
+ * kept for next time.
+ *
+ * A report served in place of a fresh one is logged with its age, which
+ * {@link #getAge(String, TimeUnit)} also reports. Once the last good report
+ * is older than the staleness cap it is no longer served and queries fail,
+ * so the ramp is never driven by weather that far out of date. A report's
+ * age counts from when the upstream answered, so this belongs directly on
+ * the weather service, below any cache.
+ */
+public class ResilientWeatherService implements LocationWeatherService {
+	private static final Logger logger = LoggerFactory.getLogger(ResilientWeatherService.class);
+
+	public enum CircuitState {
+		CLOSED, OPEN, HALF_OPEN
+	};
+
+	private final LocationWeatherService upstream;
+	private ExecutorService executor;
+
+	private volatile long timeoutNanos = TimeUnit.SECONDS.toNanos(20);
+	private volatile long slowCallNanos = TimeUnit.SECONDS.toNanos(10);
+	private volatile int failureThreshold = 3;
+	private volatile long openNanos = TimeUnit.MINUTES.toNanos(5);
+	private volatile long maxStaleNanos = TimeUnit.HOURS.toNanos(6);
+
+	private final AtomicReference<CircuitState> state = new AtomicReference<>(CircuitState.CLOSED);
+	private final AtomicInteger consecutiveFailures = new AtomicInteger();
+	private volatile long openedAt = 0;
+
+	private final Map<String, Report<WeatherResponse>> lastGoodReports = new ConcurrentHashMap<>();
+	private final Map<String, Report<WeatherSnapshot>> lastGoodSnapshots = new ConcurrentHashMap<>();
+	private final Map<String, Long> servedAge = new ConcurrentHashMap<>();
+
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong slowCalls = new AtomicLong();
+	private final AtomicLong trips = new AtomicLong();
+	private final AtomicLong probes = new AtomicLong();
+	private final AtomicLong staleServed = new AtomicLong();
+	private final AtomicLong tooStale = new AtomicLong();
+
+	public ResilientWeatherService(LocationWeatherService upstream) {
+		this.upstream = upstream;
+		AtomicInteger threads = new AtomicInteger();
+		this.executor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "weather-fetch-" + threads.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * How long to wait for the upstream before answering from the last good
+	 * report, 20 seconds by default.
+	 */
+	public void setTimeout(long timeout, TimeUnit unit) {
+		timeoutNanos = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Queries that answer but take longer than this still count against the
+	 * upstream, 10 seconds by default.
+	 */
+	public void setSlowCallThreshold(long threshold, TimeUnit unit) {
+		slowCallNanos = unit.toNanos(threshold);
+	}
+
+	/**
+	 * Open the circuit after this many failed or slow queries in a row, and
+	 * keep it open this long before probing the upstream. 3 queries and 5
+	 * minutes by default.
+	 */
+	public void setCircuitBreaker(int failureThreshold, long openTime, TimeUnit unit) {
+		if (failureThreshold < 1) {
+			throw new IllegalArgumentException("At least one failure is required: " + failureThreshold);
+		}
+		this.failureThreshold = failureThreshold;
+		this.openNanos = unit.toNanos(openTime);
+	}
+
+	/**
+	 * The oldest a report can be and still be served, 6 hours by default.
+	 */
+	public void setMaxStaleness(long maxStaleness, TimeUnit unit) {
+		maxStaleNanos = unit.toNanos(maxStaleness);
+	}
+
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public WeatherResponse getWeatherReport(String location) {
+		return get(location, upstream::getWeatherReport, lastGoodReports);
+	}
+
+	/**
+	 * Snapshots are kept apart from reports, so a stale snapshot is the last
+	 * one the upstream gave.
+	 */
+	@Override
+	public WeatherSnapshot getSnapshot(String location, WeatherSnapshot previous) {
+		WeatherSnapshot snapshot = get(location, at -> upstream.getSnapshot(at, previous), lastGoodSnapshots);
+		return snapshot.equals(previous) ? previous : snapshot;
+	}
+
+	private <T> T get(String location, Function<String, T> request, Map<String, Report<T>> lastGood) {
+		if (state.get() == CircuitState.CLOSED) {
+			try {
+				T value = fetch(location, request, lastGood);
+				servedAge.put(location, 0L);
+				return value;
+			} catch (RuntimeException e) {
+				return stale(location, lastGood, e);
+			}
+		}
+
+		probe(location, request, lastGood);
+		return stale(location, lastGood, null);
+	}
+
+	private <T> T fetch(String location, Function<String, T> request, Map<String, Report<T>> lastGood) {
+		Query<T> query = new Query<>(location, request, lastGood);
+		Future<T> future = executor.submit(query::run);
+		try {
+			return future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			// Leave it running, if it answers the report is kept
+			timeouts.incrementAndGet();
+			if (query.counted.compareAndSet(false, true)) {
+				failed();
+			}
+			throw new RuntimeException("Timed out loading weather for " + location, e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException("Unable to load weather for " + location, cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted loading weather for " + location, e);
+		}
+	}
+
+	/**
+	 * One query to the upstream, which counts towards the circuit once
+	 * whether the caller waited for it or not.
+	 */
+	private class Query<T> {
+		final String location;
+		final Function<String, T> request;
+		final Map<String, Report<T>> lastGood;
+		final AtomicBoolean counted = new AtomicBoolean();
+
+		Query(String location, Function<String, T> request, Map<String, Report<T>> lastGood) {
+			this.location = location;
+			this.request = request;
+			this.lastGood = lastGood;
+		}
+
+		T run() {
+			long start = System.nanoTime();
+			T value;
+			try {
+				value = request.apply(location);
+			} catch (RuntimeException e) {
+				failures.incrementAndGet();
+				if (counted.compareAndSet(false, true)) {
+					failed();
+				}
+				throw e;
+			}
+
+			long now = System.nanoTime();
+			lastGood.put(location, new Report<>(value, now));
+			if (now - start > slowCallNanos) {
+				slowCalls.incrementAndGet();
+				if (counted.compareAndSet(false, true)) {
+					failed();
+				}
+			} else if (counted.compareAndSet(false, true)) {
+				succeeded();
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Once the circuit has been open long enough, send one query upstream in
+	 * the background to see if it has recovered.
+	 */
+	private <T> void probe(String location, Function<String, T> request, Map<String, Report<T>> lastGood) {
+		if (state.get() != CircuitState.OPEN || System.nanoTime() - openedAt < openNanos
+				|| !state.compareAndSet(CircuitState.OPEN, CircuitState.HALF_OPEN)) {
+			return;
+		}
+
+		probes.incrementAndGet();
+		logger.info("Probing the weather service for " + location);
+		try {
+			executor.execute(() -> {
+				try {
+					fetch(location, request, lastGood);
+				} catch (RuntimeException e) {
+					logger.warn("Weather service is still failing: " + e.getMessage());
+				}
+			});
+		} catch (RuntimeException e) {
+			failed();
+		}
+	}
+
+	private void failed() {
+		if (state.compareAndSet(CircuitState.HALF_OPEN, CircuitState.OPEN)) {
+			openedAt = System.nanoTime();
+			return;
+		}
+
+		if (consecutiveFailures.incrementAndGet() >= failureThreshold
+				&& state.compareAndSet(CircuitState.CLOSED, CircuitState.OPEN)) {
+			openedAt = System.nanoTime();
+			trips.incrementAndGet();
+			logger.warn("Weather service failed " + consecutiveFailures.get()
+					+ " times in a row, answering from the last good reports for "
+					+ TimeUnit.NANOSECONDS.toSeconds(openNanos) + " seconds");
+		}
+	}
+
+	private void succeeded() {
+		consecutiveFailures.set(0);
+		CircuitState previous = state.getAndSet(CircuitState.CLOSED);
+		if (previous != CircuitState.CLOSED) {
+			logger.info("Weather service has recovered");
+		}
+	}
+
+	/**
+	 * @return the last good report for the location, if it is not too old
+	 */
+	private <T> T stale(String location, Map<String, Report<T>> lastGood, RuntimeException cause) {
+		Report<T> last = lastGood.get(location);
+		if (last == null) {
+			throw cause != null ? cause : new RuntimeException("No weather for " + location + ", the weather service is failing");
+		}
+
+		long age = System.nanoTime() - last.loadedAt;
+		if (age > maxStaleNanos) {
+			tooStale.incrementAndGet();
+			RuntimeException e = new RuntimeException("No weather for " + location + " in the last "
+					+ TimeUnit.NANOSECONDS.toMinutes(age) + " minutes, the weather service is failing");
+			if (cause != null) {
+				e.addSuppressed(cause);
+			}
+			throw e;
+		}
+
+		staleServed.incrementAndGet();
+		servedAge.put(location, age);
+		logger.warn(location + ": Using the weather from " + TimeUnit.NANOSECONDS.toMinutes(age) + " minutes ago"
+				+ (cause != null ? ": " + cause.getMessage() : ", the circuit is " + state.get()));
+		return last.value;
+	}
+
+	/**
+	 * @return how old the report last served for the location was, 0 if it
+	 *         was fresh from the upstream
+	 */
+	public long getAge(String location, TimeUnit unit) {
+		Long age = servedAge.get(location);
+		return age == null ? 0 : unit.convert(age, TimeUnit.NANOSECONDS);
+	}
+
+	public CircuitState getCircuitState() {
+		return state.get();
+	}
+
+	public long getFailureCount() {
+		return failures.get();
+	}
+
+	public long getTimeoutCount() {
+		return timeouts.get();
+	}
+
+	public long getSlowCallCount() {
+		return slowCalls.get();
+	}
+
+	/**
+	 * @return how many times the circuit has opened
+	 */
+	public long getTripCount() {
+		return trips.get();
+	}
+
+	public long getProbeCount() {
+		return probes.get();
+	}
+
+	public long getStaleServedCount() {
+		return staleServed.get();
+	}
+
+	/**
+	 * @return queries that failed because the last good report was too old
+	 */
+	public long getTooStaleCount() {
+		return tooStale.get();
+	}
+
+	@Override
+	public String toString() {
+		return "ResilientWeatherService [circuit=" + state.get() + ", failures=" + failures + ", timeouts=" + timeouts
+				+ ", slowCalls=" + slowCalls + ", trips=" + trips + ", probes=" + probes + ", staleServed="
+				+ staleServed + ", tooStale=" + tooStale + "]";
+	}
+
+	private static final class Report<T> {
+		final T value;
+		final long loadedAt;
+
+		Report(T value, long loadedAt) {
+			this.value = value;
+			this.loadedAt = loadedAt;
+		}
+	}
+}
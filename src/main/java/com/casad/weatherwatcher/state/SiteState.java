@@ -0,0 +1,62 @@
+package com.casad.weatherwatcher.state;
+
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+
+/**
+ * The state of a site as last recorded in the {@link StateJournal}.
+ */
+public final class SiteState {
+	private final String siteId;
+	private final RampState state;
+	private final long deactivateTime;
+	private final WeatherSnapshot snapshot;
+	private final long timestamp;
+
+	public SiteState(String siteId, RampState state, long deactivateTime, WeatherSnapshot snapshot, long timestamp) {
+		this.siteId = siteId;
+		this.state = state;
+		this.deactivateTime = deactivateTime;
+		this.snapshot = snapshot;
+		this.timestamp = timestamp;
+	}
+
+	public String getSiteId() {
+		return siteId;
+	}
+
+	public RampState getState() {
+		return state;
+	}
+
+	/**
+	 * @return when the snow cooldown ends, in milliseconds since the epoch
+	 */
+	public long getDeactivateTime() {
+		return deactivateTime;
+	}
+
+	/**
+	 * @return the last weather seen, or null if the site had not seen any
+	 */
+	public WeatherSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * @return when this state was recorded, in milliseconds since the epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	boolean sameAs(RampState state, long deactivateTime, WeatherSnapshot snapshot) {
+		return this.state == state && this.deactivateTime == deactivateTime
+				&& (this.snapshot == null ? snapshot == null : this.snapshot.equals(snapshot));
+	}
+
+	@Override
+	public String toString() {
+		return siteId + ": " + state + ", deactivateTime=" + deactivateTime + ", " + snapshot;
+	}
+}
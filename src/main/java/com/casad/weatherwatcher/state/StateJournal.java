@@ -0,0 +1,389 @@
+package com.casad.weatherwatcher.state;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.casad.weatherwatcher.ConditionCodes;
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+
+/**
+ * An append-only journal of each site's ramp state, snow cooldown deadline
+ * and last weather snapshot, so a restarted process can carry on where it
+ * left off without waiting for the weather service.
+ *
+ * The journal is a memory-mapped file of records. Each record is written
+ * with its length last, so a record cut short by a crash has a zero length
+ * or a bad checksum and is ignored along with anything after it. Condition
+ * codes and site ids are written once, the first time they are used, and
+ * state records refer to them by number.
+ *
+ * When the file fills up it is compacted: the latest state of every site is
+ * written to a new file, which then replaces the old one. The journal is also
+ * compacted when it is opened, so it only ever uses this process's condition
+ * codes.
+ *
+ * Writes go to the page cache straight away and survive the process dying;
+ * call {@link #force()} to also have them survive the machine losing power.
+ */
+public class StateJournal implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(StateJournal.class);
+
+	private static final int MAGIC = 0x57574A31;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	private static final byte CONDITION = 1, SITE = 2, STATE = 3;
+	private static final int STATE_SIZE = 1 + 4 + 8 + 1 + 8 + 1 + 4 + 4 * 4;
+
+	public static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+
+	private final Path file;
+	private final int initialCapacity;
+
+	private final Map<String, SiteState> states = new ConcurrentHashMap<>();
+	private final Map<String, Integer> siteNumbers = new HashMap<>();
+	private final BitSet journaledCodes = new BitSet();
+	private final CRC32 crc = new CRC32();
+
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private int position;
+	private long compactions = 0;
+
+	private StateJournal(Path file, int initialCapacity) {
+		this.file = file;
+		this.initialCapacity = initialCapacity;
+	}
+
+	/**
+	 * Open a journal, recovering the state of every site recorded in it.
+	 */
+	public static StateJournal open(Path file) throws IOException {
+		return open(file, DEFAULT_CAPACITY);
+	}
+
+	public static StateJournal open(Path file, int initialCapacity) throws IOException {
+		StateJournal journal = new StateJournal(file, Math.max(initialCapacity, 1024));
+		long start = System.nanoTime();
+		journal.recover();
+		journal.compact();
+		logger.info("Recovered " + journal.states.size() + " sites from " + file + " in "
+				+ (System.nanoTime() - start) / 1_000_000 + "ms");
+		return journal;
+	}
+
+	private void recover() throws IOException {
+		if (!Files.exists(file) || Files.size(file) < HEADER_SIZE) {
+			return;
+		}
+
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+			if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+				logger.warn(file + " is not a state journal, ignoring it");
+				return;
+			}
+
+			Map<Integer, Integer> codes = new HashMap<>();
+			Map<Integer, String> sites = new HashMap<>();
+			int offset = HEADER_SIZE;
+			int records = 0;
+			while (offset + RECORD_HEADER_SIZE <= data.limit()) {
+				int length = data.getInt(offset);
+				if (length <= 0 || offset + RECORD_HEADER_SIZE + length > data.limit()) {
+					break;
+				}
+				if (checksum(data, offset + RECORD_HEADER_SIZE, length) != data.getInt(offset + 4)) {
+					logger.warn("Ignoring a damaged record at " + offset + " in " + file);
+					break;
+				}
+
+				ByteBuffer record = slice(data, offset + RECORD_HEADER_SIZE, length);
+				switch (record.get()) {
+				case CONDITION:
+					int code = record.getInt();
+					codes.put(code, ConditionCodes.codeOf(readString(record)));
+					break;
+				case SITE:
+					int number = record.getInt();
+					sites.put(number, readString(record));
+					break;
+				case STATE:
+					readState(record, sites, codes);
+					break;
+				default:
+					break;
+				}
+
+				offset += RECORD_HEADER_SIZE + length;
+				records++;
+			}
+			logger.debug("Read " + records + " records from " + file);
+		}
+	}
+
+	private void readState(ByteBuffer record, Map<Integer, String> sites, Map<Integer, Integer> codes) {
+		String siteId = sites.get(record.getInt());
+		long timestamp = record.getLong();
+		RampState state = RampState.values()[record.get()];
+		long deactivateTime = record.getLong();
+		WeatherSnapshot snapshot = null;
+		if (record.get() != 0) {
+			float tempF = record.getFloat();
+			snapshot = new WeatherSnapshot(tempF, localCode(codes, record.getInt()), localCode(codes, record.getInt()),
+					localCode(codes, record.getInt()), localCode(codes, record.getInt()));
+		}
+		if (siteId != null) {
+			states.put(siteId, new SiteState(siteId, state, deactivateTime, snapshot, timestamp));
+		}
+	}
+
+	private static int localCode(Map<Integer, Integer> codes, int code) {
+		Integer local = codes.get(code);
+		return local == null ? ConditionCodes.NONE : local;
+	}
+
+	/**
+	 * Record the state of a site. Nothing is written if it is unchanged since
+	 * it was last recorded.
+	 */
+	public void record(String siteId, RampState state, long deactivateTime, WeatherSnapshot snapshot) {
+		SiteState last = states.get(siteId);
+		if (last != null && last.sameAs(state, deactivateTime, snapshot)) {
+			return;
+		}
+
+		synchronized (this) {
+			if (channel == null) {
+				throw new IllegalStateException("The journal is closed");
+			}
+
+			SiteState current = new SiteState(siteId, state, deactivateTime, snapshot, System.currentTimeMillis());
+			try {
+				if (!append(current)) {
+					states.put(siteId, current);
+					compact();
+					return;
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			states.put(siteId, current);
+		}
+	}
+
+	/**
+	 * @return false if there was not room for the record
+	 */
+	private boolean append(SiteState state) {
+		int mark = position;
+		Integer siteNumber = siteNumbers.get(state.getSiteId());
+		if (siteNumber == null) {
+			siteNumber = siteNumbers.size();
+			if (!appendString(SITE, siteNumber, state.getSiteId())) {
+				return rollback(mark);
+			}
+			siteNumbers.put(state.getSiteId(), siteNumber);
+		}
+
+		WeatherSnapshot snapshot = state.getSnapshot();
+		if (snapshot != null) {
+			for (int period = 0; period <= WeatherSnapshot.PERIODS; period++) {
+				int code = period == 0 ? snapshot.getCurrentCode() : snapshot.getPeriodCode(period);
+				if (code != ConditionCodes.NONE && !journaledCodes.get(code)) {
+					if (!appendString(CONDITION, code, ConditionCodes.nameOf(code))) {
+						return rollback(mark);
+					}
+					journaledCodes.set(code);
+				}
+			}
+		}
+
+		if (!hasRoom(STATE_SIZE)) {
+			return rollback(mark);
+		}
+		int start = position + RECORD_HEADER_SIZE;
+		buffer.put(start, STATE);
+		buffer.putInt(start + 1, siteNumber);
+		buffer.putLong(start + 5, state.getTimestamp());
+		buffer.put(start + 13, (byte) state.getState().ordinal());
+		buffer.putLong(start + 14, state.getDeactivateTime());
+		buffer.put(start + 22, (byte) (snapshot == null ? 0 : 1));
+		if (snapshot != null) {
+			buffer.putFloat(start + 23, snapshot.getTempF());
+			buffer.putInt(start + 27, snapshot.getCurrentCode());
+			buffer.putInt(start + 31, snapshot.getPeriodCode(1));
+			buffer.putInt(start + 35, snapshot.getPeriodCode(2));
+			buffer.putInt(start + 39, snapshot.getPeriodCode(3));
+		}
+		commit(STATE_SIZE);
+		return true;
+	}
+
+	private boolean rollback(int mark) {
+		// Records written before the one that did not fit refer to sites and
+		// codes that will be written again after compaction
+		while (position > mark) {
+			buffer.put(--position, (byte) 0);
+		}
+		return false;
+	}
+
+	private boolean appendString(byte type, int number, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		int length = 1 + 4 + 2 + bytes.length;
+		if (!hasRoom(length)) {
+			return false;
+		}
+
+		int start = position + RECORD_HEADER_SIZE;
+		buffer.put(start, type);
+		buffer.putInt(start + 1, number);
+		buffer.putShort(start + 5, (short) bytes.length);
+		for (int i = 0; i < bytes.length; i++) {
+			buffer.put(start + 7 + i, bytes[i]);
+		}
+		commit(length);
+		return true;
+	}
+
+	private boolean hasRoom(int length) {
+		// Keep room for a zero length after the record to mark the end
+		return position + RECORD_HEADER_SIZE + length + 4 <= buffer.capacity();
+	}
+
+	private void commit(int length) {
+		buffer.putInt(position + 4, checksum(buffer, position + RECORD_HEADER_SIZE, length));
+		// The length goes in last, marking the record complete
+		buffer.putInt(position, length);
+		position += RECORD_HEADER_SIZE + length;
+	}
+
+	private int checksum(ByteBuffer data, int offset, int length) {
+		crc.reset();
+		crc.update(slice(data, offset, length));
+		return (int) crc.getValue();
+	}
+
+	private static ByteBuffer slice(ByteBuffer data, int offset, int length) {
+		ByteBuffer slice = data.duplicate();
+		slice.limit(offset + length).position(offset);
+		return slice;
+	}
+
+	private static String readString(ByteBuffer record) {
+		byte[] bytes = new byte[record.getShort() & 0xffff];
+		record.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Rewrite the journal with just the latest state of each site.
+	 */
+	public synchronized void compact() throws IOException {
+		long start = System.nanoTime();
+		long needed = HEADER_SIZE + 4;
+		BitSet codes = new BitSet();
+		for (SiteState state : states.values()) {
+			needed += 2 * RECORD_HEADER_SIZE + STATE_SIZE + 7 + state.getSiteId().length() * 3;
+			WeatherSnapshot snapshot = state.getSnapshot();
+			if (snapshot != null) {
+				codes.set(snapshot.getCurrentCode());
+				for (int period = 1; period <= WeatherSnapshot.PERIODS; period++) {
+					codes.set(snapshot.getPeriodCode(period));
+				}
+			}
+		}
+		for (int code = codes.nextSetBit(1); code >= 0; code = codes.nextSetBit(code + 1)) {
+			needed += RECORD_HEADER_SIZE + 7 + ConditionCodes.nameOf(code).length() * 3;
+		}
+		int capacity = initialCapacity;
+		while (capacity < 2L * needed && capacity < Integer.MAX_VALUE / 2) {
+			capacity *= 2;
+		}
+
+		if (channel != null) {
+			channel.close();
+		}
+		Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+		Files.deleteIfExists(compacted);
+		channel = FileChannel.open(compacted, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		position = HEADER_SIZE;
+		siteNumbers.clear();
+		journaledCodes.clear();
+
+		for (SiteState state : states.values()) {
+			if (!append(state)) {
+				throw new IOException("Unable to compact " + states.size() + " sites into " + capacity + " bytes");
+			}
+		}
+		buffer.force();
+		Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		compactions++;
+
+		logger.debug("Compacted " + states.size() + " sites into " + position + " of " + capacity + " bytes in "
+				+ (System.nanoTime() - start) / 1_000 + "us");
+	}
+
+	/**
+	 * @return the last state recorded for the site, or null
+	 */
+	public SiteState getState(String siteId) {
+		return states.get(siteId);
+	}
+
+	public Map<String, SiteState> getStates() {
+		return Collections.unmodifiableMap(states);
+	}
+
+	/**
+	 * @return bytes of the journal in use
+	 */
+	public synchronized int size() {
+		return position;
+	}
+
+	public synchronized long getCompactionCount() {
+		return compactions;
+	}
+
+	/**
+	 * Write any changes through to the disk.
+	 */
+	public synchronized void force() {
+		if (buffer != null) {
+			buffer.force();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel != null) {
+			buffer.force();
+			channel.close();
+			channel = null;
+		}
+	}
+}
@@ -0,0 +1,687 @@
+package com.casad.weatherwatcher.status;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.casad.weatherwatcher.WeatherSite;
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.controller.RampController;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+import com.casad.weatherwatcher.integration.JsonWriter;
+
+/**
+ * A small HTTP/1.1 server for seeing what the watcher is doing and forcing a
+ * ramp state while it runs.
+ *
+ * <pre>
+ * GET  /status                                  every site
+ * GET  /sites/&lt;id&gt;                              one site
+ * POST /sites/&lt;id&gt;/ramp?state=ACTIVE[&amp;expected=READY]
+ * </pre>
+ *
+ * Everything happens on one selector thread, so thousands of open dashboard
+ * connections cost a buffer each rather than a thread each. Status responses
+ * are rendered at most once a second, or when a ramp changes state, into
+ * direct buffers that every poll shares. An override is a compare-and-set on
+ * the site's {@link RampController}, so it never waits on the engine tick;
+ * the next tick decides again from the overridden state. Overrides are made
+ * on a thread of their own, so switching the relays never holds up a poll,
+ * and answered once the ramp has switched.
+ *
+ * Only what a dashboard needs is supported: keep-alive and pipelined
+ * requests, no chunked encoding and requests of at most 4KB.
+ */
+public class StatusServer implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(StatusServer.class);
+
+	private static final int MAX_REQUEST = 4096;
+	private static final int INITIAL_REQUEST = 512;
+	private static final byte[] END_OF_HEADERS = { '\r', '\n', '\r', '\n' };
+
+	private final InetSocketAddress address;
+	private final Map<String, WeatherSite> sites = new ConcurrentSkipListMap<>();
+
+	private volatile boolean dirty = true;
+	private volatile long maxAgeNanos = TimeUnit.SECONDS.toNanos(1);
+	private volatile long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(60);
+	private volatile int maxConnections = 10_000;
+
+	private ServerSocketChannel server = null;
+	private Selector selector = null;
+	private Thread thread = null;
+	private ExecutorService overrides = null;
+	private volatile boolean running = false;
+
+	// Answers to overrides, handed back to the selector thread to be sent
+	private final Queue<Runnable> completed = new ConcurrentLinkedQueue<>();
+
+	// Only touched on the selector thread
+	private Rendered rendered = null;
+	private int connectionCount = 0;
+	private volatile long requestCount = 0;
+
+	/**
+	 * Serve on the loopback address only.
+	 */
+	public StatusServer(int port) {
+		this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+	}
+
+	public StatusServer(InetSocketAddress address) {
+		this.address = address;
+	}
+
+	/**
+	 * Serve the site's status and accept overrides for its ramp.
+	 */
+	public void addSite(WeatherSite site) {
+		sites.put(site.getSiteId(), site);
+		site.getRampController().addListener((from, to) -> dirty = true);
+		dirty = true;
+	}
+
+	/**
+	 * The longest a status response is served before being rendered again,
+	 * 1 second by default. A ramp changing state always renders it again.
+	 */
+	public void setMaxAge(long maxAge, TimeUnit unit) {
+		maxAgeNanos = unit.toNanos(maxAge);
+	}
+
+	/**
+	 * Close connections that have sent nothing for this long, 60 seconds by
+	 * default.
+	 */
+	public void setIdleTimeout(long timeout, TimeUnit unit) {
+		idleTimeoutNanos = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Connections beyond this many are closed as soon as they are accepted.
+	 */
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	public synchronized void start() throws IOException {
+		if (thread != null) {
+			return;
+		}
+
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(address, 1024);
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+
+		overrides = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "status-overrides");
+			t.setDaemon(true);
+			return t;
+		});
+		running = true;
+		thread = new Thread(this::serve, "status-server");
+		thread.setDaemon(true);
+		thread.start();
+		logger.info("Serving status on port " + getPort());
+	}
+
+	/**
+	 * @return the port being listened on, useful when started on port 0
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * @return the number of requests answered
+	 */
+	public long getRequestCount() {
+		return requestCount;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (thread == null) {
+			return;
+		}
+
+		running = false;
+		selector.wakeup();
+		overrides.shutdown();
+		try {
+			thread.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+	}
+
+	private void serve() {
+		long lastSweep = System.nanoTime();
+		try {
+			while (running) {
+				selector.select(1000);
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					handle(key);
+				}
+
+				Runnable completion;
+				while ((completion = completed.poll()) != null) {
+					completion.run();
+				}
+
+				long now = System.nanoTime();
+				if (now - lastSweep > TimeUnit.SECONDS.toNanos(1)) {
+					closeIdle(now);
+					lastSweep = now;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			logger.error("Status server stopped", e);
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				closeQuietly(key);
+			}
+			closeQuietly(selector);
+			closeQuietly(server);
+		}
+	}
+
+	private void handle(SelectionKey key) {
+		try {
+			if (!key.isValid()) {
+				return;
+			}
+			if (key.isAcceptable()) {
+				accept();
+				return;
+			}
+
+			Connection connection = (Connection) key.attachment();
+			if (key.isReadable()) {
+				connection.read();
+			}
+			if (key.isValid() && key.isWritable()) {
+				connection.flush();
+			}
+		} catch (IOException | CancelledKeyException e) {
+			logger.debug("Closing status connection: " + e);
+			closeQuietly(key);
+		} catch (RuntimeException e) {
+			logger.error("Unable to answer a status request", e);
+			closeQuietly(key);
+		}
+	}
+
+	/**
+	 * Send the answer to an override and carry on with any requests that
+	 * came in behind it.
+	 */
+	private void complete(Connection connection, ByteBuffer response) {
+		SelectionKey key = connection.key;
+		try {
+			if (key.isValid()) {
+				connection.complete(response);
+			}
+		} catch (IOException | CancelledKeyException e) {
+			logger.debug("Closing status connection: " + e);
+			closeQuietly(key);
+		} catch (RuntimeException e) {
+			logger.error("Unable to answer a status request", e);
+			closeQuietly(key);
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = server.accept()) != null) {
+			if (connectionCount >= maxConnections) {
+				logger.warn("Too many status connections, refusing " + channel.getRemoteAddress());
+				channel.close();
+				continue;
+			}
+
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			key.attach(new Connection(channel, key));
+			connectionCount++;
+		}
+	}
+
+	private void closeIdle(long now) {
+		long timeout = idleTimeoutNanos;
+		for (SelectionKey key : selector.keys()) {
+			Object attachment = key.attachment();
+			if (attachment instanceof Connection && now - ((Connection) attachment).lastActive > timeout) {
+				closeQuietly(key);
+			}
+		}
+	}
+
+	private void closeQuietly(SelectionKey key) {
+		if (key.attachment() instanceof Connection && key.isValid()) {
+			connectionCount--;
+		}
+		key.cancel();
+		closeQuietly(key.channel());
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			logger.debug("Unable to close: " + e);
+		}
+	}
+
+	/**
+	 * One client connection: a buffer for its requests and the responses
+	 * still to be written to it.
+	 */
+	private class Connection {
+		private final SocketChannel channel;
+		private final SelectionKey key;
+		private ByteBuffer in = ByteBuffer.allocate(INITIAL_REQUEST);
+		private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+		private boolean closing = false;
+		private boolean overriding = false;
+		private long lastActive = System.nanoTime();
+
+		Connection(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+		}
+
+		void read() throws IOException {
+			if (!in.hasRemaining() && in.capacity() < MAX_REQUEST) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.min(in.capacity() * 2, MAX_REQUEST));
+				in.flip();
+				in = larger.put(in);
+			}
+
+			int read = channel.read(in);
+			if (read < 0) {
+				closeQuietly(key);
+				return;
+			}
+			lastActive = System.nanoTime();
+			process();
+		}
+
+		void complete(ByteBuffer response) throws IOException {
+			overriding = false;
+			lastActive = System.nanoTime();
+			out.add(response);
+			process();
+		}
+
+		private void process() throws IOException {
+			while (!closing && !overriding) {
+				int end = indexOf(in, END_OF_HEADERS);
+				if (end < 0) {
+					if (!in.hasRemaining() && in.capacity() == MAX_REQUEST) {
+						respondAndClose(431, "Request Header Fields Too Large", "The request is too large");
+					}
+					break;
+				}
+
+				String head = new String(in.array(), 0, end, StandardCharsets.ISO_8859_1);
+				int length = end + END_OF_HEADERS.length;
+				Request request = Request.parse(head);
+				if (request == null) {
+					respondAndClose(400, "Bad Request", "Unable to read the request");
+					break;
+				} else if (request.contentLength > MAX_REQUEST - length) {
+					respondAndClose(413, "Payload Too Large", "The request is too large");
+					break;
+				} else if (in.position() < length + request.contentLength) {
+					// Wait for the rest of the body, which is ignored
+					break;
+				}
+
+				// Take the request off the front of the buffer
+				in.flip();
+				in.position(length + request.contentLength);
+				in.compact();
+
+				requestCount++;
+				closing = !request.keepAlive;
+				ByteBuffer response = respond(this, request);
+				if (response == null) {
+					// Answered once the override has been made
+					overriding = true;
+				} else {
+					out.add(response);
+				}
+			}
+
+			flush();
+		}
+
+		void flush() throws IOException {
+			while (!out.isEmpty()) {
+				ByteBuffer next = out.peek();
+				channel.write(next);
+				if (next.hasRemaining()) {
+					// Stop reading until the client catches up
+					key.interestOps(SelectionKey.OP_WRITE);
+					return;
+				}
+				out.poll();
+			}
+
+			if (overriding) {
+				// Nothing more is read until the override is answered
+				key.interestOps(0);
+			} else if (closing) {
+				closeQuietly(key);
+			} else {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+
+		private void respondAndClose(int status, String reason, String error) {
+			out.add(error(status, reason, error));
+			closing = true;
+		}
+	}
+
+	/**
+	 * The parts of a request line and headers the server looks at.
+	 */
+	static final class Request {
+		String method;
+		String path;
+		Map<String, String> query = new HashMap<>();
+		int contentLength = 0;
+		boolean keepAlive = true;
+
+		/**
+		 * @return null if the request could not be read
+		 */
+		static Request parse(String head) {
+			String[] lines = head.split("\r\n");
+			String[] requestLine = lines[0].split(" ");
+			if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+				return null;
+			}
+
+			Request request = new Request();
+			request.method = requestLine[0];
+			request.keepAlive = "HTTP/1.1".equals(requestLine[2]);
+			String target = requestLine[1];
+			int question = target.indexOf('?');
+			try {
+				request.path = URLDecoder.decode(question < 0 ? target : target.substring(0, question), "UTF-8");
+				if (question >= 0) {
+					for (String parameter : target.substring(question + 1).split("&")) {
+						int equals = parameter.indexOf('=');
+						if (equals > 0) {
+							request.query.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+									URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+						}
+					}
+				}
+			} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+				return null;
+			}
+
+			for (int i = 1; i < lines.length; i++) {
+				int colon = lines[i].indexOf(':');
+				if (colon <= 0) {
+					return null;
+				}
+				String name = lines[i].substring(0, colon).trim();
+				String value = lines[i].substring(colon + 1).trim();
+				if ("Content-Length".equalsIgnoreCase(name)) {
+					try {
+						request.contentLength = Integer.parseInt(value);
+					} catch (NumberFormatException e) {
+						return null;
+					}
+					if (request.contentLength < 0) {
+						return null;
+					}
+				} else if ("Connection".equalsIgnoreCase(name)) {
+					if ("close".equalsIgnoreCase(value)) {
+						request.keepAlive = false;
+					} else if ("keep-alive".equalsIgnoreCase(value)) {
+						request.keepAlive = true;
+					}
+				} else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+					return null;
+				}
+			}
+			return request;
+		}
+	}
+
+	/**
+	 * @return the response, or null if it is sent once an override has been
+	 *         made
+	 */
+	private ByteBuffer respond(Connection connection, Request request) {
+		if ("/status".equals(request.path)) {
+			if (!"GET".equals(request.method)) {
+				return error(405, "Method Not Allowed", "Use GET");
+			}
+			return rendered().all.duplicate();
+		} else if (!request.path.startsWith("/sites/")) {
+			return error(404, "Not Found", "No such resource: " + request.path);
+		}
+
+		String siteId = request.path.substring("/sites/".length());
+		boolean ramp = siteId.endsWith("/ramp");
+		if (ramp) {
+			siteId = siteId.substring(0, siteId.length() - "/ramp".length());
+		}
+
+		WeatherSite site = sites.get(siteId);
+		if (site == null) {
+			return error(404, "Not Found", "No such site: " + siteId);
+		} else if (!ramp) {
+			if (!"GET".equals(request.method)) {
+				return error(405, "Method Not Allowed", "Use GET");
+			}
+			return rendered().sites.get(siteId).duplicate();
+		} else if (!"POST".equals(request.method)) {
+			return error(405, "Method Not Allowed", "Use POST");
+		}
+
+		return override(connection, site, request.query.get("state"), request.query.get("expected"));
+	}
+
+	private ByteBuffer override(Connection connection, WeatherSite site, String state, String expected) {
+		RampState next = parseState(state);
+		RampState from = expected == null ? null : parseState(expected);
+		if (next == null || (expected != null && from == null)) {
+			return error(400, "Bad Request", "The state must be one of IDLE, READY or ACTIVE");
+		}
+
+		// Switching the relays can take a while, so it is left to the
+		// override thread and the response rendered back on this one
+		overrides.execute(() -> {
+			ByteBuffer failed = override(site, from, next);
+			completed.add(() -> complete(connection, failed != null ? failed
+					: rendered().sites.get(site.getSiteId()).duplicate()));
+			selector.wakeup();
+		});
+		return null;
+	}
+
+	/**
+	 * @return an error response, or null if the ramp was set
+	 */
+	private ByteBuffer override(WeatherSite site, RampState from, RampState next) {
+		RampController controller = site.getRampController();
+		try {
+			if (from == null) {
+				controller.setState(next);
+			} else if (!controller.transition(from, next)) {
+				return error(409, "Conflict", "The ramp is " + controller.getState() + ", not " + from);
+			}
+		} catch (RuntimeException e) {
+			logger.error(site.getSiteId() + ": Unable to set the ramp to " + next + " from the status server", e);
+			return error(500, "Internal Server Error", "Unable to set the ramp to " + next);
+		} finally {
+			dirty = true;
+		}
+
+		logger.info(site.getSiteId() + ": Ramp set to " + next + " from the status server");
+		return null;
+	}
+
+	private static RampState parseState(String state) {
+		if (state == null) {
+			return null;
+		}
+		try {
+			return RampState.valueOf(state.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Status responses rendered at one time, shared by every poll.
+	 */
+	private static final class Rendered {
+		final long renderedAt;
+		final ByteBuffer all;
+		final Map<String, ByteBuffer> sites;
+
+		Rendered(long renderedAt, ByteBuffer all, Map<String, ByteBuffer> sites) {
+			this.renderedAt = renderedAt;
+			this.all = all;
+			this.sites = sites;
+		}
+	}
+
+	private Rendered rendered() {
+		long now = System.nanoTime();
+		if (rendered == null || dirty || now - rendered.renderedAt > maxAgeNanos
+				|| rendered.sites.size() != sites.size()) {
+			dirty = false;
+			rendered = render(now);
+		}
+		return rendered;
+	}
+
+	private Rendered render(long now) {
+		long time = System.currentTimeMillis();
+		JsonWriter all = new JsonWriter(256 * (sites.size() + 1));
+		JsonWriter one = new JsonWriter();
+		Map<String, ByteBuffer> rendered = new HashMap<>();
+
+		all.beginObject().name("time").value(time).name("sites").beginObject();
+		for (WeatherSite site : sites.values()) {
+			all.name(site.getSiteId());
+			writeSite(all, site, time);
+			writeSite(one.reset(), site, time);
+			rendered.put(site.getSiteId(), response(200, "OK", one.getBuffer(), one.size()));
+		}
+		all.endObject().endObject();
+
+		return new Rendered(now, response(200, "OK", all.getBuffer(), all.size()), rendered);
+	}
+
+	static void writeSite(JsonWriter json, WeatherSite site, long time) {
+		RampState state = site.getRampController().getState();
+		WeatherSnapshot snapshot = site.getLastSnapshot();
+		long deactivateTime = site.getDeactivateTime();
+
+		json.beginObject();
+		json.name("site").value(site.getSiteId());
+		json.name("state").value(state.name());
+		if (snapshot != null) {
+			json.name("tempF").value(snapshot.getTempF());
+			json.name("current").value(snapshot.getCurrentConditions());
+			for (int period = 1; period <= WeatherSnapshot.PERIODS; period++) {
+				json.name("period" + period).value(snapshot.getPeriodConditions(period));
+			}
+		}
+		if (deactivateTime == 0) {
+			json.name("cooldown").value("pending");
+		} else if (deactivateTime > time) {
+			json.name("cooldown").value("running").name("cooldownUntil").value(deactivateTime);
+		} else {
+			json.name("cooldown").value("none");
+		}
+		json.endObject();
+	}
+
+	private static ByteBuffer error(int status, String reason, String message) {
+		JsonWriter json = new JsonWriter(64 + message.length());
+		json.beginObject().name("error").value(message).endObject();
+		byte[] headers = headers(status, reason, json.size());
+		ByteBuffer buffer = ByteBuffer.allocate(headers.length + json.size());
+		buffer.put(headers).put(json.getBuffer(), 0, json.size()).flip();
+		return buffer;
+	}
+
+	/**
+	 * @return a response to be shared by many connections, each writing from
+	 *         its own duplicate
+	 */
+	private static ByteBuffer response(int status, String reason, byte[] body, int length) {
+		byte[] headers = headers(status, reason, length);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(headers.length + length);
+		buffer.put(headers).put(body, 0, length).flip();
+		return buffer.asReadOnlyBuffer();
+	}
+
+	private static byte[] headers(int status, String reason, int length) {
+		return ("HTTP/1.1 " + status + " " + reason + "\r\n"
+				+ "Content-Type: application/json\r\n"
+				+ "Content-Length: " + length + "\r\n"
+				+ "Cache-Control: no-cache\r\n"
+				+ "\r\n").getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @return the position of the bytes within what has been read, or -1
+	 */
+	private static int indexOf(ByteBuffer buffer, byte[] bytes) {
+		byte[] array = buffer.array();
+		int limit = buffer.position() - bytes.length;
+		outer: for (int i = 0; i <= limit; i++) {
+			for (int j = 0; j < bytes.length; j++) {
+				if (array[i + j] != bytes[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+}
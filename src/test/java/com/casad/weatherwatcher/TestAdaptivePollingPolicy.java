@@ -0,0 +1,108 @@
+package com.casad.weatherwatcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.controller.RampController;
+import com.casad.weatherwatcher.rules.RuleSet;
+
+public class TestAdaptivePollingPolicy {
+
+	private static final long MINUTE = TimeUnit.MINUTES.toNanos(1);
+	private static final long REGULAR = 60 * MINUTE;
+
+	@Test
+	public void snowPollsAtMinimum() {
+		AdaptivePollingPolicy policy = new AdaptivePollingPolicy(10, 240, TimeUnit.MINUTES);
+
+		assertEquals(10 * MINUTE, policy.nextDelay(tickedSite("Snow", 20, "Clear", "Clear"), REGULAR, REGULAR));
+		assertEquals(10 * MINUTE, policy.nextDelay(tickedSite("Clear", 60, "Clear", "Snow"), REGULAR, REGULAR));
+	}
+
+	@Test
+	public void siteSnowKeywordsPollAtMinimum() {
+		AdaptivePollingPolicy policy = new AdaptivePollingPolicy(10, 240, TimeUnit.MINUTES);
+		WeatherSite site = tickedSite("Clear", 60, "Clear", "Sleet");
+		assertTrue(policy.nextDelay(site, REGULAR, REGULAR) > 10 * MINUTE);
+
+		RuleSet rules = new RuleSet();
+		rules.setSnowKeywords("Snow", "Sleet");
+		site.setRuleSet(rules);
+		assertEquals(10 * MINUTE, policy.nextDelay(site, REGULAR, REGULAR));
+	}
+
+	@Test
+	public void nearThresholdPollsAtMinimum() {
+		AdaptivePollingPolicy policy = new AdaptivePollingPolicy(10, 240, TimeUnit.MINUTES);
+
+		assertEquals(10 * MINUTE, policy.nextDelay(tickedSite("Clear", 37, "Clear", "Clear"), REGULAR, REGULAR));
+		assertEquals(10 * MINUTE, policy.nextDelay(tickedSite("Clear", 42, "Clear", "Clear"), REGULAR, REGULAR));
+		assertEquals(REGULAR, policy.nextDelay(tickedSite("Clear", 20, "Clear", "Clear"), REGULAR, REGULAR));
+	}
+
+	@Test
+	public void warmWeatherBacksOffToMaximum() {
+		AdaptivePollingPolicy policy = new AdaptivePollingPolicy(10, 240, TimeUnit.MINUTES);
+		WeatherSite site = tickedSite("Clear", 72, "Clear", "Clear");
+
+		// The first poll is made straight away
+		long delay = policy.nextDelay(site, 0, REGULAR);
+		assertEquals(120 * MINUTE, delay);
+		delay = policy.nextDelay(site, delay, REGULAR);
+		assertEquals(240 * MINUTE, delay);
+		delay = policy.nextDelay(site, delay, REGULAR);
+		assertEquals(240 * MINUTE, delay);
+
+		// 3 polls over 360 minutes, a fixed hourly poll would have made 6
+		assertEquals(3, policy.getPollCount());
+		assertEquals(6, policy.getFixedPeriodPollCount());
+		assertEquals(3, policy.getSavedPollCount());
+	}
+
+	@Test
+	public void noWeatherYetDoesNotBackOff() {
+		AdaptivePollingPolicy policy = new AdaptivePollingPolicy(10, 240, TimeUnit.MINUTES);
+		WeatherSite site = new WeatherSite("site", () -> null, new RampController(() -> {}, () -> {}, () -> {}), (subject, message) -> {});
+
+		assertEquals(REGULAR, policy.nextDelay(site, 240 * MINUTE, REGULAR));
+		assertEquals(REGULAR, policy.nextDelay(site, 0, REGULAR));
+	}
+
+	@Test
+	public void engineSavesPollsInWarmWeather() throws Exception {
+		AtomicInteger queries = new AtomicInteger();
+		WeatherResponse warm = TestWeatherEventEngine.createWeatherResponse("Clear", 72, "Clear", "Clear", "Clear", "Clear");
+		AdaptivePollingPolicy policy = new AdaptivePollingPolicy(20, 800, TimeUnit.MILLISECONDS);
+
+		WeatherEventEngine eng = new WeatherEventEngine();
+		eng.setPeriodLength(100, TimeUnit.MILLISECONDS);
+		eng.setAdaptivePolling(policy);
+		eng.setRampController(new RampController(() -> {}, () -> {}, () -> {}));
+		eng.setNotificationService((subject, message) -> {});
+		eng.setWeatherService(() -> {
+			queries.incrementAndGet();
+			return warm;
+		});
+
+		eng.start();
+		Thread.sleep(2_000);
+		assertTrue(eng.stop());
+
+		// A fixed 100ms period would have polled 20 times
+		assertTrue("Polled " + queries.get() + " times", queries.get() <= 6);
+		assertTrue(policy.getSavedPollCount() > 0);
+	}
+
+	private static WeatherSite tickedSite(String current, long temp, String period1, String period2) {
+		WeatherResponse response = TestWeatherEventEngine.createWeatherResponse(current, temp, period1, period2, "Clear", "Clear");
+		WeatherSite site = new WeatherSite("site", () -> response, new RampController(() -> {}, () -> {}, () -> {}), (subject, message) -> {});
+		site.run();
+		return site;
+	}
+}
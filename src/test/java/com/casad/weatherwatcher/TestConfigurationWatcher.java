@@ -0,0 +1,113 @@
+package com.casad.weatherwatcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.casad.weatherwatcher.rules.RuleSet;
+
+public class TestConfigurationWatcher {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ConfigurationWatcher watcher = null;
+
+	@After
+	public void restoreConfiguration() throws Exception {
+		if (watcher != null) {
+			watcher.close();
+		}
+		Configuration.publish(new Configuration(new Properties()));
+	}
+
+	@Test
+	public void snapshotIsImmutable() {
+		Properties properties = new Properties();
+		properties.setProperty("poll.periodMinutes", "15");
+		Configuration config = new Configuration(properties);
+
+		properties.setProperty("poll.periodMinutes", "30");
+		assertEquals(15, config.getPollPeriodMinutes());
+		assertEquals(60, new Configuration(new Properties()).getPollPeriodMinutes());
+	}
+
+	@Test
+	public void reloadPublishesOnlyChanges() throws Exception {
+		Path file = write(folder.getRoot().toPath().resolve("ww.properties"), "poll.periodMinutes=15");
+		watcher = new ConfigurationWatcher(file);
+
+		assertTrue(watcher.reload());
+		Configuration first = Configuration.getConfig();
+		assertEquals(15, first.getPollPeriodMinutes());
+
+		// Same content, nothing to publish
+		assertFalse(watcher.reload());
+		assertSame(first, Configuration.getConfig());
+		assertEquals(1, watcher.getReloadCount());
+	}
+
+	@Test
+	public void fileChangeIsPickedUp() throws Exception {
+		Path file = write(folder.getRoot().toPath().resolve("ww.properties"), "poll.periodMinutes=15");
+		watcher = new ConfigurationWatcher(file);
+		watcher.reload();
+
+		BlockingQueue<Configuration> reloaded = new LinkedBlockingQueue<>();
+		watcher.addListener(updated -> () -> reloaded.add(updated));
+		watcher.start();
+
+		write(file, "poll.periodMinutes=5");
+
+		// Some platforms poll for changes rather than being told
+		Configuration config = reloaded.poll(30, TimeUnit.SECONDS);
+		assertEquals(5, config.getPollPeriodMinutes());
+		assertSame(config, Configuration.getConfig());
+	}
+
+	@Test
+	public void rejectedConfigurationIsNotPublished() throws Exception {
+		Path file = write(folder.getRoot().toPath().resolve("ww.properties"), "poll.periodMinutes=15");
+		watcher = new ConfigurationWatcher(file);
+		watcher.reload();
+		Configuration first = Configuration.getConfig();
+
+		List<Configuration> applied = new ArrayList<>();
+		watcher.addListener(updated -> () -> applied.add(updated));
+		watcher.addListener(updated -> {
+			updated.getRuleSet("default", new RuleSet());
+			return () -> {};
+		});
+
+		write(file, "poll.periodMinutes=5\nrules.snowLookahead=9");
+		assertFalse(watcher.reload());
+		assertSame(first, Configuration.getConfig());
+		assertTrue(applied.isEmpty());
+
+		write(file, "poll.periodMinutes=5\nrules.snowLookahead=2");
+		assertTrue(watcher.reload());
+		assertEquals(1, applied.size());
+		assertSame(applied.get(0), Configuration.getConfig());
+		assertEquals(2, watcher.getReloadCount());
+	}
+
+	private static Path write(Path file, String content) throws Exception {
+		return Files.write(file, content.getBytes(StandardCharsets.ISO_8859_1));
+	}
+}
@@ -0,0 +1,233 @@
+package com.casad.weatherwatcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.controller.RampController;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+
+public class TestMultiSiteWeatherEventEngine {
+
+	private static final int WAIT_TIMEOUT = 5_000; // milliseconds
+	private static final int POLL_FREQUENCY = 50; // milliseconds
+
+	private static final WeatherResponse CLEAR_WARM = TestWeatherEventEngine.createWeatherResponse("Clear", 72, "Clear", "Clear", "Clear", "Clear");
+	private static final WeatherResponse SNOW_COLD = TestWeatherEventEngine.createWeatherResponse("SNOW", 10, "Clear", "Clear", "Clear", "Clear");
+
+	private MultiSiteWeatherEventEngine eng = null;
+
+	@After
+	public void shutdown() {
+		if (eng != null) {
+			eng.shutdown();
+		}
+	}
+
+	@Test
+	public void manySitesOnFewShards() throws Exception {
+		final int siteCount = 500;
+		eng = new MultiSiteWeatherEventEngine(2);
+		eng.setPeriodLength(100, TimeUnit.MILLISECONDS);
+
+		AtomicInteger[] queries = new AtomicInteger[siteCount];
+		Set<Thread> tickThreads = ConcurrentHashMap.newKeySet();
+		for (int i = 0; i < siteCount; i++) {
+			final AtomicInteger count = queries[i] = new AtomicInteger();
+			final WeatherResponse report = i % 2 == 0 ? SNOW_COLD : CLEAR_WARM;
+			eng.register(new WeatherSite("site-" + i, () -> {
+				count.incrementAndGet();
+				tickThreads.add(Thread.currentThread());
+				return report;
+			}, new RampController(() -> {}, () -> {}, () -> {}), (subject, message) -> {}));
+		}
+
+		eng.start();
+		for (AtomicInteger count : queries) {
+			waitForQuery(count, 2);
+		}
+
+		assertEquals(siteCount, eng.getSiteCount());
+		for (int i = 0; i < siteCount; i++) {
+			RampState expected = i % 2 == 0 ? RampState.ACTIVE : RampState.IDLE;
+			assertEquals(expected, eng.getSite("site-" + i).getRampController().getState());
+		}
+		assertTrue(tickThreads.size() <= 2);
+		assertTrue(eng.stop());
+	}
+
+	@Test
+	public void virtualThreadsWithSlowUpstream() throws Exception {
+		final int siteCount = 200;
+		eng = new MultiSiteWeatherEventEngine(1);
+		eng.setPeriodLength(1, TimeUnit.SECONDS);
+		eng.setExecutionMode(ExecutionMode.VIRTUAL_THREADS);
+
+		AtomicInteger[] queries = new AtomicInteger[siteCount];
+		AtomicInteger notifications = new AtomicInteger();
+		for (int i = 0; i < siteCount; i++) {
+			final AtomicInteger count = queries[i] = new AtomicInteger();
+			eng.register(new WeatherSite("site-" + i, () -> {
+				count.incrementAndGet();
+				sleep(250);
+				return SNOW_COLD;
+			}, new RampController(() -> {}, () -> {}, () -> {}), (subject, message) -> {
+				sleep(250);
+				notifications.incrementAndGet();
+			}));
+		}
+
+		// Run serially on the one shard this would take 100 seconds
+		eng.start();
+		for (AtomicInteger count : queries) {
+			waitForQuery(count, 1);
+		}
+		long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+		while (notifications.get() < siteCount && System.currentTimeMillis() < deadline) {
+			Thread.sleep(POLL_FREQUENCY);
+		}
+
+		assertEquals(siteCount, notifications.get());
+		assertTrue(eng.stop());
+	}
+
+	@Test
+	public void tickOffsetsAreSpreadAcrossThePeriod() {
+		final int siteCount = 1000;
+		final long period = TimeUnit.MINUTES.toNanos(60);
+
+		long[] offsets = new long[siteCount];
+		for (int i = 0; i < siteCount; i++) {
+			offsets[i] = MultiSiteWeatherEventEngine.tickOffset(i, period);
+			assertTrue(offsets[i] >= 0 && offsets[i] < period);
+		}
+		Arrays.sort(offsets);
+
+		long maxGap = period - offsets[siteCount - 1] + offsets[0];
+		for (int i = 1; i < siteCount; i++) {
+			maxGap = Math.max(maxGap, offsets[i] - offsets[i - 1]);
+		}
+
+		// An even spread would leave a gap of period / siteCount
+		assertTrue(maxGap < 3 * period / siteCount);
+	}
+
+	@Test
+	public void sitesKeepTheirShardAcrossRestart() throws Exception {
+		final int siteCount = 7;
+		eng = new MultiSiteWeatherEventEngine(3);
+		eng.setPeriodLength(100, TimeUnit.MILLISECONDS);
+
+		AtomicInteger[] queries = new AtomicInteger[siteCount];
+		Map<String, Set<String>> shardNames = new ConcurrentHashMap<>();
+		for (int i = 0; i < siteCount; i++) {
+			final String id = "site-" + i;
+			final AtomicInteger count = queries[i] = new AtomicInteger();
+			shardNames.put(id, ConcurrentHashMap.newKeySet());
+			eng.register(new WeatherSite(id, () -> {
+				count.incrementAndGet();
+				shardNames.get(id).add(Thread.currentThread().getName());
+				return CLEAR_WARM;
+			}, new RampController(() -> {}, () -> {}, () -> {}), (subject, message) -> {}));
+		}
+
+		// Drop a site so the remaining ones are no longer numbered 0..n-1
+		eng.unregister("site-2");
+
+		eng.start();
+		for (AtomicInteger count : queries) {
+			if (count != queries[2]) {
+				waitForQuery(count, 1);
+			}
+		}
+		assertTrue(eng.stop());
+
+		int[] restartedAt = new int[siteCount];
+		for (int i = 0; i < siteCount; i++) {
+			restartedAt[i] = queries[i].get();
+		}
+		eng.start();
+		for (int i = 0; i < siteCount; i++) {
+			if (i != 2) {
+				waitForQuery(queries[i], restartedAt[i] + 2);
+			}
+		}
+
+		for (int i = 0; i < siteCount; i++) {
+			if (i != 2) {
+				assertEquals(Collections.singleton("weather-shard-" + (i % 3)), shardNames.get("site-" + i));
+			}
+		}
+	}
+
+	@Test
+	public void duplicateSite() {
+		eng = new MultiSiteWeatherEventEngine(1);
+		eng.register(createSite("site", new AtomicInteger()));
+
+		boolean caughtException = false;
+		try {
+			eng.register(createSite("site", new AtomicInteger()));
+		} catch (IllegalArgumentException e) {
+			caughtException = true;
+		}
+
+		assertTrue(caughtException);
+		assertEquals(1, eng.getSiteCount());
+	}
+
+	@Test
+	public void registerWhileRunningAndUnregister() throws Exception {
+		eng = new MultiSiteWeatherEventEngine(1);
+		eng.setPeriodLength(50, TimeUnit.MILLISECONDS);
+		eng.start();
+
+		AtomicInteger count = new AtomicInteger();
+		eng.register(createSite("late", count));
+		waitForQuery(count, 2);
+
+		assertTrue(eng.unregister("late"));
+		assertFalse(eng.unregister("late"));
+		int stoppedAt = count.get();
+		Thread.sleep(200);
+		assertTrue(count.get() <= stoppedAt + 1);
+	}
+
+	private WeatherSite createSite(String id, AtomicInteger count) {
+		return new WeatherSite(id, () -> {
+			count.incrementAndGet();
+			return CLEAR_WARM;
+		}, new RampController(() -> {}, () -> {}, () -> {}), (subject, message) -> {});
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void waitForQuery(AtomicInteger count, int queryCount) throws InterruptedException {
+		int timeoutCount = WAIT_TIMEOUT / POLL_FREQUENCY;
+		while (timeoutCount-- > 0 && count.get() < queryCount) {
+			Thread.sleep(POLL_FREQUENCY);
+		}
+		if (count.get() < queryCount) {
+			fail("Failed");
+		}
+	}
+}
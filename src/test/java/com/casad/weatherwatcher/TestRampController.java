@@ -1,8 +1,20 @@
 package com.casad.weatherwatcher;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -109,4 +121,158 @@ public class TestRampController {
 		assertTrue(caughtException);
 		assertEquals(RampState.IDLE, controller.getState());
 	}
+	
+	@Test
+	public void transitionOnlyFromExpected() {
+		RampController controller = new RampController(mockSetIdle, mockSetReady, mockSetActive);
+		List<String> seen = new ArrayList<String>();
+		controller.addListener((from, to) -> seen.add(from + ">" + to));
+		
+		assertFalse(controller.transition(RampState.READY, RampState.ACTIVE));
+		assertTrue(controller.transition(RampState.IDLE, RampState.READY));
+		assertTrue(controller.transition(RampState.READY, RampState.READY));
+		assertFalse(controller.transition(RampState.IDLE, RampState.ACTIVE));
+		assertTrue(controller.transition(RampState.READY, RampState.ACTIVE));
+		
+		assertEquals(1, setReadyInvocationCount);
+		assertEquals(1, setActiveInvocationCount);
+		assertEquals(RampState.ACTIVE, controller.getState());
+		assertEquals("[IDLE>READY, READY>ACTIVE]", seen.toString());
+	}
+	
+	@Test
+	public void actuatorFailureIsThrown() {
+		RampController controller = new RampController(mockSetIdle, () -> {
+			throw new IllegalStateException("Relay stuck");
+		}, mockSetActive);
+		
+		boolean caughtException = false;
+		try {
+			controller.setState(RampState.READY);
+		} catch (RuntimeException e) {
+			caughtException = e.getCause() instanceof IllegalStateException;
+		}
+		
+		assertTrue(caughtException);
+		assertEquals(RampState.READY, controller.getState());
+	}
+	
+	@Test
+	public void actuatorFailureReachesTheThreadThatMadeTheTransition() throws Exception {
+		CountDownLatch activating = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		RampController controller = new RampController(mockSetIdle, () -> {
+			throw new IllegalStateException("Relay stuck");
+		}, () -> {
+			activating.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		
+		// Another thread is still actuating ACTIVE when the change to READY
+		// is made, so that thread runs it
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		Future<?> other = pool.submit(() -> controller.setState(RampState.ACTIVE));
+		activating.await();
+		new Thread(() -> {
+			sleep(100);
+			release.countDown();
+		}).start();
+		
+		boolean caughtException = false;
+		try {
+			controller.transition(RampState.ACTIVE, RampState.READY);
+		} catch (RuntimeException e) {
+			caughtException = e.getCause() instanceof IllegalStateException;
+		}
+		other.get();
+		pool.shutdown();
+		
+		assertTrue(caughtException);
+		assertEquals(RampState.READY, controller.getState());
+	}
+	
+	@Test
+	public void oneActuationPerTransitionUnderContention() throws Exception {
+		// The outputs as the actions leave them, and whether two actions
+		// ever overlap
+		AtomicReference<RampState> outputs = new AtomicReference<RampState>();
+		AtomicInteger actuating = new AtomicInteger();
+		AtomicBoolean overlapped = new AtomicBoolean();
+		AtomicInteger actuations = new AtomicInteger();
+		RampState[] states = RampState.values();
+		Runnable[] actions = new Runnable[states.length];
+		for (RampState state : states) {
+			actions[state.ordinal()] = () -> {
+				if (actuating.incrementAndGet() != 1) {
+					overlapped.set(true);
+				}
+				outputs.set(state);
+				actuations.incrementAndGet();
+				actuating.decrementAndGet();
+			};
+		}
+		RampController controller = new RampController(actions[0], actions[1], actions[2]);
+		actuations.set(0);
+		
+		AtomicInteger notified = new AtomicInteger();
+		AtomicReference<RampState> lastNotified = new AtomicReference<RampState>(RampState.IDLE);
+		AtomicBoolean outOfOrder = new AtomicBoolean();
+		controller.addListener((from, to) -> {
+			if (!lastNotified.compareAndSet(from, to)) {
+				outOfOrder.set(true);
+			}
+			notified.incrementAndGet();
+		});
+		
+		// Override threads setting the state against engine threads making
+		// transitions from what they saw
+		int threads = 8;
+		AtomicInteger won = new AtomicInteger();
+		CountDownLatch go = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for (int t = 0; t < threads; t++) {
+			boolean override = t % 2 == 0;
+			results.add(pool.submit(() -> {
+				go.await();
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int i = 0; i < 20_000; i++) {
+					RampState next = states[random.nextInt(states.length)];
+					if (override) {
+						controller.setState(next);
+					} else {
+						RampState seen = controller.getState();
+						if (seen != next && controller.transition(seen, next)) {
+							won.incrementAndGet();
+						}
+					}
+				}
+				return null;
+			}));
+		}
+		go.countDown();
+		for (Future<?> result : results) {
+			result.get();
+		}
+		pool.shutdown();
+		
+		assertFalse("Actions overlapped", overlapped.get());
+		assertFalse("Listeners saw transitions out of order", outOfOrder.get());
+		assertEquals(actuations.get(), notified.get());
+		assertTrue(won.get() > 0 && actuations.get() >= won.get());
+		assertEquals(controller.getState(), outputs.get());
+		assertEquals(controller.getState(), lastNotified.get());
+	}
+	
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
 }
@@ -1,15 +1,21 @@
 package com.casad.weatherwatcher;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 //import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.amphibian.weather.response.Conditions;
 import com.amphibian.weather.response.Forecast;
@@ -17,6 +23,8 @@ import com.amphibian.weather.response.ForecastDay;
 import com.amphibian.weather.response.ForecastWrapper;
 import com.amphibian.weather.response.WeatherResponse;
 import com.casad.weatherwatcher.controller.RampController;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+import com.casad.weatherwatcher.history.WeatherHistory;
 
 public class TestWeatherEventEngine {
 
@@ -38,6 +46,8 @@ public class TestWeatherEventEngine {
 	private static final WeatherResponse CLEAR_COOL = createWeatherResponse(CLEAR, 35, CLEAR, CLEAR, CLEAR, CLEAR);
 	private static final WeatherResponse SNOW_COLD = createWeatherResponse(SNOW, 10, CLEAR, CLEAR, CLEAR, CLEAR);
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
 	
 	@Test
 	public void testStartStop() throws Exception {
@@ -57,7 +67,113 @@ public class TestWeatherEventEngine {
 
 	}
 
-	private WeatherEventEngine getWeatherEngineForTest(MockWeatherService mockWS) {
+	@Test
+	public void testVirtualThreadsShutDownOnStop() throws Exception {
+		MockWeatherService mockWS = new MockWeatherService();
+		mockWS.setWeatherReport(CLEAR_WARM);
+
+		WeatherEventEngine eng = getWeatherEngineForTest(mockWS);
+		eng.setExecutionMode(ExecutionMode.VIRTUAL_THREADS);
+
+		// Restarting replaces the executor, the old one must not linger
+		for (int i = 0; i < 2; i++) {
+			eng.start();
+			mockWS.waitForQuery(2);
+			assertTrue(eng.stop());
+		}
+
+		// Without virtual threads these are platform threads, which a pool
+		// that was not shut down would keep for a minute
+		long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+		while (tickThreadCount() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, tickThreadCount());
+	}
+
+	@Test
+	public void testShutdownWaitsForTick() throws Exception {
+		CountDownLatch querying = new CountDownLatch(1);
+		WeatherEventEngine eng = getWeatherEngineForTest(() -> {
+			querying.countDown();
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			return CLEAR_COLD;
+		});
+		eng.start();
+		assertTrue(querying.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+
+		assertTrue(eng.shutdown(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+		assertTrue(eng.getSite().getFirstDecision().isDone());
+		assertEquals(1, readyCount);
+	}
+
+	private static long tickThreadCount() {
+		return Thread.getAllStackTraces().keySet().stream()
+				.filter(t -> t.isAlive() && t.getName().startsWith("weather-tick-")).count();
+	}
+
+	@Test
+	public void testFirstDecision() throws Exception {
+		MockWeatherService mockWS = new MockWeatherService();
+		mockWS.setWeatherReport(CLEAR_COLD);
+
+		WeatherEventEngine eng = getWeatherEngineForTest(mockWS);
+		eng.setPeriodLength(1, TimeUnit.HOURS);
+		assertFalse(eng.getSite().getFirstDecision().isDone());
+
+		// The first tick is not held back by the period
+		eng.start();
+		eng.getSite().getFirstDecision().get(WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+
+		assertTrue(eng.stop());
+		assertEquals(1, readyCount);
+	}
+
+	@Test
+	public void testOverriddenDecisionIsStillRecorded() throws Exception {
+		// The ramp is switched by someone else between deciding and switching
+		RampController overridden = new RampController(() -> {}, () -> {}, () -> {}) {
+			@Override
+			public boolean transition(RampState expected, RampState next) {
+				return false;
+			}
+		};
+		List<String> sent = new ArrayList<String>();
+		WeatherSite site = new WeatherSite("site", () -> SNOW_COLD, overridden, (subject, message) -> sent.add(subject));
+
+		try (WeatherHistory history = WeatherHistory.open(folder.getRoot().toPath())) {
+			site.setWeatherHistory(history);
+			site.run();
+
+			assertTrue(site.getFirstDecision().isDone());
+			assertEquals(1, history.size());
+			assertTrue(sent.isEmpty());
+			assertEquals(RampState.IDLE, overridden.getState());
+		}
+	}
+
+	@Test
+	public void testPeriodChangeWhileRunning() throws Exception {
+		MockWeatherService mockWS = new MockWeatherService();
+		mockWS.setWeatherReport(CLEAR_WARM);
+
+		WeatherEventEngine eng = getWeatherEngineForTest(mockWS);
+		eng.setPeriodLength(1, TimeUnit.HOURS);
+		eng.start();
+		eng.getSite().getFirstDecision().get(WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+
+		// Without the change the next poll would be an hour away
+		eng.setPeriodLength(weatherEventEnginePeriodLength, weatherEventEnginePeriodUnit);
+		mockWS.waitForQuery(3);
+
+		assertTrue(eng.stop());
+	}
+
+	private WeatherEventEngine getWeatherEngineForTest(WeatherService mockWS) {
 		WeatherEventEngine eng = new WeatherEventEngine();
 		eng.setPeriodLength(weatherEventEnginePeriodLength, weatherEventEnginePeriodUnit);
 
@@ -262,13 +378,13 @@ public class TestWeatherEventEngine {
 		day1.setConditions(period1Conditions);
 	
 		ForecastDay day2 = new ForecastDay();
-		day1.setConditions(period2Conditions);
+		day2.setConditions(period2Conditions);
 	
 		ForecastDay day3 = new ForecastDay();
-		day1.setConditions(period3Conditions);
+		day3.setConditions(period3Conditions);
 	
 		ForecastDay day4 = new ForecastDay();
-		day1.setConditions(period4Conditions);
+		day4.setConditions(period4Conditions);
 	
 		Forecast forecast = new Forecast();
 		forecast.setDays(Arrays.asList(day1, day2, day3, day4));
@@ -0,0 +1,67 @@
+package com.casad.weatherwatcher;
+
+import static com.casad.weatherwatcher.TestWeatherEventEngine.createWeatherResponse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestWeatherSnapshot {
+
+	@Test
+	public void extract() {
+		WeatherSnapshot snapshot = WeatherSnapshot.from(createWeatherResponse("Clear", 28, "Cloudy", "Light Snow", "Overcast", "Clear"));
+
+		assertEquals(28f, snapshot.getTempF(), 0);
+		assertEquals("Clear", snapshot.getCurrentConditions());
+		assertEquals("Cloudy", snapshot.getPeriodConditions(1));
+		assertEquals("Light Snow", snapshot.getPeriodConditions(2));
+		assertEquals("Overcast", snapshot.getPeriodConditions(3));
+	}
+
+	@Test
+	public void unchangedWeatherReusesSnapshot() {
+		WeatherSnapshot first = WeatherSnapshot.from(createWeatherResponse("Clear", 72, "Clear", "Clear", "Clear", "Clear"));
+		WeatherSnapshot second = WeatherSnapshot.from(createWeatherResponse("Clear", 72, "Clear", "Clear", "Clear", "Clear"), first);
+		WeatherSnapshot warmer = WeatherSnapshot.from(createWeatherResponse("Clear", 73, "Clear", "Clear", "Clear", "Clear"), first);
+		WeatherSnapshot cloudier = WeatherSnapshot.from(createWeatherResponse("Clear", 72, "Clear", "Clear", "Cloudy", "Clear"), first);
+
+		assertSame(first, second);
+		assertNotSame(first, warmer);
+		assertNotSame(first, cloudier);
+		assertEquals(first, WeatherSnapshot.from(createWeatherResponse("Clear", 72, "Clear", "Clear", "Clear", "Clear")));
+	}
+
+	@Test
+	public void missingConditions() {
+		WeatherSnapshot snapshot = WeatherSnapshot.from(createWeatherResponse(null, 30, "Clear", null, null, "Clear"));
+
+		assertEquals(ConditionCodes.NONE, snapshot.getCurrentCode());
+		assertNull(snapshot.getCurrentConditions());
+		assertFalse(ConditionCodes.isFallingSnow(snapshot.getCurrentCode()));
+		assertEquals("Current Weather: [null] (30.0F), Upcoming: [Clear] [null] [null] ", snapshot.toString());
+	}
+
+	@Test
+	public void conditionCodesAreStable() {
+		int code = ConditionCodes.codeOf("Freezing Fog");
+
+		assertEquals(code, ConditionCodes.codeOf(new String("Freezing Fog")));
+		assertEquals("Freezing Fog", ConditionCodes.nameOf(code));
+		assertFalse(ConditionCodes.isFallingSnow(code));
+		assertTrue(ConditionCodes.isFallingSnow(ConditionCodes.codeOf("Blowing Snow")));
+	}
+
+	/**
+	 * A snapshot with the named current and forecast conditions, null for none.
+	 */
+	public static WeatherSnapshot createSnapshot(float tempF, String current, String period1, String period2,
+			String period3) {
+		return new WeatherSnapshot(tempF, ConditionCodes.codeOf(current), ConditionCodes.codeOf(period1),
+				ConditionCodes.codeOf(period2), ConditionCodes.codeOf(period3));
+	}
+}
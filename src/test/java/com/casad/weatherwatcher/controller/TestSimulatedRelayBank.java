@@ -0,0 +1,124 @@
+package com.casad.weatherwatcher.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class TestSimulatedRelayBank {
+
+	@Test
+	public void writesOnlyTheMaskedRelays() {
+		SimulatedRelayBank bank = new SimulatedRelayBank(4);
+		bank.write(0, 0b1111, 0b1010);
+		assertFalse(bank.isOn(0));
+		assertTrue(bank.isOn(1));
+		assertFalse(bank.isOn(2));
+		assertTrue(bank.isOn(3));
+
+		bank.write(1, 0b011, 0b110);
+		assertEquals(0b1100, bank.read(0));
+		assertEquals(2, bank.getWriteCount());
+		assertEquals(2, bank.getSwitchCount(1));
+		assertEquals(1, bank.getSwitchCount(2));
+		assertEquals(1, bank.getSwitchCount(3));
+		assertEquals(0, bank.getSwitchCount(0));
+		assertEquals(2, bank.getWriteLatency().getCount());
+
+		bank.close();
+		assertEquals(0, bank.read(0));
+	}
+
+	@Test
+	public void writesAcrossBlocks() {
+		SimulatedRelayBank bank = new SimulatedRelayBank(1000);
+		bank.write(60, 0xFF, 0xA5);
+		assertEquals(0xA5, bank.read(60) & 0xFF);
+		assertTrue(bank.isOn(60));
+		assertFalse(bank.isOn(61));
+		assertTrue(bank.isOn(67));
+		assertEquals(4, bank.getSwitchCount(60) + bank.getSwitchCount(62) + bank.getSwitchCount(65)
+				+ bank.getSwitchCount(67));
+
+		bank.set(999, true);
+		assertTrue(bank.isOn(999));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsRelaysPastTheEnd() {
+		new SimulatedRelayBank(4).write(2, 0b111, 0);
+	}
+
+	@Test
+	public void countsTimeOn() throws Exception {
+		SimulatedRelayBank bank = new SimulatedRelayBank(1);
+		bank.set(0, true);
+		Thread.sleep(20);
+		bank.set(0, false);
+		long on = bank.getOnTime(0, TimeUnit.MILLISECONDS);
+		assertTrue("On for " + on + "ms", on >= 20);
+		Thread.sleep(20);
+		assertEquals(on, bank.getOnTime(0, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void switchDelayIsTimed() {
+		SimulatedRelayBank bank = new SimulatedRelayBank(1);
+		bank.setSwitchDelay(5, TimeUnit.MILLISECONDS);
+		bank.set(0, true);
+		bank.set(0, true);
+		assertEquals(2, bank.getWriteLatency().getCount());
+		assertTrue(bank.getWriteLatency().getMax(TimeUnit.MILLISECONDS) >= 5);
+	}
+
+	@Test
+	public void rampsNeverSeenActiveWithoutReady() throws Exception {
+		// Pairs of ready and active relays, switched between the three ramp
+		// states by many threads at once
+		SimulatedRelayBank bank = new SimulatedRelayBank(4096);
+		long[] states = { 0b00, 0b01, 0b11 };
+		AtomicBoolean torn = new AtomicBoolean();
+		AtomicBoolean done = new AtomicBoolean();
+
+		ExecutorService threads = Executors.newFixedThreadPool(5);
+		Future<?> reader = threads.submit(() -> {
+			while (!done.get()) {
+				for (int first = 0; first < 4096; first += 64) {
+					long block = bank.read(first);
+					// Active is the odd bit of each pair, ready the even one
+					if ((block & ~(block << 1) & 0xAAAAAAAAAAAAAAAAL) != 0) {
+						torn.set(true);
+					}
+				}
+			}
+		});
+		List<Future<?>> writers = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			int seed = t;
+			writers.add(threads.submit(() -> {
+				for (int i = 0; i < 50_000; i++) {
+					int ramp = (i * 31 + seed * 7) % 2048;
+					bank.write(ramp * 2, 0b11, states[(i + seed) % 3]);
+				}
+			}));
+		}
+		for (Future<?> writer : writers) {
+			writer.get();
+		}
+		done.set(true);
+		reader.get();
+		threads.shutdown();
+
+		assertFalse(torn.get());
+		assertEquals(200_000, bank.getWriteCount());
+	}
+}
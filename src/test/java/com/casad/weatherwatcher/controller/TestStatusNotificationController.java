@@ -0,0 +1,43 @@
+package com.casad.weatherwatcher.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.casad.weatherwatcher.controller.StatusNotificationController.StatusState;
+
+public class TestStatusNotificationController {
+
+	@Test
+	public void actuatesEachChangeOnce() {
+		List<String> actions = new ArrayList<String>();
+		StatusNotificationController controller = new StatusNotificationController(() -> actions.add("good"),
+				() -> actions.add("bad"));
+		List<String> seen = new ArrayList<String>();
+		controller.addListener((from, to) -> seen.add(from + ">" + to));
+		assertNull(controller.getStatus());
+
+		controller.setStatus(StatusState.GOOD);
+		controller.setStatus(StatusState.GOOD);
+		assertFalse(controller.transition(StatusState.BAD, StatusState.GOOD));
+		assertTrue(controller.transition(StatusState.GOOD, StatusState.BAD));
+
+		assertEquals(StatusState.BAD, controller.getStatus());
+		assertEquals("[good, bad]", actions.toString());
+		assertEquals("[null>GOOD, GOOD>BAD]", seen.toString());
+	}
+
+	@Test
+	public void firstTransitionIsFromNull() {
+		StatusNotificationController controller = new StatusNotificationController(() -> {}, () -> {});
+		assertFalse(controller.transition(StatusState.GOOD, StatusState.BAD));
+		assertTrue(controller.transition(null, StatusState.BAD));
+		assertEquals(StatusState.BAD, controller.getStatus());
+	}
+}
@@ -0,0 +1,227 @@
+package com.casad.weatherwatcher.history;
+
+import static com.casad.weatherwatcher.TestWeatherSnapshot.createSnapshot;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.casad.weatherwatcher.ConditionCodes;
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+
+public class TestWeatherHistory {
+
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+	private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void rangeQueryReturnsOneSite() throws Exception {
+		try (WeatherHistory history = WeatherHistory.open(folder.getRoot().toPath())) {
+			for (int hour = 0; hour < 10; hour++) {
+				history.record("a", hour * HOUR, snapshot(30 + hour, "Snow"), RampState.ACTIVE);
+				history.record("b", hour * HOUR, snapshot(70, "Clear"), RampState.IDLE);
+			}
+
+			List<Long> times = new ArrayList<>();
+			assertEquals(3, history.query("a", 2 * HOUR, 5 * HOUR, o -> {
+				assertEquals("a", o.getSiteId());
+				assertEquals(RampState.ACTIVE, o.getState());
+				assertEquals(30 + o.getTimestamp() / HOUR, o.getTempF(), 0);
+				times.add(o.getTimestamp());
+			}));
+			assertEquals(2 * HOUR, (long) times.get(0));
+			assertEquals(4 * HOUR, (long) times.get(2));
+
+			assertEquals(20, history.query(0, 10 * HOUR, o -> {}));
+			assertEquals(0, history.query("c", 0, 10 * HOUR, o -> {}));
+		}
+	}
+
+	@Test
+	public void historySurvivesReopening() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		try (WeatherHistory history = WeatherHistory.open(directory, 4)) {
+			for (int hour = 0; hour < 10; hour++) {
+				history.record("a", hour * HOUR, snapshot(20, "Light Snow"), RampState.READY);
+			}
+			assertEquals(3, history.getSegmentCount());
+		}
+
+		try (WeatherHistory history = WeatherHistory.open(directory, 4)) {
+			assertEquals(10, history.size());
+			history.record("a", 10 * HOUR, snapshot(20, "Clear"), RampState.IDLE);
+			assertEquals(3, history.getSegmentCount());
+
+			List<Observation> seen = new ArrayList<>();
+			history.query("a", 9 * HOUR, 11 * HOUR, o -> seen.add(copy(o)));
+			assertEquals(2, seen.size());
+			assertEquals("Light Snow", ConditionCodes.nameOf(seen.get(0).getCurrentCode()));
+			assertTrue(ConditionCodes.isFallingSnow(seen.get(0).getCurrentCode()));
+			assertEquals(RampState.IDLE, seen.get(1).getState());
+			assertEquals("Clear", seen.get(1).toSnapshot().getCurrentConditions());
+			assertNull(seen.get(1).toSnapshot().getPeriodConditions(3));
+		}
+	}
+
+	@Test
+	public void retentionDropsWholeSegments() throws Exception {
+		try (WeatherHistory history = WeatherHistory.open(folder.getRoot().toPath(), 24)) {
+			history.setRetention(7, TimeUnit.DAYS);
+			for (int day = 0; day < 30; day++) {
+				for (int hour = 0; hour < 24; hour++) {
+					history.record("a", day * DAY + hour * HOUR, snapshot(40, "Clear"), RampState.IDLE);
+				}
+			}
+			history.record("a", 30 * DAY, snapshot(40, "Clear"), RampState.IDLE);
+
+			// Everything before day 23 has gone, a day to a segment
+			assertEquals(8, history.getSegmentCount());
+			assertEquals(0, history.query("a", 0, 23 * DAY, o -> {}));
+			assertEquals(7 * 24 + 1, history.query("a", 0, 31 * DAY, o -> {}));
+			assertEquals(8, Files.list(folder.getRoot().toPath()).filter(f -> f.toString().endsWith(".wwh")).count());
+		}
+	}
+
+	@Test
+	public void segmentsRollBySpan() throws Exception {
+		try (WeatherHistory history = WeatherHistory.open(folder.getRoot().toPath())) {
+			history.setSegmentSpan(1, TimeUnit.DAYS);
+			for (int hour = 0; hour < 72; hour++) {
+				history.record("a", hour * HOUR, snapshot(40, "Clear"), RampState.IDLE);
+			}
+
+			assertEquals(3, history.getSegmentCount());
+			assertEquals(72, history.query("a", 0, 72 * HOUR, o -> {}));
+		}
+	}
+
+	@Test
+	public void retentionDeletesTheNewestSegmentOnceIdle() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		try (WeatherHistory history = WeatherHistory.open(directory)) {
+			history.setRetention(7, TimeUnit.DAYS);
+			for (int hour = 0; hour < 24; hour++) {
+				history.record("a", hour * HOUR, snapshot(40, "Clear"), RampState.IDLE);
+			}
+		}
+
+		try (WeatherHistory history = WeatherHistory.open(directory)) {
+			history.setRetention(7, TimeUnit.DAYS);
+			assertEquals(1, history.applyRetention(30 * DAY));
+			assertEquals(0, history.getSegmentCount());
+			assertEquals(0, Files.list(directory).filter(f -> f.toString().endsWith(".wwh")).count());
+
+			history.record("a", 30 * DAY, snapshot(40, "Clear"), RampState.IDLE);
+			assertEquals(1, history.query("a", 0, 31 * DAY, o -> {}));
+		}
+	}
+
+	@Test
+	public void outOfOrderRowsAreStillFound() throws Exception {
+		try (WeatherHistory history = WeatherHistory.open(folder.getRoot().toPath())) {
+			history.record("a", 5 * HOUR, snapshot(40, "Clear"), RampState.IDLE);
+			history.record("a", 1 * HOUR, snapshot(40, "Clear"), RampState.IDLE);
+			history.record("a", 3 * HOUR, snapshot(40, "Clear"), RampState.IDLE);
+
+			assertEquals(2, history.query("a", 0, 4 * HOUR, o -> {}));
+		}
+	}
+
+	@Test
+	public void queriesRunWhileRecording() throws Exception {
+		try (WeatherHistory history = WeatherHistory.open(folder.getRoot().toPath(), 8)) {
+			for (int hour = 0; hour < 40; hour++) {
+				history.record("a", hour * HOUR, snapshot(hour, "Snow"), RampState.ACTIVE);
+			}
+
+			AtomicReference<Throwable> failure = new AtomicReference<>();
+			Thread[] readers = new Thread[4];
+			for (int i = 0; i < readers.length; i++) {
+				readers[i] = new Thread(() -> {
+					try {
+						for (int query = 0; query < 200; query++) {
+							AtomicInteger hour = new AtomicInteger();
+							assertEquals(40, history.query("a", 0, 40 * HOUR, o -> {
+								assertEquals(hour.get() * HOUR, o.getTimestamp());
+								assertEquals("Snow", ConditionCodes.nameOf(o.getCurrentCode()));
+								hour.incrementAndGet();
+							}));
+						}
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				});
+				readers[i].start();
+			}
+
+			// New segments are started while the queries run
+			for (int hour = 40; hour < 400; hour++) {
+				history.record("b", hour * HOUR, snapshot(70, "Clear"), RampState.IDLE);
+			}
+			for (Thread reader : readers) {
+				reader.join();
+			}
+
+			assertNull(failure.get());
+			assertEquals(400, history.query(0, 400 * HOUR, o -> {}));
+		}
+	}
+
+	@Test
+	public void seasonQueryAcrossManySites() throws Exception {
+		int sites = 2000;
+		int days = 120;
+		try (WeatherHistory history = WeatherHistory.open(folder.getRoot().toPath())) {
+			WeatherSnapshot[] weather = { snapshot(20, "Snow"), snapshot(50, "Clear") };
+			for (int day = 0; day < days; day++) {
+				for (int site = 0; site < sites; site++) {
+					history.record("site-" + site, day * DAY + site, weather[(day + site) % 2], RampState.IDLE);
+				}
+			}
+			assertEquals(sites * days, history.size());
+
+			// A 90 day season for every site, one site at a time
+			AtomicInteger snow = new AtomicInteger();
+			int rows = 0;
+			for (int site = 0; site < sites; site++) {
+				rows += history.query("site-" + site, 10 * DAY, 100 * DAY, o -> {
+					if (ConditionCodes.isFallingSnow(o.getCurrentCode())) {
+						snow.incrementAndGet();
+					}
+				});
+			}
+
+			assertEquals(sites * 90, rows);
+			assertEquals(sites * 45, snow.get());
+		}
+	}
+
+	private static WeatherSnapshot snapshot(float tempF, String current) {
+		return createSnapshot(tempF, current, "Clear", "Cloudy", null);
+	}
+
+	private static Observation copy(Observation o) {
+		Observation copy = new Observation();
+		copy.siteId = o.siteId;
+		copy.timestamp = o.timestamp;
+		copy.tempF = o.tempF;
+		System.arraycopy(o.codes, 0, copy.codes, 0, o.codes.length);
+		copy.state = o.state;
+		return copy;
+	}
+}
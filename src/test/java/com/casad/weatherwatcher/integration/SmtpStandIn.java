@@ -0,0 +1,141 @@
+package com.casad.weatherwatcher.integration;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Just enough of an SMTP server to accept mail from JavaMail on localhost.
+ * The greeting is delayed to stand in for the TLS handshake and login of a
+ * real server.
+ */
+public class SmtpStandIn implements AutoCloseable {
+
+	private final ServerSocket server;
+	private final long handshakeMillis;
+	private final List<String> messages = new CopyOnWriteArrayList<>();
+	private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+	private final AtomicInteger connections = new AtomicInteger();
+
+	public SmtpStandIn(long handshakeMillis) throws IOException {
+		this.handshakeMillis = handshakeMillis;
+		server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(this::accept, "smtp-stand-in");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public Properties getProperties() {
+		Properties props = new Properties();
+		props.put("mail.smtp.host", "127.0.0.1");
+		props.put("mail.smtp.port", String.valueOf(server.getLocalPort()));
+		props.put("mail.smtp.auth", "true");
+		return props;
+	}
+
+	/**
+	 * @return the raw text of each message received
+	 */
+	public List<String> getMessages() {
+		return messages;
+	}
+
+	public int getConnectionCount() {
+		return connections.get();
+	}
+
+	/**
+	 * Drop every open connection without saying goodbye.
+	 */
+	public void dropConnections() throws IOException {
+		for (Socket socket : sockets) {
+			socket.close();
+		}
+		sockets.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+		dropConnections();
+	}
+
+	private void accept() {
+		while (!server.isClosed()) {
+			try {
+				Socket socket = server.accept();
+				connections.incrementAndGet();
+				sockets.add(socket);
+				Thread session = new Thread(() -> serve(socket), "smtp-stand-in-session");
+				session.setDaemon(true);
+				session.start();
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (Socket s = socket) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+			OutputStream out = s.getOutputStream();
+
+			Thread.sleep(handshakeMillis);
+			reply(out, "220 localhost ESMTP stand-in");
+
+			String line;
+			while ((line = in.readLine()) != null) {
+				String command = line.toUpperCase();
+				if (command.startsWith("EHLO")) {
+					reply(out, "250-localhost\r\n250 AUTH LOGIN PLAIN");
+				} else if (command.startsWith("HELO")) {
+					reply(out, "250 localhost");
+				} else if (command.startsWith("AUTH LOGIN")) {
+					reply(out, "334 VXNlcm5hbWU6");
+					in.readLine();
+					reply(out, "334 UGFzc3dvcmQ6");
+					in.readLine();
+					reply(out, "235 Authenticated");
+				} else if (command.startsWith("AUTH PLAIN")) {
+					if (command.trim().equals("AUTH PLAIN")) {
+						reply(out, "334 ");
+						in.readLine();
+					}
+					reply(out, "235 Authenticated");
+				} else if (command.startsWith("DATA")) {
+					reply(out, "354 End data with <CR><LF>.<CR><LF>");
+					StringBuilder message = new StringBuilder();
+					while ((line = in.readLine()) != null && !line.equals(".")) {
+						message.append(line).append("\n");
+					}
+					messages.add(message.toString());
+					reply(out, "250 Queued");
+				} else if (command.startsWith("QUIT")) {
+					reply(out, "221 Bye");
+					return;
+				} else {
+					// MAIL, RCPT, RSET and NOOP
+					reply(out, "250 OK");
+				}
+			}
+		} catch (IOException | InterruptedException e) {
+			// Connection dropped
+		} finally {
+			sockets.remove(socket);
+		}
+	}
+
+	private static void reply(OutputStream out, String reply) throws IOException {
+		out.write((reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+	}
+}
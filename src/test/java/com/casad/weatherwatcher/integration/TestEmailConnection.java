@@ -0,0 +1,166 @@
+package com.casad.weatherwatcher.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestEmailConnection {
+
+	private SmtpStandIn smtp;
+
+	@Before
+	public void setUp() throws Exception {
+		smtp = new SmtpStandIn(20);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		smtp.close();
+	}
+
+	@Test
+	public void persistentConnectionIsReused() {
+		EmailConnection email = connection();
+		email.setPersistentConnection(true);
+
+		for (int i = 0; i < 5; i++) {
+			email.sendMessage("Subject " + i, "Body " + i);
+		}
+
+		assertEquals(5, smtp.getMessages().size());
+		assertEquals(1, smtp.getConnectionCount());
+		assertEquals(1, email.getConnectCount());
+		assertTrue(smtp.getMessages().get(4).contains("Subject: Subject 4"));
+		email.close();
+	}
+
+	@Test
+	public void reconnectsWhenServerDropsConnection() throws Exception {
+		EmailConnection email = connection();
+		email.setPersistentConnection(true);
+
+		email.sendMessage("Before", "Body");
+		smtp.dropConnections();
+		email.sendMessage("After", "Body");
+
+		assertEquals(2, smtp.getMessages().size());
+		assertEquals(2, email.getConnectCount());
+		email.close();
+	}
+
+	@Test
+	public void concurrentSendsShareTheConnection() throws Exception {
+		EmailConnection email = connection();
+		email.setPersistentConnection(true);
+
+		Thread[] senders = new Thread[4];
+		for (int i = 0; i < senders.length; i++) {
+			final int sender = i;
+			senders[i] = new Thread(() -> {
+				for (int j = 0; j < 5; j++) {
+					email.sendMessage("Sender " + sender, "Body " + j);
+				}
+			});
+			senders[i].start();
+		}
+		for (Thread sender : senders) {
+			sender.join();
+		}
+
+		assertEquals(20, smtp.getMessages().size());
+		assertEquals(20, email.getSentCount());
+		assertEquals(1, email.getConnectCount());
+		email.close();
+	}
+
+	@Test
+	public void idleConnectionIsClosed() throws Exception {
+		EmailConnection email = connection();
+		email.setPersistentConnection(true);
+		email.setIdleTimeout(100, TimeUnit.MILLISECONDS);
+
+		email.sendMessage("Subject", "Body");
+		assertTrue(email.isConnected());
+
+		Thread.sleep(400);
+		assertFalse(email.isConnected());
+
+		email.sendMessage("Subject", "Body");
+		assertEquals(2, email.getConnectCount());
+		email.close();
+	}
+
+	@Test
+	public void digestBatchesMessages() throws Exception {
+		EmailConnection email = connection();
+		email.setDigestWindow(200, TimeUnit.MILLISECONDS);
+
+		email.sendMessage("Site 1 activating", "Snow at site 1");
+		email.sendMessage("Site 2 activating", "Snow at site 2");
+		email.sendMessage("Site 3 activating", "Snow at site 3");
+		assertEquals(0, smtp.getMessages().size());
+
+		long deadline = System.currentTimeMillis() + 2_000;
+		while (smtp.getMessages().isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		assertEquals(1, smtp.getMessages().size());
+		String digest = smtp.getMessages().get(0);
+		assertTrue(digest, digest.contains("Subject: Site 3 activating (+2 more)"));
+		assertTrue(digest.contains("Snow at site 1"));
+		assertTrue(digest.contains("Snow at site 3"));
+		email.close();
+	}
+
+	@Test
+	public void closeFlushesDigest() {
+		EmailConnection email = connection();
+		email.setDigestWindow(1, TimeUnit.HOURS);
+
+		email.sendMessage("Subject", "Body");
+		email.close();
+
+		assertEquals(1, smtp.getMessages().size());
+	}
+
+	@Test
+	public void turningOffDigestSendsWhatIsHeld() {
+		EmailConnection email = connection();
+		email.setDigestWindow(1, TimeUnit.HOURS);
+
+		email.sendMessage("Subject", "Body");
+		assertEquals(0, smtp.getMessages().size());
+
+		email.setDigestWindow(0, TimeUnit.SECONDS);
+		assertEquals(1, smtp.getMessages().size());
+
+		email.sendMessage("Subject", "Body");
+		assertEquals(2, smtp.getMessages().size());
+		email.close();
+	}
+
+	@Test
+	public void connectsForEveryMessageByDefault() {
+		EmailConnection email = connection();
+
+		for (int i = 0; i < 5; i++) {
+			email.sendMessage("Subject " + i, "Body " + i);
+		}
+
+		assertEquals(5, smtp.getMessages().size());
+		assertEquals(5, smtp.getConnectionCount());
+		assertEquals(5, email.getConnectCount());
+		assertFalse(email.isConnected());
+	}
+
+	private EmailConnection connection() {
+		return new EmailConnection(smtp.getProperties(), "ramp@example.com", "secret", "owner@example.com");
+	}
+}
@@ -0,0 +1,165 @@
+package com.casad.weatherwatcher.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class TestJMaker {
+
+	private HttpServer server;
+	private final List<String> bodies = new CopyOnWriteArrayList<>();
+	private final List<String> paths = new CopyOnWriteArrayList<>();
+	private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+	private volatile int status = 200;
+	private volatile long latencyMillis = 0;
+
+	@Before
+	public void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 100);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", exchange -> {
+			clientPorts.add(exchange.getRemoteAddress().getPort());
+			paths.add(exchange.getRequestURI().getPath());
+			bodies.add(read(exchange.getRequestBody()));
+			sleep(latencyMillis);
+
+			byte[] response = "Congratulations!".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(status, response.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(response);
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void trigger() throws Exception {
+		JMaker jMaker = jMaker();
+		jMaker.trigger(Arrays.asList("Ramp activating", "", ""));
+
+		assertEquals("/trigger/GarageStatusUpdate/with/key/secret", paths.get(0));
+		assertEquals("{\"value1\":\"Ramp activating\",\"value2\":\"\",\"value3\":\"\"}", bodies.get(0));
+	}
+
+	@Test
+	public void connectionsAreReused() throws Exception {
+		JMaker jMaker = jMaker();
+		for (int i = 0; i < 20; i++) {
+			jMaker.trigger(Arrays.asList("message " + i));
+		}
+
+		assertEquals(20, bodies.size());
+		assertEquals(1, clientPorts.size());
+	}
+
+	@Test
+	public void errorStatusFails() throws Exception {
+		status = 401;
+		JMaker jMaker = jMaker();
+
+		try {
+			jMaker.trigger(Arrays.asList("message"));
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("401"));
+		}
+
+		// The connection is still usable afterwards
+		status = 200;
+		jMaker.trigger(Arrays.asList("message"));
+		assertEquals(1, clientPorts.size());
+	}
+
+	@Test
+	public void readTimeout() throws Exception {
+		latencyMillis = 1_000;
+		JMaker jMaker = jMaker();
+		jMaker.setTimeouts(1, 100, TimeUnit.MILLISECONDS);
+
+		CompletableFuture<Void> result = jMaker.triggerAsync(Arrays.asList("message"));
+		try {
+			result.get(5, TimeUnit.SECONDS);
+			fail("Expected a timeout");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	/**
+	 * A regional snow event, many sites triggering at once against an
+	 * endpoint that takes 20ms to respond.
+	 */
+	@Test
+	public void asyncThroughput() throws Exception {
+		latencyMillis = 20;
+		final int triggers = 1_000;
+		JMaker jMaker = jMaker();
+
+		long start = System.nanoTime();
+		List<CompletableFuture<Void>> results = new ArrayList<>();
+		for (int i = 0; i < triggers; i++) {
+			results.add(jMaker.triggerAsync(Arrays.asList("site " + i)));
+		}
+		long enqueued = System.nanoTime() - start;
+		CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		assertEquals(triggers, bodies.size());
+		assertTrue(clientPorts.size() <= 64);
+		assertTrue("Enqueuing took " + enqueued + "ns", enqueued < TimeUnit.SECONDS.toNanos(1));
+		assertTrue(triggers / seconds > 200);
+	}
+
+	private JMaker jMaker() {
+		JMaker jMaker = new JMaker("GarageStatusUpdate", "secret");
+		jMaker.setBaseUrl("http://127.0.0.1:" + server.getAddress().getPort());
+		return jMaker;
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package com.casad.weatherwatcher.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class TestJsonReader {
+
+	private static JsonReader reader(String json) {
+		return new JsonReader().reset(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void object() throws IOException {
+		JsonReader reader = reader(" {\"a\" : \"1\", \"b\":2.5,\"c\":null, \"d\":true}\n");
+		reader.beginObject();
+		reader.nextName();
+		assertTrue(reader.nameEquals("a"));
+		assertEquals("1", reader.nextString());
+		reader.nextName();
+		assertTrue(reader.nameEquals("b"));
+		assertFalse(reader.nameEquals("bb"));
+		assertEquals(2.5, reader.nextDouble(), 0);
+		reader.nextName();
+		assertEquals("c", reader.getName());
+		assertEquals(JsonReader.Token.NULL, reader.peek());
+		reader.nextNull();
+		reader.nextName();
+		assertTrue(reader.nextBoolean());
+		assertFalse(reader.hasNext());
+		reader.endObject();
+		assertEquals(JsonReader.Token.END_DOCUMENT, reader.peek());
+	}
+
+	@Test
+	public void skipValue() throws IOException {
+		JsonReader reader = reader("{\"skip\":{\"a\":[1,{\"b\":\"}]\\\"\"},[],{}],\"c\":false},\"keep\":[-3,\"x\"]}");
+		reader.beginObject();
+		reader.nextName();
+		reader.skipValue();
+		reader.nextName();
+		assertTrue(reader.nameEquals("keep"));
+		reader.beginArray();
+		assertEquals(-3, reader.nextDouble(), 0);
+		assertEquals("x", reader.nextString());
+		reader.endArray();
+		reader.endObject();
+	}
+
+	@Test
+	public void escaping() throws IOException {
+		JsonReader reader = reader("[\"He said \\\"snow\\\"\\n\\tC:\\\\ramp\\/\\u0001\",\"5\\u00b0F \\u2744 \\ud83c\\udf28\"]");
+		reader.beginArray();
+		assertEquals("He said \"snow\"\n\tC:\\ramp/\u0001", reader.nextString());
+		assertEquals("5\u00b0F \u2744 \ud83c\udf28", reader.nextString());
+		reader.endArray();
+	}
+
+	@Test
+	public void utf8() throws IOException {
+		String value = "5\u00b0F \u2744 \ud83c\udf28";
+		JsonReader reader = reader("\"" + value + "\"");
+		assertEquals(value, reader.nextString());
+	}
+
+	@Test
+	public void numbers() throws IOException {
+		JsonReader reader = reader("[0, 34.2, -12.75, 1e3, 2.5E-2, 12345678901234567890, \"27.3\"]");
+		reader.beginArray();
+		assertEquals(0, reader.nextDouble(), 0);
+		assertEquals(34.2, reader.nextDouble(), 0);
+		assertEquals(-12.75, reader.nextDouble(), 0);
+		assertEquals(1000, reader.nextDouble(), 0);
+		assertEquals(0.025, reader.nextDouble(), 0);
+		assertEquals(12345678901234567890.0, reader.nextDouble(), 0);
+		assertEquals(27.3, reader.nextDouble(), 0);
+		reader.endArray();
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void notANumber() throws IOException {
+		reader("\"NA\"").nextDouble();
+	}
+
+	/**
+	 * Tokens and strings split across reads from the stream.
+	 */
+	@Test
+	public void smallBuffer() throws IOException {
+		String json = "{\"current_observation\":{\"weather\":\"Light Snow Showers\",\"temp_f\":27.3}}";
+		InputStream trickle = new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 3));
+			}
+		};
+
+		JsonReader reader = new JsonReader(4).reset(trickle);
+		reader.beginObject();
+		reader.nextName();
+		assertTrue(reader.nameEquals("current_observation"));
+		reader.beginObject();
+		reader.nextName();
+		assertEquals("Light Snow Showers", reader.nextString());
+		reader.nextName();
+		assertEquals(27.3, reader.nextDouble(), 0);
+		reader.endObject();
+		reader.endObject();
+	}
+
+	@Test
+	public void reuse() throws IOException {
+		JsonReader reader = reader("{\"a\":[1,2");
+		reader.beginObject();
+		reader.nextName();
+		reader.beginArray();
+
+		reader.reset(new ByteArrayInputStream("[\"b\"]".getBytes(StandardCharsets.UTF_8)));
+		reader.beginArray();
+		assertEquals("b", reader.nextString());
+		reader.endArray();
+	}
+
+	@Test
+	public void malformed() {
+		for (String json : new String[] { "{\"a\" 1}", "[1 2]", "{\"a\":1,}", "[\"open", "{\"a\":tru}", "[1,", "" }) {
+			try {
+				JsonReader reader = reader(json);
+				reader.skipValue();
+				reader.skipValue();
+				fail("Expected " + json + " to be rejected");
+			} catch (IOException e) {
+				// Expected
+			}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.casad.weatherwatcher.integration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.http.HttpEntity;
+import org.junit.Test;
+
+public class TestJsonWriter {
+
+	@Test
+	public void object() {
+		JsonWriter writer = new JsonWriter();
+		writer.beginObject().name("a").value("1").name("b").value(2).name("c").value(null).endObject();
+
+		assertEquals("{\"a\":\"1\",\"b\":2,\"c\":null}", writer.toString());
+	}
+
+	@Test
+	public void nestedObject() {
+		JsonWriter writer = new JsonWriter();
+		writer.beginObject().name("a").beginObject().name("b").value("c").endObject().name("d").value(1).endObject();
+
+		assertEquals("{\"a\":{\"b\":\"c\"},\"d\":1}", writer.toString());
+	}
+
+	@Test
+	public void escaping() {
+		JsonWriter writer = new JsonWriter();
+		writer.value("He said \"snow\"\n\tC:\\ramp\u0001");
+
+		assertEquals("\"He said \\\"snow\\\"\\n\\tC:\\\\ramp\\u0001\"", writer.toString());
+	}
+
+	@Test
+	public void utf8() {
+		String value = "5\u00b0F \u2744 \ud83c\udf28";
+		JsonWriter writer = new JsonWriter(4);
+		writer.value(value);
+
+		byte[] expected = ("\"" + value + "\"").getBytes(StandardCharsets.UTF_8);
+		assertArrayEquals(expected, Arrays.copyOf(writer.getBuffer(), writer.size()));
+	}
+
+	@Test
+	public void resetReusesBuffer() {
+		JsonWriter writer = new JsonWriter();
+		writer.beginObject().name("a").value("1").endObject();
+		byte[] buffer = writer.getBuffer();
+
+		writer.reset().beginObject().name("b").value("2").endObject();
+		assertEquals("{\"b\":\"2\"}", writer.toString());
+		assertSame(buffer, writer.getBuffer());
+	}
+
+	@Test
+	public void growsFromOneByte() {
+		JsonWriter writer = new JsonWriter(1);
+		writer.beginObject().name("a").value(1).endObject();
+
+		assertEquals("{\"a\":1}", writer.toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void zeroCapacity() {
+		new JsonWriter(0);
+	}
+
+	@Test
+	public void jMakerPayload() throws Exception {
+		JMaker jMaker = new JMaker("event", "key");
+
+		// Fewer than three values used to leave a trailing comma
+		assertEquals("{\"value1\":\"only\"}", jMaker.buildJson(Arrays.asList("only")));
+		assertEquals("{\"value1\":\"a\",\"value2\":\"b\",\"value3\":\"c\"}", jMaker.buildJson(Arrays.asList("a", "b", "c", "d")));
+
+		HttpEntity entity = jMaker.createEntity(Arrays.asList("java.lang.RuntimeException: \"WEE:0002\"\n\tat Foo"));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		entity.writeTo(out);
+		assertEquals("{\"value1\":\"java.lang.RuntimeException: \\\"WEE:0002\\\"\\n\\tat Foo\"}", out.toString("UTF-8"));
+		assertEquals("application/json; charset=UTF-8", entity.getContentType().getValue());
+	}
+}
@@ -0,0 +1,182 @@
+package com.casad.weatherwatcher.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.WeatherService;
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.rules.RuleSet;
+import com.sun.net.httpserver.HttpServer;
+
+public class TestStreamingWundergroundWeatherService {
+
+	private HttpServer standIn;
+	private volatile int status = 200;
+	private volatile String body;
+	private final List<String> paths = new CopyOnWriteArrayList<>();
+	private StreamingWundergroundWeatherService service;
+
+	@Before
+	public void setUp() throws IOException {
+		standIn = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 10);
+		standIn.createContext("/", exchange -> {
+			paths.add(exchange.getRequestURI().getPath());
+			byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(status, bytes.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		});
+		standIn.start();
+
+		service = new StreamingWundergroundWeatherService("abc123");
+		service.setBaseUrl("http://127.0.0.1:" + standIn.getAddress().getPort() + "/api");
+	}
+
+	@After
+	public void tearDown() {
+		standIn.stop(0);
+	}
+
+	/**
+	 * A conditions and forecast response cut down from a recorded one, with
+	 * fields around the ones read to be skipped.
+	 */
+	private static String response(String weather, String tempF, String... conditions) {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n \"response\": {\"version\": \"0.1\", \"features\": {\"conditions\": 1, \"forecast\": 1}},\n");
+		json.append(" \"current_observation\": {\n");
+		json.append("  \"image\": {\"url\": \"http://icons.wxug.com/graphics/wu2/logo_130x80.png\"},\n");
+		json.append("  \"display_location\": {\"full\": \"Minneapolis, MN\", \"zip\": \"55401\", \"elevation\": \"253.0\"},\n");
+		json.append("  \"estimated\": {}, \"station_id\": \"KMNMINNE52\",\n");
+		json.append("  \"weather\": \"").append(weather).append("\", \"temperature_string\": \"27.3 F (-2.6 C)\",\n");
+		json.append("  \"temp_f\": ").append(tempF).append(", \"temp_c\": -2.6, \"wind_degrees\": 315,\n");
+		json.append("  \"heat_index_f\": \"NA\", \"nowcast\": \"\"\n },\n");
+		json.append(" \"forecast\": {\n");
+		json.append("  \"txt_forecast\": {\"date\": \"7:21 AM CST\", \"forecastday\": [\n");
+		json.append("   {\"period\": 0, \"icon\": \"snow\", \"title\": \"Saturday\", \"conditions\": \"Not these\",");
+		json.append(" \"fcttext\": \"Snow showers. \\\"Feels like\\\" temperatures in the teens.\"}\n  ]},\n");
+		json.append("  \"simpleforecast\": {\"forecastday\": [\n");
+		for (int i = 0; i < conditions.length; i++) {
+			json.append(i == 0 ? "   " : ",\n   ");
+			json.append("{\"date\": {\"epoch\": \"1484442000\", \"day\": 14, \"isdst\": \"0\"}, \"period\": ").append(i + 1);
+			json.append(", \"high\": {\"fahrenheit\": \"28\"}, \"conditions\": \"").append(conditions[i]);
+			json.append("\", \"icon\": \"snow\", \"pop\": 30, \"qpf_allday\": {\"in\": 0.12, \"mm\": 3}}");
+		}
+		json.append("\n  ]}\n }\n}\n");
+		return json.toString();
+	}
+
+	@Test
+	public void snapshot() {
+		body = response("Light Snow", "27.3", "Snow", "Snow Showers", "Partly Cloudy", "Clear");
+
+		WeatherSnapshot snapshot = service.getSnapshot("55401", null);
+
+		assertEquals(27.3f, snapshot.getTempF(), 0);
+		assertEquals("Light Snow", snapshot.getCurrentConditions());
+		assertEquals("Snow", snapshot.getPeriodConditions(1));
+		assertEquals("Snow Showers", snapshot.getPeriodConditions(2));
+		assertEquals("Partly Cloudy", snapshot.getPeriodConditions(3));
+		assertEquals("/api/abc123/conditions/forecast/q/55401.json", paths.get(0));
+	}
+
+	@Test
+	public void unchangedWeatherKeepsSnapshot() {
+		body = response("Overcast", "31", "Cloudy", "Chance of Snow", "Snow");
+		WeatherSnapshot first = service.getSnapshot("55401", null);
+
+		assertSame(first, service.getSnapshot("55401", first));
+
+		body = response("Overcast", "30", "Cloudy", "Chance of Snow", "Snow");
+		WeatherSnapshot colder = service.getSnapshot("55401", first);
+		assertNotSame(first, colder);
+		assertEquals(30f, colder.getTempF(), 0);
+	}
+
+	@Test
+	public void dayWithoutConditions() {
+		body = response("Clear", "12", "Clear", "Clear", "Snow");
+		WeatherSnapshot snowy = service.getSnapshot("55401", null);
+		assertEquals("Snow", snowy.getPeriodConditions(3));
+
+		body = response("Clear", "12", "Clear", "Clear", "Snow").replace("\"conditions\": \"Snow\", ", "");
+		WeatherSnapshot clear = service.getSnapshot("55401", snowy);
+
+		assertNotSame(snowy, clear);
+		assertNull(clear.getPeriodConditions(3));
+		assertEquals(clear, WeatherSnapshot.from(service.getWeatherReport("55401")));
+	}
+
+	@Test
+	public void weatherReport() {
+		body = response("Light Snow", "-4.5", "Snow", "Clear", "Sleet and Snow");
+
+		WeatherResponse response = service.getWeatherReport("55401");
+
+		assertEquals("Light Snow", response.getConditions().getWeather());
+		assertEquals(-4.5f, response.getConditions().getTempF(), 0);
+		assertEquals(3, response.getSimpleForecast().getDays2().size());
+		assertEquals("Sleet and Snow", response.getSimpleForecast().getDays2().get(2).getConditions());
+		assertEquals(WeatherSnapshot.from(response), service.getSnapshot("55401", null));
+	}
+
+	@Test
+	public void forLocation() {
+		body = response("Clear", "12", "Clear", "Clear", "Snow");
+
+		WeatherService weather = service.forLocation("55401");
+
+		assertTrue(new RuleSet().compile().isSnowForecast(weather.getSnapshot(null)));
+		assertEquals("Clear", weather.getWeatherReport().getConditions().getWeather());
+	}
+
+	@Test
+	public void errorResponse() {
+		body = "{\"response\": {\"version\": \"0.1\", \"error\": {\"type\": \"keynotfound\", \"description\": \"this key does not exist\"}}}";
+
+		try {
+			service.getSnapshot("55401", null);
+			fail("Expected the error to be reported");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("this key does not exist"));
+		}
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void serverError() {
+		status = 500;
+		body = "";
+		service.getSnapshot("55401", null);
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void missingForecast() {
+		body = response("Clear", "12", "Clear", "Clear");
+		service.getSnapshot("55401", null);
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void truncated() {
+		String full = response("Clear", "12", "Clear", "Clear", "Snow");
+		body = full.substring(0, full.length() / 2);
+		service.getSnapshot("55401", null);
+	}
+}
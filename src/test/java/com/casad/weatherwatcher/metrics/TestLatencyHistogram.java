@@ -0,0 +1,89 @@
+package com.casad.weatherwatcher.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class TestLatencyHistogram {
+
+	@Test
+	public void bucketsCoverTheirValues() {
+		long[] values = { 0, 1, 31, 32, 33, 63, 64, 1000, 123_456_789, TimeUnit.MINUTES.toNanos(10), Long.MAX_VALUE };
+		for (long value : values) {
+			int bucket = LatencyHistogram.bucketOf(value);
+			long highest = LatencyHistogram.highestValueOf(bucket);
+			assertTrue(value + " in bucket ending " + highest, value <= highest);
+			if (bucket > 0) {
+				assertTrue(value + " above previous bucket", value > LatencyHistogram.highestValueOf(bucket - 1));
+			}
+			// Within about 3%
+			assertTrue(value + " reported as " + highest, highest - value <= value / 32 + 1);
+		}
+	}
+
+	@Test
+	public void percentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+		}
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500, histogram.getP50Micros(), 500 / 32);
+		assertEquals(990, histogram.getP99Micros(), 990 / 32);
+		assertEquals(1000, histogram.getMaxMicros());
+		assertEquals(500.5, histogram.getMeanMicros(), 0.01);
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getP99Micros());
+	}
+
+	@Test
+	public void concurrentRecording() throws Exception {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			final long value = (t + 1) * 1000;
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 100_000; i++) {
+					histogram.record(value);
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(400_000, histogram.getCount());
+		assertEquals(4000, histogram.getMax(TimeUnit.NANOSECONDS));
+		assertEquals(2500, histogram.getMeanMicros() * 1000, 0.01);
+	}
+
+	@Test
+	public void publishedOverJmx() throws Exception {
+		LatencyHistogram histogram = MetricsRegistry.getDefault().histogram("test.jmx");
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+		MetricsRegistry.getDefault().counter("test.counter").increment();
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("com.casad.weatherwatcher:type=Histogram,name=\"test.jmx\"");
+		assertEquals(1L, server.getAttribute(name, "Count"));
+		assertEquals(5000L, server.getAttribute(name, "MaxMicros"));
+
+		ObjectName counter = new ObjectName("com.casad.weatherwatcher:type=Counter,name=\"test.counter\"");
+		assertEquals(1L, server.getAttribute(counter, "Count"));
+	}
+}
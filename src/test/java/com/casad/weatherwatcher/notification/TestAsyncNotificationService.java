@@ -0,0 +1,152 @@
+package com.casad.weatherwatcher.notification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.casad.weatherwatcher.NotificationService;
+
+public class TestAsyncNotificationService {
+
+	@Test
+	public void sendReturnsWhileChannelIsStalled() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		List<String> ifttt = new CopyOnWriteArrayList<>();
+		List<String> email = new CopyOnWriteArrayList<>();
+
+		AsyncNotificationService service = new AsyncNotificationService(10, DropPolicy.BLOCK);
+		service.addChannel("ifttt", 1, (subject, message) -> ifttt.add(subject));
+		service.addChannel("email", 1, (subject, message) -> {
+			await(release);
+			email.add(subject);
+		});
+
+		long start = System.nanoTime();
+		service.sendMessage("one", "body");
+		service.sendMessage("two", "body");
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+
+		// IFTTT is not held up by the stalled email channel
+		assertFalse(service.awaitIdle(0, TimeUnit.SECONDS));
+		long deadline = System.currentTimeMillis() + 2_000;
+		while (ifttt.size() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, ifttt.size());
+		assertEquals(0, email.size());
+
+		release.countDown();
+		assertTrue(service.awaitIdle(2, TimeUnit.SECONDS));
+		assertEquals(2, email.size());
+		service.shutdown();
+	}
+
+	@Test
+	public void recipientsAreDeliveredInParallel() throws Exception {
+		final int recipients = 4;
+		CountDownLatch allStarted = new CountDownLatch(recipients);
+		AtomicInteger delivered = new AtomicInteger();
+		NotificationService recipient = (subject, message) -> {
+			allStarted.countDown();
+			// Only completes if every recipient is being sent at once
+			await(allStarted);
+			delivered.incrementAndGet();
+		};
+
+		AsyncNotificationService service = new AsyncNotificationService(10, DropPolicy.BLOCK);
+		service.addChannel("email", recipients, Collections.nCopies(recipients, recipient));
+		service.sendMessage("subject", "body");
+
+		assertTrue(service.awaitIdle(2, TimeUnit.SECONDS));
+		assertEquals(recipients, delivered.get());
+		assertEquals(recipients, service.getDeliveredCount("email"));
+		service.shutdown();
+	}
+
+	@Test
+	public void dropOldestKeepsLatestMessages() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+		List<String> sent = new CopyOnWriteArrayList<>();
+
+		AsyncNotificationService service = new AsyncNotificationService(2, DropPolicy.DROP_OLDEST);
+		service.addChannel("email", 1, (subject, message) -> {
+			started.countDown();
+			await(release);
+			sent.add(subject);
+		});
+
+		service.sendMessage("1", "");
+		await(started);
+		for (int i = 2; i <= 5; i++) {
+			service.sendMessage(String.valueOf(i), "");
+		}
+		assertEquals(2, service.getDroppedCount("email"));
+
+		release.countDown();
+		assertTrue(service.awaitIdle(2, TimeUnit.SECONDS));
+		assertEquals("[1, 4, 5]", sent.toString());
+		service.shutdown();
+	}
+
+	@Test
+	public void dropNewestKeepsEarliestMessages() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+		List<String> sent = new CopyOnWriteArrayList<>();
+
+		AsyncNotificationService service = new AsyncNotificationService(2, DropPolicy.DROP_NEWEST);
+		service.addChannel("email", 1, (subject, message) -> {
+			started.countDown();
+			await(release);
+			sent.add(subject);
+		});
+
+		service.sendMessage("1", "");
+		await(started);
+		for (int i = 2; i <= 5; i++) {
+			service.sendMessage(String.valueOf(i), "");
+		}
+		assertEquals(2, service.getDroppedCount("email"));
+
+		release.countDown();
+		assertTrue(service.awaitIdle(2, TimeUnit.SECONDS));
+		assertEquals("[1, 2, 3]", sent.toString());
+		service.shutdown();
+	}
+
+	@Test
+	public void failuresDoNotStopTheChannel() throws Exception {
+		AtomicInteger calls = new AtomicInteger();
+		AsyncNotificationService service = new AsyncNotificationService(10, DropPolicy.BLOCK);
+		service.addChannel("ifttt", 1, (subject, message) -> {
+			if (calls.incrementAndGet() == 1) {
+				throw new RuntimeException("Connection refused");
+			}
+		});
+
+		service.sendMessage("1", "");
+		service.sendMessage("2", "");
+		assertTrue(service.awaitIdle(2, TimeUnit.SECONDS));
+		assertEquals(1, service.getFailedCount("ifttt"));
+		assertEquals(1, service.getDeliveredCount("ifttt"));
+		service.shutdown();
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
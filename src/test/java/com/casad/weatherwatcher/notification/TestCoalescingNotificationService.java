@@ -0,0 +1,152 @@
+package com.casad.weatherwatcher.notification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.casad.weatherwatcher.NotificationService;
+
+public class TestCoalescingNotificationService {
+
+	private final List<String> sent = new CopyOnWriteArrayList<>();
+	private final NotificationService recorder = new NotificationService() {
+		@Override
+		public void sendMessage(String subject, String message) {
+			sent.add(subject);
+		}
+
+		@Override
+		public void sendMessage(String siteId, String subject, String message) {
+			sent.add(siteId + ":" + subject);
+		}
+	};
+
+	@Test
+	public void collapsesToFinalState() {
+		CoalescingNotificationService service = new CoalescingNotificationService(recorder, 1, TimeUnit.HOURS);
+
+		service.sendMessage("a", "Standby", "cold");
+		service.sendMessage("a", "Shutting down", "warm");
+		service.sendMessage("a", "Standby", "cold");
+		service.sendMessage("a", "Shutting down", "warm");
+		service.sendMessage("b", "Activating", "snow");
+		assertEquals(0, sent.size());
+
+		service.flush();
+		assertEquals(2, sent.size());
+		assertTrue(sent.contains("a:Shutting down"));
+		assertTrue(sent.contains("b:Activating"));
+		assertEquals(3, service.getCollapsedCount());
+		assertEquals(3, service.getSuppressedCount());
+	}
+
+	@Test
+	public void flapBackToLastSentStateIsSuppressed() {
+		CoalescingNotificationService service = new CoalescingNotificationService(recorder, 1, TimeUnit.HOURS);
+
+		service.sendMessage("a", "Standby", "cold");
+		service.flush();
+
+		service.sendMessage("a", "Shutting down", "40.5F");
+		service.sendMessage("a", "Standby", "39.5F");
+		service.flush();
+
+		assertEquals("[a:Standby]", sent.toString());
+		assertEquals(1, service.getFlapCount());
+		assertEquals(2, service.getSuppressedCount());
+	}
+
+	@Test
+	public void changedStateAfterSeveralMessagesIsSent() {
+		CoalescingNotificationService service = new CoalescingNotificationService(recorder, 1, TimeUnit.HOURS);
+
+		service.sendMessage("a", "Standby", "cold");
+		service.flush();
+
+		service.sendMessage("a", "Activating", "snow");
+		service.sendMessage("a", "Shutting down", "warm");
+		service.flush();
+
+		assertEquals("[a:Standby, a:Shutting down]", sent.toString());
+		assertEquals(0, service.getFlapCount());
+	}
+
+	@Test
+	public void errorsAreNeverHeldOrSuppressed() {
+		CoalescingNotificationService service = new CoalescingNotificationService(recorder, 1, TimeUnit.HOURS);
+
+		service.sendError("a", "Error", "WEE:0002");
+		service.sendError("a", "Error", "WEE:0002");
+		assertEquals("[a:Error, a:Error]", sent.toString());
+
+		// An error between two state changes is not where the ramp started
+		service.sendMessage("a", "Standby", "cold");
+		service.flush();
+		service.sendError("a", "Error", "WEE:0002");
+		service.sendMessage("a", "Activating", "snow");
+		service.sendMessage("a", "Shutting down", "warm");
+		service.flush();
+
+		assertEquals("[a:Error, a:Error, a:Standby, a:Error, a:Shutting down]", sent.toString());
+		assertEquals(0, service.getFlapCount());
+		assertEquals(0, service.getDuplicateCount());
+	}
+
+	@Test
+	public void identicalMessagesAreSentByDefault() {
+		CoalescingNotificationService service = new CoalescingNotificationService(recorder, 0, TimeUnit.SECONDS);
+
+		service.sendMessage("a", "Standby", "cold");
+		service.sendMessage("a", "Standby", "cold");
+
+		assertEquals("[a:Standby, a:Standby]", sent.toString());
+		assertEquals(0, service.getDuplicateCount());
+	}
+
+	@Test
+	public void identicalMessagesAreSuppressed() {
+		CoalescingNotificationService service = new CoalescingNotificationService(recorder, 0, TimeUnit.SECONDS);
+		service.setDuplicateWindow(1, TimeUnit.HOURS);
+
+		service.sendMessage("a", "Error", "WEE:0002");
+		service.sendMessage("a", "Error", "WEE:0002");
+		service.sendMessage("b", "Error", "WEE:0002");
+		service.sendMessage("a", "Error", "WEE:0002 again");
+
+		assertEquals("[a:Error, b:Error, a:Error]", sent.toString());
+		assertEquals(1, service.getDuplicateCount());
+		assertEquals(4, service.getReceivedCount());
+		assertEquals(3, service.getDeliveredCount());
+	}
+
+	@Test
+	public void duplicateWindowExpires() throws Exception {
+		CoalescingNotificationService service = new CoalescingNotificationService(recorder, 0, TimeUnit.SECONDS);
+		service.setDuplicateWindow(50, TimeUnit.MILLISECONDS);
+
+		service.sendMessage("Error", "WEE:0002");
+		Thread.sleep(100);
+		service.sendMessage("Error", "WEE:0002");
+
+		assertEquals(2, sent.size());
+	}
+
+	@Test
+	public void windowFlushesOnItsOwn() throws Exception {
+		CoalescingNotificationService service = new CoalescingNotificationService(recorder, 100, TimeUnit.MILLISECONDS);
+
+		service.sendMessage("a", "Standby", "cold");
+		service.sendMessage("a", "Activating", "snow");
+
+		long deadline = System.currentTimeMillis() + 2_000;
+		while (sent.isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals("[a:Activating]", sent.toString());
+	}
+}
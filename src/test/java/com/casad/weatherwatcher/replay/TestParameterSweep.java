@@ -0,0 +1,98 @@
+package com.casad.weatherwatcher.replay;
+
+import static com.casad.weatherwatcher.TestWeatherSnapshot.createSnapshot;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+import com.casad.weatherwatcher.history.WeatherHistory;
+import com.casad.weatherwatcher.rules.RuleSet;
+
+public class TestParameterSweep {
+
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+	private static final long START = Instant.parse("2016-12-01T00:00:00Z").toEpochMilli();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void scoresMissedSnowAndHeaterHours() throws Exception {
+		try (WeatherHistory history = WeatherHistory.open(folder.getRoot().toPath())) {
+			// A day at 33F, then snow for 4 hours, then 44 hours clear at 33F
+			for (int hour = 0; hour < 72; hour++) {
+				boolean snow = hour >= 24 && hour < 28;
+				history.record("a", START + hour * HOUR, createSnapshot(33, snow ? "Snow" : "Clear", "Clear", "Clear", "Clear"),
+						RampState.IDLE);
+			}
+
+			ParameterSweep sweep = new ParameterSweep();
+			sweep.addGrid(new RuleSet(), new float[] { 30, 35 }, new float[] { 40 }, new long[] { 0, 12 },
+					TimeUnit.HOURS);
+			assertEquals(4, sweep.getRuleSetCount());
+
+			List<SweepResult> results = sweep.run(history, START, START + 72 * HOUR);
+
+			// Standby below 30F leaves the ramp idle when the snow arrives
+			assertEquals(1, results.get(0).getSnowEventCount());
+			assertEquals(1, results.get(0).getMissedSnowEventCount());
+			assertEquals(0, results.get(2).getMissedSnowEventCount());
+
+			// The cooldown keeps the heater on 12 hours longer
+			assertEquals(4, results.get(0).getHeaterOnHours(), 0);
+			assertEquals(16, results.get(1).getHeaterOnHours(), 0);
+			assertEquals(16, results.get(3).getHeaterOnHours(), 0);
+			assertEquals(71 - 16, results.get(3).getStandbyHours(), 0);
+		}
+	}
+
+	@Test
+	public void matchesReplayingEachSite() throws Exception {
+		try (WeatherHistory history = WeatherHistory.open(folder.getRoot().toPath())) {
+			for (int hour = 0; hour < 30 * 24; hour++) {
+				for (int site = 0; site < 20; site++) {
+					float temp = 20 + (hour * 7 + site * 13) % 30;
+					boolean snow = (hour / 24 + site) % 6 == 0 && hour % 24 < 5;
+					WeatherSnapshot weather = createSnapshot(temp, snow ? "Light Snow" : "Cloudy", "Clear", "Clear", "Clear");
+					history.record("site-" + site, START + hour * HOUR, weather, RampState.IDLE);
+				}
+			}
+
+			ParameterSweep sweep = new ParameterSweep();
+			RuleSet rules = new RuleSet();
+			rules.setReadyThreshold(32, 38);
+			rules.setDeactivationDelay(6 * HOUR);
+			sweep.addRuleSet(rules);
+			sweep.addGrid(new RuleSet(), new float[] { 25, 35 }, new float[] { 35, 45 }, new long[] { 0, 24 },
+					TimeUnit.HOURS);
+			sweep.setParallelism(4);
+			SweepResult swept = sweep.run(history, 0, Long.MAX_VALUE).get(0);
+
+			// The sweep makes the same decisions as the engine's tick
+			double activeHours = 0;
+			for (int site = 0; site < 20; site++) {
+				WeatherReplay replay = new WeatherReplay();
+				replay.setRuleSet(rules);
+				ReplayResult result = replay.run(WeatherFixture.fromHistory(history, "site-" + site, 0, Long.MAX_VALUE));
+				activeHours += result.getTimeIn(RampState.ACTIVE) / (double) HOUR;
+			}
+			assertEquals(20, swept.getSiteCount());
+			assertEquals(20 * 30 * 24, swept.getTickCount());
+			assertEquals(activeHours, swept.getHeaterOnHours(), 0);
+			assertTrue(activeHours > 0);
+
+			// Splitting the work differently gives the same totals
+			sweep.setParallelism(1);
+			assertEquals(swept.toString(), sweep.run(history, 0, Long.MAX_VALUE).get(0).toString());
+		}
+	}
+}
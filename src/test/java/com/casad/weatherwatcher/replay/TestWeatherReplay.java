@@ -0,0 +1,125 @@
+package com.casad.weatherwatcher.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.casad.weatherwatcher.ConditionCodes;
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+import com.casad.weatherwatcher.replay.ReplayResult.Transition;
+import com.casad.weatherwatcher.rules.RuleSet;
+
+public class TestWeatherReplay {
+
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+	private static final long START = Instant.parse("2016-12-01T00:00:00Z").toEpochMilli();
+
+	@Test
+	public void readsFixtures() throws Exception {
+		List<WeatherFixture> fixtures = WeatherFixture.read(new StringReader(
+				"# time, temperature, current, period 1, period 2, period 3\n"
+				+ "2016-12-14T06:00:00Z,28,Light Snow,Snow,Cloudy,Clear\n"
+				+ "\n"
+				+ "1481716800000,33.5,Clear,,Cloudy,\n"));
+
+		assertEquals(2, fixtures.size());
+		assertEquals(Instant.parse("2016-12-14T06:00:00Z").toEpochMilli(), fixtures.get(0).getTimestamp());
+		WeatherSnapshot first = WeatherSnapshot.from(fixtures.get(0).getResponse());
+		assertEquals("Light Snow", first.getCurrentConditions());
+		assertEquals("Clear", first.getPeriodConditions(3));
+
+		WeatherSnapshot second = WeatherSnapshot.from(fixtures.get(1).getResponse());
+		assertEquals(1481716800000L, fixtures.get(1).getTimestamp());
+		assertEquals(33.5f, second.getTempF(), 0);
+		assertEquals(ConditionCodes.NONE, second.getPeriodCode(1));
+	}
+
+	@Test
+	public void virtualClockInAnotherZone() {
+		VirtualClock clock = new VirtualClock(START);
+		VirtualClock central = clock.withZone(ZoneId.of("America/Chicago"));
+
+		assertEquals(ZoneId.of("America/Chicago"), central.getZone());
+		clock.advance(2, TimeUnit.HOURS);
+		assertEquals(START + 2 * HOUR, central.millis());
+		central.advance(1, TimeUnit.HOURS);
+		assertEquals(START + 3 * HOUR, clock.millis());
+		assertEquals(21, central.instant().atZone(central.getZone()).getHour());
+	}
+
+	@Test
+	public void cooldownRunsOnTheVirtualClock() {
+		List<WeatherFixture> fixtures = new ArrayList<>();
+		for (int hour = 0; hour < 72; hour++) {
+			// Cold from hour 10, snowing for hours 20 to 25
+			float temp = hour < 10 ? 50 : 20;
+			String current = hour >= 20 && hour < 26 ? "Snow" : "Clear";
+			fixtures.add(hourly(hour, temp, current));
+		}
+
+		WeatherReplay replay = new WeatherReplay();
+		RuleSet rules = new RuleSet();
+		rules.setDeactivationDelay(24 * HOUR);
+		replay.setRuleSet(rules);
+		ReplayResult result = replay.run(fixtures);
+
+		List<Transition> transitions = result.getTransitions();
+		assertEquals(3, transitions.size());
+		assertTransition(transitions.get(0), 10, RampState.IDLE, RampState.READY);
+		assertTransition(transitions.get(1), 20, RampState.READY, RampState.ACTIVE);
+		// The snow stops at hour 26, the ramp keeps heating for another day
+		assertTransition(transitions.get(2), 50, RampState.ACTIVE, RampState.READY);
+
+		assertEquals(72, result.getTickCount());
+		assertEquals(71 * HOUR, result.getReplayedMillis());
+		assertEquals(30 * HOUR, result.getTimeIn(RampState.ACTIVE));
+		assertEquals(10 * HOUR, result.getTimeIn(RampState.IDLE));
+		assertTrue(result.getNotificationCount() >= transitions.size());
+	}
+
+	@Test
+	public void seasonReplaysInSeconds() throws Exception {
+		List<WeatherFixture> fixtures = new ArrayList<>();
+		for (int hour = 0; hour < 150 * 24; hour++) {
+			long day = hour / 24;
+			float temp = 20 + (day * 7 + hour) % 30;
+			String current = day % 9 == 0 && hour % 24 < 6 ? "Heavy Snow" : "Partly Cloudy";
+			fixtures.add(hourly(hour, temp, current));
+		}
+
+		WeatherReplay replay = new WeatherReplay();
+		RuleSet rules = new RuleSet();
+		rules.setDeactivationDelay(24 * HOUR);
+		replay.setRuleSet(rules);
+		ReplayResult result = replay.run(fixtures);
+
+		StringWriter timeline = new StringWriter();
+		result.writeTimeline(timeline);
+
+		assertEquals(150 * 24, result.getTickCount());
+		assertTrue(result.getElapsedNanos() < TimeUnit.SECONDS.toNanos(10));
+		assertEquals(17, result.getTransitions().stream().filter(t -> t.getTo() == RampState.ACTIVE).count());
+		assertEquals(result.getTransitions().size() + 1, timeline.toString().split("\n").length);
+	}
+
+	private static void assertTransition(Transition transition, int hour, RampState from, RampState to) {
+		assertEquals(START + hour * HOUR, transition.getTime());
+		assertEquals(from, transition.getFrom());
+		assertEquals(to, transition.getTo());
+	}
+
+	private static WeatherFixture hourly(int hour, float temp, String current) {
+		return new WeatherFixture(START + hour * HOUR,
+				WeatherFixture.createResponse(temp, current, "Clear", "Clear", "Clear"));
+	}
+}
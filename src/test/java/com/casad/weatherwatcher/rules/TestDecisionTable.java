@@ -0,0 +1,201 @@
+package com.casad.weatherwatcher.rules;
+
+import static com.casad.weatherwatcher.TestWeatherSnapshot.createSnapshot;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+import com.casad.weatherwatcher.rules.DecisionTable.Message;
+
+public class TestDecisionTable {
+
+	private static final long NOW = 1_000_000;
+	private static final long DELAY = 5_000;
+
+	private static final String[] CONDITIONS = { "Clear", "Light Snow", "Overcast", null };
+	private static final float[] TEMPERATURES = { -10, 34.9f, 35, 37, 40, 40.1f, 72 };
+	private static final long[] DEACTIVATE_TIMES = { 0, 1, NOW - 1, NOW, NOW + 1 };
+
+	/**
+	 * The default rules must make exactly the same decision as the original
+	 * if/else chain for every combination of inputs.
+	 */
+	@Test
+	public void defaultRulesMatchOriginalEngine() {
+		for (long delay : new long[] { 0, DELAY }) {
+			RuleSet rules = new RuleSet();
+			rules.setDeactivationDelay(delay);
+			DecisionTable table = rules.compile();
+
+			for (String current : CONDITIONS) {
+				for (String period1 : CONDITIONS) {
+					for (float temp : TEMPERATURES) {
+						for (RampState state : RampState.values()) {
+							for (long deactivateTime : DEACTIVATE_TIMES) {
+								WeatherSnapshot snapshot = createSnapshot(temp, current, period1, "Snow", "Snow");
+								int action = table.evaluate(snapshot, state, deactivateTime, NOW);
+								Expected expected = original(snapshot, state, deactivateTime, delay);
+								String description = current + "/" + period1 + " " + temp + "F " + state + " deactivateTime=" + deactivateTime + " delay=" + delay;
+
+								assertEquals(description, expected.state, DecisionTable.targetState(action));
+								assertEquals(description, expected.message, DecisionTable.message(action));
+								assertEquals(description, expected.cooldown, DecisionTable.cooldownOperation(action));
+								assertEquals(description, expected.coolingDown, DecisionTable.isCoolingDown(action));
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void snowLookahead() {
+		WeatherSnapshot snowInPeriod3 = createSnapshot(30, "Clear", "Clear", "Clear", "Snow Showers");
+
+		RuleSet rules = new RuleSet();
+		assertFalse(rules.compile().isSnow(snowInPeriod3));
+		assertTrue(rules.compile().isSnowForecast(snowInPeriod3));
+
+		rules.setSnowLookahead(3);
+		assertTrue(rules.compile().isSnow(snowInPeriod3));
+
+		rules.setSnowLookahead(0);
+		assertFalse(rules.compile().isSnow(createSnapshot(30, "Clear", "Snow", "Clear", "Clear")));
+		assertTrue(rules.compile().isSnow(createSnapshot(30, "Snow", "Clear", "Clear", "Clear")));
+	}
+
+	@Test
+	public void snowKeywords() {
+		WeatherSnapshot sleet = createSnapshot(30, "Sleet", "Clear", "Clear", "Clear");
+		WeatherSnapshot freezingRain = createSnapshot(30, "Clear", "Light Freezing Rain", "Clear", "Clear");
+
+		DecisionTable defaults = new RuleSet().compile();
+		assertFalse(defaults.isSnow(sleet));
+		assertFalse(defaults.isSnow(freezingRain));
+
+		RuleSet rules = new RuleSet();
+		rules.setSnowKeywords("Snow", "sleet", "Freezing Rain");
+		DecisionTable table = rules.compile();
+		assertTrue(table.isSnow(sleet));
+		assertTrue(table.isSnow(freezingRain));
+		assertTrue(table.isSnowForecast(createSnapshot(30, "Clear", "Clear", "Clear", "Sleet")));
+		assertFalse(defaults.isSnowForecast(createSnapshot(30, "Clear", "Clear", "Clear", "Sleet")));
+		assertEquals(RampState.ACTIVE, DecisionTable.targetState(table.evaluate(sleet, RampState.IDLE, 1, NOW)));
+
+		// Conditions first seen after the table was compiled
+		assertTrue(table.isSnow(createSnapshot(30, "Ice Pellets and Sleet " + System.nanoTime(), "Clear", "Clear", "Clear")));
+	}
+
+	@Test
+	public void fromProperties() {
+		Properties prop = new Properties();
+		prop.setProperty("rules.snowKeywords", "Snow, Sleet");
+		prop.setProperty("rules.readyActivateThreshold", "33");
+		prop.setProperty("rules.site1.readyDeactivateThreshold", "45.5");
+		prop.setProperty("rules.site1.snowLookahead", "2");
+		prop.setProperty("rules.site1.cooldownMinutes", "90");
+
+		RuleSet site1 = new RuleSet().apply(prop, "rules.").apply(prop, "rules.site1.");
+		RuleSet site2 = new RuleSet().apply(prop, "rules.").apply(prop, "rules.site2.");
+
+		assertEquals(2, site1.getSnowLookahead());
+		assertEquals(2, site1.getSnowKeywords().size());
+		assertEquals(33, site1.getReadyActivateThreshold(), 0);
+		assertEquals(45.5, site1.getReadyDeactivateThreshold(), 0);
+		assertEquals(TimeUnit.MINUTES.toMillis(90), site1.getDeactivationDelay());
+
+		assertEquals(1, site2.getSnowLookahead());
+		assertEquals(40, site2.getReadyDeactivateThreshold(), 0);
+		assertEquals(0, site2.getDeactivationDelay());
+	}
+
+	@Test
+	public void evaluationThroughput() {
+		DecisionTable table = new RuleSet().compile();
+		WeatherSnapshot[] snapshots = new WeatherSnapshot[TEMPERATURES.length * CONDITIONS.length];
+		for (int i = 0; i < snapshots.length; i++) {
+			snapshots[i] = createSnapshot(TEMPERATURES[i % TEMPERATURES.length], CONDITIONS[i % CONDITIONS.length], "Clear", "Clear", "Clear");
+		}
+		RampState[] states = RampState.values();
+
+		final int evaluations = 1_000_000;
+		long start = System.nanoTime();
+		int checksum = 0;
+		for (int i = 0; i < evaluations; i++) {
+			checksum += table.evaluate(snapshots[i % snapshots.length], states[i % states.length], 1, NOW);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		// 10k sites a second on one core needs 100us each, this is far below
+		assertTrue(checksum != 0);
+		assertTrue("Took " + elapsed + "ns", elapsed < TimeUnit.SECONDS.toNanos(1));
+	}
+
+	@Test
+	public void invalidLookahead() {
+		boolean caughtException = false;
+		try {
+			new RuleSet().setSnowLookahead(4);
+		} catch (IllegalArgumentException e) {
+			caughtException = true;
+		}
+		assertTrue(caughtException);
+		assertNull(DecisionTable.targetState(0));
+	}
+
+	private static class Expected {
+		RampState state = null;
+		Message message = null;
+		int cooldown = DecisionTable.KEEP_COOLDOWN;
+		boolean coolingDown = false;
+	}
+
+	/**
+	 * The transition logic as it was originally written in the engine.
+	 */
+	private static Expected original(WeatherSnapshot snapshot, RampState state, long deactivateTime, long deactivateDelay) {
+		Expected expected = new Expected();
+		String current = snapshot.getCurrentConditions();
+		String period1 = snapshot.getPeriodConditions(1);
+		boolean snow = (current != null && current.toUpperCase().contains("SNOW"))
+				|| (period1 != null && period1.toUpperCase().contains("SNOW"));
+		float temp = snapshot.getTempF();
+
+		if (snow) {
+			if (RampState.ACTIVE != state) {
+				expected.state = RampState.ACTIVE;
+				expected.message = Message.ACTIVATING;
+			}
+			expected.cooldown = DecisionTable.CLEAR_COOLDOWN;
+		} else if (deactivateTime == 0 && deactivateDelay != 0) {
+			expected.message = Message.SNOW_STOPPED;
+			expected.cooldown = DecisionTable.START_COOLDOWN;
+		} else if (deactivateTime > NOW) {
+			expected.coolingDown = true;
+		} else if (temp < 35) {
+			if (RampState.READY != state) {
+				expected.state = RampState.READY;
+				expected.message = Message.COLD_STANDBY;
+			}
+		} else if (temp > 40) {
+			if (RampState.IDLE != state) {
+				expected.state = RampState.IDLE;
+				expected.message = Message.WARM_SHUTDOWN;
+			}
+		} else if (state == RampState.ACTIVE) {
+			expected.state = RampState.READY;
+			expected.message = Message.SNOW_CLEARED_STANDBY;
+		}
+
+		return expected;
+	}
+}
@@ -0,0 +1,33 @@
+package com.casad.weatherwatcher.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.LocationWeatherService;
+import com.casad.weatherwatcher.TestWeatherEventEngine;
+import com.casad.weatherwatcher.WeatherSnapshot;
+
+/**
+ * An upstream that, like the streaming Wunderground service, reads snapshots
+ * without building a report. Asking it for a report fails the test.
+ */
+class SnapshotStandIn implements LocationWeatherService {
+	final AtomicInteger snapshots = new AtomicInteger();
+	volatile boolean failing = false;
+
+	private final WeatherResponse weather = TestWeatherEventEngine.createWeatherResponse("Snow", 20, "Snow", "Snow", "Clear", "Clear");
+
+	@Override
+	public WeatherResponse getWeatherReport(String location) {
+		throw new AssertionError("Asked for a report rather than a snapshot");
+	}
+
+	@Override
+	public WeatherSnapshot getSnapshot(String location, WeatherSnapshot previous) {
+		snapshots.incrementAndGet();
+		if (failing) {
+			throw new IllegalStateException("Upstream is down");
+		}
+		return WeatherSnapshot.from(weather, previous);
+	}
+}
@@ -0,0 +1,207 @@
+package com.casad.weatherwatcher.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.LocationWeatherService;
+import com.casad.weatherwatcher.TestWeatherEventEngine;
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.WeatherService;
+import com.casad.weatherwatcher.rules.RuleSet;
+
+public class TestCachingWeatherService {
+
+	@Test
+	public void hitAndMiss() {
+		CountingWeatherService upstream = new CountingWeatherService(0);
+		CachingWeatherService cache = new CachingWeatherService(upstream, 1, TimeUnit.HOURS, 10);
+
+		WeatherResponse first = cache.getWeatherReport("12345");
+		WeatherResponse second = cache.forLocation("12345").getWeatherReport();
+		cache.getWeatherReport("54321");
+
+		assertSame(first, second);
+		assertEquals(2, upstream.queries.get());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(2, cache.getLoadCount());
+	}
+
+	@Test
+	public void expiry() throws Exception {
+		CountingWeatherService upstream = new CountingWeatherService(0);
+		CachingWeatherService cache = new CachingWeatherService(upstream, 50, TimeUnit.MILLISECONDS, 10);
+
+		WeatherResponse first = cache.getWeatherReport("12345");
+		Thread.sleep(100);
+		WeatherResponse second = cache.getWeatherReport("12345");
+
+		assertNotSame(first, second);
+		assertEquals(2, upstream.queries.get());
+	}
+
+	@Test
+	public void concurrentMissesAreCollapsed() throws Exception {
+		CountingWeatherService upstream = new CountingWeatherService(200);
+		CachingWeatherService cache = new CachingWeatherService(upstream, 1, TimeUnit.HOURS, 10);
+
+		final int threadCount = 20;
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		List<WeatherResponse> results = new ArrayList<>();
+		for (int i = 0; i < threadCount; i++) {
+			Thread t = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				WeatherResponse r = cache.getWeatherReport("12345");
+				synchronized (results) {
+					results.add(r);
+				}
+			});
+			t.start();
+			threads.add(t);
+		}
+
+		start.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		assertEquals(1, upstream.queries.get());
+		assertEquals(threadCount, results.size());
+		for (WeatherResponse r : results) {
+			assertSame(results.get(0), r);
+		}
+	}
+
+	@Test
+	public void leastRecentlyUsedEviction() {
+		CountingWeatherService upstream = new CountingWeatherService(0);
+		CachingWeatherService cache = new CachingWeatherService(upstream, 1, TimeUnit.HOURS, 2);
+
+		cache.getWeatherReport("a");
+		cache.getWeatherReport("b");
+		cache.getWeatherReport("a");
+		cache.getWeatherReport("c");	// evicts b
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+
+		cache.getWeatherReport("a");
+		assertEquals(3, upstream.queries.get());
+		cache.getWeatherReport("b");
+		assertEquals(4, upstream.queries.get());
+	}
+
+	@Test
+	public void failuresAreNotCached() {
+		AtomicInteger calls = new AtomicInteger();
+		WeatherResponse report = TestWeatherEventEngine.createWeatherResponse("Clear", 72, "Clear", "Clear", "Clear", "Clear");
+		CachingWeatherService cache = new CachingWeatherService(location -> {
+			if (calls.incrementAndGet() == 1) {
+				throw new IllegalStateException("Upstream unavailable");
+			}
+			return report;
+		}, 1, TimeUnit.HOURS, 10);
+
+		boolean caughtException = false;
+		try {
+			cache.getWeatherReport("12345");
+		} catch (IllegalStateException e) {
+			caughtException = true;
+		}
+
+		assertTrue(caughtException);
+		assertSame(report, cache.getWeatherReport("12345"));
+		assertEquals(1, cache.getLoadFailureCount());
+	}
+
+	@Test
+	public void refreshAhead() throws Exception {
+		CountingWeatherService upstream = new CountingWeatherService(0);
+		CachingWeatherService cache = new CachingWeatherService(upstream, 400, TimeUnit.MILLISECONDS, 10);
+		cache.setRefreshAhead(300, TimeUnit.MILLISECONDS);
+
+		WeatherResponse first = cache.getWeatherReport("12345");
+		Thread.sleep(150);
+
+		// Inside the refresh window - served from cache while a reload runs
+		assertSame(first, cache.getWeatherReport("12345"));
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (cache.getRefreshCount() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		assertEquals(1, cache.getRefreshCount());
+		assertEquals(2, upstream.queries.get());
+		assertNotSame(first, cache.getWeatherReport("12345"));
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void snapshotsComeFromTheUpstreamSnapshot() {
+		SnapshotStandIn upstream = new SnapshotStandIn();
+		CachingWeatherService cache = new CachingWeatherService(upstream, 1, TimeUnit.HOURS, 10);
+
+		WeatherService weather = cache.forLocation("12345");
+		WeatherSnapshot first = weather.getSnapshot(null);
+		assertTrue(new RuleSet().compile().isSnow(first));
+		assertSame(first, weather.getSnapshot(first));
+		assertEquals(first, weather.getSnapshot(null));
+
+		assertEquals(1, upstream.snapshots.get());
+		assertEquals(2, cache.getHitCount());
+	}
+
+	/**
+	 * The services stacked as the watcher stacks them still read snapshots
+	 * straight from the weather service.
+	 */
+	@Test
+	public void snapshotsPassThroughEveryLayer() {
+		SnapshotStandIn primary = new SnapshotStandIn();
+		SnapshotStandIn secondary = new SnapshotStandIn();
+		ResilientWeatherService resilient = new ResilientWeatherService(new HedgedWeatherService(primary, secondary));
+		CachingWeatherService cache = new CachingWeatherService(resilient, 1, TimeUnit.HOURS, 10);
+
+		assertTrue(new RuleSet().compile().isSnow(cache.forLocation("12345").getSnapshot(null)));
+		assertTrue(new RuleSet().compile().isSnow(resilient.forLocation("12345").getSnapshot(null)));
+		assertEquals(2, primary.snapshots.get());
+	}
+
+	private static class CountingWeatherService implements LocationWeatherService {
+		private final AtomicInteger queries = new AtomicInteger();
+		private final long latency;
+
+		CountingWeatherService(long latency) {
+			this.latency = latency;
+		}
+
+		@Override
+		public WeatherResponse getWeatherReport(String location) {
+			queries.incrementAndGet();
+			if (latency > 0) {
+				try {
+					Thread.sleep(latency);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return TestWeatherEventEngine.createWeatherResponse("Clear", 72, "Clear", "Clear", "Clear", "Clear");
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package com.casad.weatherwatcher.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntToLongFunction;
+
+import org.junit.Test;
+
+import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.LocationWeatherService;
+import com.casad.weatherwatcher.TestWeatherEventEngine;
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.rules.RuleSet;
+
+public class TestHedgedWeatherService {
+
+	@Test
+	public void fastPrimaryIsNotHedged() {
+		StandIn primary = new StandIn(query -> 0);
+		StandIn secondary = new StandIn(query -> 0);
+		HedgedWeatherService hedged = new HedgedWeatherService(primary, secondary);
+
+		for (int i = 0; i < 10; i++) {
+			assertSame(primary.response, hedged.getWeatherReport("12345"));
+		}
+		assertEquals(0, hedged.getHedgeCount());
+		assertEquals(0, secondary.queries.get());
+		assertEquals(10, hedged.getLatency().getCount());
+	}
+
+	@Test
+	public void snapshotsAreHedged() {
+		SnapshotStandIn primary = new SnapshotStandIn();
+		SnapshotStandIn secondary = new SnapshotStandIn();
+		primary.failing = true;
+		HedgedWeatherService hedged = new HedgedWeatherService(primary, secondary);
+
+		WeatherSnapshot snapshot = hedged.getSnapshot("12345", null);
+
+		assertTrue(new RuleSet().compile().isSnow(snapshot));
+		assertSame(snapshot, hedged.getSnapshot("12345", snapshot));
+		assertEquals(2, secondary.snapshots.get());
+		assertEquals(2, hedged.getFailoverCount());
+	}
+
+	@Test
+	public void slowPrimaryIsHedgedAndCancelled() {
+		StandIn primary = new StandIn(query -> 2_000);
+		StandIn secondary = new StandIn(query -> 0);
+		HedgedWeatherService hedged = new HedgedWeatherService(primary, secondary);
+		hedged.setHedgeDelay(95, 10, 50, TimeUnit.MILLISECONDS);
+
+		long start = System.nanoTime();
+		assertSame(secondary.response, hedged.getWeatherReport("12345"));
+		long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("Took " + took + "ms", took < 1_000);
+
+		assertEquals(1, hedged.getHedgeCount());
+		assertEquals(1, hedged.getSecondaryWinCount());
+		waitFor(() -> primary.interrupted.get() == 1);
+	}
+
+	@Test
+	public void failedPrimaryFailsOver() {
+		StandIn primary = new StandIn(query -> -1);
+		StandIn secondary = new StandIn(query -> 0);
+		HedgedWeatherService hedged = new HedgedWeatherService(primary, secondary);
+
+		long start = System.nanoTime();
+		assertSame(secondary.response, hedged.getWeatherReport("12345"));
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+		assertEquals(1, hedged.getFailoverCount());
+		assertEquals(0, hedged.getHedgeCount());
+	}
+
+	@Test
+	public void bothFailingReportsThePrimary() {
+		HedgedWeatherService hedged = new HedgedWeatherService(new StandIn(query -> -1), location -> {
+			throw new IllegalStateException("secondary");
+		});
+		try {
+			hedged.getWeatherReport("12345");
+			fail();
+		} catch (RuntimeException e) {
+			assertEquals("primary", e.getMessage());
+		}
+		assertEquals(1, hedged.getFailureCount());
+	}
+
+	@Test
+	public void delayFollowsThePrimaryPercentile() {
+		// One query in 20 is slow, the rest take 5ms
+		StandIn primary = new StandIn(query -> query % 20 == 19 ? 1_000 : 5);
+		StandIn secondary = new StandIn(query -> 5);
+		HedgedWeatherService hedged = new HedgedWeatherService(primary, secondary);
+		hedged.setHedgeDelay(90, 1, 500, TimeUnit.MILLISECONDS);
+
+		for (int i = 0; i < 200; i++) {
+			hedged.getWeatherReport("12345");
+		}
+
+		long delay = hedged.getHedgeDelay(TimeUnit.MILLISECONDS);
+		assertTrue("Hedge delay " + delay + "ms", delay >= 5 && delay < 100);
+		// The slow queries are hedged well before they would have answered
+		assertTrue(hedged.toString(), hedged.getHedgeRate() >= 0.04 && hedged.getHedgeRate() < 0.25);
+		assertTrue(hedged.toString(), hedged.getLatency().getPercentile(99, TimeUnit.MILLISECONDS) < 500);
+	}
+
+	private static void waitFor(BooleanSupplier condition) {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean()) {
+			if (System.nanoTime() > deadline) {
+				fail("Timed out");
+			}
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * A provider that takes as long as it is told to for each query, or
+	 * fails when told -1.
+	 */
+	static class StandIn implements LocationWeatherService {
+		final WeatherResponse response = TestWeatherEventEngine.createWeatherResponse("Clear", 72, "Clear", "Clear",
+				"Clear", "Clear");
+		final AtomicInteger queries = new AtomicInteger();
+		final AtomicInteger interrupted = new AtomicInteger();
+		private final IntToLongFunction delayMillis;
+
+		StandIn(IntToLongFunction delayMillis) {
+			this.delayMillis = delayMillis;
+		}
+
+		@Override
+		public WeatherResponse getWeatherReport(String location) {
+			long delay = delayMillis.applyAsLong(queries.getAndIncrement());
+			if (delay < 0) {
+				throw new IllegalStateException("primary");
+			}
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				interrupted.incrementAndGet();
+				throw new RuntimeException(e);
+			}
+			return response;
+		}
+	}
+}
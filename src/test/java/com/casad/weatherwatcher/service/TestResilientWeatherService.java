@@ -0,0 +1,176 @@
+package com.casad.weatherwatcher.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Test;
+
+import com.amphibian.weather.response.WeatherResponse;
+import com.casad.weatherwatcher.LocationWeatherService;
+import com.casad.weatherwatcher.TestWeatherEventEngine;
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.service.ResilientWeatherService.CircuitState;
+
+public class TestResilientWeatherService {
+
+	@Test
+	public void servesLastGoodReportWhenFailing() throws Exception {
+		FlakyWeatherService upstream = new FlakyWeatherService();
+		ResilientWeatherService service = new ResilientWeatherService(upstream);
+		service.setCircuitBreaker(2, 1, TimeUnit.HOURS);
+
+		WeatherResponse good = service.getWeatherReport("12345");
+		assertEquals(0, service.getAge("12345", TimeUnit.MILLISECONDS));
+
+		upstream.failing = true;
+		Thread.sleep(20);
+		assertSame(good, service.getWeatherReport("12345"));
+		assertTrue(service.getAge("12345", TimeUnit.MILLISECONDS) >= 20);
+		assertSame(good, service.getWeatherReport("12345"));
+		assertEquals(CircuitState.OPEN, service.getCircuitState());
+
+		// Open, so the upstream is left alone
+		int queries = upstream.queries.get();
+		for (int i = 0; i < 10; i++) {
+			assertSame(good, service.getWeatherReport("12345"));
+		}
+		assertEquals(queries, upstream.queries.get());
+		assertEquals(1, service.getTripCount());
+		assertEquals(12, service.getStaleServedCount());
+	}
+
+	@Test
+	public void servesLastGoodSnapshotWhenFailing() {
+		SnapshotStandIn upstream = new SnapshotStandIn();
+		ResilientWeatherService service = new ResilientWeatherService(upstream);
+
+		WeatherSnapshot good = service.getSnapshot("12345", null);
+		upstream.failing = true;
+
+		assertSame(good, service.getSnapshot("12345", good));
+		assertEquals(good, service.getSnapshot("12345", null));
+		assertEquals(2, service.getStaleServedCount());
+	}
+
+	@Test
+	public void timesOutHangingQueries() {
+		FlakyWeatherService upstream = new FlakyWeatherService();
+		ResilientWeatherService service = new ResilientWeatherService(upstream);
+		service.setTimeout(50, TimeUnit.MILLISECONDS);
+		service.setSlowCallThreshold(20, TimeUnit.MILLISECONDS);
+		service.setCircuitBreaker(1, 1, TimeUnit.HOURS);
+
+		WeatherResponse good = service.getWeatherReport("12345");
+		upstream.delayMillis = 2_000;
+		long start = System.nanoTime();
+		assertSame(good, service.getWeatherReport("12345"));
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+		assertEquals(1, service.getTimeoutCount());
+		assertEquals(CircuitState.OPEN, service.getCircuitState());
+
+		// The query carried on and its report is kept. The circuit is open,
+		// so asking again serves the kept report without a query.
+		waitFor(() -> service.getWeatherReport("12345") != good);
+		assertEquals(2, upstream.queries.get());
+		assertEquals(1, service.getSlowCallCount());
+	}
+
+	@Test
+	public void probeClosesTheCircuit() throws Exception {
+		FlakyWeatherService upstream = new FlakyWeatherService();
+		ResilientWeatherService service = new ResilientWeatherService(upstream);
+		service.setCircuitBreaker(1, 50, TimeUnit.MILLISECONDS);
+
+		WeatherResponse good = service.getWeatherReport("12345");
+		upstream.failing = true;
+		assertSame(good, service.getWeatherReport("12345"));
+		assertEquals(CircuitState.OPEN, service.getCircuitState());
+
+		// Still failing, the probe opens it again
+		Thread.sleep(60);
+		assertSame(good, service.getWeatherReport("12345"));
+		waitFor(() -> service.getCircuitState() == CircuitState.OPEN && upstream.queries.get() == 3);
+
+		// Slow enough that the probe cannot answer before the query does
+		upstream.failing = false;
+		upstream.delayMillis = 20;
+		Thread.sleep(60);
+		assertSame(good, service.getWeatherReport("12345"));
+		waitFor(() -> service.getCircuitState() == CircuitState.CLOSED);
+		upstream.delayMillis = 0;
+		assertEquals(2, service.getProbeCount());
+
+		WeatherResponse fresh = service.getWeatherReport("12345");
+		assertNotSame(good, fresh);
+		assertEquals(0, service.getAge("12345", TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void failsOnceTooStale() throws Exception {
+		FlakyWeatherService upstream = new FlakyWeatherService();
+		ResilientWeatherService service = new ResilientWeatherService(upstream);
+		service.setMaxStaleness(30, TimeUnit.MILLISECONDS);
+
+		service.getWeatherReport("12345");
+		upstream.failing = true;
+		service.getWeatherReport("12345");
+		Thread.sleep(50);
+		try {
+			service.getWeatherReport("12345");
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("No weather for 12345 in the last"));
+		}
+		assertEquals(1, service.getTooStaleCount());
+	}
+
+	@Test
+	public void failsWithoutAGoodReport() {
+		FlakyWeatherService upstream = new FlakyWeatherService();
+		upstream.failing = true;
+		ResilientWeatherService service = new ResilientWeatherService(upstream);
+		try {
+			service.getWeatherReport("12345");
+			fail();
+		} catch (RuntimeException e) {
+			assertEquals("Upstream is down", e.getMessage());
+		}
+	}
+
+	private static void waitFor(BooleanSupplier condition) {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean()) {
+			if (System.nanoTime() > deadline) {
+				fail("Timed out");
+			}
+			Thread.yield();
+		}
+	}
+
+	private static class FlakyWeatherService implements LocationWeatherService {
+		final AtomicInteger queries = new AtomicInteger();
+		volatile boolean failing = false;
+		volatile long delayMillis = 0;
+
+		@Override
+		public WeatherResponse getWeatherReport(String location) {
+			queries.incrementAndGet();
+			try {
+				Thread.sleep(delayMillis);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			if (failing) {
+				throw new IllegalStateException("Upstream is down");
+			}
+			return TestWeatherEventEngine.createWeatherResponse("Clear", 72, "Clear", "Clear", "Clear", "Clear");
+		}
+	}
+}
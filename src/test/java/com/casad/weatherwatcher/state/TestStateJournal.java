@@ -0,0 +1,172 @@
+package com.casad.weatherwatcher.state;
+
+import static com.casad.weatherwatcher.TestWeatherSnapshot.createSnapshot;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.casad.weatherwatcher.TestWeatherEventEngine;
+import com.casad.weatherwatcher.WeatherSite;
+import com.casad.weatherwatcher.WeatherSnapshot;
+import com.casad.weatherwatcher.controller.RampController;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+
+public class TestStateJournal {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void recoversLatestState() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("journal");
+		WeatherSnapshot snow = createSnapshot(28, "Heavy Snow", "Snow", "Cloudy", null);
+
+		try (StateJournal journal = StateJournal.open(file)) {
+			journal.record("a", RampState.READY, 1, null);
+			journal.record("a", RampState.ACTIVE, 0, snow);
+			journal.record("b", RampState.IDLE, 1, createSnapshot(70, "Clear", "Clear", "Clear", "Clear"));
+		}
+
+		try (StateJournal journal = StateJournal.open(file)) {
+			assertEquals(2, journal.getStates().size());
+			SiteState a = journal.getState("a");
+			assertEquals(RampState.ACTIVE, a.getState());
+			assertEquals(0, a.getDeactivateTime());
+			assertEquals(snow, a.getSnapshot());
+			assertEquals("Heavy Snow", a.getSnapshot().getCurrentConditions());
+			assertNull(a.getSnapshot().getPeriodConditions(3));
+			assertEquals(RampState.IDLE, journal.getState("b").getState());
+		}
+	}
+
+	@Test
+	public void unchangedStateIsNotWritten() throws Exception {
+		try (StateJournal journal = StateJournal.open(folder.getRoot().toPath().resolve("journal"))) {
+			WeatherSnapshot clear = createSnapshot(70, "Clear", "Clear", "Clear", "Clear");
+			journal.record("a", RampState.IDLE, 1, clear);
+			int size = journal.size();
+
+			journal.record("a", RampState.IDLE, 1, createSnapshot(70, "Clear", "Clear", "Clear", "Clear"));
+			assertEquals(size, journal.size());
+
+			journal.record("a", RampState.IDLE, 1, createSnapshot(71, "Clear", "Clear", "Clear", "Clear"));
+			assertTrue(journal.size() > size);
+		}
+	}
+
+	@Test
+	public void damagedTailIsIgnored() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("journal");
+		int end;
+		try (StateJournal journal = StateJournal.open(file)) {
+			journal.record("a", RampState.READY, 1, null);
+			end = journal.size();
+			journal.record("a", RampState.ACTIVE, 0, null);
+		}
+
+		// Corrupt the last record as if the process died while writing it
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+			raf.seek(end + 12);
+			raf.write(0xff);
+		}
+
+		try (StateJournal journal = StateJournal.open(file)) {
+			assertEquals(RampState.READY, journal.getState("a").getState());
+			journal.record("a", RampState.IDLE, 1, null);
+		}
+		try (StateJournal journal = StateJournal.open(file)) {
+			assertEquals(RampState.IDLE, journal.getState("a").getState());
+		}
+	}
+
+	@Test
+	public void compactsWhenFull() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("journal");
+		try (StateJournal journal = StateJournal.open(file, 4096)) {
+			for (int i = 0; i < 10_000; i++) {
+				journal.record("site-" + (i % 10), RampState.values()[i % 3], i, createSnapshot(i % 100, "Clear", "Snow", "Clear", "Clear"));
+			}
+			assertTrue(journal.getCompactionCount() > 1);
+			assertTrue(journal.size() <= 4096);
+		}
+
+		try (StateJournal journal = StateJournal.open(file, 4096)) {
+			assertEquals(10, journal.getStates().size());
+			SiteState last = journal.getState("site-9");
+			assertEquals(9_999, last.getDeactivateTime());
+			assertEquals(RampState.values()[9_999 % 3], last.getState());
+			assertEquals(99f, last.getSnapshot().getTempF(), 0);
+		}
+		assertFalse(Files.exists(file.resolveSibling("journal.compact")));
+	}
+
+	@Test
+	public void thousandsOfSitesRecoverQuickly() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("journal");
+		final int sites = 10_000;
+		try (StateJournal journal = StateJournal.open(file)) {
+			for (int i = 0; i < sites; i++) {
+				journal.record("site-" + i, RampState.READY, 1, createSnapshot(30, "Cloudy", "Light Snow", "Clear", "Clear"));
+				journal.record("site-" + i, RampState.ACTIVE, 0, createSnapshot(28, "Light Snow", "Light Snow", "Clear", "Clear"));
+			}
+		}
+
+		long start = System.nanoTime();
+		try (StateJournal journal = StateJournal.open(file)) {
+			long elapsed = System.nanoTime() - start;
+			assertEquals(sites, journal.getStates().size());
+			assertEquals(RampState.ACTIVE, journal.getState("site-1234").getState());
+			assertTrue("Took " + elapsed + "ns", elapsed < TimeUnit.SECONDS.toNanos(2));
+		}
+	}
+
+	@Test
+	public void siteRestoresWithoutFetchingWeather() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("journal");
+		long cooldownEnds = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(20);
+
+		try (StateJournal journal = StateJournal.open(file)) {
+			WeatherSite site = new WeatherSite("garage",
+					() -> TestWeatherEventEngine.createWeatherResponse("Light Snow", 25, "Clear", "Clear", "Clear", "Clear"),
+					new RampController(() -> {}, () -> {}, () -> {}), (subject, message) -> {});
+			site.setStateJournal(journal);
+			site.run();
+			assertEquals(RampState.ACTIVE, journal.getState("garage").getState());
+
+			// The snow stops and the cooldown starts
+			journal.record("garage", RampState.ACTIVE, cooldownEnds, site.getLastSnapshot());
+		}
+
+		AtomicInteger queries = new AtomicInteger();
+		AtomicInteger activations = new AtomicInteger();
+		try (StateJournal journal = StateJournal.open(file)) {
+			WeatherSite site = new WeatherSite("garage", () -> {
+				queries.incrementAndGet();
+				return TestWeatherEventEngine.createWeatherResponse("Clear", 60, "Clear", "Clear", "Clear", "Clear");
+			}, new RampController(() -> {}, () -> {}, () -> activations.incrementAndGet()), (subject, message) -> {});
+			site.setStateJournal(journal);
+
+			assertTrue(site.restore());
+			assertEquals(0, queries.get());
+			assertEquals(1, activations.get());
+			assertEquals(RampState.ACTIVE, site.getRampController().getState());
+			assertEquals("Light Snow", site.getLastSnapshot().getCurrentConditions());
+			assertFalse(site.restore());
+
+			// Still cooling down, so warm weather does not switch it off
+			site.run();
+			assertEquals(RampState.ACTIVE, site.getRampController().getState());
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package com.casad.weatherwatcher.status;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.casad.weatherwatcher.TestWeatherEventEngine;
+import com.casad.weatherwatcher.WeatherSite;
+import com.casad.weatherwatcher.controller.RampController;
+import com.casad.weatherwatcher.controller.RampController.RampState;
+
+public class TestStatusServer {
+
+	private final AtomicInteger activations = new AtomicInteger();
+	private volatile boolean relayStuck = false;
+	private WeatherSite site;
+	private StatusServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		site = new WeatherSite("garage",
+				() -> TestWeatherEventEngine.createWeatherResponse("Clear", 20, "Clear", "Snow", "Clear", "Clear"),
+				new RampController(() -> {}, () -> {}, () -> {
+					if (relayStuck) {
+						throw new IllegalStateException("Relay stuck");
+					}
+					activations.incrementAndGet();
+				}), (subject, message) -> {});
+		site.run();
+
+		server = new StatusServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		server.addSite(site);
+		server.start();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+	}
+
+	@Test
+	public void servesSiteStatus() throws IOException {
+		String body = request("GET", "/sites/garage", 200);
+		assertTrue(body, body.startsWith("{\"site\":\"garage\",\"state\":\"READY\",\"tempF\":20.0,\"current\":\"Clear\""));
+		assertTrue(body, body.contains("\"cooldown\":\"none\""));
+
+		String all = request("GET", "/status", 200);
+		assertTrue(all, all.contains("\"sites\":{\"garage\":" + body + "}"));
+
+		request("GET", "/sites/shed", 404);
+		request("POST", "/status", 405);
+	}
+
+	@Test
+	public void overridesTheRamp() throws IOException {
+		String body = request("POST", "/sites/garage/ramp?state=active", 200);
+		assertTrue(body, body.contains("\"state\":\"ACTIVE\""));
+		assertEquals(RampState.ACTIVE, site.getRampController().getState());
+		assertEquals(1, activations.get());
+
+		// Status polls see the override straight away
+		assertTrue(request("GET", "/status", 200).contains("\"state\":\"ACTIVE\""));
+
+		request("POST", "/sites/garage/ramp?state=IDLE&expected=READY", 409);
+		request("POST", "/sites/garage/ramp?state=OFF", 400);
+		assertEquals(RampState.ACTIVE, site.getRampController().getState());
+
+		request("POST", "/sites/garage/ramp?state=IDLE&expected=ACTIVE", 200);
+		assertEquals(RampState.IDLE, site.getRampController().getState());
+	}
+
+	@Test
+	public void reportsFailedOverrides() throws IOException {
+		relayStuck = true;
+		String body = request("POST", "/sites/garage/ramp?state=ACTIVE", 500);
+		assertTrue(body, body.contains("Unable to set the ramp to ACTIVE"));
+
+		// The server carries on
+		request("GET", "/sites/garage", 200);
+	}
+
+	@Test
+	public void answersRequestsBehindAnOverrideInOrder() throws IOException {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			OutputStream out = socket.getOutputStream();
+			out.write(("POST /sites/garage/ramp?state=ACTIVE HTTP/1.1\r\n\r\n"
+					+ "GET /sites/garage HTTP/1.1\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+
+			String[] responses = readAll(socket.getInputStream()).split("HTTP/1.1 200 OK");
+			assertEquals(3, responses.length);
+			assertTrue(responses[2], responses[2].contains("\"state\":\"ACTIVE\""));
+		}
+	}
+
+	@Test
+	public void answersPipelinedRequests() throws IOException {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			String get = "GET /sites/garage HTTP/1.1\r\nHost: localhost\r\n\r\n";
+			OutputStream out = socket.getOutputStream();
+			out.write((get + get + "GET /status HTTP/1.1\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+
+			String responses = readAll(socket.getInputStream());
+			assertEquals(3, responses.split("HTTP/1.1 200 OK").length - 1);
+		}
+		assertEquals(3, server.getRequestCount());
+	}
+
+	@Test
+	public void rejectsOversizedRequests() throws IOException {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			StringBuilder request = new StringBuilder("GET /status HTTP/1.1\r\n");
+			while (request.length() < 5000) {
+				request.append("X-Padding: 0123456789012345678901234567890123456789\r\n");
+			}
+			socket.getOutputStream().write(request.toString().getBytes(StandardCharsets.US_ASCII));
+
+			assertTrue(readAll(socket.getInputStream()).startsWith("HTTP/1.1 431 "));
+		}
+	}
+
+	@Test
+	public void servesManyOpenConnections() throws IOException {
+		int threads = Thread.activeCount();
+		List<Socket> sockets = new ArrayList<Socket>();
+		try {
+			for (int i = 0; i < 500; i++) {
+				sockets.add(new Socket(InetAddress.getLoopbackAddress(), server.getPort()));
+			}
+			byte[] get = "GET /status HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+			for (Socket socket : sockets) {
+				socket.getOutputStream().write(get);
+			}
+			for (Socket socket : sockets) {
+				String response = readResponse(socket.getInputStream());
+				assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+			}
+			assertEquals(threads, Thread.activeCount());
+		} finally {
+			for (Socket socket : sockets) {
+				socket.close();
+			}
+		}
+	}
+
+	private String request(String method, String path, int expectedStatus) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path)
+				.openConnection();
+		connection.setRequestMethod(method);
+		assertEquals(method + " " + path, expectedStatus, connection.getResponseCode());
+		InputStream in = expectedStatus < 400 ? connection.getInputStream() : connection.getErrorStream();
+		return readAll(in);
+	}
+
+	/**
+	 * Read one response with a Content-Length, leaving the connection open.
+	 */
+	private static String readResponse(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int contentLength = -1;
+		int b;
+		while ((b = in.read()) >= 0) {
+			bytes.write(b);
+			String text = new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1);
+			if (contentLength < 0 && text.endsWith("\r\n\r\n")) {
+				int start = text.indexOf("Content-Length: ") + "Content-Length: ".length();
+				contentLength = Integer.parseInt(text.substring(start, text.indexOf("\r\n", start)));
+				for (int i = 0; i < contentLength; i++) {
+					bytes.write(in.read());
+				}
+				return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+			}
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static String readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			bytes.write(buffer, 0, read);
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+}